@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The <code>ArrayMap</code> keeps the properties of a {@link JSONObject} in
+ * insertion order. Up to {@link #THRESHOLD} properties are stored as
+ * alternating keys and values in a flat array, which is searched linearly
+ * and saves the table and the entry objects of a hash map. Larger maps are
+ * upgraded to a <code>LinkedHashMap</code>.
+ */
+class ArrayMap {
+
+    /**
+     * The maximum number of properties kept in the flat array.
+     */
+    static final int THRESHOLD = 8;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * The keys and values at even and odd indexes, or <code>null</code> if
+     * the map has been upgraded.
+     */
+    private Object[] table = EMPTY;
+
+    private int size;
+
+    /**
+     * The hash map used above the threshold.
+     */
+    private Map<String, Object> map;
+
+    ArrayMap() {
+    }
+
+    ArrayMap(Map<String, ?> values) {
+        if (values.size() > THRESHOLD) {
+            this.map = new LinkedHashMap<String, Object>(values);
+            this.table = null;
+        } else {
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    int size() {
+        return (map != null) ? map.size() : size;
+    }
+
+    boolean containsKey(String key) {
+        return (map != null) ? map.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    Object get(String key) {
+        if (map != null) {
+            return map.get(key);
+        }
+        final int i = indexOf(key);
+        return (i < 0) ? null : table[i + 1];
+    }
+
+    Object put(String key, Object value) {
+        if (map != null) {
+            return map.put(key, value);
+        }
+
+        final int i = indexOf(key);
+        if (i >= 0) {
+            final Object old = table[i + 1];
+            table[i + 1] = value;
+            return old;
+        }
+
+        if (size == THRESHOLD) {
+            map = new LinkedHashMap<String, Object>(THRESHOLD * 4);
+            for (int j = 0; j < size << 1; j += 2) {
+                map.put((String) table[j], table[j + 1]);
+            }
+            table = null;
+            return map.put(key, value);
+        }
+
+        final int pos = size << 1;
+        if (pos == table.length) {
+            final Object[] newTable = new Object[Math.max(4, pos * 2)];
+            System.arraycopy(table, 0, newTable, 0, pos);
+            table = newTable;
+        }
+        table[pos] = key;
+        table[pos + 1] = value;
+        size++;
+        return null;
+    }
+
+    Object remove(String key) {
+        if (map != null) {
+            return map.remove(key);
+        }
+        final int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        final Object old = table[i + 1];
+        removeAt(i);
+        return old;
+    }
+
+    /**
+     * Returns an iterator of the keys in insertion order, which supports
+     * removing the current key. An iterator over the flat array throws a
+     * <code>ConcurrentModificationException</code> once the map has been
+     * upgraded.
+     */
+    Iterator<String> keys() {
+        if (map != null) {
+            return map.keySet().iterator();
+        }
+        return new Iterator<String>() {
+
+            private int next;
+
+            private int current = -1;
+
+            public boolean hasNext() {
+                // let next() fail if the map has been upgraded
+                return table == null || next < size << 1;
+            }
+
+            public String next() {
+                checkUpgraded();
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next += 2;
+                return (String) table[current];
+            }
+
+            public void remove() {
+                if (current < 0) {
+                    throw new IllegalStateException();
+                }
+                checkUpgraded();
+                removeAt(current);
+                next = current;
+                current = -1;
+            }
+
+            private void checkUpgraded() {
+                if (table == null) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        };
+    }
+
+    private int indexOf(String key) {
+        if (key == null) {
+            return -1;
+        }
+        final int len = size << 1;
+        for (int i = 0; i < len; i += 2) {
+            final Object k = table[i];
+            if (k == key || key.equals(k)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int i) {
+        final int len = size << 1;
+        System.arraycopy(table, i + 2, table, i, len - i - 2);
+        table[len - 2] = null;
+        table[len - 1] = null;
+        size--;
+    }
+}
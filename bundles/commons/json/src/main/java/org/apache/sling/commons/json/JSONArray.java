@@ -24,6 +24,7 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -107,6 +108,7 @@ public class JSONArray {
             throw x.syntaxError("A JSONArray text must start with '['");
         }
         if (x.nextClean() == ']') {
+            this.myArrayList.trimToSize();
             return;
         }
         x.back();
@@ -122,11 +124,13 @@ public class JSONArray {
             case ';':
             case ',':
                 if (x.nextClean() == ']') {
+                    this.myArrayList.trimToSize();
                     return;
                 }
                 x.back();
                 break;
             case ']':
+                this.myArrayList.trimToSize();
                 return;
             default:
                 throw x.syntaxError("Expected a ',' or ']'");
@@ -576,7 +580,7 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(double value) throws JSONException {
-        Double d = new Double(value);
+        Double d = Double.valueOf(value);
         JSONObject.testValidity(d);
         put(d);
         return this;
@@ -590,7 +594,7 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(int value) {
-        put(new Integer(value));
+        put(Integer.valueOf(value));
         return this;
     }
 
@@ -602,7 +606,7 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(long value) {
-        put(new Long(value));
+        put(Long.valueOf(value));
         return this;
     }
 
@@ -673,7 +677,7 @@ public class JSONArray {
      * not finite.
      */
     public JSONArray put(int index, double value) throws JSONException {
-        put(index, new Double(value));
+        put(index, Double.valueOf(value));
         return this;
     }
 
@@ -688,7 +692,7 @@ public class JSONArray {
      * @throws JSONException If the index is negative.
      */
     public JSONArray put(int index, int value) throws JSONException {
-        put(index, new Integer(value));
+        put(index, Integer.valueOf(value));
         return this;
     }
 
@@ -703,7 +707,7 @@ public class JSONArray {
      * @throws JSONException If the index is negative.
      */
     public JSONArray put(int index, long value) throws JSONException {
-        put(index, new Long(value));
+        put(index, Long.valueOf(value));
         return this;
     }
 
@@ -786,7 +790,7 @@ public class JSONArray {
      */
     public String toString() {
         try {
-            return '[' + join(",") + ']';
+            return write(new CharArrayWriter()).toString();
         } catch (Exception e) {
             return null;
         }
@@ -862,6 +866,14 @@ public class JSONArray {
      * @throws JSONException
      */
     public Writer write(Writer writer) throws JSONException {
+        return write(writer, new char[JSONObject.BUFFER_SIZE]);
+    }
+
+    /**
+     * Write the contents of the JSONArray as JSON text to a writer using
+     * the scratch buffer for quoting strings.
+     */
+    Writer write(Writer writer, char[] buf) throws JSONException {
         try {
             boolean b = false;
             int     len = length();
@@ -872,14 +884,7 @@ public class JSONArray {
                 if (b) {
                     writer.write(',');
                 }
-                Object v = this.myArrayList.get(i);
-                if (v instanceof JSONObject) {
-                    ((JSONObject)v).write(writer);
-                } else if (v instanceof JSONArray) {
-                    ((JSONArray)v).write(writer);
-                } else {
-                    writer.write(JSONObject.valueToString(v));
-                }
+                JSONObject.writeValue(this.myArrayList.get(i), writer, buf);
                 b = true;
             }
             writer.write(']');
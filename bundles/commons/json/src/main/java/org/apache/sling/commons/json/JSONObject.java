@@ -24,12 +24,12 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -126,9 +126,9 @@ public class JSONObject {
 
 
     /**
-     * The hash map where the JSONObject's properties are kept.
+     * The map where the JSONObject's properties are kept.
      */
-    private Map<String, Object> myHashMap;
+    private ArrayMap myHashMap;
 
 
     /**
@@ -144,7 +144,7 @@ public class JSONObject {
      * Construct an empty JSONObject.
      */
     public JSONObject() {
-        this.myHashMap = new LinkedHashMap<String, Object>();
+        this.myHashMap = new ArrayMap();
     }
 
 
@@ -232,9 +232,7 @@ public class JSONObject {
      *  the JSONObject.
      */
     public JSONObject(Map<String, ?> map) {
-        this.myHashMap = (map == null) ?
-        	new LinkedHashMap<String, Object>() :
-        	new LinkedHashMap<String, Object>(map);
+        this.myHashMap = (map == null) ? new ArrayMap() : new ArrayMap(map);
     }
 
 
@@ -528,7 +526,7 @@ public class JSONObject {
      * @return An iterator of the keys.
      */
     public Iterator<String> keys() {
-        return this.myHashMap.keySet().iterator();
+        return this.myHashMap.keys();
     }
 
 
@@ -819,7 +817,7 @@ public class JSONObject {
      * @throws JSONException If the key is null or if the number is invalid.
      */
     public JSONObject put(String key, double value) throws JSONException {
-        put(key, new Double(value));
+        put(key, Double.valueOf(value));
         return this;
     }
 
@@ -833,7 +831,7 @@ public class JSONObject {
      * @throws JSONException If the key is null.
      */
     public JSONObject put(String key, int value) throws JSONException {
-        put(key, new Integer(value));
+        put(key, Integer.valueOf(value));
         return this;
     }
 
@@ -847,7 +845,7 @@ public class JSONObject {
      * @throws JSONException If the key is null.
      */
     public JSONObject put(String key, long value) throws JSONException {
-        put(key, new Long(value));
+        put(key, Long.valueOf(value));
         return this;
     }
 
@@ -922,56 +920,199 @@ public class JSONObject {
             return "\"\"";
         }
 
-        char         b;
-        char         c = 0;
-        int          i;
-        int          len = string.length();
-        StringBuffer sb = new StringBuffer(len + 4);
-        String       t;
+        // most strings need no escaping at all
+        final int len = string.length();
+        char c = 0;
+        for (int i = 0; i < len; i += 1) {
+            final char b = c;
+            c = string.charAt(i);
+            if (needsEscape(b, c)) {
+                final CharArrayWriter w = new CharArrayWriter(len + 16);
+                try {
+                    quote(string, w);
+                } catch (IOException ioe) {
+                    // cannot happen with a CharArrayWriter
+                }
+                return w.toString();
+            }
+        }
+        return new StringBuilder(len + 2).append('"').append(string)
+            .append('"').toString();
+    }
+
+    /**
+     * Write a string in double quotes with backslash sequences in all the
+     * right places to a writer, like {@link #quote(String)} returns it.
+     * @param string A String
+     * @param w The writer to write to.
+     * @throws IOException If the writer fails.
+     */
+    public static void quote(String string, Writer w) throws IOException {
+        final int len = (string == null) ? 0 : string.length();
+        quote(string, w, new char[Math.min(len + 8, BUFFER_SIZE)]);
+    }
 
-        sb.append('"');
-        for (i = 0; i < len; i += 1) {
-            b = c;
+    /**
+     * Write a string in double quotes with backslash sequences in all the
+     * right places to a writer, like {@link #quote(String)} returns it.
+     * The quoted string is assembled in the given buffer, so short strings
+     * are written to the writer at once.
+     * @param string A String
+     * @param w The writer to write to.
+     * @param buf The scratch buffer, which must hold at least 8 characters.
+     * @throws IOException If the writer fails.
+     */
+    public static void quote(String string, Writer w, char[] buf)
+            throws IOException {
+        final int len = (string == null) ? 0 : string.length();
+        final int max = buf.length - 6;
+        int pos = 0;
+        char c = 0;
+        buf[pos++] = '"';
+        for (int i = 0; i < len; i += 1) {
+            if (pos >= max) {
+                w.write(buf, 0, pos);
+                pos = 0;
+            }
+            final char b = c;
             c = string.charAt(i);
+            if (!needsEscape(b, c)) {
+                buf[pos++] = c;
+                continue;
+            }
+
+            buf[pos++] = '\\';
             switch (c) {
-            case '\\':
-            case '"':
-                sb.append('\\');
-                sb.append(c);
-                break;
-            case '/':
-                if (b == '<') {
-                    sb.append('\\');
-                }
-                sb.append(c);
-                break;
             case '\b':
-                sb.append("\\b");
+                buf[pos++] = 'b';
                 break;
             case '\t':
-                sb.append("\\t");
+                buf[pos++] = 't';
                 break;
             case '\n':
-                sb.append("\\n");
+                buf[pos++] = 'n';
                 break;
             case '\f':
-                sb.append("\\f");
+                buf[pos++] = 'f';
                 break;
             case '\r':
-                sb.append("\\r");
+                buf[pos++] = 'r';
+                break;
+            case '\\':
+            case '"':
+            case '/':
+                buf[pos++] = c;
                 break;
             default:
-                if (c < ' ' || (c >= '\u0080' && c < '\u00a0') ||
-                               (c >= '\u2000' && c < '\u2100')) {
-                    t = "000" + Integer.toHexString(c);
-                    sb.append("\\u" + t.substring(t.length() - 4));
+                buf[pos++] = 'u';
+                buf[pos++] = HEX[(c >> 12) & 0xf];
+                buf[pos++] = HEX[(c >> 8) & 0xf];
+                buf[pos++] = HEX[(c >> 4) & 0xf];
+                buf[pos++] = HEX[c & 0xf];
+            }
+        }
+        buf[pos++] = '"';
+        w.write(buf, 0, pos);
+    }
+
+    /**
+     * The size of the scratch buffers used to write JSON text.
+     */
+    static final int BUFFER_SIZE = 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Returns <code>true</code> if the character c following the character
+     * b must be escaped in a JSON string.
+     */
+    private static boolean needsEscape(char b, char c) {
+        if (c >= ' ' && c < '\u0080') {
+            return c == '\\' || c == '"' || (c == '/' && b == '<');
+        }
+        return c < ' ' || (c >= '\u0080' && c < '\u00a0') ||
+                (c >= '\u2000' && c < '\u2100');
+    }
+
+    /**
+     * Write the JSON text of a value to a writer. Objects and arrays write
+     * themselves and strings are quoted using the scratch buffer, other
+     * values are written as {@link #valueToString(Object)} returns them.
+     */
+    static void writeValue(Object v, Writer writer, char[] buf)
+            throws JSONException, IOException {
+        if (v instanceof JSONObject) {
+            ((JSONObject) v).write(writer, buf);
+        } else if (v instanceof JSONArray) {
+            ((JSONArray) v).write(writer, buf);
+        } else if (v instanceof String) {
+            quote((String) v, writer, buf);
+        } else {
+            writer.write(valueToString(v));
+        }
+    }
+
+    /**
+     * Convert unquoted text to the value it represents. This is the value
+     * true, false or null or a number if the text looks like one, otherwise
+     * the text itself.
+     * @param s A non-empty, trimmed string.
+     * @return A Boolean, Integer, Long, Double, String or the
+     * JSONObject.NULL object.
+     */
+    public static Object stringToValue(String s) {
+        if (s.equalsIgnoreCase("true")) {
+            return Boolean.TRUE;
+        }
+        if (s.equalsIgnoreCase("false")) {
+            return Boolean.FALSE;
+        }
+        if (s.equalsIgnoreCase("null")) {
+            return JSONObject.NULL;
+        }
+
+        /*
+         * If it might be a number, try converting it. We support the 0- and 0x-
+         * conventions. If a number cannot be produced, then the value will just
+         * be a string. Note that the 0-, 0x-, plus, and implied string
+         * conventions are non-standard. A JSON parser is free to accept
+         * non-JSON forms as long as it accepts all correct JSON forms.
+         */
+
+        char b = s.charAt(0);
+        if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
+            if (b == '0') {
+                if (s.length() > 2 &&
+                        (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
+                    try {
+                        return Integer.valueOf(Integer.parseInt(s.substring(2),
+                                16));
+                    } catch (Exception e) {
+                        /* Ignore the error */
+                    }
                 } else {
-                    sb.append(c);
+                    try {
+                        return Integer.valueOf(Integer.parseInt(s, 8));
+                    } catch (Exception e) {
+                        /* Ignore the error */
+                    }
+                }
+            }
+            try {
+                return Integer.valueOf(s);
+            } catch (Exception e) {
+                try {
+                    return Long.valueOf(s);
+                } catch (Exception f) {
+                    try {
+                        return Double.valueOf(s);
+                    }  catch (Exception g) {
+                        return s;
+                    }
                 }
             }
         }
-        sb.append('"');
-        return sb.toString();
+        return s;
     }
 
     /**
@@ -1040,20 +1181,7 @@ public class JSONObject {
      */
     public String toString() {
         try {
-            Iterator<String>     keys = keys();
-            StringBuffer sb = new StringBuffer("{");
-
-            while (keys.hasNext()) {
-                if (sb.length() > 1) {
-                    sb.append(',');
-                }
-                String o = keys.next();
-                sb.append(quote(o));
-                sb.append(':');
-                sb.append(valueToString(this.myHashMap.get(o)));
-            }
-            sb.append('}');
-            return sb.toString();
+            return write(new CharArrayWriter()).toString();
         } catch (Exception e) {
             return null;
         }
@@ -1232,6 +1360,14 @@ public class JSONObject {
       * @throws JSONException
       */
      public Writer write(Writer writer) throws JSONException {
+        return write(writer, new char[BUFFER_SIZE]);
+     }
+
+     /**
+      * Write the contents of the JSONObject as JSON text to a writer using
+      * the scratch buffer for quoting strings.
+      */
+     Writer write(Writer writer, char[] buf) throws JSONException {
         try {
             boolean  b = false;
             Iterator<String> keys = keys();
@@ -1242,16 +1378,9 @@ public class JSONObject {
                     writer.write(',');
                 }
                 String k = keys.next();
-                writer.write(quote(k));
+                quote(k, writer, buf);
                 writer.write(':');
-                Object v = this.myHashMap.get(k);
-                if (v instanceof JSONObject) {
-                    ((JSONObject)v).write(writer);
-                } else if (v instanceof JSONArray) {
-                    ((JSONArray)v).write(writer);
-                } else {
-                    writer.write(valueToString(v));
-                }
+                writeValue(this.myHashMap.get(k), writer, buf);
                 b = true;
             }
             writer.write('}');
@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.apache.sling.commons.json.JSONArray;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONParser.Event;
+
+/**
+ * BinaryJSONParser reads the binary JSON encoding rendered by the Sling GET
+ * servlet for the <code>bjson</code> extension and reports it with the same
+ * events as the {@link JSONParser}. Each value starts with a type byte:
+ * <pre>
+ * value := TYPE_NULL | TYPE_FALSE | TYPE_TRUE
+ *        | TYPE_LONG zigzag-varint
+ *        | TYPE_DOUBLE 8 bytes IEEE 754, big endian
+ *        | TYPE_STRING varint-length UTF-8-bytes
+ *        | TYPE_DATE zigzag-varint-millis zigzag-varint-offset-minutes
+ *        | TYPE_OBJECT (TYPE_STRING-key value)* TYPE_END
+ *        | TYPE_ARRAY value* TYPE_END
+ * </pre>
+ * Varints hold seven bits per byte, least significant first, with the high
+ * bit set on all but the last byte. Zigzag encoding maps signed numbers to
+ * unsigned ones such that small negative numbers stay short. Strings are
+ * neither escaped nor terminated, so they are decoded without scanning.
+ * <p>
+ * Numbers are reported as <code>Long</code> or <code>Double</code> values,
+ * dates as <code>Calendar</code> values in a time zone of the written
+ * offset.
+ */
+public class BinaryJSONParser {
+
+    public static final int TYPE_NULL = 0x00;
+
+    public static final int TYPE_FALSE = 0x01;
+
+    public static final int TYPE_TRUE = 0x02;
+
+    public static final int TYPE_LONG = 0x03;
+
+    public static final int TYPE_DOUBLE = 0x04;
+
+    public static final int TYPE_STRING = 0x05;
+
+    public static final int TYPE_DATE = 0x06;
+
+    public static final int TYPE_OBJECT = 0x07;
+
+    public static final int TYPE_ARRAY = 0x08;
+
+    public static final int TYPE_END = 0x09;
+
+    /** The MIME type of the binary JSON encoding */
+    public static final String CONTENT_TYPE = "application/x-sling-bjson";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** expecting the top level value */
+    private static final int STATE_INIT = 0;
+
+    /** expecting a key or value of an object or array or its end */
+    private static final int STATE_MEMBER = 1;
+
+    /** expecting a value after a key */
+    private static final int STATE_VALUE = 2;
+
+    /** the top level value has been read */
+    private static final int STATE_DONE = 3;
+
+    private final InputStream in;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int pos;
+
+    private int limit;
+
+    /** the number of bytes read before the buffer */
+    private long offset;
+
+    private char[] chars = new char[256];
+
+    private int state = STATE_INIT;
+
+    /** whether the enclosing containers are objects */
+    private boolean[] stack = new boolean[32];
+
+    private int depth;
+
+    private String string;
+
+    private Object value;
+
+    /**
+     * Creates a parser reading from the input stream. The stream is not
+     * buffered further than the parser's own buffer.
+     */
+    public BinaryJSONParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Returns <code>true</code> unless the top level value has been read
+     * completely.
+     */
+    public boolean hasNext() {
+        return state != STATE_DONE;
+    }
+
+    /**
+     * Reads the next event.
+     * @throws JSONException If the input is not valid, cannot be read or
+     *             the top level value has been read completely.
+     */
+    public Event next() throws JSONException {
+        switch (state) {
+        case STATE_INIT:
+        case STATE_VALUE:
+            return readValue(read());
+
+        case STATE_MEMBER: {
+            final int type = read();
+            if (type == TYPE_END) {
+                depth--;
+                state = (depth == 0) ? STATE_DONE : STATE_MEMBER;
+                return stack[depth] ? Event.END_OBJECT : Event.END_ARRAY;
+            }
+            if (!stack[depth - 1]) {
+                return readValue(type);
+            }
+            if (type != TYPE_STRING) {
+                throw syntaxError("Expected a key");
+            }
+            string = readString();
+            value = null;
+            state = STATE_VALUE;
+            return Event.KEY;
+        }
+
+        default:
+            throw syntaxError("No more events");
+        }
+    }
+
+    /**
+     * Returns the key of a KEY event or the string of a VALUE event and
+     * <code>null</code> for other values.
+     */
+    public String getString() {
+        return string;
+    }
+
+    /**
+     * Returns the value of a VALUE event: a Boolean, Long, Double, String,
+     * Calendar or the <code>JSONObject.NULL</code> object.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the number of objects and arrays enclosing the current
+     * position. This is 1 after the START event of the top level object.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Skips the contents of the object or array whose START event has just
+     * been read, such that the next event is the one following its END
+     * event. Does nothing after other events.
+     */
+    public void skipChildren() throws JSONException {
+        final int target = depth - 1;
+        if (state != STATE_MEMBER || target < 0) {
+            return;
+        }
+        while (depth > target) {
+            next();
+        }
+    }
+
+    /**
+     * Reads the next value as a tree. This is a <code>JSONObject</code> or
+     * <code>JSONArray</code> if the next event is a START event and the value
+     * of a VALUE event otherwise.
+     * @throws JSONException If the input is not valid or the next event is a
+     *             KEY or END event.
+     */
+    public Object nextValue() throws JSONException {
+        return buildValue(next());
+    }
+
+    /**
+     * Closes the input stream.
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private Object buildValue(final Event event) throws JSONException {
+        switch (event) {
+        case START_OBJECT:
+            final JSONObject object = new JSONObject();
+            while (next() == Event.KEY) {
+                final String key = string;
+                object.put(key, buildValue(next()));
+            }
+            return object;
+
+        case START_ARRAY:
+            final JSONArray array = new JSONArray();
+            for (Event e = next(); e != Event.END_ARRAY; e = next()) {
+                array.put(buildValue(e));
+            }
+            return array;
+
+        case VALUE:
+            return value;
+
+        default:
+            throw syntaxError("Unexpected " + event);
+        }
+    }
+
+    private Event readValue(final int type) throws JSONException {
+        string = null;
+        switch (type) {
+        case TYPE_OBJECT:
+        case TYPE_ARRAY:
+            if (depth == stack.length) {
+                final boolean[] newStack = new boolean[depth * 2];
+                System.arraycopy(stack, 0, newStack, 0, depth);
+                stack = newStack;
+            }
+            stack[depth++] = (type == TYPE_OBJECT);
+            value = null;
+            state = STATE_MEMBER;
+            return (type == TYPE_OBJECT) ? Event.START_OBJECT : Event.START_ARRAY;
+
+        case TYPE_NULL:
+            return setValue(JSONObject.NULL);
+
+        case TYPE_FALSE:
+            return setValue(Boolean.FALSE);
+
+        case TYPE_TRUE:
+            return setValue(Boolean.TRUE);
+
+        case TYPE_LONG:
+            return setValue(Long.valueOf(readSignedVarint()));
+
+        case TYPE_DOUBLE: {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | read();
+            }
+            return setValue(Double.valueOf(Double.longBitsToDouble(bits)));
+        }
+
+        case TYPE_STRING:
+            string = readString();
+            return setValue(string);
+
+        case TYPE_DATE: {
+            final long millis = readSignedVarint();
+            final int minutes = (int) readSignedVarint();
+            final int hours = Math.abs(minutes) / 60;
+            final int rest = Math.abs(minutes) % 60;
+            final Calendar date = Calendar.getInstance(TimeZone.getTimeZone(
+                "GMT" + (minutes < 0 ? "-" : "+") + hours + ":"
+                    + (rest < 10 ? "0" : "") + rest));
+            date.setTimeInMillis(millis);
+            return setValue(date);
+        }
+
+        case TYPE_END:
+            throw syntaxError("Unexpected end of object or array");
+
+        default:
+            throw syntaxError("Unknown type " + type);
+        }
+    }
+
+    private Event setValue(final Object value) {
+        this.value = value;
+        state = (depth == 0) ? STATE_DONE : STATE_MEMBER;
+        return Event.VALUE;
+    }
+
+    private String readString() throws JSONException {
+        final long length = readVarint();
+        if (length > Integer.MAX_VALUE) {
+            throw syntaxError("String too long");
+        }
+        int remaining = (int) length;
+        if (chars.length < remaining) {
+            chars = new char[Math.max(remaining, chars.length * 2)];
+        }
+
+        // decode ASCII directly and anything else as UTF-8
+        int count = 0;
+        while (remaining > 0) {
+            if (pos == limit) {
+                fill();
+            }
+            final int b = buffer[pos] & 0xff;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+                pos++;
+                remaining--;
+                continue;
+            }
+            final int n = (b >= 0xf0) ? 4 : (b >= 0xe0) ? 3 : 2;
+            if (n > remaining) {
+                throw syntaxError("Invalid UTF-8 sequence");
+            }
+            pos++;
+            int c = b & (0x3f >> (n - 1));
+            for (int i = 1; i < n; i++) {
+                final int next = read();
+                if ((next & 0xc0) != 0x80) {
+                    throw syntaxError("Invalid UTF-8 sequence");
+                }
+                c = (c << 6) | (next & 0x3f);
+            }
+            remaining -= n;
+            if (c >= 0x10000) {
+                chars[count++] = (char) (0xd800 + ((c - 0x10000) >> 10));
+                chars[count++] = (char) (0xdc00 + ((c - 0x10000) & 0x3ff));
+            } else {
+                chars[count++] = (char) c;
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private long readSignedVarint() throws JSONException {
+        final long v = readVarint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private long readVarint() throws JSONException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = read();
+            v |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+        }
+        throw syntaxError("Invalid varint");
+    }
+
+    private int read() throws JSONException {
+        if (pos == limit) {
+            fill();
+        }
+        return buffer[pos++] & 0xff;
+    }
+
+    private void fill() throws JSONException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        try {
+            int rd;
+            do {
+                rd = in.read(buffer, 0, buffer.length);
+            } while (rd == 0);
+            if (rd < 0) {
+                throw syntaxError("Unexpected end of binary JSON");
+            }
+            limit = rd;
+        } catch (IOException ioe) {
+            throw new JSONException(ioe);
+        }
+    }
+
+    private JSONException syntaxError(final String message) {
+        return new JSONException(message + " at byte " + (offset + pos));
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.sling.commons.json.JSONArray;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+
+/**
+ * JSONParser reads JSON text from a <code>Reader</code> and reports it as a
+ * sequence of events, one per call to {@link #next()}. Only a fixed size
+ * character buffer, the current string or value and the nesting of the
+ * enclosing objects and arrays are kept in memory, so texts of any size can
+ * be processed. For example <pre>
+ * JSONParser parser = new JSONParser(reader);
+ * while (parser.hasNext()) {
+ *     switch (parser.next()) {
+ *     case KEY:
+ *         String key = parser.getString();
+ *         ...
+ *     case VALUE:
+ *         Object value = parser.getValue();
+ *         ...
+ *     }
+ * }</pre>
+ * <p>
+ * {@link #nextValue()} builds the next value as a <code>JSONObject</code> or
+ * <code>JSONArray</code> tree like the <code>JSONTokener</code> does, which
+ * allows mixing streaming and tree access, e.g. to build one entry of a
+ * large array at a time.
+ * <p>
+ * The parser accepts the same non-standard forms as the
+ * <code>JSONTokener</code>: comments, single quoted and unquoted strings,
+ * <code>=</code> and <code>=&gt;</code> after keys, <code>;</code> as
+ * separator and missing array elements.
+ */
+public class JSONParser {
+
+    /**
+     * The events reported by the parser.
+     */
+    public enum Event {
+        /** Start of an object, followed by KEY and value events. */
+        START_OBJECT,
+        /** End of an object. */
+        END_OBJECT,
+        /** Start of an array, followed by value events. */
+        START_ARRAY,
+        /** End of an array. */
+        END_ARRAY,
+        /** A key in an object, see {@link JSONParser#getString()}. */
+        KEY,
+        /** A primitive value, see {@link JSONParser#getValue()}. */
+        VALUE
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int EOF = -1;
+
+    /** expecting the top level value */
+    private static final int STATE_INIT = 0;
+
+    /** expecting a key or value of an object or array or its end */
+    private static final int STATE_MEMBER = 1;
+
+    /** expecting a value after a key */
+    private static final int STATE_VALUE = 2;
+
+    /** expecting a separator or the end of an object or array */
+    private static final int STATE_NEXT = 3;
+
+    /** the top level value has been read */
+    private static final int STATE_DONE = 4;
+
+    private static final String DELIMITERS = ",:]}/\\\"[{;=#";
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private int pos;
+
+    private int limit;
+
+    /** the number of characters read before the buffer */
+    private long offset;
+
+    /** whether the last character read was the end of input */
+    private boolean eof;
+
+    private int state = STATE_INIT;
+
+    /** the enclosing containers, '{' or '[' */
+    private char[] stack = new char[32];
+
+    private int depth;
+
+    private final StringBuilder text = new StringBuilder();
+
+    private String string;
+
+    private Object value;
+
+    /**
+     * Creates a parser reading from the reader. The reader is not buffered
+     * further than the parser's own buffer.
+     */
+    public JSONParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Returns <code>true</code> unless the top level value has been read
+     * completely.
+     */
+    public boolean hasNext() {
+        return state != STATE_DONE;
+    }
+
+    /**
+     * Reads the next event.
+     * @throws JSONException If the text is not valid JSON, cannot be read or
+     *             the top level value has been read completely.
+     */
+    public Event next() throws JSONException {
+        for (;;) {
+            switch (state) {
+            case STATE_INIT:
+            case STATE_VALUE:
+                return readValue(nextClean());
+
+            case STATE_MEMBER: {
+                final int c = nextClean();
+                if (c == closing()) {
+                    return pop();
+                }
+                if (stack[depth - 1] == '{') {
+                    return readKey(c);
+                }
+                if (c == ',' || c == ';') {
+                    // a missing array element is null
+                    back();
+                    return setValue(null, null);
+                }
+                return readValue(c);
+            }
+
+            case STATE_NEXT: {
+                final int c = nextClean();
+                if (c == ',' || c == ';') {
+                    state = STATE_MEMBER;
+                } else if (c == closing()) {
+                    return pop();
+                } else {
+                    throw syntaxError("Expected a ',' or '" + (char) closing() + "'");
+                }
+                break;
+            }
+
+            default:
+                throw syntaxError("No more events");
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a KEY event or the text of a VALUE event. This is
+     * the unquoted string or the text of a number, boolean or null value.
+     * Returns <code>null</code> for missing array elements.
+     */
+    public String getString() {
+        return string;
+    }
+
+    /**
+     * Returns the value of a VALUE event: a Boolean, Integer, Long, Double,
+     * String or the <code>JSONObject.NULL</code> object, or <code>null</code>
+     * for missing array elements.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the number of objects and arrays enclosing the current
+     * position. This is 1 after the START event of the top level object.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Skips the contents of the object or array whose START event has just
+     * been read, such that the next event is the one following its END
+     * event. Does nothing after other events.
+     */
+    public void skipChildren() throws JSONException {
+        final int target = depth - 1;
+        if (state != STATE_MEMBER || target < 0) {
+            return;
+        }
+        while (depth > target) {
+            next();
+        }
+    }
+
+    /**
+     * Reads the next value as a tree. This is a <code>JSONObject</code> or
+     * <code>JSONArray</code> if the next event is a START event and the value
+     * of a VALUE event otherwise. Keys within the tree are not reported as
+     * events.
+     * @throws JSONException If the text is not valid JSON or the next event
+     *             is a KEY or END event.
+     */
+    public Object nextValue() throws JSONException {
+        return buildValue(next());
+    }
+
+    /**
+     * Closes the reader.
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Object buildValue(final Event event) throws JSONException {
+        switch (event) {
+        case START_OBJECT:
+            final JSONObject object = new JSONObject();
+            while (next() == Event.KEY) {
+                final String key = string;
+                object.put(key, buildValue(next()));
+            }
+            return object;
+
+        case START_ARRAY:
+            final JSONArray array = new JSONArray();
+            for (Event e = next(); e != Event.END_ARRAY; e = next()) {
+                array.put(buildValue(e));
+            }
+            return array;
+
+        case VALUE:
+            return value;
+
+        default:
+            throw syntaxError("Unexpected " + event);
+        }
+    }
+
+    private Event readKey(final int c) throws JSONException {
+        if (c == '"' || c == '\'') {
+            readString((char) c);
+        } else {
+            // an unquoted key is converted like the JSONTokener does
+            readText(c);
+            string = JSONObject.stringToValue(string).toString();
+        }
+        value = null;
+
+        // The key is followed by ':'. We will also tolerate '=' or '=>'.
+        final int sep = nextClean();
+        if (sep == '=') {
+            if (read() != '>') {
+                back();
+            }
+        } else if (sep != ':') {
+            throw syntaxError("Expected a ':' after a key");
+        }
+        state = STATE_VALUE;
+        return Event.KEY;
+    }
+
+    private Event readValue(final int c) throws JSONException {
+        switch (c) {
+        case '{':
+        case '[':
+            push((char) c);
+            string = null;
+            value = null;
+            state = STATE_MEMBER;
+            return (c == '{') ? Event.START_OBJECT : Event.START_ARRAY;
+
+        case '"':
+        case '\'':
+            readString((char) c);
+            return setValue(string, string);
+
+        case EOF:
+            throw syntaxError("Unexpected end of JSON text");
+
+        default:
+            readText(c);
+            return setValue(string, JSONObject.stringToValue(string));
+        }
+    }
+
+    private Event setValue(final String string, final Object value) {
+        this.string = string;
+        this.value = value;
+        state = (depth == 0) ? STATE_DONE : STATE_NEXT;
+        return Event.VALUE;
+    }
+
+    private void push(final char c) {
+        if (depth == stack.length) {
+            final char[] newStack = new char[depth * 2];
+            System.arraycopy(stack, 0, newStack, 0, depth);
+            stack = newStack;
+        }
+        stack[depth++] = c;
+    }
+
+    private Event pop() {
+        final char c = stack[--depth];
+        string = null;
+        value = null;
+        state = (depth == 0) ? STATE_DONE : STATE_NEXT;
+        return (c == '{') ? Event.END_OBJECT : Event.END_ARRAY;
+    }
+
+    private int closing() {
+        return (stack[depth - 1] == '{') ? '}' : ']';
+    }
+
+    /**
+     * Reads a quoted string into {@link #string}. Runs of characters without
+     * escapes are copied from the buffer at once.
+     */
+    private void readString(final char quote) throws JSONException {
+        text.setLength(0);
+        for (;;) {
+            // copy the run of plain characters in the buffer
+            int start = pos;
+            while (pos < limit) {
+                final char c = buffer[pos];
+                if (c == quote || c == '\\' || c == '\n' || c == '\r') {
+                    break;
+                }
+                pos++;
+            }
+            text.append(buffer, start, pos - start);
+
+            final int c = read();
+            if (c == quote) {
+                string = text.toString();
+                return;
+            }
+            switch (c) {
+            case EOF:
+            case '\n':
+            case '\r':
+                throw syntaxError("Unterminated string");
+            case '\\':
+                final int e = read();
+                switch (e) {
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 'u':
+                    text.append((char) readHex(4));
+                    break;
+                case 'x':
+                    text.append((char) readHex(2));
+                    break;
+                case EOF:
+                    throw syntaxError("Unterminated string");
+                default:
+                    text.append((char) e);
+                }
+                break;
+            default:
+                // buffer was empty, the character was read by refilling
+                text.append((char) c);
+            }
+        }
+    }
+
+    private int readHex(final int digits) throws JSONException {
+        int result = 0;
+        for (int i = 0; i < digits; i++) {
+            final int c = read();
+            final int digit = (c == EOF) ? -1 : Character.digit((char) c, 16);
+            if (digit < 0) {
+                throw syntaxError("Illegal escape sequence");
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+
+    /**
+     * Reads unquoted text up to the next delimiter into {@link #string}.
+     */
+    private void readText(int c) throws JSONException {
+        text.setLength(0);
+        while (c >= ' ' && DELIMITERS.indexOf(c) < 0) {
+            text.append((char) c);
+            c = read();
+        }
+        back();
+
+        string = text.toString().trim();
+        if (string.length() == 0) {
+            throw syntaxError("Missing value.");
+        }
+    }
+
+    /**
+     * Returns the next character skipping whitespace and comments
+     * (slashslash, slashstar, and hash) or EOF.
+     */
+    private int nextClean() throws JSONException {
+        for (;;) {
+            int c = read();
+            if (c == '/') {
+                switch (read()) {
+                case '/':
+                    do {
+                        c = read();
+                    } while (c != '\n' && c != '\r' && c != EOF);
+                    break;
+                case '*':
+                    for (;;) {
+                        c = read();
+                        if (c == EOF) {
+                            throw syntaxError("Unclosed comment.");
+                        }
+                        if (c == '*') {
+                            if (read() == '/') {
+                                break;
+                            }
+                            back();
+                        }
+                    }
+                    break;
+                default:
+                    back();
+                    return '/';
+                }
+            } else if (c == '#') {
+                do {
+                    c = read();
+                } while (c != '\n' && c != '\r' && c != EOF);
+            } else if (c == EOF || c > ' ') {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws JSONException {
+        if (pos == limit) {
+            offset += limit;
+            pos = 0;
+            limit = 0;
+            try {
+                int rd;
+                do {
+                    rd = reader.read(buffer, 0, buffer.length);
+                } while (rd == 0);
+                if (rd < 0) {
+                    eof = true;
+                    return EOF;
+                }
+                limit = rd;
+            } catch (IOException ioe) {
+                throw new JSONException("Cannot read JSON text", ioe);
+            }
+        }
+        eof = false;
+        return buffer[pos++];
+    }
+
+    /**
+     * Unreads the last character read unless it was the end of input.
+     */
+    private void back() {
+        if (!eof && pos > 0) {
+            pos--;
+        }
+    }
+
+    private JSONException syntaxError(final String message) {
+        return new JSONException(message + " at character "
+            + (offset + pos));
+    }
+}
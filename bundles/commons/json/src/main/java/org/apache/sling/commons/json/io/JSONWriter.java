@@ -3,6 +3,7 @@ package org.apache.sling.commons.json.io;
 import java.io.IOException;
 import java.io.Writer;
 
+import org.apache.sling.commons.json.JSONArray;
 import org.apache.sling.commons.json.JSONException;
 import org.apache.sling.commons.json.JSONObject;
 
@@ -113,6 +114,12 @@ public class JSONWriter {
      */
     protected Writer writer;
 
+    /**
+     * Scratch buffer in which quoted strings and numbers are assembled
+     * before being written.
+     */
+    private final char[] buffer = new char[256];
+
     /**
      * Make a fresh JSONWriter. It can be used to build one JSON text.
      */
@@ -150,26 +157,47 @@ public class JSONWriter {
         if (s == null) {
             throw new JSONException("Null pointer");
         }
-        if (this.mode == 'o' || this.mode == 'a') {
-            try {
-                if (this.comma && this.mode == 'a') {
-                    this.writer.write(',');
-                }
-                if (tidy && this.mode == 'a' && !"{".equals(s) && !"[".equals(s)) {
-                    this.writer.write('\n');
-                    this.writer.write(INDENTS[top]);
-                }
-                this.writer.write(s);
-            } catch (IOException e) {
-                throw new JSONException(e);
+        try {
+            this.beforeValue("{".equals(s) || "[".equals(s));
+            this.writer.write(s);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this.afterValue();
+    }
+
+    /**
+     * Write the separator and indentation preceding a value.
+     * @param container <code>true</code> if the value is an object or array,
+     *  which are not indented.
+     * @throws JSONException If the value is out of sequence.
+     */
+    private void beforeValue(boolean container) throws JSONException,
+            IOException {
+        if (this.mode != 'o' && this.mode != 'a') {
+            throw new JSONException("Value out of sequence.");
+        }
+        if (this.mode == 'a') {
+            if (this.comma) {
+                this.writer.write(',');
             }
-            if (this.mode == 'o') {
-                this.mode = 'k';
+            if (tidy && !container) {
+                this.writer.write('\n');
+                this.writer.write(INDENTS[top]);
             }
-            this.comma = true;
-            return this;
         }
-        throw new JSONException("Value out of sequence.");
+    }
+
+    /**
+     * Update the state after a value has been written.
+     * @return this
+     */
+    private JSONWriter afterValue() {
+        if (this.mode == 'o') {
+            this.mode = 'k';
+        }
+        this.comma = true;
+        return this;
     }
 
     /**
@@ -258,7 +286,7 @@ public class JSONWriter {
                     this.writer.write('\n');
                     this.writer.write(INDENTS[top]);
                 }
-                this.writer.write(JSONObject.quote(s));
+                JSONObject.quote(s, this.writer, this.buffer);
                 this.writer.write(':');
                 if (tidy) {
                     this.writer.write(' ');
@@ -344,7 +372,13 @@ public class JSONWriter {
      * @throws JSONException If the number is not finite.
      */
     public JSONWriter value(double d) throws JSONException {
-        return this.value(new Double(d));
+        // integral values in the range written without exponent by
+        // Double.toString are written like longs without boxing
+        if (d == (long) d && Math.abs(d) < 1e7
+            && (d != 0 || 1 / d > 0)) {
+            return this.value((long) d);
+        }
+        return this.append(JSONObject.numberToString(new Double(d)));
     }
 
     /**
@@ -354,7 +388,28 @@ public class JSONWriter {
      * @throws JSONException
      */
     public JSONWriter value(long l) throws JSONException {
-        return this.append(Long.toString(l));
+        if (l == Long.MIN_VALUE) {
+            return this.append(Long.toString(l));
+        }
+        try {
+            this.beforeValue(false);
+
+            // write the digits from the buffer instead of a new string
+            final char[] buf = this.buffer;
+            int pos = buf.length;
+            long v = l < 0 ? -l : l;
+            do {
+                buf[--pos] = (char) ('0' + (v % 10));
+                v /= 10;
+            } while (v != 0);
+            if (l < 0) {
+                buf[--pos] = '-';
+            }
+            this.writer.write(buf, pos, buf.length - pos);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this.afterValue();
     }
 
 
@@ -367,6 +422,28 @@ public class JSONWriter {
      * @throws JSONException If the value is out of sequence.
      */
     public JSONWriter value(Object o) throws JSONException {
+        if (o instanceof String || o instanceof JSONObject
+            || o instanceof JSONArray) {
+            // strings and JSON structures are written straight to the writer
+            try {
+                this.beforeValue(false);
+                if (o instanceof String) {
+                    JSONObject.quote((String) o, this.writer, this.buffer);
+                } else if (o instanceof JSONObject) {
+                    ((JSONObject) o).write(this.writer);
+                } else {
+                    ((JSONArray) o).write(this.writer);
+                }
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+            return this.afterValue();
+        } else if (o instanceof Integer || o instanceof Long
+            || o instanceof Short || o instanceof Byte) {
+            return this.value(((Number) o).longValue());
+        } else if (o instanceof Boolean) {
+            return this.value(((Boolean) o).booleanValue());
+        }
         return this.append(JSONObject.valueToString(o));
     }
 }
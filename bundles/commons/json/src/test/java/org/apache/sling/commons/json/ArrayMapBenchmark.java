@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json;
+
+import static org.apache.sling.commons.json.test.MemoryUsage.usedHeap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Benchmark the heap retained by a tree of small objects in comparison with
+ * the same tree kept in linked hash maps.
+ * <p>
+ * The benchmark is not run with the unit tests, run it with
+ * <code>mvn test -Pbenchmarks</code>.
+ */
+public class ArrayMapBenchmark extends TestCase {
+
+    public void testFootprint() throws JSONException {
+        final int entries = 20000;
+        final StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append("{\"jcr:primaryType\":\"nt:unstructured\",\"name\":\"entry-");
+            text.append(i).append("\",\"index\":").append(i);
+            text.append(",\"visible\":true,\"tags\":[\"a\",\"b\"]}");
+        }
+        text.append(']');
+        final String json = text.toString();
+
+        long baseline = usedHeap();
+        final JSONArray tree = new JSONArray(json);
+        final long compact = usedHeap() - baseline;
+
+        // the maps share the values of another tree, which is released
+        baseline = usedHeap();
+        final List<Map<String, Object>> maps = toMaps(new JSONArray(json));
+        final long hashed = usedHeap() - baseline;
+
+        System.out.println("ArrayMap " + entries + " objects, " + (json.length() >> 10)
+            + "KB text: compact tree " + (compact >> 10) + "KB, linked hash maps "
+            + (hashed >> 10) + "KB");
+        assertEquals(entries, tree.length());
+        assertEquals(entries, maps.size());
+    }
+
+    private static List<Map<String, Object>> toMaps(JSONArray tree)
+            throws JSONException {
+        final List<Map<String, Object>> maps = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < tree.length(); i++) {
+            final JSONObject object = tree.getJSONObject(i);
+            final Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (Iterator<String> keys = object.keys(); keys.hasNext();) {
+                final String key = keys.next();
+                final Object value = object.get(key);
+                if (value instanceof JSONArray) {
+                    final List<Object> list = new ArrayList<Object>(
+                        ((JSONArray) value).length());
+                    for (int j = 0; j < ((JSONArray) value).length(); j++) {
+                        list.add(((JSONArray) value).get(j));
+                    }
+                    map.put(key, list);
+                } else {
+                    map.put(key, value);
+                }
+            }
+            maps.add(map);
+        }
+        return maps;
+    }
+}
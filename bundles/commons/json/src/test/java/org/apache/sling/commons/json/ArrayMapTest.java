@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the ArrayMap keeping the JSONObject properties.
+ */
+public class ArrayMapTest extends TestCase {
+
+    public void testSmallMap() {
+        final ArrayMap map = new ArrayMap();
+        assertEquals(0, map.size());
+        assertNull(map.get("a"));
+        assertFalse(map.containsKey(null));
+
+        assertNull(map.put("a", "1"));
+        assertNull(map.put("b", "2"));
+        assertNull(map.put("c", null));
+        assertEquals("1", map.put("a", "3"));
+        assertEquals(3, map.size());
+        assertTrue(map.containsKey("c"));
+        assertEquals("3", map.get(new String("a")));
+        assertKeys(map, "a", "b", "c");
+
+        assertEquals("2", map.remove("b"));
+        assertNull(map.remove("b"));
+        assertKeys(map, "a", "c");
+        assertNull(map.put("b", "4"));
+        assertKeys(map, "a", "c", "b");
+    }
+
+    public void testUpgrade() {
+        final ArrayMap map = new ArrayMap();
+        final List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < ArrayMap.THRESHOLD * 2; i++) {
+            map.put("k" + i, Integer.valueOf(i));
+            keys.add("k" + i);
+            assertEquals(i + 1, map.size());
+        }
+        assertKeys(map, keys.toArray(new String[keys.size()]));
+        for (int i = 0; i < ArrayMap.THRESHOLD * 2; i++) {
+            assertEquals(Integer.valueOf(i), map.get("k" + i));
+        }
+        assertEquals(Integer.valueOf(0), map.remove("k0"));
+        assertFalse(map.containsKey("k0"));
+        assertEquals(ArrayMap.THRESHOLD * 2 - 1, map.size());
+
+        final Map<String, Object> large = new LinkedHashMap<String, Object>();
+        for (int i = 0; i <= ArrayMap.THRESHOLD; i++) {
+            large.put("k" + i, "v" + i);
+        }
+        assertEquals("v" + ArrayMap.THRESHOLD,
+            new ArrayMap(large).get("k" + ArrayMap.THRESHOLD));
+    }
+
+    public void testIteratorRemove() {
+        final ArrayMap map = new ArrayMap();
+        map.put("a", "1");
+        map.put("b", "2");
+        map.put("c", "3");
+        final Iterator<String> keys = map.keys();
+        try {
+            keys.remove();
+            fail("Expected remove before next to fail");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        while (keys.hasNext()) {
+            if (!"c".equals(keys.next())) {
+                keys.remove();
+            }
+        }
+        assertKeys(map, "c");
+    }
+
+    public void testUpgradeWhileIterating() {
+        final ArrayMap map = new ArrayMap();
+        for (int i = 0; i < ArrayMap.THRESHOLD; i++) {
+            map.put("k" + i, Integer.valueOf(i));
+        }
+        final Iterator<String> keys = map.keys();
+        assertEquals("k0", keys.next());
+        map.put("k" + ArrayMap.THRESHOLD, Integer.valueOf(ArrayMap.THRESHOLD));
+        assertTrue(keys.hasNext());
+        try {
+            keys.next();
+            fail("Expected next after the upgrade to fail");
+        } catch (ConcurrentModificationException expected) {
+            // expected
+        }
+        try {
+            keys.remove();
+            fail("Expected remove after the upgrade to fail");
+        } catch (ConcurrentModificationException expected) {
+            // expected
+        }
+        assertEquals(ArrayMap.THRESHOLD + 1, map.size());
+    }
+
+    public void testJSONObject() throws JSONException {
+        final JSONObject object = new JSONObject();
+        object.put("long", 12345678901L).put("double", 1.5).put("int", 7);
+        for (int i = 0; i < ArrayMap.THRESHOLD; i++) {
+            object.put("k" + i, i % 2 == 0);
+        }
+        assertEquals(12345678901L, object.getLong("long"));
+        assertEquals(1.5, object.getDouble("double"), 0);
+        assertEquals(7, object.getInt("int"));
+        assertSame(Boolean.TRUE, object.get("k0"));
+        assertEquals(ArrayMap.THRESHOLD + 3, object.length());
+        assertTrue(object.toString().startsWith(
+            "{\"long\":12345678901,\"double\":1.5,\"int\":7,\"k0\":true,"));
+    }
+
+    private static void assertKeys(ArrayMap map, String... expected) {
+        final List<String> keys = new ArrayList<String>();
+        for (Iterator<String> i = map.keys(); i.hasNext();) {
+            keys.add(i.next());
+        }
+        assertEquals(expected.length, keys.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], keys.get(i));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.commons.json.JSONArray;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.BinaryJSONParserTest.Encoder;
+
+/**
+ * Compares the size and the time of reading the same tree from text and
+ * binary JSON.
+ * <p>
+ * The benchmark is not run with the unit tests, run it with
+ * <code>mvn test -Pbenchmarks</code>.
+ */
+public class BinaryJSONParserBenchmark extends TestCase {
+
+    public void testThroughput() throws JSONException {
+        final JSONObject tree = new JSONObject();
+        for (int i = 0; i < 50000; i++) {
+            final JSONObject entry = new JSONObject();
+            entry.put("jcr:primaryType", "nt:unstructured");
+            entry.put("title", "Entry \"" + i + "\"");
+            entry.put("index", i);
+            entry.put("ratio", i / 3.0);
+            entry.put("tags", new JSONArray().put("a").put("b"));
+            tree.put("entry-" + i, entry);
+        }
+        final String text = tree.toString();
+        final Encoder binary = BinaryJSONParserTest.encode(tree);
+
+        // the last of several rounds, after warming up
+        long textTime = 0;
+        long binaryTime = 0;
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            new JSONParser(new StringReader(text)).nextValue();
+            textTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            binary.parser().nextValue();
+            binaryTime = System.nanoTime() - start;
+        }
+
+        System.out.println("BinaryJSONParser " + tree.length() + " entries: text "
+            + (textTime / 1000000) + "ms/" + (text.length() >> 10) + "KB, binary "
+            + (binaryTime / 1000000) + "ms/" + (binary.size() >> 10) + "KB");
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.Calendar;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.commons.json.JSONArray;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONParser.Event;
+
+/**
+ * Test the BinaryJSONParser.
+ */
+public class BinaryJSONParserTest extends TestCase {
+
+    public void testEvents() throws JSONException {
+        final Encoder e = new Encoder();
+        e.type(BinaryJSONParser.TYPE_OBJECT);
+        e.string("a").type(BinaryJSONParser.TYPE_ARRAY);
+        e.number(-1).number(300).type(BinaryJSONParser.TYPE_DOUBLE).bytes(0x3f, 0xe0, 0, 0, 0, 0, 0, 0);
+        e.string("x\"y\u00e4\ud834\udd1e").type(BinaryJSONParser.TYPE_END);
+        e.string("b").type(BinaryJSONParser.TYPE_OBJECT).string("c").type(BinaryJSONParser.TYPE_NULL);
+        e.type(BinaryJSONParser.TYPE_END);
+        e.string("d").type(BinaryJSONParser.TYPE_TRUE);
+        e.type(BinaryJSONParser.TYPE_END);
+
+        final BinaryJSONParser parser = e.parser();
+        final StringBuilder events = new StringBuilder();
+        while (parser.hasNext()) {
+            final Event event = parser.next();
+            events.append(event);
+            if (event == Event.KEY) {
+                events.append(':').append(parser.getString());
+            } else if (event == Event.VALUE) {
+                events.append(':').append(parser.getValue());
+            }
+            events.append(',');
+        }
+        assertEquals("START_OBJECT,KEY:a,START_ARRAY,VALUE:-1,VALUE:300,"
+            + "VALUE:0.5,VALUE:x\"y\u00e4\ud834\udd1e,END_ARRAY,KEY:b,START_OBJECT,"
+            + "KEY:c,VALUE:null,END_OBJECT,KEY:d,VALUE:true,END_OBJECT,",
+            events.toString());
+        try {
+            parser.next();
+            fail("Expected no more events");
+        } catch (JSONException expected) {
+            // expected
+        }
+    }
+
+    public void testDate() throws JSONException {
+        final Encoder e = new Encoder();
+        e.type(BinaryJSONParser.TYPE_DATE).varint(2000).varint(179);
+        final BinaryJSONParser parser = e.parser();
+        assertEquals(Event.VALUE, parser.next());
+        final Calendar date = (Calendar) parser.getValue();
+        assertEquals(1000, date.getTimeInMillis());
+        assertEquals(-90 * 60000, date.getTimeZone().getRawOffset());
+    }
+
+    public void testTree() throws JSONException {
+        final JSONObject expected = new JSONObject(
+            "{\"a\":[1,{\"b\":\"c\"}],\"d\":null,\"e\":[]}");
+        final Object actual = encode(expected).parser().nextValue();
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    public void testErrors() {
+        final Encoder[] inputs = { new Encoder(),
+            new Encoder().type(BinaryJSONParser.TYPE_OBJECT).number(1),
+            new Encoder().type(BinaryJSONParser.TYPE_ARRAY).type(BinaryJSONParser.TYPE_TRUE),
+            new Encoder().type(BinaryJSONParser.TYPE_STRING).varint(5).bytes('a'),
+            new Encoder().type(0x42) };
+        for (Encoder input : inputs) {
+            try {
+                final BinaryJSONParser parser = input.parser();
+                while (parser.hasNext()) {
+                    parser.next();
+                }
+                fail("Expected error");
+            } catch (JSONException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().indexOf(" at byte ") > 0);
+            }
+        }
+    }
+
+    /**
+     * Reads the same tree of 1000 entries from text and binary JSON.
+     */
+    public void testLargeTree() throws JSONException {
+        final JSONObject tree = new JSONObject();
+        for (int i = 0; i < 1000; i++) {
+            final JSONObject entry = new JSONObject();
+            entry.put("jcr:primaryType", "nt:unstructured");
+            entry.put("title", "Entry \"" + i + "\"");
+            entry.put("index", i);
+            entry.put("ratio", i / 3.0);
+            entry.put("tags", new JSONArray().put("a").put("b"));
+            tree.put("entry-" + i, entry);
+        }
+        final String text = tree.toString();
+        final Encoder binary = encode(tree);
+
+        assertEquals(new JSONParser(new StringReader(text)).nextValue().toString(),
+            binary.parser().nextValue().toString());
+        assertEquals(text, binary.parser().nextValue().toString());
+        assertTrue(binary.size() < text.length());
+    }
+
+    static Encoder encode(Object value) {
+        final Encoder e = new Encoder();
+        e.value(value);
+        return e;
+    }
+
+    /**
+     * Writes the binary encoding for the tests.
+     */
+    static class Encoder extends ByteArrayOutputStream {
+
+        Encoder type(int type) {
+            write(type);
+            return this;
+        }
+
+        Encoder bytes(int... bytes) {
+            for (int b : bytes) {
+                write(b);
+            }
+            return this;
+        }
+
+        Encoder varint(long v) {
+            while ((v & ~0x7fL) != 0) {
+                write((int) ((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+            return this;
+        }
+
+        Encoder number(long l) {
+            return type(BinaryJSONParser.TYPE_LONG).varint((l << 1) ^ (l >> 63));
+        }
+
+        Encoder string(String s) {
+            try {
+                final byte[] utf8 = s.getBytes("UTF-8");
+                type(BinaryJSONParser.TYPE_STRING).varint(utf8.length);
+                write(utf8, 0, utf8.length);
+            } catch (UnsupportedEncodingException uee) {
+                throw new RuntimeException(uee);
+            }
+            return this;
+        }
+
+        void value(Object value) {
+            if (value instanceof JSONObject) {
+                final JSONObject object = (JSONObject) value;
+                type(BinaryJSONParser.TYPE_OBJECT);
+                for (java.util.Iterator<String> keys = object.keys(); keys.hasNext();) {
+                    final String key = keys.next();
+                    string(key);
+                    value(object.opt(key));
+                }
+                type(BinaryJSONParser.TYPE_END);
+            } else if (value instanceof JSONArray) {
+                final JSONArray array = (JSONArray) value;
+                type(BinaryJSONParser.TYPE_ARRAY);
+                for (int i = 0; i < array.length(); i++) {
+                    value(array.opt(i));
+                }
+                type(BinaryJSONParser.TYPE_END);
+            } else if (value instanceof Integer || value instanceof Long) {
+                number(((Number) value).longValue());
+            } else if (value instanceof Double) {
+                final long bits = Double.doubleToLongBits((Double) value);
+                type(BinaryJSONParser.TYPE_DOUBLE);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    write((int) (bits >>> shift));
+                }
+            } else if (value instanceof Boolean) {
+                type(((Boolean) value) ? BinaryJSONParser.TYPE_TRUE : BinaryJSONParser.TYPE_FALSE);
+            } else if (value == null || JSONObject.NULL.equals(value)) {
+                type(BinaryJSONParser.TYPE_NULL);
+            } else {
+                string(value.toString());
+            }
+        }
+
+        BinaryJSONParser parser() {
+            return new BinaryJSONParser(new ByteArrayInputStream(toByteArray()));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import static org.apache.sling.commons.json.test.MemoryUsage.allocatedBytes;
+import static org.apache.sling.commons.json.test.MemoryUsage.usedHeap;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONParserTest.GeneratingReader;
+
+/**
+ * Benchmark parsing a document with 100k entries into a tree with the
+ * JSONTokener and the parser and reading the events only, which keeps the
+ * memory bound independent of the document size.
+ * <p>
+ * The benchmark is not run with the unit tests, run it with
+ * <code>mvn test -Pbenchmarks</code>.
+ */
+public class JSONParserBenchmark extends TestCase {
+
+    public void testLargeDocument() throws JSONException {
+        final int entries = 100000;
+        final String text = GeneratingReader.generate(entries);
+
+        // warm up
+        for (int i = 0; i < 3; i++) {
+            new JSONObject(text);
+            new JSONParser(new StringReader(text)).nextValue();
+            JSONParserTest.countEvents(new JSONParser(new StringReader(text)));
+        }
+
+        long start = System.nanoTime();
+        long allocated = allocatedBytes();
+        final JSONObject tokened = new JSONObject(text);
+        final long tokenerTime = System.nanoTime() - start;
+        final long tokenerAllocated = allocatedBytes() - allocated;
+
+        start = System.nanoTime();
+        allocated = allocatedBytes();
+        final Object parsed = new JSONParser(new StringReader(text)).nextValue();
+        final long treeTime = System.nanoTime() - start;
+        final long treeAllocated = allocatedBytes() - allocated;
+        assertEquals(tokened.toString(), parsed.toString());
+
+        start = System.nanoTime();
+        allocated = allocatedBytes();
+        final long events = JSONParserTest.countEvents(new JSONParser(new StringReader(text)));
+        final long eventTime = System.nanoTime() - start;
+        final long eventAllocated = allocatedBytes() - allocated;
+        assertEquals(3 + 6 * entries + 2, events);
+
+        // memory retained half way through streaming from a reader
+        // generating the text, the text itself takes two bytes per character
+        final long baseline = usedHeap();
+        final GeneratingReader reader = new GeneratingReader(entries);
+        final JSONParser parser = new JSONParser(reader);
+        long streamed = -1;
+        while (parser.hasNext()) {
+            parser.next();
+            if (streamed < 0 && reader.getEntry() == entries / 2) {
+                streamed = usedHeap() - baseline;
+            }
+        }
+
+        System.out.println("JSONParser " + (text.length() >> 10) + "KB text: tokener tree "
+            + (tokenerTime / 1000000) + "ms/" + (tokenerAllocated >> 10) + "KB allocated, parser tree "
+            + (treeTime / 1000000) + "ms/" + (treeAllocated >> 10) + "KB allocated, parser events "
+            + (eventTime / 1000000) + "ms/" + (eventAllocated >> 10) + "KB allocated, streaming "
+            + (Math.max(streamed, 0) >> 10) + "KB retained");
+    }
+}
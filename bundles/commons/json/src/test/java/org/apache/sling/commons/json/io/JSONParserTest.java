@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.commons.json.JSONArray;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONParser.Event;
+
+/**
+ * Test the JSONParser.
+ */
+public class JSONParserTest extends TestCase {
+
+    public void testEvents() throws JSONException {
+        final JSONParser parser = new JSONParser(new StringReader(
+            "{\"a\": [1, 2.5, \"x\\ty\"], \"b\": {\"c\": null}, \"d\": true}"));
+        final List<String> events = new ArrayList<String>();
+        while (parser.hasNext()) {
+            final Event event = parser.next();
+            if (event == Event.KEY || event == Event.VALUE) {
+                events.add(event + ":" + parser.getValue() + ":" + parser.getString());
+            } else {
+                events.add(event + ":" + parser.getDepth());
+            }
+        }
+
+        final String[] expected = { "START_OBJECT:1", "KEY:null:a",
+            "START_ARRAY:2", "VALUE:1:1", "VALUE:2.5:2.5", "VALUE:x\ty:x\ty",
+            "END_ARRAY:1", "KEY:null:b", "START_OBJECT:2", "KEY:null:c",
+            "VALUE:null:null", "END_OBJECT:1", "KEY:null:d",
+            "VALUE:true:true", "END_OBJECT:0" };
+        assertEquals(expected.length, events.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], events.get(i));
+        }
+
+        try {
+            parser.next();
+            fail("Expected no more events");
+        } catch (JSONException expected2) {
+            // expected
+        }
+    }
+
+    public void testValueTypes() throws JSONException {
+        final JSONParser parser = new JSONParser(new StringReader(
+            "[1, 12345678901, 1.5e3, 0x1F, \"s\", null, false]"));
+        assertEquals(Event.START_ARRAY, parser.next());
+        parser.next();
+        assertEquals(Integer.valueOf(1), parser.getValue());
+        parser.next();
+        assertEquals(Long.valueOf(12345678901L), parser.getValue());
+        parser.next();
+        assertEquals(Double.valueOf(1500), parser.getValue());
+        parser.next();
+        assertEquals(Integer.valueOf(31), parser.getValue());
+        parser.next();
+        assertEquals("s", parser.getValue());
+        parser.next();
+        assertSame(JSONObject.NULL, parser.getValue());
+        parser.next();
+        assertEquals(Boolean.FALSE, parser.getValue());
+        assertEquals(Event.END_ARRAY, parser.next());
+        assertFalse(parser.hasNext());
+    }
+
+    /**
+     * The tree built by the parser must equal the tree of the JSONTokener,
+     * also for the non-standard forms the tokener accepts.
+     */
+    public void testTreeMatchesTokener() throws JSONException {
+        final String[] texts = {
+            "{}",
+            "{\"a\":1,\"b\":[true,false,null],\"c\":{\"d\":\"e\\u0041\\\"\"}}",
+            "{a: 'single', b = 2; c => \"x\\/y\",}",
+            "{// comment\n \"a\" : /* block */ [1,,3,] # hash\n}",
+            "{\"a\": unquoted text, 010: 0x10}",
+            "{\"deep\":[[[[{\"x\":[]}]]]]}"
+        };
+        for (String text : texts) {
+            final JSONObject expected = new JSONObject(text);
+            final Object actual = new JSONParser(new StringReader(text)).nextValue();
+            assertTrue(text, actual instanceof JSONObject);
+            assertEquals(text, expected.toString(), actual.toString());
+        }
+
+        final String array = "[1, [2, {\"a\": 3}], , \"4\"]";
+        final Object actual = new JSONParser(new StringReader(array)).nextValue();
+        assertEquals(new JSONArray(array).toString(), actual.toString());
+    }
+
+    /**
+     * Reading one character at a time exercises refilling the buffer
+     * within strings, escapes and values.
+     */
+    public void testSmallReads() throws JSONException {
+        final StringBuilder text = new StringBuilder("{\"long\":\"");
+        for (int i = 0; i < 10000; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        text.append("\\u00e4\\n\", \"n\": -123.5e-2}");
+
+        final Object expected = new JSONObject(text.toString());
+        final Object actual = new JSONParser(new OneCharReader(text.toString())).nextValue();
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    public void testSkipChildren() throws JSONException {
+        final JSONParser parser = new JSONParser(new StringReader(
+            "{\"skip\": {\"a\": [1, {\"b\": 2}]}, \"keep\": 3}"));
+        assertEquals(Event.START_OBJECT, parser.next());
+        assertEquals(Event.KEY, parser.next());
+        assertEquals(Event.START_OBJECT, parser.next());
+        parser.skipChildren();
+        assertEquals(Event.KEY, parser.next());
+        assertEquals("keep", parser.getString());
+        assertEquals(Event.VALUE, parser.next());
+        assertEquals(Integer.valueOf(3), parser.getValue());
+    }
+
+    public void testStreamingEntries() throws JSONException {
+        final JSONParser parser = new JSONParser(new StringReader(
+            "[{\"i\": 0}, {\"i\": 1}, {\"i\": 2}]"));
+        assertEquals(Event.START_ARRAY, parser.next());
+        for (int i = 0; i < 3; i++) {
+            final JSONObject entry = (JSONObject) parser.nextValue();
+            assertEquals(i, entry.getInt("i"));
+        }
+        assertEquals(Event.END_ARRAY, parser.next());
+    }
+
+    public void testSyntaxErrors() {
+        final String[] texts = { "", "{", "{\"a\"}", "{\"a\":1 \"b\":2}",
+            "[1 \"2\"]", "{\"a\":\"unterminated}", "[\"\\u00g0\"]", "{/* open" };
+        for (String text : texts) {
+            try {
+                final JSONParser parser = new JSONParser(new StringReader(text));
+                while (parser.hasNext()) {
+                    parser.next();
+                }
+                fail("Expected syntax error for " + text);
+            } catch (JSONException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().indexOf(" at character ") > 0);
+            }
+        }
+    }
+
+    /**
+     * Parses a document with 10k entries into a tree and streams it from a
+     * reader generating the text without keeping it in memory.
+     */
+    public void testLargeDocument() throws JSONException {
+        final int entries = 10000;
+        final String text = GeneratingReader.generate(entries);
+
+        final Object parsed = new JSONParser(new StringReader(text)).nextValue();
+        assertEquals(new JSONObject(text).toString(), parsed.toString());
+
+        final long events = countEvents(new JSONParser(new GeneratingReader(entries)));
+        assertEquals(3 + 6 * entries + 2, events);
+    }
+
+    static long countEvents(JSONParser parser) throws JSONException {
+        long count = 0;
+        while (parser.hasNext()) {
+            parser.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static class OneCharReader extends StringReader {
+
+        OneCharReader(String s) {
+            super(s);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws java.io.IOException {
+            return super.read(cbuf, off, Math.min(len, 1));
+        }
+    }
+
+    /**
+     * Reader generating a document <code>{"entries":[...]}</code> of entries
+     * <code>{"name":"entry-N","index":N}</code> without keeping it in memory.
+     */
+    static class GeneratingReader extends Reader {
+
+        private final int entries;
+
+        private int entry;
+
+        private String current = "{\"entries\":[";
+
+        private int pos;
+
+        GeneratingReader(int entries) {
+            this.entries = entries;
+        }
+
+        static String generate(int entries) {
+            final StringBuilder buf = new StringBuilder();
+            final char[] cbuf = new char[4096];
+            final GeneratingReader reader = new GeneratingReader(entries);
+            int rd;
+            while ((rd = reader.read(cbuf, 0, cbuf.length)) >= 0) {
+                buf.append(cbuf, 0, rd);
+            }
+            return buf.toString();
+        }
+
+        int getEntry() {
+            return entry;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (current == null) {
+                return -1;
+            }
+            if (pos == current.length()) {
+                if (entry < entries) {
+                    current = ((entry > 0) ? "," : "") + "{\"name\":\"entry-"
+                        + entry + "\",\"index\":" + entry + "}";
+                    entry++;
+                } else if (entry == entries) {
+                    current = "]}";
+                    entry++;
+                } else {
+                    current = null;
+                    return -1;
+                }
+                pos = 0;
+            }
+            final int n = Math.min(len, current.length() - pos);
+            current.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
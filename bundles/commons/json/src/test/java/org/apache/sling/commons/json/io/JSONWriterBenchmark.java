@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import static org.apache.sling.commons.json.test.MemoryUsage.allocatedBytes;
+
+import java.io.CharArrayWriter;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+
+/**
+ * Benchmark serializing documents of several sizes with the JSONWriter and
+ * JSONObject.write and parsing them with the JSONParser. The output goes to
+ * a reused buffer, so the allocations are those of the writing.
+ * <p>
+ * The benchmark is not run with the unit tests, run it with
+ * <code>mvn test -Pbenchmarks</code>.
+ */
+public class JSONWriterBenchmark extends TestCase {
+
+    public void testDocuments() throws JSONException {
+        final int[] sizes = { 10, 1000, 50000 };
+        for (int size : sizes) {
+            final String[] names = new String[size];
+            final String[] titles = new String[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = "entry-" + i;
+                titles[i] = "Entry \"" + i + "\"\n</p>";
+            }
+            final CharArrayWriter out = new CharArrayWriter();
+            JSONWriterTest.write(new JSONWriter(out), names, titles);
+            final String text = out.toString();
+            final JSONObject tree = new JSONObject(text);
+            assertEquals(text, tree.toString());
+
+            // warm up
+            final int rounds = Math.max(1, 200000 / size);
+            for (int i = 0; i < Math.min(rounds, 50); i++) {
+                out.reset();
+                JSONWriterTest.write(new JSONWriter(out), names, titles);
+                out.reset();
+                tree.write(out);
+                new JSONParser(new StringReader(text)).nextValue();
+            }
+
+            long start = System.nanoTime();
+            long allocated = allocatedBytes();
+            for (int i = 0; i < rounds; i++) {
+                out.reset();
+                JSONWriterTest.write(new JSONWriter(out), names, titles);
+            }
+            final long writerTime = (System.nanoTime() - start) / rounds;
+            final long writerAllocated = (allocatedBytes() - allocated) / rounds;
+
+            start = System.nanoTime();
+            allocated = allocatedBytes();
+            for (int i = 0; i < rounds; i++) {
+                out.reset();
+                tree.write(out);
+            }
+            final long treeTime = (System.nanoTime() - start) / rounds;
+            final long treeAllocated = (allocatedBytes() - allocated) / rounds;
+
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                new JSONParser(new StringReader(text)).nextValue();
+            }
+            final long parseTime = (System.nanoTime() - start) / rounds;
+
+            System.out.println("JSONWriter " + size + " entries, "
+                + text.length() + " chars: writer " + (writerTime / 1000)
+                + "us/" + writerAllocated + " bytes allocated, tree "
+                + (treeTime / 1000) + "us/" + treeAllocated
+                + " bytes allocated, parse " + (parseTime / 1000) + "us");
+        }
+    }
+}
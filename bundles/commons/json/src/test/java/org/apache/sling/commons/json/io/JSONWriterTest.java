@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import java.io.CharArrayWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.commons.json.JSONArray;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+
+/**
+ * Test the JSONWriter and the quoting of strings.
+ */
+public class JSONWriterTest extends TestCase {
+
+    public void testQuote() {
+        assertEquals("\"\"", JSONObject.quote(null));
+        assertEquals("\"\"", JSONObject.quote(""));
+        assertEquals("\"plain text\"", JSONObject.quote("plain text"));
+        assertEquals("\"a\\\"b\\\\c\"", JSONObject.quote("a\"b\\c"));
+        assertEquals("\"\\b\\t\\n\\f\\r\\u0001\"", JSONObject.quote("\b\t\n\f\r\u0001"));
+        assertEquals("\"<\\/script>/\"", JSONObject.quote("</script>/"));
+        assertEquals("\"\\u0085\u00a0\\u2028\u2100\u00e4\"",
+            JSONObject.quote("\u0085\u00a0\u2028\u2100\u00e4"));
+    }
+
+    public void testValues() throws JSONException {
+        final StringWriter out = new StringWriter();
+        final JSONWriter w = new JSONWriter(out);
+        w.array();
+        w.value(0).value(-1).value(Long.MAX_VALUE).value(Long.MIN_VALUE);
+        w.value(1.0).value(-2.5).value(1e7).value(-0.0).value(0.1);
+        w.value(true).value(Boolean.FALSE).value((Object) null);
+        w.value(Integer.valueOf(42)).value("s\"");
+        w.value(new JSONObject("{\"a\":[1]}")).value(new JSONArray("[\"b\"]"));
+        w.endArray();
+
+        assertEquals("[0,-1,9223372036854775807,-9223372036854775808,"
+            + "1,-2.5,1.0E7,-0,0.1,true,false,null,42,\"s\\\"\","
+            + "{\"a\":[1]},[\"b\"]]", out.toString());
+
+        try {
+            new JSONWriter(new StringWriter()).array().value(Double.NaN);
+            fail("Expected non-finite number to fail");
+        } catch (JSONException expected) {
+            // expected
+        }
+        try {
+            new JSONWriter(new StringWriter()).object().value(1);
+            fail("Expected value without key to fail");
+        } catch (JSONException expected) {
+            // expected
+        }
+    }
+
+    public void testTidy() throws JSONException {
+        final StringWriter out = new StringWriter();
+        final JSONWriter w = new JSONWriter(out);
+        w.setTidy(true);
+        w.object().key("a").value(1).key("b").array().value("x").value(2)
+            .object().endObject().endArray().endObject();
+        assertEquals("{\n  \"a\": 1,\n  \"b\": [\n    \"x\",\n    2,{\n    }\n  ]\n}",
+            out.toString());
+    }
+
+    /**
+     * Serializes documents of several sizes with the JSONWriter and compares
+     * them to JSONObject.write and the parsed tree.
+     */
+    public void testDocuments() throws JSONException {
+        final int[] sizes = { 0, 1, 10, 1000 };
+        for (int size : sizes) {
+            final String[] names = new String[size];
+            final String[] titles = new String[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = "entry-" + i;
+                titles[i] = "Entry \"" + i + "\"\n</p>";
+            }
+            final CharArrayWriter out = new CharArrayWriter();
+            write(new JSONWriter(out), names, titles);
+            final String text = out.toString();
+            final JSONObject tree = new JSONObject(text);
+            assertEquals(text, tree.toString());
+
+            out.reset();
+            tree.write(out);
+            assertEquals(text, out.toString());
+
+            assertEquals(text, new JSONParser(new StringReader(text)).nextValue().toString());
+        }
+    }
+
+    /**
+     * Write a document with entries of strings needing escapes, numbers
+     * and booleans.
+     */
+    static void write(JSONWriter w, String[] names, String[] titles)
+            throws JSONException {
+        w.object().key("entries").array();
+        for (int i = 0; i < names.length; i++) {
+            w.object();
+            w.key("name").value(names[i]);
+            w.key("title").value(titles[i]);
+            w.key("index").value(i);
+            w.key("size").value(i * 1.5);
+            w.key("visible").value(i % 2 == 0);
+            w.endObject();
+        }
+        w.endArray().endObject();
+    }
+}
@@ -59,6 +59,7 @@ import org.apache.sling.engine.impl.helper.SlingServletContext;
 import org.apache.sling.engine.impl.parameters.ParameterSupport;
 import org.apache.sling.engine.impl.request.RequestData;
 import org.apache.sling.engine.impl.request.RequestHistoryConsolePlugin;
+import org.apache.sling.engine.impl.request.SlowRequestConsolePlugin;
 import org.apache.sling.engine.jmx.RequestProcessorMBean;
 import org.apache.sling.engine.servlets.ErrorHandler;
 import org.osgi.framework.BundleContext;
@@ -108,9 +109,30 @@ public class SlingMainServlet extends GenericServlet {
     @Property(unbounded=PropertyUnbounded.ARRAY)
     private static final String PROP_TRACK_PATTERNS_REQUESTS = "sling.store.pattern.requests";
 
+    @Property(intValue = SlowRequestConsolePlugin.STORED_REQUESTS_COUNT)
+    private static final String PROP_MAX_SLOW_REQUESTS = "sling.max.slow.requests";
+
+    @Property(longValue = SlowRequestConsolePlugin.WINDOW_SEC)
+    private static final String PROP_SLOW_REQUESTS_WINDOW = "sling.slow.requests.window";
+
     @Property
     private static final String PROP_DEFAULT_PARAMETER_ENCODING = "sling.default.parameter.encoding";
 
+    @Property(longValue = -1)
+    private static final String PROP_MAX_REQUEST_SIZE = "sling.default.parameter.request.max";
+
+    @Property
+    private static final String PROP_FILE_LOCATION = "sling.default.parameter.file.location";
+
+    @Property(longValue = -1)
+    private static final String PROP_MAX_FILE_SIZE = "sling.default.parameter.file.max";
+
+    @Property(intValue = ParameterSupport.DEFAULT_FILE_SIZE_THRESHOLD)
+    private static final String PROP_FILE_SIZE_THRESHOLD = "sling.default.parameter.file.threshold";
+
+    @Property(boolValue = false)
+    private static final String PROP_STREAMING_UPLOAD = "sling.default.parameter.streaming";
+
     @Reference
     private HttpService httpService;
 
@@ -376,6 +398,15 @@ public class SlingMainServlet extends GenericServlet {
         ParameterSupport.setDefaultParameterEncoding(OsgiUtil.toString(
             componentConfig.get(PROP_DEFAULT_PARAMETER_ENCODING), null));
 
+        // configure multipart request handling
+        ParameterSupport.configure(
+            OsgiUtil.toLong(componentConfig.get(PROP_MAX_REQUEST_SIZE), -1),
+            OsgiUtil.toString(componentConfig.get(PROP_FILE_LOCATION), null),
+            OsgiUtil.toLong(componentConfig.get(PROP_MAX_FILE_SIZE), -1),
+            OsgiUtil.toInteger(componentConfig.get(PROP_FILE_SIZE_THRESHOLD),
+                ParameterSupport.DEFAULT_FILE_SIZE_THRESHOLD),
+            OsgiUtil.toBoolean(componentConfig.get(PROP_STREAMING_UPLOAD), false));
+
         // register the servlet and resources
         try {
             Dictionary<String, String> servletConfig = toStringConfig(configuration);
@@ -424,6 +455,18 @@ public class SlingMainServlet extends GenericServlet {
                 "Unable to register web console request recorder plugin.", t);
         }
 
+        // setup the slow request recorder
+        try {
+            SlowRequestConsolePlugin.initPlugin(bundleContext,
+                OsgiUtil.toInteger(componentConfig.get(PROP_MAX_SLOW_REQUESTS),
+                    SlowRequestConsolePlugin.STORED_REQUESTS_COUNT),
+                1000L * OsgiUtil.toLong(componentConfig.get(PROP_SLOW_REQUESTS_WINDOW),
+                    SlowRequestConsolePlugin.WINDOW_SEC));
+        } catch (Throwable t) {
+            log.debug(
+                "Unable to register web console slow request recorder plugin.", t);
+        }
+
         try {
             Dictionary<String, String> mbeanProps = new Hashtable<String, String>();
             mbeanProps.put("jmx.objectname", "org.apache.sling:type=engine,service=RequestProcessor");
@@ -468,6 +511,12 @@ public class SlingMainServlet extends GenericServlet {
             log.debug(
                 "Problem unregistering web console request recorder plugin.", t);
         }
+        try {
+            SlowRequestConsolePlugin.destroyPlugin();
+        } catch (Throwable t) {
+            log.debug(
+                "Problem unregistering web console slow request recorder plugin.", t);
+        }
 
         // this reverses the activation setup
         if ( this.printerRegistration != null ) {
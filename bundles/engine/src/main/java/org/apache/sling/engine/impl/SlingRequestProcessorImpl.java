@@ -56,6 +56,7 @@ import org.apache.sling.engine.impl.filter.SlingComponentFilterChain;
 import org.apache.sling.engine.impl.request.ContentData;
 import org.apache.sling.engine.impl.request.RequestData;
 import org.apache.sling.engine.impl.request.RequestHistoryConsolePlugin;
+import org.apache.sling.engine.impl.request.SlowRequestConsolePlugin;
 import org.apache.sling.engine.servlets.ErrorHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -224,6 +225,7 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
             if (mbean != null) {
                 mbean.addRequestData(requestData);
             }
+            SlowRequestConsolePlugin.recordRequest(requestData);
         }
     }
 
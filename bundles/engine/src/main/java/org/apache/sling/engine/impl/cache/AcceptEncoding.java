@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.util.StringTokenizer;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The <code>AcceptEncoding</code> class negotiates the content coding of a
+ * response from the <code>Accept-Encoding</code> header of the request. The
+ * cached responses and validators of the compressed and the uncompressed
+ * variant of a response are kept apart by this coding.
+ */
+class AcceptEncoding {
+
+    static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    static final String HEADER_VARY = "Vary";
+
+    static final String GZIP = "gzip";
+
+    private AcceptEncoding() {
+        // no instances
+    }
+
+    /**
+     * Returns {@link #GZIP} if the client accepts the gzip content coding
+     * or <code>null</code> if only the uncompressed response is accepted.
+     */
+    static String getCoding(final HttpServletRequest request) {
+        final String header = request.getHeader(HEADER_ACCEPT_ENCODING);
+        if (header == null) {
+            return null;
+        }
+
+        boolean accepted = false;
+        final StringTokenizer tokens = new StringTokenizer(header, ",");
+        while (tokens.hasMoreTokens()) {
+            final String token = tokens.nextToken();
+            final int semi = token.indexOf(';');
+            final String coding = ((semi >= 0) ? token.substring(0, semi) : token).trim();
+            final boolean zero = semi >= 0 && isZeroQuality(token.substring(semi + 1));
+            if (GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+                // an explicit gzip entry takes precedence over a wildcard
+                return zero ? null : GZIP;
+            } else if ("*".equals(coding)) {
+                accepted = !zero;
+            }
+        }
+        return accepted ? GZIP : null;
+    }
+
+    private static boolean isZeroQuality(final String params) {
+        final String param = params.trim();
+        if (!param.startsWith("q=")) {
+            return false;
+        }
+        try {
+            return Float.parseFloat(param.substring(2).trim()) <= 0;
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+}
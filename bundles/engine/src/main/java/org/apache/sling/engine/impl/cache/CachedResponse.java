@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The <code>CachedResponse</code> describes a complete response stored by
+ * the {@link ResponseCache}: the status, the headers and the file containing
+ * the body.
+ */
+class CachedResponse {
+
+    private final String path;
+
+    private final int status;
+
+    private final List<String[]> headers;
+
+    private final File body;
+
+    private final long size;
+
+    /**
+     * @param path The path of the resource rendered by the response, used
+     *            for invalidation
+     * @param status The response status
+     * @param headers The response headers as name/value pairs in the order in
+     *            which they have been set
+     * @param body The file containing the response body
+     */
+    CachedResponse(final String path, final int status,
+            final List<String[]> headers, final File body) {
+        this.path = path;
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.size = body.length();
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    List<String[]> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the value of the first header with the given name or
+     * <code>null</code> if the response has no such header.
+     */
+    String getHeader(final String name) {
+        for (final String[] header : headers) {
+            if (name.equalsIgnoreCase(header[0])) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    File getBody() {
+        return body;
+    }
+
+    long getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+
+/**
+ * The <code>CachingResponseWrapper</code> passes the response on to the
+ * wrapped response and records the status, the headers and a copy of the
+ * body in a file. The recorded response is only usable if the response has
+ * neither been reset nor been sent as an error or redirect, which is checked
+ * by {@link #isCacheable()}.
+ */
+class CachingResponseWrapper extends SlingHttpServletResponseWrapper {
+
+    /** format for RFC 1123 date string -- "Sun, 06 Nov 1994 08:49:37 GMT" */
+    private final static SimpleDateFormat RFC1123_FORMAT;
+    static {
+        RFC1123_FORMAT = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z",
+            Locale.US);
+        RFC1123_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
+    private final File body;
+
+    private final List<String[]> headers = new ArrayList<String[]>();
+
+    private int status = HttpServletResponse.SC_OK;
+
+    private boolean cacheable = true;
+
+    private OutputStream bodyStream;
+
+    private Writer bodyWriter;
+
+    private PrintWriter writer;
+
+    private ServletOutputStream outputStream;
+
+    CachingResponseWrapper(final SlingHttpServletResponse response,
+            final File body) {
+        super(response);
+        this.body = body;
+    }
+
+    /**
+     * Returns <code>true</code> if the response completed with a status of
+     * 200 and has been fully recorded.
+     */
+    boolean isCacheable() {
+        return cacheable && status == HttpServletResponse.SC_OK;
+    }
+
+    int getRecordedStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the recorded headers including the content type of the
+     * response.
+     */
+    List<String[]> getRecordedHeaders() {
+        final List<String[]> result = new ArrayList<String[]>(headers);
+        if (getContentType() != null) {
+            result.add(new String[] { "Content-Type", getContentType() });
+        }
+        return result;
+    }
+
+    /**
+     * Closes the file of the recorded body.
+     */
+    void finish() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (bodyWriter != null) {
+            bodyWriter.close();
+        } else if (bodyStream != null) {
+            bodyStream.close();
+        }
+    }
+
+    // ---------- body recording
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            final Writer delegatee = super.getWriter();
+            String encoding = getCharacterEncoding();
+            if (encoding == null) {
+                encoding = "ISO-8859-1";
+            }
+            bodyWriter = new OutputStreamWriter(getBodyStream(), encoding);
+            writer = new PrintWriter(new TeeWriter(delegatee, bodyWriter));
+        }
+        return writer;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            outputStream = new TeeOutputStream(super.getOutputStream(),
+                getBodyStream());
+        }
+        return outputStream;
+    }
+
+    private OutputStream getBodyStream() throws IOException {
+        if (bodyStream == null) {
+            bodyStream = new FileOutputStream(body);
+        }
+        return bodyStream;
+    }
+
+    // ---------- status and header recording
+
+    @Override
+    public void setStatus(int sc) {
+        super.setStatus(sc);
+        status = sc;
+    }
+
+    @Override
+    @Deprecated
+    public void setStatus(int sc, String sm) {
+        super.setStatus(sc, sm);
+        status = sc;
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        cacheable = false;
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        cacheable = false;
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        cacheable = false;
+        super.sendRedirect(location);
+    }
+
+    @Override
+    public void reset() {
+        cacheable = false;
+        super.reset();
+    }
+
+    @Override
+    public void resetBuffer() {
+        cacheable = false;
+        super.resetBuffer();
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        super.setHeader(name, value);
+        removeHeaders(name);
+        headers.add(new String[] { name, value });
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        super.addHeader(name, value);
+        headers.add(new String[] { name, value });
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        super.setDateHeader(name, date);
+        removeHeaders(name);
+        headers.add(new String[] { name, toDateString(date) });
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        super.addDateHeader(name, date);
+        headers.add(new String[] { name, toDateString(date) });
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        super.setIntHeader(name, value);
+        removeHeaders(name);
+        headers.add(new String[] { name, String.valueOf(value) });
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        super.addIntHeader(name, value);
+        headers.add(new String[] { name, String.valueOf(value) });
+    }
+
+    private void removeHeaders(final String name) {
+        for (Iterator<String[]> hi = headers.iterator(); hi.hasNext();) {
+            if (hi.next()[0].equalsIgnoreCase(name)) {
+                hi.remove();
+            }
+        }
+    }
+
+    private static String toDateString(final long date) {
+        synchronized (RFC1123_FORMAT) {
+            return RFC1123_FORMAT.format(new Date(date));
+        }
+    }
+
+    /**
+     * Parses a date header value written by this wrapper. Returns -1 if the
+     * value is not a RFC 1123 date.
+     */
+    static long parseDate(final String value) {
+        synchronized (RFC1123_FORMAT) {
+            try {
+                return RFC1123_FORMAT.parse(value).getTime();
+            } catch (ParseException pe) {
+                return -1;
+            }
+        }
+    }
+
+    private static class TeeWriter extends Writer {
+
+        private final Writer delegatee;
+
+        private final Writer copy;
+
+        TeeWriter(final Writer delegatee, final Writer copy) {
+            this.delegatee = delegatee;
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            delegatee.write(cbuf, off, len);
+            copy.write(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegatee.flush();
+            copy.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegatee.close();
+            copy.flush();
+        }
+    }
+
+    private static class TeeOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegatee;
+
+        private final OutputStream copy;
+
+        TeeOutputStream(final ServletOutputStream delegatee,
+                final OutputStream copy) {
+            this.delegatee = delegatee;
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegatee.write(b);
+            copy.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegatee.write(b, off, len);
+            copy.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegatee.flush();
+            copy.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegatee.close();
+            copy.flush();
+        }
+    }
+}
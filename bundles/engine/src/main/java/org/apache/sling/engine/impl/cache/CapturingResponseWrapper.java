@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import javax.servlet.ServletOutputStream;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+
+/**
+ * The <code>CapturingResponseWrapper</code> passes everything written to
+ * the response on to the wrapped response and keeps a copy of it. Capturing
+ * stops once more than the configured maximum number of bytes or characters
+ * has been written, in which case the copy is dropped and
+ * {@link #isOverflow()} returns <code>true</code>.
+ */
+class CapturingResponseWrapper extends SlingHttpServletResponseWrapper {
+
+    private final int maxCapture;
+
+    private CapturingWriter capturingWriter;
+
+    private PrintWriter writer;
+
+    private CapturingOutputStream outputStream;
+
+    private boolean overflow;
+
+    CapturingResponseWrapper(final SlingHttpServletResponse response,
+            final int maxCapture) {
+        super(response);
+        this.maxCapture = maxCapture;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (outputStream != null) {
+            throw new IllegalStateException("Output Stream already obtained");
+        }
+        if (writer == null) {
+            capturingWriter = new CapturingWriter(super.getWriter());
+            writer = new PrintWriter(capturingWriter);
+        }
+        return writer;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("Writer already obtained");
+        }
+        if (outputStream == null) {
+            outputStream = new CapturingOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+    }
+
+    /**
+     * Returns <code>true</code> if more data has been written than could be
+     * captured.
+     */
+    boolean isOverflow() {
+        return overflow;
+    }
+
+    /**
+     * Returns the characters written through the writer or <code>null</code>
+     * if the writer has not been used or too much has been written.
+     */
+    String getCapturedText() {
+        if (writer == null || overflow) {
+            return null;
+        }
+        writer.flush();
+        return capturingWriter.getCaptured();
+    }
+
+    /**
+     * Returns the bytes written through the output stream or
+     * <code>null</code> if the output stream has not been used or too much
+     * has been written.
+     */
+    byte[] getCapturedData() {
+        if (outputStream == null || overflow) {
+            return null;
+        }
+        return outputStream.getCaptured();
+    }
+
+    /**
+     * Returns <code>true</code> if neither the writer nor the output stream
+     * has been used.
+     */
+    boolean isEmpty() {
+        return writer == null && outputStream == null;
+    }
+
+    private class CapturingWriter extends Writer {
+
+        private final Writer delegatee;
+
+        private StringBuilder captured = new StringBuilder();
+
+        CapturingWriter(final Writer delegatee) {
+            this.delegatee = delegatee;
+        }
+
+        String getCaptured() {
+            return (captured != null) ? captured.toString() : null;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            delegatee.write(cbuf, off, len);
+            if (captured != null) {
+                if (captured.length() + len > maxCapture) {
+                    captured = null;
+                    overflow = true;
+                } else {
+                    captured.append(cbuf, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegatee.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegatee.close();
+        }
+    }
+
+    private class CapturingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegatee;
+
+        private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        CapturingOutputStream(final ServletOutputStream delegatee) {
+            this.delegatee = delegatee;
+        }
+
+        byte[] getCaptured() {
+            return (captured != null) ? captured.toByteArray() : null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegatee.write(b);
+            if (captured != null) {
+                if (captured.size() + 1 > maxCapture) {
+                    captured = null;
+                    overflow = true;
+                } else {
+                    captured.write(b);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegatee.write(b, off, len);
+            if (captured != null) {
+                if (captured.size() + len > maxCapture) {
+                    captured = null;
+                    overflow = true;
+                } else {
+                    captured.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegatee.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegatee.close();
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Map;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.wrappers.SlingHttpServletRequestWrapper;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+import org.apache.sling.commons.osgi.OsgiUtil;
+import org.apache.sling.engine.EngineConstants;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * The <code>ConditionalRequestFilter</code> is a request filter which adds
+ * an <code>ETag</code> and a <code>Last-Modified</code> header to rendered
+ * responses and answers later conditional GET requests for the same request
+ * path info with <i>304/NOT MODIFIED</i> without rendering the response
+ * again, as long as the validator is still valid.
+ * <p>
+ * The validator depends on the rendered resource and on the resources read
+ * while rendering the response: resources read through the resource
+ * resolver of the request, their relatives and included or forwarded
+ * resources. A validator is dropped when one of these resources, one of
+ * their ancestors or one of their descendants changes, and all validators
+ * are dropped when anything below the script search path changes. Responses
+ * depending on queries are not validated. Items read through the JCR API
+ * are only tracked if they are below a resource read through the resolver,
+ * so the filter should only be configured for paths whose renderings use
+ * the resource API.
+ * <p>
+ * Validators are kept per user, accepted content coding, request path info
+ * and query string. Responses for which the servlet sets its own
+ * validators or which are not sent with status 200 are not handled.
+ * <p>
+ * The filter runs after the {@link ResponseCacheFilter}, which stores the
+ * validators added by this filter with the cached responses. The filter
+ * tracking includes and forwards runs after the {@link IncludeCacheFilter},
+ * which records the paths of replayed fragments itself, see
+ * {@link #addDependency(ServletRequest, String)}.
+ * <p>
+ * The filter is only active if configured.
+ */
+@Component(metatype = true, policy = ConfigurationPolicy.REQUIRE, label = "%conditional.name", description = "%conditional.description")
+@Service(value = { Filter.class, EventHandler.class })
+@Properties( {
+    @Property(name = EngineConstants.SLING_FILTER_SCOPE, value = EngineConstants.FILTER_SCOPE_REQUEST, propertyPrivate = true),
+    @Property(name = Constants.SERVICE_RANKING, intValue = ConditionalRequestFilter.RANKING, propertyPrivate = true),
+    @Property(name = EventConstants.EVENT_TOPIC, value = {
+        SlingConstants.TOPIC_RESOURCE_ADDED,
+        SlingConstants.TOPIC_RESOURCE_CHANGED,
+        SlingConstants.TOPIC_RESOURCE_REMOVED }, propertyPrivate = true),
+    @Property(name = Constants.SERVICE_DESCRIPTION, value = "Conditional Request Filter"),
+    @Property(name = Constants.SERVICE_VENDOR, value = "The Apache Software Foundation")
+})
+public class ConditionalRequestFilter implements Filter, EventHandler {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * The service ranking of the filter and of the filter tracking includes
+     * and forwards. Filters with a lower ranking run first.
+     */
+    static final int RANKING = Integer.MAX_VALUE;
+
+    @Property(intValue = DEFAULT_MAX_ENTRIES)
+    private static final String PROP_MAX_ENTRIES = "conditional.size";
+
+    @Property(value = "/content")
+    private static final String PROP_PATHS = "conditional.paths";
+
+    private static final String HEADER_ETAG = "ETag";
+
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * The request attribute holding the validator of the response being
+     * rendered, to which included and forwarded resources are added.
+     */
+    private static final String ATTR_VALIDATOR = ConditionalRequestFilter.class.getName()
+        + ".validator";
+
+    private ValidatorCache validators = new ValidatorCache(DEFAULT_MAX_ENTRIES);
+
+    private String[] paths;
+
+    /**
+     * The script search path of the resource resolver, taken from the first
+     * handled request. A change below any of these paths drops all
+     * validators.
+     */
+    private volatile String[] searchPath;
+
+    /** The registration of the filter tracking includes and forwards */
+    private ServiceRegistration dependencyFilterRegistration;
+
+    // ---------- Filter interface
+
+    public void init(FilterConfig filterConfig) {
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response,
+            FilterChain chain) throws IOException, ServletException {
+
+        if (!(request instanceof SlingHttpServletRequest)
+            || !(response instanceof SlingHttpServletResponse)
+            || !isConditional((SlingHttpServletRequest) request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+        final SlingHttpServletResponse slingResponse = (SlingHttpServletResponse) response;
+
+        if (searchPath == null) {
+            searchPath = slingRequest.getResourceResolver().getSearchPath();
+        }
+
+        final ValidatorCache validators = this.validators;
+        final String key = getKey(slingRequest);
+        final ValidatorCache.Validator validator = validators.get(key);
+        if (validator != null && isNotModified(slingRequest, validator)) {
+            slingRequest.getRequestProgressTracker().log(
+                "Not modified, validator {0}", validator.getETag());
+            slingResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            slingResponse.setHeader(HEADER_ETAG, validator.getETag());
+            slingResponse.setDateHeader(HEADER_LAST_MODIFIED,
+                validator.getLastModified());
+            return;
+        }
+
+        final ValidatorCache.Validator created = validators.create(
+            slingRequest.getResource().getPath(),
+            AcceptEncoding.getCoding(slingRequest));
+        final ValidatingResponseWrapper wrapper = new ValidatingResponseWrapper(
+            slingResponse, created);
+        final Object oldValidator = request.getAttribute(ATTR_VALIDATOR);
+        request.setAttribute(ATTR_VALIDATOR, created);
+        try {
+            chain.doFilter(new TrackingRequestWrapper(slingRequest, created),
+                wrapper);
+        } finally {
+            request.setAttribute(ATTR_VALIDATOR, oldValidator);
+        }
+        if (wrapper.isValidated()) {
+            validators.put(key, created);
+        }
+    }
+
+    public void destroy() {
+    }
+
+    // ---------- EventHandler interface
+
+    public void handleEvent(Event event) {
+        final Object path = event.getProperty(SlingConstants.PROPERTY_PATH);
+        if (!(path instanceof String)) {
+            return;
+        }
+
+        final String[] searchPath = this.searchPath;
+        if (searchPath != null) {
+            for (final String sp : searchPath) {
+                if (FragmentCache.isRelated(sp, (String) path)) {
+                    validators.clear();
+                    return;
+                }
+            }
+        }
+
+        validators.invalidate((String) path);
+    }
+
+    // ---------- SCR Integration
+
+    @Activate
+    protected void activate(final BundleContext bundleContext,
+            final Map<String, Object> config) {
+        this.paths = OsgiUtil.toStringArray(config.get(PROP_PATHS),
+            new String[] { "/content" });
+        this.validators = new ValidatorCache(OsgiUtil.toInteger(
+            config.get(PROP_MAX_ENTRIES), DEFAULT_MAX_ENTRIES));
+
+        final Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(EngineConstants.SLING_FILTER_SCOPE, new String[] {
+            EngineConstants.FILTER_SCOPE_INCLUDE,
+            EngineConstants.FILTER_SCOPE_FORWARD });
+        props.put(Constants.SERVICE_RANKING, RANKING);
+        props.put(Constants.SERVICE_DESCRIPTION,
+            "Conditional Request Dependency Filter");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        dependencyFilterRegistration = bundleContext.registerService(
+            Filter.class.getName(), new DependencyFilter(), props);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (dependencyFilterRegistration != null) {
+            dependencyFilterRegistration.unregister();
+            dependencyFilterRegistration = null;
+        }
+        validators.clear();
+        searchPath = null;
+    }
+
+    // ---------- internal
+
+    private boolean isConditional(final SlingHttpServletRequest request) {
+        final String method = request.getMethod();
+        if (!("GET".equals(method) || "HEAD".equals(method))) {
+            return false;
+        }
+
+        final String path = request.getResource().getPath();
+        for (final String prefix : paths) {
+            if (FragmentCache.isSameOrAncestor(prefix, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if the conditional headers of the request
+     * match the validator. As required by RFC 2616 the
+     * <code>If-Modified-Since</code> header is only considered if there is
+     * no <code>If-None-Match</code> header.
+     */
+    private boolean isNotModified(final SlingHttpServletRequest request,
+            final ValidatorCache.Validator validator) {
+        final String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return validator.matches(ifNoneMatch);
+        }
+
+        try {
+            final long ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+            return ifModifiedSince >= 0
+                && validator.getLastModified() <= ifModifiedSince;
+        } catch (IllegalArgumentException iae) {
+            // illegal date header value, ignore
+            return false;
+        }
+    }
+
+    /**
+     * Returns the key of the validator of the request: The user, the
+     * accepted content coding, the request path info and the query string.
+     */
+    private String getKey(final SlingHttpServletRequest request) {
+        final RequestPathInfo info = request.getRequestPathInfo();
+        final StringBuilder key = new StringBuilder();
+        key.append(request.getResourceResolver().getUserID());
+        final String coding = AcceptEncoding.getCoding(request);
+        if (coding != null) {
+            key.append('\u0000').append(coding);
+        }
+        key.append('\u0000').append(info.getResourcePath());
+        if (info.getSelectorString() != null) {
+            key.append('.').append(info.getSelectorString());
+        }
+        if (info.getExtension() != null) {
+            key.append('.').append(info.getExtension());
+        }
+        if (info.getSuffix() != null) {
+            key.append(info.getSuffix());
+        }
+        if (request.getQueryString() != null) {
+            key.append('?').append(request.getQueryString());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Adds the resource at the given path to the validator of the response
+     * being rendered for the request, if any. This is used for included
+     * resources whose output is replayed without running the filter chain.
+     */
+    static void addDependency(final ServletRequest request, final String path) {
+        final Object validator = request.getAttribute(ATTR_VALIDATOR);
+        if (validator instanceof ValidatorCache.Validator) {
+            ((ValidatorCache.Validator) validator).addDependency(path);
+        }
+    }
+
+    /**
+     * The <code>DependencyFilter</code> adds included and forwarded resources
+     * to the validator of the response being rendered.
+     */
+    private static class DependencyFilter implements Filter {
+
+        public void init(FilterConfig filterConfig) {
+        }
+
+        public void doFilter(ServletRequest request, ServletResponse response,
+                FilterChain chain) throws IOException, ServletException {
+            if (request instanceof SlingHttpServletRequest) {
+                addDependency(request,
+                    ((SlingHttpServletRequest) request).getResource().getPath());
+            }
+            chain.doFilter(request, response);
+        }
+
+        public void destroy() {
+        }
+    }
+
+    /**
+     * The <code>TrackingRequestWrapper</code> provides the resource and the
+     * resource resolver of the request through a
+     * {@link TrackingResourceResolver}.
+     */
+    private static class TrackingRequestWrapper extends
+            SlingHttpServletRequestWrapper {
+
+        private final TrackingResourceResolver resolver;
+
+        private final Resource resource;
+
+        TrackingRequestWrapper(final SlingHttpServletRequest request,
+                final ValidatorCache.Validator validator) {
+            super(request);
+            this.resolver = new TrackingResourceResolver(
+                request.getResourceResolver(), validator);
+            this.resource = resolver.wrap(request.getResource());
+        }
+
+        @Override
+        public ResourceResolver getResourceResolver() {
+            return resolver;
+        }
+
+        @Override
+        public Resource getResource() {
+            return resource;
+        }
+    }
+
+    /**
+     * The <code>ValidatingResponseWrapper</code> sets the validator headers
+     * when the response body is about to be written, unless the servlet has
+     * set its own validators or the status is not 200.
+     */
+    private static class ValidatingResponseWrapper extends
+            SlingHttpServletResponseWrapper {
+
+        private final ValidatorCache.Validator validator;
+
+        private int status = HttpServletResponse.SC_OK;
+
+        private boolean ownValidators;
+
+        private boolean headersSet;
+
+        private boolean failed;
+
+        ValidatingResponseWrapper(final SlingHttpServletResponse response,
+                final ValidatorCache.Validator validator) {
+            super(response);
+            this.validator = validator;
+        }
+
+        ValidatorCache.Validator getValidator() {
+            return validator;
+        }
+
+        /**
+         * Returns <code>true</code> if the validator headers have been sent
+         * with a successful response.
+         */
+        boolean isValidated() {
+            return headersSet && !failed && !ownValidators
+                && status == HttpServletResponse.SC_OK;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            setValidatorHeaders();
+            return super.getWriter();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            setValidatorHeaders();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            super.setStatus(sc);
+            status = sc;
+        }
+
+        @Override
+        @Deprecated
+        public void setStatus(int sc, String sm) {
+            super.setStatus(sc, sm);
+            status = sc;
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            failed = true;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            failed = true;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            failed = true;
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void reset() {
+            failed = true;
+            super.reset();
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            checkValidatorHeader(name);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            checkValidatorHeader(name);
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            checkValidatorHeader(name);
+            super.setDateHeader(name, date);
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            checkValidatorHeader(name);
+            super.addDateHeader(name, date);
+        }
+
+        private void checkValidatorHeader(final String name) {
+            if (HEADER_ETAG.equalsIgnoreCase(name)
+                || HEADER_LAST_MODIFIED.equalsIgnoreCase(name)) {
+                ownValidators = true;
+            }
+        }
+
+        private void setValidatorHeaders() {
+            if (!headersSet && !ownValidators && !isCommitted()
+                && status == HttpServletResponse.SC_OK) {
+                super.setHeader(HEADER_ETAG, validator.getETag());
+                super.setDateHeader(HEADER_LAST_MODIFIED,
+                    validator.getLastModified());
+                headersSet = true;
+            }
+        }
+    }
+}
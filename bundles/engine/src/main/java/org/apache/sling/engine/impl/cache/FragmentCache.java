@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The <code>FragmentCache</code> is a size bounded, least recently used
+ * store of rendered include fragments. The size of the cache is the sum of
+ * the sizes of the stored fragments; the least recently used fragments are
+ * evicted once this sum exceeds the configured maximum size.
+ * <p>
+ * Fragments are invalidated by resource path: a change to a resource
+ * invalidates all fragments rendered from the resource itself, from one of
+ * its descendants or from one of its ancestors. The keys of the fragments
+ * are indexed by path in a sorted map, so the descendants of a changed
+ * resource are a range of the index.
+ * <p>
+ * The fragments are guarded by the cache itself and the index by the
+ * index map. Modifications lock the index before the fragments, so
+ * {@link #get(String)} only waits for the removal of the affected fragments
+ * but not for looking them up.
+ */
+class FragmentCache {
+
+    private final long maxSize;
+
+    // access ordered map of fragments, eldest entry is least recently used
+    private final LinkedHashMap<String, Fragment> fragments = new LinkedHashMap<String, Fragment>(
+        16, 0.75f, true);
+
+    // keys of the fragments by fragment path
+    private final TreeMap<String, Set<String>> index = new TreeMap<String, Set<String>>();
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long invalidations;
+
+    FragmentCache(final long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the fragment stored under the given key or <code>null</code>
+     * if no such fragment is stored. Each call counts as a hit or a miss.
+     */
+    synchronized Fragment get(final String key) {
+        final Fragment fragment = fragments.get(key);
+        if (fragment != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return fragment;
+    }
+
+    /**
+     * Stores the fragment under the given key evicting least recently used
+     * fragments as required to stay within the maximum size. Fragments larger
+     * than the maximum size are not stored at all.
+     */
+    void put(final String key, final Fragment fragment) {
+        if (fragment.getSize() > maxSize) {
+            return;
+        }
+
+        synchronized (index) {
+            final List<Map.Entry<String, Fragment>> removed = new ArrayList<Map.Entry<String, Fragment>>();
+            synchronized (this) {
+                final Fragment old = fragments.put(key, fragment);
+                if (old != null) {
+                    size -= old.getSize();
+                    unindex(key, old);
+                }
+                size += fragment.getSize();
+
+                final Iterator<Map.Entry<String, Fragment>> fi = fragments.entrySet().iterator();
+                while (size > maxSize && fi.hasNext()) {
+                    final Map.Entry<String, Fragment> eldest = fi.next();
+                    removed.add(eldest);
+                    fi.remove();
+                    size -= eldest.getValue().getSize();
+                    evictions++;
+                }
+            }
+
+            for (final Map.Entry<String, Fragment> entry : removed) {
+                unindex(entry.getKey(), entry.getValue());
+            }
+            Set<String> keys = index.get(fragment.getPath());
+            if (keys == null) {
+                keys = new HashSet<String>();
+                index.put(fragment.getPath(), keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Removes all fragments rendered from the resource at the given path,
+     * from a descendant or from an ancestor of it.
+     */
+    void invalidate(final String path) {
+        synchronized (index) {
+            final List<String> keys = new ArrayList<String>();
+
+            // the resource itself and its ancestors
+            addKeys(keys, index.remove(path));
+            int slash = path.length();
+            while ((slash = path.lastIndexOf('/', slash - 1)) >= 0) {
+                addKeys(keys, index.remove(path.substring(0, slash + 1)));
+                if (slash > 0) {
+                    addKeys(keys, index.remove(path.substring(0, slash)));
+                }
+            }
+
+            // the descendants are the paths between "path/" and "path0"
+            final String prefix = path.endsWith("/") ? path : path + "/";
+            final SortedMap<String, Set<String>> descendants = index.subMap(
+                prefix, prefix.substring(0, prefix.length() - 1) + (char) ('/' + 1));
+            for (final Set<String> descendantKeys : descendants.values()) {
+                addKeys(keys, descendantKeys);
+            }
+            descendants.clear();
+
+            synchronized (this) {
+                for (final String key : keys) {
+                    final Fragment fragment = fragments.remove(key);
+                    if (fragment != null) {
+                        size -= fragment.getSize();
+                        invalidations++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all fragments from the cache.
+     */
+    void clear() {
+        synchronized (index) {
+            index.clear();
+            synchronized (this) {
+                invalidations += fragments.size();
+                fragments.clear();
+                size = 0;
+            }
+        }
+    }
+
+    synchronized int getFragmentCount() {
+        return fragments.size();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Removes the key of the fragment from the index. The caller must hold
+     * the lock of the index.
+     */
+    private void unindex(final String key, final Fragment fragment) {
+        final Set<String> keys = index.get(fragment.getPath());
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                index.remove(fragment.getPath());
+            }
+        }
+    }
+
+    private static void addKeys(final List<String> keys, final Set<String> added) {
+        if (added != null) {
+            keys.addAll(added);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if one of the paths is equal to or an
+     * ancestor of the other path.
+     */
+    static boolean isRelated(final String path, final String other) {
+        return isSameOrAncestor(path, other) || isSameOrAncestor(other, path);
+    }
+
+    /**
+     * Returns <code>true</code> if the first path is equal to or an ancestor
+     * of the second path.
+     */
+    static boolean isSameOrAncestor(final String ancestor,
+            final String path) {
+        if (!path.startsWith(ancestor)) {
+            return false;
+        }
+        return path.length() == ancestor.length() || ancestor.endsWith("/")
+            || path.charAt(ancestor.length()) == '/';
+    }
+
+    /**
+     * A rendered fragment, which is either character data written through
+     * the response writer or binary data written through the response output
+     * stream.
+     */
+    static final class Fragment {
+
+        private final String path;
+
+        private final String text;
+
+        private final byte[] data;
+
+        Fragment(final String path, final String text) {
+            this.path = path;
+            this.text = text;
+            this.data = null;
+        }
+
+        Fragment(final String path, final byte[] data) {
+            this.path = path;
+            this.text = null;
+            this.data = data;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Returns the approximate number of bytes used by the rendered data
+         * of this fragment.
+         */
+        long getSize() {
+            return (text != null) ? 2L * text.length() : data.length;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyUnbounded;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.commons.osgi.OsgiUtil;
+import org.apache.sling.engine.EngineConstants;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>IncludeCacheFilter</code> is an include filter which caches the
+ * output of included resources of configured resource types and replays the
+ * cached output on later inclusions of the same resource with the same
+ * request path info.
+ * <p>
+ * Cached fragments are keyed by the user, the resource path and type, the
+ * selectors, extension and suffix as well as the values of request
+ * parameters configured as vary keys for the resource type. Fragments are
+ * invalidated by resource events for the resource subtree and are all
+ * dropped if a resource in the script search path changes.
+ * <p>
+ * The filter runs before the include filter of the
+ * {@link ConditionalRequestFilter}, which is not called for replayed
+ * fragments; the path of a replayed fragment is added to the validator of
+ * the including response by this filter instead.
+ * <p>
+ * The cache is only active if configured.
+ */
+@Component(metatype = true, policy = ConfigurationPolicy.REQUIRE, label = "%include.cache.name", description = "%include.cache.description")
+@Service(value = { Filter.class, EventHandler.class })
+@Properties( {
+    @Property(name = EngineConstants.SLING_FILTER_SCOPE, value = EngineConstants.FILTER_SCOPE_INCLUDE, propertyPrivate = true),
+    @Property(name = Constants.SERVICE_RANKING, intValue = IncludeCacheFilter.RANKING, propertyPrivate = true),
+    @Property(name = EventConstants.EVENT_TOPIC, value = {
+        SlingConstants.TOPIC_RESOURCE_ADDED,
+        SlingConstants.TOPIC_RESOURCE_CHANGED,
+        SlingConstants.TOPIC_RESOURCE_REMOVED }, propertyPrivate = true),
+    @Property(name = Constants.SERVICE_DESCRIPTION, value = "Include Fragment Cache Filter"),
+    @Property(name = Constants.SERVICE_VENDOR, value = "The Apache Software Foundation")
+})
+public class IncludeCacheFilter implements Filter, EventHandler {
+
+    public static final long DEFAULT_MAX_SIZE = 10L * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_FRAGMENT_SIZE = 64 * 1024;
+
+    /**
+     * The service ranking of the filter, lower than the ranking of the
+     * include filter of the {@link ConditionalRequestFilter} to run before
+     * it.
+     */
+    static final int RANKING = ConditionalRequestFilter.RANKING - 1;
+
+    /**
+     * The resource types whose output is cached. Each entry is either a
+     * resource type or a resource type followed by a vertical bar and a comma
+     * separated list of request parameter names whose values are part of the
+     * cache key, for example <code>myapp/components/nav|lang</code>.
+     */
+    @Property(unbounded = PropertyUnbounded.ARRAY)
+    private static final String PROP_RESOURCE_TYPES = "include.cache.resource.types";
+
+    @Property(longValue = DEFAULT_MAX_SIZE)
+    private static final String PROP_MAX_SIZE = "include.cache.size";
+
+    @Property(intValue = DEFAULT_MAX_FRAGMENT_SIZE)
+    private static final String PROP_MAX_FRAGMENT_SIZE = "include.cache.fragment.size";
+
+    private static final String[] NO_VARY_KEYS = new String[0];
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(IncludeCacheFilter.class);
+
+    /** The vary keys per cached resource type */
+    private Map<String, String[]> resourceTypes = new HashMap<String, String[]>();
+
+    private FragmentCache cache = new FragmentCache(DEFAULT_MAX_SIZE);
+
+    private int maxFragmentSize = DEFAULT_MAX_FRAGMENT_SIZE;
+
+    /**
+     * The script search path of the resource resolver, taken from the first
+     * cached request. A change below any of these paths drops all fragments.
+     */
+    private volatile String[] searchPath;
+
+    private ServiceRegistration printerRegistration;
+
+    // ---------- Filter interface
+
+    public void init(FilterConfig filterConfig) {
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response,
+            FilterChain chain) throws IOException, ServletException {
+
+        if (!(request instanceof SlingHttpServletRequest)
+            || !(response instanceof SlingHttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+        final Resource resource = slingRequest.getResource();
+        final String[] varyKeys = resourceTypes.get(resource.getResourceType());
+        if (varyKeys == null || !"GET".equals(slingRequest.getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (searchPath == null) {
+            searchPath = slingRequest.getResourceResolver().getSearchPath();
+        }
+
+        final FragmentCache cache = this.cache;
+        final String key = getKey(slingRequest, varyKeys);
+        final FragmentCache.Fragment fragment = cache.get(key);
+        if (fragment != null) {
+            slingRequest.getRequestProgressTracker().log(
+                "Replaying cached fragment for {0}", resource.getPath());
+            ConditionalRequestFilter.addDependency(request, resource.getPath());
+            if (fragment.getText() != null) {
+                response.getWriter().write(fragment.getText());
+            } else {
+                response.getOutputStream().write(fragment.getData());
+            }
+            return;
+        }
+
+        final CapturingResponseWrapper capture = new CapturingResponseWrapper(
+            (SlingHttpServletResponse) response, maxFragmentSize);
+        chain.doFilter(request, capture);
+
+        final String text = capture.getCapturedText();
+        if (text != null) {
+            cache.put(key, new FragmentCache.Fragment(resource.getPath(), text));
+        } else {
+            final byte[] data = capture.getCapturedData();
+            if (data != null) {
+                cache.put(key, new FragmentCache.Fragment(resource.getPath(),
+                    data));
+            }
+        }
+    }
+
+    public void destroy() {
+    }
+
+    // ---------- EventHandler interface
+
+    public void handleEvent(Event event) {
+        final Object path = event.getProperty(SlingConstants.PROPERTY_PATH);
+        if (!(path instanceof String)) {
+            return;
+        }
+
+        final String[] searchPath = this.searchPath;
+        if (searchPath != null) {
+            for (final String sp : searchPath) {
+                if (FragmentCache.isRelated(sp, (String) path)) {
+                    log.debug("handleEvent: Script change at {}, clearing cache",
+                        path);
+                    cache.clear();
+                    return;
+                }
+            }
+        }
+
+        cache.invalidate((String) path);
+    }
+
+    // ---------- Web Console configuration printer
+
+    /**
+     * Prints the configuration and the statistics of the fragment cache.
+     *
+     * @see org.apache.felix.webconsole.ConfigurationPrinter#printConfiguration(java.io.PrintWriter)
+     */
+    public void printConfiguration(final PrintWriter pw) {
+        final FragmentCache cache = this.cache;
+        final long hits = cache.getHits();
+        final long lookups = hits + cache.getMisses();
+
+        pw.println("Apache Sling Include Fragment Cache");
+        pw.println();
+        pw.println("Cached Resource Types:");
+        for (final Map.Entry<String, String[]> entry : resourceTypes.entrySet()) {
+            pw.print("  ");
+            pw.print(entry.getKey());
+            if (entry.getValue().length > 0) {
+                pw.print(" (vary: ");
+                for (int i = 0; i < entry.getValue().length; i++) {
+                    if (i > 0) {
+                        pw.print(", ");
+                    }
+                    pw.print(entry.getValue()[i]);
+                }
+                pw.print(")");
+            }
+            pw.println();
+        }
+        pw.println();
+        pw.println("Fragments     : " + cache.getFragmentCount());
+        pw.println("Size          : " + cache.getSize() + " / "
+            + cache.getMaxSize() + " bytes");
+        pw.println("Hits          : " + hits);
+        pw.println("Misses        : " + cache.getMisses());
+        pw.println("Hit Ratio     : "
+            + ((lookups > 0) ? (100 * hits / lookups) : 0) + "%");
+        pw.println("Evictions     : " + cache.getEvictions());
+        pw.println("Invalidations : " + cache.getInvalidations());
+    }
+
+    // ---------- SCR Integration
+
+    @Activate
+    protected void activate(final BundleContext bundleContext,
+            final Map<String, Object> config) {
+        final Map<String, String[]> types = new HashMap<String, String[]>();
+        final String[] typeConfigs = OsgiUtil.toStringArray(
+            config.get(PROP_RESOURCE_TYPES), null);
+        if (typeConfigs != null) {
+            for (final String typeConfig : typeConfigs) {
+                final int bar = typeConfig.indexOf('|');
+                if (bar < 0) {
+                    types.put(typeConfig.trim(), NO_VARY_KEYS);
+                } else {
+                    final String[] varyKeys = typeConfig.substring(bar + 1).split(",");
+                    for (int i = 0; i < varyKeys.length; i++) {
+                        varyKeys[i] = varyKeys[i].trim();
+                    }
+                    types.put(typeConfig.substring(0, bar).trim(), varyKeys);
+                }
+            }
+        }
+
+        this.resourceTypes = types;
+        this.maxFragmentSize = OsgiUtil.toInteger(
+            config.get(PROP_MAX_FRAGMENT_SIZE), DEFAULT_MAX_FRAGMENT_SIZE);
+        this.cache = new FragmentCache(OsgiUtil.toLong(
+            config.get(PROP_MAX_SIZE), DEFAULT_MAX_SIZE));
+
+        final Dictionary<String, String> serviceProps = new Hashtable<String, String>();
+        serviceProps.put(Constants.SERVICE_DESCRIPTION,
+            "Apache Sling Include Fragment Cache Configuration Printer");
+        serviceProps.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        serviceProps.put("felix.webconsole.label", "slingincludecache");
+        serviceProps.put("felix.webconsole.title", "Sling Include Cache");
+        serviceProps.put("felix.webconsole.configprinter.modes", "always");
+        printerRegistration = bundleContext.registerService(
+            IncludeCacheFilter.class.getName(), this, serviceProps);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (printerRegistration != null) {
+            printerRegistration.unregister();
+            printerRegistration = null;
+        }
+        cache.clear();
+        searchPath = null;
+    }
+
+    // ---------- internal
+
+    /**
+     * Returns the cache key for the request: The user, the resource path and
+     * type, the request path info and the values of the vary keys.
+     */
+    private String getKey(final SlingHttpServletRequest request,
+            final String[] varyKeys) {
+        final Resource resource = request.getResource();
+        final RequestPathInfo info = request.getRequestPathInfo();
+
+        final StringBuilder key = new StringBuilder();
+        key.append(request.getResourceResolver().getUserID());
+        key.append('\u0000').append(resource.getPath());
+        key.append('\u0000').append(resource.getResourceType());
+        key.append('\u0000').append(info.getSelectorString());
+        key.append('\u0000').append(info.getExtension());
+        key.append('\u0000').append(info.getSuffix());
+        for (final String varyKey : varyKeys) {
+            key.append('\u0000').append(request.getParameter(varyKey));
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The <code>ResponseCache</code> is the in-memory index of complete
+ * responses whose bodies are stored in files of a cache directory. The
+ * index is size bounded by the sum of the body sizes; least recently used
+ * responses are evicted and their files deleted once this sum exceeds the
+ * configured maximum size.
+ * <p>
+ * The index is not persisted: files found in the cache directory when the
+ * cache is created are deleted.
+ */
+class ResponseCache {
+
+    private final File directory;
+
+    private final long maxSize;
+
+    // access ordered map of responses, eldest entry is least recently used
+    private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<String, CachedResponse>(
+        16, 0.75f, true);
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long invalidations;
+
+    ResponseCache(final File directory, final long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        directory.mkdirs();
+        deleteFiles();
+    }
+
+    /**
+     * Creates a new file in the cache directory for the body of a response
+     * to be cached.
+     */
+    File createBodyFile() throws IOException {
+        return File.createTempFile("response", ".body", directory);
+    }
+
+    /**
+     * Returns the response stored under the given key or <code>null</code>
+     * if no such response is stored. Each call counts as a hit or a miss.
+     */
+    synchronized CachedResponse get(final String key) {
+        final CachedResponse response = responses.get(key);
+        if (response != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return response;
+    }
+
+    /**
+     * Stores the response under the given key evicting least recently used
+     * responses as required to stay within the maximum size. If the response
+     * is larger than the maximum size its body file is deleted and the
+     * response is not stored.
+     */
+    void put(final String key, final CachedResponse response) {
+        final List<CachedResponse> removed = new ArrayList<CachedResponse>();
+        synchronized (this) {
+            if (response.getSize() > maxSize) {
+                removed.add(response);
+            } else {
+                final CachedResponse old = responses.put(key, response);
+                if (old != null) {
+                    size -= old.getSize();
+                    removed.add(old);
+                }
+                size += response.getSize();
+
+                final Iterator<CachedResponse> ri = responses.values().iterator();
+                while (size > maxSize && ri.hasNext()) {
+                    final CachedResponse eldest = ri.next();
+                    ri.remove();
+                    size -= eldest.getSize();
+                    evictions++;
+                    removed.add(eldest);
+                }
+            }
+        }
+        delete(removed);
+    }
+
+    /**
+     * Removes all responses rendered from the resource at the given path,
+     * from a descendant or from an ancestor of it.
+     */
+    void invalidate(final String path) {
+        final List<CachedResponse> removed = new ArrayList<CachedResponse>();
+        synchronized (this) {
+            final Iterator<CachedResponse> ri = responses.values().iterator();
+            while (ri.hasNext()) {
+                final CachedResponse response = ri.next();
+                if (FragmentCache.isRelated(response.getPath(), path)) {
+                    ri.remove();
+                    size -= response.getSize();
+                    invalidations++;
+                    removed.add(response);
+                }
+            }
+        }
+        delete(removed);
+    }
+
+    /**
+     * Removes all responses from the cache.
+     */
+    void clear() {
+        final List<CachedResponse> removed;
+        synchronized (this) {
+            removed = new ArrayList<CachedResponse>(responses.values());
+            invalidations += responses.size();
+            responses.clear();
+            size = 0;
+        }
+        delete(removed);
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    synchronized int getResponseCount() {
+        return responses.size();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    // ---------- internal
+
+    /**
+     * Deletes the body files of removed responses. Responses still being
+     * sent from a deleted file are not affected on platforms where an open
+     * file remains readable after deletion; on other platforms the file is
+     * deleted on exit.
+     */
+    private void delete(final List<CachedResponse> removed) {
+        for (final CachedResponse response : removed) {
+            if (!response.getBody().delete()) {
+                response.getBody().deleteOnExit();
+            }
+        }
+    }
+
+    private void deleteFiles() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
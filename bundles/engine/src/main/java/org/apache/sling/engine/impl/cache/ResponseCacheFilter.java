@@ -0,0 +1,511 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyUnbounded;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.commons.osgi.OsgiUtil;
+import org.apache.sling.engine.EngineConstants;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ResponseCacheFilter</code> is a request filter which stores
+ * complete responses to anonymous GET requests and sends the stored response
+ * for later requests to the same resolved request path info.
+ * <p>
+ * Only requests without query string to resources below one of the
+ * configured paths are cached and only responses with status 200 which do
+ * not set cookies or forbid caching are stored. Responses varying by other
+ * request headers than <code>Accept-Encoding</code> are not stored; the
+ * compressed and the uncompressed variant of a response are stored
+ * separately. Response bodies are stored
+ * in files in the cache directory and are sent from the file channel on
+ * cache hits; the index of the stored responses is kept in memory.
+ * <p>
+ * Stored responses are invalidated by resource events for the resource
+ * subtree. A change to a resource of one of the configured flush resource
+ * types or below the script search path drops all stored responses.
+ * <p>
+ * The filter is ranked before the {@link ConditionalRequestFilter}, so the
+ * validators added by that filter are stored with the response and the
+ * conditional headers of requests for stored responses are evaluated
+ * against the stored <code>ETag</code> and <code>Last-Modified</code>
+ * headers.
+ * <p>
+ * The cache is only active if configured.
+ */
+@Component(metatype = true, policy = ConfigurationPolicy.REQUIRE, label = "%response.cache.name", description = "%response.cache.description")
+@Service(value = { Filter.class, EventHandler.class })
+@Properties( {
+    @Property(name = EngineConstants.SLING_FILTER_SCOPE, value = EngineConstants.FILTER_SCOPE_REQUEST, propertyPrivate = true),
+    @Property(name = Constants.SERVICE_RANKING, intValue = ResponseCacheFilter.RANKING, propertyPrivate = true),
+    @Property(name = EventConstants.EVENT_TOPIC, value = {
+        SlingConstants.TOPIC_RESOURCE_ADDED,
+        SlingConstants.TOPIC_RESOURCE_CHANGED,
+        SlingConstants.TOPIC_RESOURCE_REMOVED }, propertyPrivate = true),
+    @Property(name = Constants.SERVICE_DESCRIPTION, value = "Response Cache Filter"),
+    @Property(name = Constants.SERVICE_VENDOR, value = "The Apache Software Foundation")
+})
+public class ResponseCacheFilter implements Filter, EventHandler {
+
+    public static final long DEFAULT_MAX_SIZE = 100L * 1024 * 1024;
+
+    /**
+     * The service ranking of the filter, lower than the ranking of the
+     * {@link ConditionalRequestFilter} to run before it.
+     */
+    static final int RANKING = ConditionalRequestFilter.RANKING - 1;
+
+    /**
+     * The directory to store response bodies in. Relative paths are resolved
+     * against the data area of the bundle.
+     */
+    @Property(value = "responsecache")
+    private static final String PROP_DIRECTORY = "response.cache.directory";
+
+    @Property(longValue = DEFAULT_MAX_SIZE)
+    private static final String PROP_MAX_SIZE = "response.cache.size";
+
+    /**
+     * The path prefixes of resources whose responses are cached.
+     */
+    @Property(value = "/content")
+    private static final String PROP_PATHS = "response.cache.paths";
+
+    /**
+     * The resource types whose modification drops all cached responses.
+     */
+    @Property(unbounded = PropertyUnbounded.ARRAY)
+    private static final String PROP_FLUSH_TYPES = "response.cache.flush.resource.types";
+
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    private static final String HEADER_ETAG = "ETag";
+
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * The headers of a stored response which are sent with a
+     * <i>304/NOT MODIFIED</i> response, see RFC 2616, section 10.3.5.
+     */
+    private static final Set<String> NOT_MODIFIED_HEADERS = new HashSet<String>();
+    static {
+        NOT_MODIFIED_HEADERS.add(HEADER_ETAG.toLowerCase());
+        NOT_MODIFIED_HEADERS.add(HEADER_LAST_MODIFIED.toLowerCase());
+        NOT_MODIFIED_HEADERS.add("cache-control");
+        NOT_MODIFIED_HEADERS.add("content-location");
+        NOT_MODIFIED_HEADERS.add("expires");
+        NOT_MODIFIED_HEADERS.add("vary");
+    }
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(ResponseCacheFilter.class);
+
+    private ResponseCache cache;
+
+    private String[] paths;
+
+    private Set<String> flushTypes;
+
+    /**
+     * The script search path of the resource resolver, taken from the first
+     * cached request. A change below any of these paths drops all responses.
+     */
+    private volatile String[] searchPath;
+
+    private ServiceRegistration printerRegistration;
+
+    // ---------- Filter interface
+
+    public void init(FilterConfig filterConfig) {
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response,
+            FilterChain chain) throws IOException, ServletException {
+
+        if (!(request instanceof SlingHttpServletRequest)
+            || !(response instanceof SlingHttpServletResponse)
+            || !isCacheable((SlingHttpServletRequest) request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+        final SlingHttpServletResponse slingResponse = (SlingHttpServletResponse) response;
+
+        if (searchPath == null) {
+            searchPath = slingRequest.getResourceResolver().getSearchPath();
+        }
+
+        final ResponseCache cache = this.cache;
+        final String key = getKey(slingRequest);
+        final CachedResponse cached = cache.get(key);
+        if (cached != null && send(cached, slingRequest, slingResponse)) {
+            slingRequest.getRequestProgressTracker().log(
+                "Sent cached response for {0}", key);
+            return;
+        }
+
+        final File body = cache.createBodyFile();
+        final CachingResponseWrapper recorder = new CachingResponseWrapper(
+            slingResponse, body);
+        boolean stored = false;
+        try {
+            chain.doFilter(request, recorder);
+            recorder.finish();
+
+            final List<String[]> headers = recorder.getRecordedHeaders();
+            if (recorder.isCacheable()
+                && isCacheable(headers, AcceptEncoding.getCoding(slingRequest))) {
+                cache.put(key, new CachedResponse(
+                    slingRequest.getResource().getPath(),
+                    recorder.getRecordedStatus(), headers, body));
+                stored = true;
+            }
+        } finally {
+            if (!stored) {
+                try {
+                    recorder.finish();
+                } catch (IOException ioe) {
+                    // ignore, the file is deleted anyway
+                }
+                body.delete();
+            }
+        }
+    }
+
+    public void destroy() {
+    }
+
+    // ---------- EventHandler interface
+
+    public void handleEvent(Event event) {
+        final ResponseCache cache = this.cache;
+        final Object path = event.getProperty(SlingConstants.PROPERTY_PATH);
+        if (cache == null || !(path instanceof String)) {
+            return;
+        }
+
+        final Object type = event.getProperty(SlingConstants.PROPERTY_RESOURCE_TYPE);
+        if (type != null && flushTypes.contains(type)) {
+            log.debug("handleEvent: Change of flush resource type {} at {}",
+                type, path);
+            cache.clear();
+            return;
+        }
+
+        final String[] searchPath = this.searchPath;
+        if (searchPath != null) {
+            for (final String sp : searchPath) {
+                if (FragmentCache.isRelated(sp, (String) path)) {
+                    log.debug("handleEvent: Script change at {}, clearing cache",
+                        path);
+                    cache.clear();
+                    return;
+                }
+            }
+        }
+
+        cache.invalidate((String) path);
+    }
+
+    // ---------- Web Console configuration printer
+
+    /**
+     * Prints the configuration and the statistics of the response cache.
+     *
+     * @see org.apache.felix.webconsole.ConfigurationPrinter#printConfiguration(java.io.PrintWriter)
+     */
+    public void printConfiguration(final PrintWriter pw) {
+        final ResponseCache cache = this.cache;
+        final long hits = cache.getHits();
+        final long lookups = hits + cache.getMisses();
+
+        pw.println("Apache Sling Response Cache");
+        pw.println();
+        pw.println("Directory     : " + cache.getDirectory());
+        pw.print("Paths         :");
+        for (final String path : paths) {
+            pw.print(' ');
+            pw.print(path);
+        }
+        pw.println();
+        pw.println("Flush Types   : " + flushTypes);
+        pw.println();
+        pw.println("Responses     : " + cache.getResponseCount());
+        pw.println("Size          : " + cache.getSize() + " / "
+            + cache.getMaxSize() + " bytes");
+        pw.println("Hits          : " + hits);
+        pw.println("Misses        : " + cache.getMisses());
+        pw.println("Hit Ratio     : "
+            + ((lookups > 0) ? (100 * hits / lookups) : 0) + "%");
+        pw.println("Evictions     : " + cache.getEvictions());
+        pw.println("Invalidations : " + cache.getInvalidations());
+    }
+
+    // ---------- SCR Integration
+
+    @Activate
+    protected void activate(final BundleContext bundleContext,
+            final Map<String, Object> config) {
+        File directory = new File(OsgiUtil.toString(
+            config.get(PROP_DIRECTORY), "responsecache"));
+        if (!directory.isAbsolute()) {
+            directory = bundleContext.getDataFile(directory.getPath());
+        }
+
+        this.paths = OsgiUtil.toStringArray(config.get(PROP_PATHS),
+            new String[] { "/content" });
+        this.flushTypes = new HashSet<String>();
+        final String[] types = OsgiUtil.toStringArray(
+            config.get(PROP_FLUSH_TYPES), null);
+        if (types != null) {
+            for (final String type : types) {
+                this.flushTypes.add(type);
+            }
+        }
+        this.cache = new ResponseCache(directory, OsgiUtil.toLong(
+            config.get(PROP_MAX_SIZE), DEFAULT_MAX_SIZE));
+
+        final Dictionary<String, String> serviceProps = new Hashtable<String, String>();
+        serviceProps.put(Constants.SERVICE_DESCRIPTION,
+            "Apache Sling Response Cache Configuration Printer");
+        serviceProps.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        serviceProps.put("felix.webconsole.label", "slingresponsecache");
+        serviceProps.put("felix.webconsole.title", "Sling Response Cache");
+        serviceProps.put("felix.webconsole.configprinter.modes", "always");
+        printerRegistration = bundleContext.registerService(
+            ResponseCacheFilter.class.getName(), this, serviceProps);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (printerRegistration != null) {
+            printerRegistration.unregister();
+            printerRegistration = null;
+        }
+        cache.clear();
+        searchPath = null;
+    }
+
+    // ---------- internal
+
+    /**
+     * Returns <code>true</code> if the request is an anonymous GET request
+     * without query string for a resource below one of the configured paths.
+     * Anonymous requests are recognized by not having an authentication
+     * type: the remote user is set to the user of the resource resolver,
+     * which is the anonymous user for anonymous requests.
+     */
+    private boolean isCacheable(final SlingHttpServletRequest request) {
+        if (!"GET".equals(request.getMethod())
+            || request.getQueryString() != null
+            || request.getAuthType() != null) {
+            return false;
+        }
+
+        final String path = request.getResource().getPath();
+        for (final String prefix : paths) {
+            if (FragmentCache.isSameOrAncestor(prefix, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>false</code> if the headers set a cookie, prevent shared
+     * caching of the response or make the response vary by other request
+     * headers than the accepted content coding. A response with a content
+     * coding is only cacheable if the coding is the accepted coding, under
+     * which the response is stored.
+     */
+    private boolean isCacheable(final List<String[]> headers,
+            final String acceptedCoding) {
+        for (final String[] header : headers) {
+            if ("Set-Cookie".equalsIgnoreCase(header[0])) {
+                return false;
+            }
+            if (AcceptEncoding.HEADER_VARY.equalsIgnoreCase(header[0])) {
+                for (final String name : header[1].split(",")) {
+                    if (!AcceptEncoding.HEADER_ACCEPT_ENCODING.equalsIgnoreCase(name.trim())) {
+                        return false;
+                    }
+                }
+            }
+            if (AcceptEncoding.HEADER_CONTENT_ENCODING.equalsIgnoreCase(header[0])
+                && !header[1].trim().equalsIgnoreCase(acceptedCoding)) {
+                return false;
+            }
+            if ("Cache-Control".equalsIgnoreCase(header[0])) {
+                final String value = header[1].toLowerCase();
+                if (value.indexOf("private") >= 0
+                    || value.indexOf("no-cache") >= 0
+                    || value.indexOf("no-store") >= 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the key of the response: The request path info and the
+     * accepted content coding.
+     */
+    private String getKey(final SlingHttpServletRequest request) {
+        final RequestPathInfo info = request.getRequestPathInfo();
+        final StringBuilder key = new StringBuilder();
+        final String coding = AcceptEncoding.getCoding(request);
+        if (coding != null) {
+            key.append(coding);
+        }
+        key.append('\u0000').append(info.getResourcePath());
+        if (info.getSelectorString() != null) {
+            key.append('.').append(info.getSelectorString());
+        }
+        if (info.getExtension() != null) {
+            key.append('.').append(info.getExtension());
+        }
+        if (info.getSuffix() != null) {
+            key.append(info.getSuffix());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Sends the cached response or <i>304/NOT MODIFIED</i> if the conditional
+     * headers of the request match the stored validators. Returns
+     * <code>false</code> if the body file of the cached response has been
+     * removed in the meantime and nothing has been sent.
+     */
+    private boolean send(final CachedResponse cached,
+            final SlingHttpServletRequest request,
+            final SlingHttpServletResponse response) throws IOException {
+        if (isNotModified(request, cached)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            for (final String[] header : cached.getHeaders()) {
+                if (NOT_MODIFIED_HEADERS.contains(header[0].toLowerCase())) {
+                    response.addHeader(header[0], header[1]);
+                }
+            }
+            return true;
+        }
+
+        final FileInputStream in;
+        try {
+            in = new FileInputStream(cached.getBody());
+        } catch (IOException ioe) {
+            return false;
+        }
+
+        try {
+            response.setStatus(cached.getStatus());
+            for (final String[] header : cached.getHeaders()) {
+                if (!HEADER_CONTENT_LENGTH.equalsIgnoreCase(header[0])) {
+                    response.addHeader(header[0], header[1]);
+                }
+            }
+            response.setContentLength((int) cached.getSize());
+
+            final FileChannel channel = in.getChannel();
+            final WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            final long size = channel.size();
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if the conditional headers of the request
+     * match the validators of the cached response. As required by RFC 2616
+     * the <code>If-Modified-Since</code> header is only considered if there
+     * is no <code>If-None-Match</code> header.
+     */
+    private boolean isNotModified(final SlingHttpServletRequest request,
+            final CachedResponse cached) {
+        final String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            final String etag = cached.getHeader(HEADER_ETAG);
+            return etag != null && ValidatorCache.matches(ifNoneMatch, etag);
+        }
+
+        final String lastModifiedHeader = cached.getHeader(HEADER_LAST_MODIFIED);
+        if (lastModifiedHeader == null) {
+            return false;
+        }
+        final long lastModified = CachingResponseWrapper.parseDate(lastModifiedHeader);
+        try {
+            final long ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+            return ifModifiedSince >= 0 && lastModified >= 0
+                && lastModified <= ifModifiedSince;
+        } catch (IllegalArgumentException iae) {
+            // illegal date header value, ignore
+            return false;
+        }
+    }
+}
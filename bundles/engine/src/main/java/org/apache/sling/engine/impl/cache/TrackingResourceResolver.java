@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceWrapper;
+
+/**
+ * The <code>TrackingResourceResolver</code> records the paths of the
+ * resources read through it as dependencies of a validator. Resources
+ * returned by the resolver are wrapped such that their parents, children and
+ * resource resolver are tracked as well.
+ * <p>
+ * Queries make the dependencies unknown. Items read through the JCR API of
+ * an adapted session are not tracked, but nodes below a read resource are
+ * covered by the dependency on the resource.
+ */
+class TrackingResourceResolver implements ResourceResolver {
+
+    private final ResourceResolver delegatee;
+
+    private final ValidatorCache.Validator validator;
+
+    TrackingResourceResolver(final ResourceResolver delegatee,
+            final ValidatorCache.Validator validator) {
+        this.delegatee = delegatee;
+        this.validator = validator;
+    }
+
+    /**
+     * Returns the resource wrapped such that reading its relatives is
+     * tracked by this resolver.
+     */
+    Resource wrap(final Resource resource) {
+        if (resource == null || resource instanceof TrackedResource) {
+            return resource;
+        }
+        return new TrackedResource(resource);
+    }
+
+    private static Resource unwrap(Resource resource) {
+        while (resource instanceof TrackedResource) {
+            resource = ((TrackedResource) resource).getResource();
+        }
+        return resource;
+    }
+
+    private Resource track(final Resource resource) {
+        if (resource != null) {
+            validator.addDependency(resource.getPath());
+        }
+        return wrap(resource);
+    }
+
+    private Iterator<Resource> track(final Resource parent,
+            final Iterator<Resource> children) {
+        validator.addDependency(parent.getPath());
+        return new Iterator<Resource>() {
+            public boolean hasNext() {
+                return children.hasNext();
+            }
+
+            public Resource next() {
+                return wrap(children.next());
+            }
+
+            public void remove() {
+                children.remove();
+            }
+        };
+    }
+
+    // ---------- ResourceResolver interface
+
+    public Resource resolve(HttpServletRequest request, String absPath) {
+        return track(delegatee.resolve(request, absPath));
+    }
+
+    public Resource resolve(String absPath) {
+        return track(delegatee.resolve(absPath));
+    }
+
+    @SuppressWarnings("deprecation")
+    public Resource resolve(HttpServletRequest request) {
+        return track(delegatee.resolve(request));
+    }
+
+    public String map(String resourcePath) {
+        return delegatee.map(resourcePath);
+    }
+
+    public String map(HttpServletRequest request, String resourcePath) {
+        return delegatee.map(request, resourcePath);
+    }
+
+    public Resource getResource(String path) {
+        final Resource resource = delegatee.getResource(path);
+        if (resource == null && path.startsWith("/")) {
+            // the response changes once the resource is created
+            validator.addDependency(path);
+        }
+        return track(resource);
+    }
+
+    public Resource getResource(Resource base, String path) {
+        final Resource resource = delegatee.getResource(unwrap(base), path);
+        if (resource == null) {
+            validator.addDependency(path.startsWith("/") ? path : base.getPath());
+        }
+        return track(resource);
+    }
+
+    public String[] getSearchPath() {
+        return delegatee.getSearchPath();
+    }
+
+    public Iterator<Resource> listChildren(Resource parent) {
+        return track(parent, delegatee.listChildren(unwrap(parent)));
+    }
+
+    public Iterator<Resource> findResources(String query, String language) {
+        validator.untrack();
+        return delegatee.findResources(query, language);
+    }
+
+    public Iterator<Map<String, Object>> queryResources(String query,
+            String language) {
+        validator.untrack();
+        return delegatee.queryResources(query, language);
+    }
+
+    public ResourceResolver clone(Map<String, Object> authenticationInfo)
+            throws LoginException {
+        validator.untrack();
+        return delegatee.clone(authenticationInfo);
+    }
+
+    public boolean isLive() {
+        return delegatee.isLive();
+    }
+
+    public void close() {
+        delegatee.close();
+    }
+
+    public String getUserID() {
+        return delegatee.getUserID();
+    }
+
+    public Iterator<String> getAttributeNames() {
+        return delegatee.getAttributeNames();
+    }
+
+    public Object getAttribute(String name) {
+        return delegatee.getAttribute(name);
+    }
+
+    public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+        return delegatee.adaptTo(type);
+    }
+
+    /**
+     * A resource whose relatives are read through the tracking resolver.
+     * The parent is not a dependency: changes to ancestors invalidate the
+     * validator anyway.
+     */
+    private class TrackedResource extends ResourceWrapper {
+
+        TrackedResource(final Resource resource) {
+            super(resource);
+        }
+
+        @Override
+        public ResourceResolver getResourceResolver() {
+            return TrackingResourceResolver.this;
+        }
+
+        @Override
+        public Resource getParent() {
+            return wrap(super.getParent());
+        }
+
+        @Override
+        public Resource getChild(String relPath) {
+            return TrackingResourceResolver.this.getResource(this, relPath);
+        }
+
+        @Override
+        public Iterator<Resource> listChildren() {
+            return TrackingResourceResolver.this.listChildren(this);
+        }
+    }
+}
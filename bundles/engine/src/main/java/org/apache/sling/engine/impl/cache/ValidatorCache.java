@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The <code>ValidatorCache</code> keeps the validators (entity tag and last
+ * modification time) of rendered responses. It is bounded by the number of
+ * validators; the least recently used validators are evicted first.
+ * <p>
+ * Each validator depends on the paths of the resources read while rendering
+ * the response. A change to a resource invalidates all validators depending
+ * on the resource itself, on one of its descendants or on one of its
+ * ancestors.
+ */
+class ValidatorCache {
+
+    /** The maximum number of paths a validator depends on */
+    static final int MAX_DEPENDENCIES = 256;
+
+    /**
+     * The number of recent changes remembered to check validators created
+     * while rendering against changes made during rendering.
+     */
+    private static final int MAX_CHANGES = 1000;
+
+    private final LinkedHashMap<String, Validator> validators;
+
+    private long generation;
+
+    /** The changed paths, most recent last, see put */
+    private final LinkedList<String> changes = new LinkedList<String>();
+
+    /** The number of changes since the cache has been created */
+    private long changeCount;
+
+    ValidatorCache(final int maxEntries) {
+        this.validators = new LinkedHashMap<String, Validator>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Validator> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Creates a new validator for a response rendered from the resource at
+     * the given path. The validator is not stored before
+     * {@link #put(String, Validator)} is called.
+     *
+     *
+     * @param path The path of the rendered resource
+     * @param variant The name of the response variant, such as the accepted
+     *            content coding, which is appended to the entity tag or
+     *            <code>null</code>
+     */
+    synchronized Validator create(final String path, final String variant) {
+        // Last-Modified has a resolution of one second
+        final long lastModified = (System.currentTimeMillis() / 1000) * 1000;
+        final StringBuilder etag = new StringBuilder("\"");
+        etag.append(Long.toHexString(lastModified)).append('-');
+        etag.append(Long.toHexString(++generation));
+        if (variant != null) {
+            etag.append('-').append(variant);
+        }
+        etag.append('"');
+        return new Validator(path, etag.toString(), lastModified, changeCount);
+    }
+
+    synchronized Validator get(final String key) {
+        return validators.get(key);
+    }
+
+    /**
+     * Stores the validator unless a resource it depends on has changed since
+     * the validator has been created, in which case the response may have
+     * been rendered from outdated content. The validator is not stored either
+     * if its dependencies are unknown or more changes happened than are
+     * remembered.
+     */
+    synchronized void put(final String key, final Validator validator) {
+        final long missed = changeCount - validator.getCreated();
+        if (!validator.isTracked() || missed > changes.size()) {
+            return;
+        }
+        final ListIterator<String> ci = changes.listIterator(changes.size() - (int) missed);
+        while (ci.hasNext()) {
+            if (validator.dependsOn(ci.next())) {
+                return;
+            }
+        }
+        validators.put(key, validator);
+    }
+
+    /**
+     * Removes all validators of responses depending on the resource at the
+     * given path, on a descendant or on an ancestor of it.
+     */
+    synchronized void invalidate(final String path) {
+        changeCount++;
+        changes.add(path);
+        if (changes.size() > MAX_CHANGES) {
+            changes.removeFirst();
+        }
+        for (Iterator<Validator> vi = validators.values().iterator(); vi.hasNext();) {
+            if (vi.next().dependsOn(path)) {
+                vi.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        // forget the changes, such that no validator being created is stored
+        changeCount++;
+        changes.clear();
+        validators.clear();
+    }
+
+    synchronized int size() {
+        return validators.size();
+    }
+
+    /**
+     * The validator of a rendered response.
+     */
+    static final class Validator {
+
+        private final String path;
+
+        private final String etag;
+
+        private final long lastModified;
+
+        private final long created;
+
+        /**
+         * The paths of the resources the response depends on. Paths whose
+         * ancestor is already contained are not added.
+         */
+        private final Set<String> dependencies = new HashSet<String>();
+
+        private boolean tracked = true;
+
+        Validator(final String path, final String etag,
+                final long lastModified, final long created) {
+            this.path = path;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.created = created;
+            this.dependencies.add(path);
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the quoted strong entity tag.
+         */
+        String getETag() {
+            return etag;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        long getCreated() {
+            return created;
+        }
+
+        /**
+         * Records that the response depends on the resource at the given
+         * absolute path and its descendants. If the response depends on too
+         * many resources it is not tracked anymore.
+         */
+        synchronized void addDependency(final String dependency) {
+            if (!tracked || !dependency.startsWith("/")) {
+                return;
+            }
+
+            // an ancestor already covers the path
+            int slash = dependency.length();
+            while (slash > 0) {
+                if (dependencies.contains(dependency.substring(0, slash))) {
+                    return;
+                }
+                slash = dependency.lastIndexOf('/', slash - 1);
+            }
+            if (dependencies.contains("/")) {
+                return;
+            }
+
+            if (dependencies.size() >= MAX_DEPENDENCIES) {
+                untrack();
+            } else {
+                dependencies.add(dependency);
+            }
+        }
+
+        /**
+         * Marks the response as depending on resources which cannot be
+         * known, such as the results of a query.
+         */
+        synchronized void untrack() {
+            tracked = false;
+            dependencies.clear();
+        }
+
+        synchronized boolean isTracked() {
+            return tracked;
+        }
+
+        synchronized Set<String> getDependencies() {
+            return new HashSet<String>(dependencies);
+        }
+
+        /**
+         * Returns <code>true</code> if a change of the resource at the given
+         * path may change the response.
+         */
+        synchronized boolean dependsOn(final String changed) {
+            if (!tracked) {
+                return true;
+            }
+            for (final String dependency : dependencies) {
+                if (FragmentCache.isRelated(dependency, changed)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns <code>true</code> if the value of an
+         * <code>If-None-Match</code> header matches this validator. Weak
+         * comparison is used as allowed for <code>If-None-Match</code>.
+         */
+        boolean matches(final String ifNoneMatch) {
+            return ValidatorCache.matches(ifNoneMatch, etag);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the value of an
+     * <code>If-None-Match</code> header matches the given quoted entity tag
+     * using weak comparison.
+     */
+    static boolean matches(final String ifNoneMatch, final String etag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
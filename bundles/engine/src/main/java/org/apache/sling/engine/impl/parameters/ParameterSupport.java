@@ -18,6 +18,10 @@
  */
 package org.apache.sling.engine.impl.parameters;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.Enumeration;
 import java.util.Iterator;
@@ -29,13 +33,18 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.collections.iterators.IteratorEnumeration;
 import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.RequestContext;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.apache.commons.fileupload.servlet.ServletRequestContext;
+import org.apache.commons.fileupload.util.Streams;
 import org.apache.sling.api.request.RequestParameter;
 import org.apache.sling.api.request.RequestParameterMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ParameterSupport {
 
@@ -48,10 +57,42 @@ public class ParameterSupport {
      */
     private static final String ATTR_JETTY_QUERY_ENCODING = "org.mortbay.jetty.Request.queryEncoding";
 
+    /**
+     * The default size in bytes above which uploaded multipart items are
+     * written to temporary files instead of being kept in memory (value is
+     * 256000).
+     */
+    public static final int DEFAULT_FILE_SIZE_THRESHOLD = 256000;
+
+    /** default log */
+    private static final Logger log = LoggerFactory.getLogger(ParameterSupport.class);
+
+    /**
+     * The multipart request handling, replaced as a whole by
+     * {@link #configure(long, String, long, int, boolean)} such that each
+     * request uses a consistent configuration.
+     */
+    private static volatile MultipartConfig multipartConfig = new MultipartConfig(
+        -1, null, -1, DEFAULT_FILE_SIZE_THRESHOLD, false);
+
     private final HttpServletRequest servletRequest;
 
+    /** The multipart configuration at the time the request is parsed */
+    private final MultipartConfig config;
+
     private ParameterMap postParameterMap;
 
+    /**
+     * The multipart items not read yet if the request is parsed
+     * incrementally. This is <code>null</code> if the request is not a
+     * multipart request, if it is not parsed incrementally or after all items
+     * have been read.
+     */
+    private FileItemIterator pendingItems;
+
+    /** The factory used to create items while parsing incrementally */
+    private DiskFileItemFactory pendingItemFactory;
+
     private boolean requestDataUsed;
 
     /**
@@ -69,6 +110,45 @@ public class ParameterSupport {
         Util.setDefaultFixEncoding(encoding);
     }
 
+    /**
+     * Configures the handling of multipart requests.
+     *
+     * @param maxRequestSize The maximum size in bytes of a multipart request
+     *            or -1 for no limit
+     * @param fileLocation The directory to write temporary files of uploaded
+     *            items to. If this is <code>null</code> or empty or does not
+     *            denote a directory the <code>java.io.tmpdir</code> system
+     *            property is used.
+     * @param maxFileSize The maximum size in bytes of a single uploaded item
+     *            or -1 for no limit
+     * @param fileSizeThreshold The size in bytes above which uploaded items
+     *            are written to temporary files. If this is negative the
+     *            {@link #DEFAULT_FILE_SIZE_THRESHOLD} is used.
+     * @param streamingUpload Whether multipart requests are parsed
+     *            incrementally such that form fields are available as soon as
+     *            they have been read from the request instead of only after
+     *            the complete request body has been read. A
+     *            <code>_charset_</code> field read after other fields decodes
+     *            the parameters read so far again, values already obtained
+     *            keep the encoding known when they were read.
+     */
+    public static void configure(final long maxRequestSize,
+            final String fileLocation, final long maxFileSize,
+            final int fileSizeThreshold, final boolean streamingUpload) {
+        File location = null;
+        if (fileLocation != null && fileLocation.length() > 0) {
+            location = new File(fileLocation);
+            if (!location.isDirectory() && !location.mkdirs()) {
+                log.warn(
+                    "configure: Cannot use {} for temporary upload files, using java.io.tmpdir",
+                    fileLocation);
+                location = null;
+            }
+        }
+        multipartConfig = new MultipartConfig(maxRequestSize, location,
+            maxFileSize, fileSizeThreshold, streamingUpload);
+    }
+
     public static ParameterSupport getInstance(ServletRequest servletRequest) {
         ParameterSupport instance = (ParameterSupport) servletRequest.getAttribute(ATTR_NAME);
         if (instance == null) {
@@ -86,6 +166,7 @@ public class ParameterSupport {
 
     private ParameterSupport(HttpServletRequest servletRequest) {
         this.servletRequest = servletRequest;
+        this.config = multipartConfig;
     }
 
     private HttpServletRequest getServletRequest() {
@@ -97,7 +178,7 @@ public class ParameterSupport {
     }
 
     public String getParameter(String name) {
-        return getRequestParameterMapInternal().getStringValue(name);
+        return getRequestParameterMapInternal(name).getStringValue(name);
     }
 
     public String[] getParameterValues(String name) {
@@ -115,7 +196,7 @@ public class ParameterSupport {
     }
 
     public RequestParameter getRequestParameter(String name) {
-        return getRequestParameterMapInternal().getValue(name);
+        return getRequestParameterMapInternal(name).getValue(name);
     }
 
     public RequestParameter[] getRequestParameters(String name) {
@@ -126,7 +207,33 @@ public class ParameterSupport {
         return getRequestParameterMapInternal();
     }
 
+    /**
+     * Returns the parameter map after all parameters have been read from the
+     * request.
+     */
     private ParameterMap getRequestParameterMapInternal() {
+        final ParameterMap parameters = getParameterMapStarted();
+        while (this.pendingItems != null) {
+            this.readNextItem(parameters);
+        }
+        return parameters;
+    }
+
+    /**
+     * Returns the parameter map after at least the first value of the named
+     * parameter has been read from the request. If the request is parsed
+     * incrementally, items following the first value of the parameter are
+     * only read once they are asked for.
+     */
+    private ParameterMap getRequestParameterMapInternal(final String name) {
+        final ParameterMap parameters = getParameterMapStarted();
+        while (this.pendingItems != null && !parameters.containsKey(name)) {
+            this.readNextItem(parameters);
+        }
+        return parameters;
+    }
+
+    private ParameterMap getParameterMapStarted() {
         if (this.postParameterMap == null) {
 
             // SLING-152 Get parameters from the servlet Container
@@ -138,6 +245,16 @@ public class ParameterSupport {
             if ("POST".equals(this.getServletRequest().getMethod())) {
                 if (ServletFileUpload.isMultipartContent(new ServletRequestContext(
                     this.getServletRequest()))) {
+                    if (config.streamingUpload) {
+                        // fix the container parameters now, multipart items
+                        // are fixed as they are read
+                        Util.fixEncoding(parameters);
+                        this.startMultiPartPost();
+                        this.requestDataUsed = true;
+                        this.postParameterMap = parameters;
+                        return parameters;
+                    }
+
                     this.parseMultiPartPost(parameters);
                     this.requestDataUsed = true;
                 }
@@ -182,31 +299,145 @@ public class ParameterSupport {
     private void parseMultiPartPost(ParameterMap parameters) {
         // parameters not read yet, read now
         // Create a factory for disk-based file items
-        DiskFileItemFactory factory = new DiskFileItemFactory();
-        factory.setSizeThreshold(256000);
+        DiskFileItemFactory factory = createItemFactory();
 
         // Create a new file upload handler
-        ServletFileUpload upload = new ServletFileUpload(factory);
-        upload.setSizeMax(-1);
-
-        RequestContext rc = new ServletRequestContext(this.getServletRequest()) {
-            public String getCharacterEncoding() {
-                String enc = super.getCharacterEncoding();
-                return (enc != null) ? enc : Util.ENCODING_DIRECT;
-            }
-        };
+        ServletFileUpload upload = createUpload(factory);
 
         // Parse the request
         try {
-            List<?> /* FileItem */items = upload.parseRequest(rc);
+            List<?> /* FileItem */items = upload.parseRequest(createRequestContext());
             for (Iterator<?> ii = items.iterator(); ii.hasNext();) {
                 FileItem fileItem = (FileItem) ii.next();
                 RequestParameter pp = new MultipartRequestParameter(fileItem);
                 parameters.addParameter(fileItem.getFieldName(), pp);
             }
         } catch (FileUploadException fue) {
-            // TODO: log
+            log.error("parseMultiPartPost: Error parsing request", fue);
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Prepares reading the multipart request incrementally. The items are
+     * read by {@link #readNextItem(ParameterMap)} as parameters are asked
+     * for.
+     */
+    private void startMultiPartPost() {
+        final DiskFileItemFactory factory = createItemFactory();
+        final ServletFileUpload upload = createUpload(factory);
+        try {
+            this.pendingItems = upload.getItemIterator(createRequestContext());
+            this.pendingItemFactory = factory;
+        } catch (FileUploadException fue) {
+            log.error("startMultiPartPost: Error parsing request", fue);
+        } catch (IOException ioe) {
+            log.error("startMultiPartPost: Error reading request", ioe);
+        }
+    }
+
+    /**
+     * Reads the next item of an incrementally parsed multipart request and
+     * adds it to the parameter map. Items exceeding the file size threshold
+     * are spooled to a temporary file while being read. After the last item
+     * has been read or if reading fails, the {@link #pendingItems} field is
+     * cleared.
+     */
+    private void readNextItem(final ParameterMap parameters) {
+        try {
+            if (!this.pendingItems.hasNext()) {
+                this.pendingItems = null;
+                this.pendingItemFactory = null;
+                return;
+            }
+
+            final FileItemStream itemStream = this.pendingItems.next();
+            final FileItem fileItem = this.pendingItemFactory.createItem(
+                itemStream.getFieldName(), itemStream.getContentType(),
+                itemStream.isFormField(), itemStream.getName());
+            final InputStream ins = itemStream.openStream();
+            final OutputStream out = fileItem.getOutputStream();
+            Streams.copy(ins, out, true);
+
+            // apply the form encoding known so far, the _charset_
+            // parameter is expected to precede the fields it applies to
+            final RequestParameter pp = new MultipartRequestParameter(fileItem);
+            final String name = Util.fixEncoding(fileItem.getFieldName(), pp,
+                Util.getFormEncoding(parameters));
+            parameters.addParameter(name, pp);
+
+            // a later _charset_ applies to the parameters read before, as
+            // if the request had been parsed completely
+            if (Util.PARAMETER_FORMENCODING.equals(name)) {
+                Util.fixEncoding(parameters);
+            }
+
+        } catch (FileUploadException fue) {
+            log.error("readNextItem: Error parsing request", fue);
+            this.pendingItems = null;
+            this.pendingItemFactory = null;
+        } catch (IOException ioe) {
+            log.error("readNextItem: Error reading request", ioe);
+            this.pendingItems = null;
+            this.pendingItemFactory = null;
+        }
+    }
+
+    private DiskFileItemFactory createItemFactory() {
+        DiskFileItemFactory factory = new DiskFileItemFactory();
+        factory.setSizeThreshold(config.fileSizeThreshold);
+        if (config.fileLocation != null) {
+            factory.setRepository(config.fileLocation);
+        }
+        return factory;
+    }
+
+    private ServletFileUpload createUpload(final DiskFileItemFactory factory) {
+        ServletFileUpload upload = new ServletFileUpload(factory);
+        upload.setSizeMax(config.maxRequestSize);
+        upload.setFileSizeMax(config.maxFileSize);
+        return upload;
+    }
+
+    private RequestContext createRequestContext() {
+        return new ServletRequestContext(this.getServletRequest()) {
+            public String getCharacterEncoding() {
+                String enc = super.getCharacterEncoding();
+                return (enc != null) ? enc : Util.ENCODING_DIRECT;
+            }
+        };
+    }
+
+
+    /**
+     * The immutable configuration of multipart request handling.
+     */
+    private static final class MultipartConfig {
+
+        /** The maximum size of a complete multipart request, -1 for no limit */
+        final long maxRequestSize;
+
+        /** The directory for temporary upload files, null for java.io.tmpdir */
+        final File fileLocation;
+
+        /** The maximum size of a single uploaded item, -1 for no limit */
+        final long maxFileSize;
+
+        /** The size above which uploaded items are written to disk */
+        final int fileSizeThreshold;
+
+        /** Whether multipart requests are parsed incrementally */
+        final boolean streamingUpload;
+
+        MultipartConfig(final long maxRequestSize, final File fileLocation,
+                final long maxFileSize, final int fileSizeThreshold,
+                final boolean streamingUpload) {
+            this.maxRequestSize = (maxRequestSize > 0) ? maxRequestSize : -1;
+            this.fileLocation = fileLocation;
+            this.maxFileSize = (maxFileSize > 0) ? maxFileSize : -1;
+            this.fileSizeThreshold = (fileSizeThreshold >= 0)
+                    ? fileSizeThreshold
+                    : DEFAULT_FILE_SIZE_THRESHOLD;
+            this.streamingUpload = streamingUpload;
+        }
+    }
+}
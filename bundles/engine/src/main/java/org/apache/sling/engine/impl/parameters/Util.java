@@ -85,7 +85,13 @@ class Util {
         return new ByteArrayInputStream(data);
     }
 
-    static void fixEncoding(ParameterMap parameterMap) {
+    /**
+     * Returns the form encoding to apply to the parameters of the given map.
+     * This is the value of the <code>_charset_</code> parameter if contained
+     * in the map and supported by the platform. Otherwise the
+     * {@link #defaultFixEncoding} is returned.
+     */
+    static String getFormEncoding(ParameterMap parameterMap) {
         // default the encoding to defaultFixEncoding
         String formEncoding = defaultFixEncoding;
 
@@ -98,6 +104,32 @@ class Util {
             formEncoding = validateEncoding(formEncoding);
         }
 
+        return formEncoding;
+    }
+
+    /**
+     * Applies the form encoding to a single parameter which has not been
+     * added to a parameter map yet and returns the parameter name re-encoded
+     * with the form encoding. This is used while parsing multipart requests
+     * incrementally, where the parameters are fixed as they are read instead
+     * of all at once by {@link #fixEncoding(ParameterMap)}.
+     */
+    static String fixEncoding(String name, RequestParameter parameter,
+            String formEncoding) {
+        if (parameter instanceof AbstractRequestParameter) {
+            AbstractRequestParameter param = (AbstractRequestParameter) parameter;
+            final String encoding = param.getEncoding();
+            if (!formEncoding.equalsIgnoreCase(encoding)) {
+                param.setEncoding(formEncoding);
+                return reencode(name, encoding, formEncoding);
+            }
+        }
+        return name;
+    }
+
+    static void fixEncoding(ParameterMap parameterMap) {
+        final String formEncoding = getFormEncoding(parameterMap);
+
         // map for rename parameters due to encoding fixes
         LinkedHashMap<String, String> renameMap = new LinkedHashMap<String, String>();
 
@@ -110,13 +142,15 @@ class Util {
                     AbstractRequestParameter param = (AbstractRequestParameter) params[i];
 
                     // fix encoding if different
-                    if (!formEncoding.equalsIgnoreCase(param.getEncoding())) {
+                    final String encoding = param.getEncoding();
+                    if (!formEncoding.equalsIgnoreCase(encoding)) {
                         param.setEncoding(formEncoding);
 
                         // prepare the parameter for renaming
                         if (parName == null) {
                             parName = paramEntry.getKey();
-                            String name = reencode(parName, formEncoding);
+                            String name = reencode(parName, encoding,
+                                formEncoding);
                             if (!parName.equals(name)) {
                                 renameMap.put(parName, name);
                             }
@@ -134,11 +168,17 @@ class Util {
         }
     }
 
-    private static String reencode(String parName, String encoding) {
+    private static String reencode(String parName, String fromEncoding,
+            String encoding) {
+        // names of parameters not fixed yet are decoded with ISO-8859-1
+        if (fromEncoding == null) {
+            fromEncoding = ENCODING_DIRECT;
+        }
+
         // re-encode the parameter to the encoding
-        if (!ENCODING_DIRECT.equalsIgnoreCase(encoding)) {
+        if (!fromEncoding.equalsIgnoreCase(encoding)) {
             try {
-                return new String(parName.getBytes(ENCODING_DIRECT), encoding);
+                return new String(parName.getBytes(fromEncoding), encoding);
             } catch (UnsupportedEncodingException uee) {
                 // unexpected, as the encoding is assumed to have been checked !
             }
@@ -157,6 +157,12 @@ public class RequestData {
      */
     private int peakRecusionDepth;
 
+    /**
+     * The number of resources processed, that is the request resource and
+     * all included or forwarded resources.
+     */
+    private int resourceCounter;
+
     public static void setMaxCallCounter(int maxCallCounter) {
         RequestData.maxCallCounter = maxCallCounter;
     }
@@ -530,6 +536,7 @@ public class RequestData {
         if (this.recursionDepth > this.peakRecusionDepth) {
             this.peakRecusionDepth = this.recursionDepth;
         }
+        this.resourceCounter++;
         currentContentData = new ContentData(resource, requestPathInfo);
         return currentContentData;
     }
@@ -558,6 +565,10 @@ public class RequestData {
     public int getServletCallCount() {
         return servletCallCounter;
     }
+
+    public int getResourceCount() {
+        return resourceCounter;
+    }
     
     public long getElapsedTimeMsec() {
         return System.currentTimeMillis() - startTimestamp;
@@ -0,0 +1,389 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.request;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestUtil;
+import org.apache.sling.api.request.ResponseUtil;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Felix OSGi console plugin that displays the slowest requests processed by
+ * Sling in the current and the previous time window together with their
+ * request progress tracker timeline. The recorded requests may also be
+ * exported as JSON from <code>slowrequests.json</code> or by adding the
+ * <code>format=json</code> parameter.
+ */
+@SuppressWarnings("serial")
+public class SlowRequestConsolePlugin {
+
+    public static final String LABEL = "slowrequests";
+
+    public static final String INDEX = "index";
+
+    public static final String CLEAR = "clear";
+
+    public static final String FORMAT = "format";
+
+    public static final int STORED_REQUESTS_COUNT = 10;
+
+    public static final long WINDOW_SEC = 600;
+
+    public static final long WINDOW_MSEC = WINDOW_SEC * 1000L;
+
+    private static Plugin instance;
+
+    private static ServiceRegistration serviceRegistration;
+
+    private SlowRequestConsolePlugin() {
+    }
+
+    /**
+     * Records the request if it is among the slowest requests of the current
+     * window. This method is called after the request has been processed.
+     */
+    public static void recordRequest(final RequestData requestData) {
+        final Plugin plugin = instance;
+        if (plugin != null) {
+            plugin.addRequest(requestData);
+        }
+    }
+
+    public static void initPlugin(BundleContext context, int maxRequests,
+            long windowMsec) {
+        if (instance == null && maxRequests > 0 && windowMsec > 0) {
+            Plugin tmp = new Plugin(maxRequests, windowMsec);
+            final Dictionary<String, Object> props = new Hashtable<String, Object>();
+            props.put(Constants.SERVICE_DESCRIPTION,
+                "Web Console Plugin to display information about slow Sling requests");
+            props.put(Constants.SERVICE_VENDOR,
+                "The Apache Software Foundation");
+            props.put(Constants.SERVICE_PID, tmp.getClass().getName());
+            props.put("felix.webconsole.label", LABEL);
+            props.put("felix.webconsole.title", "Slow requests");
+
+            serviceRegistration = context.registerService(
+                Servlet.class.getName(), tmp, props);
+            instance = tmp;
+        }
+    }
+
+    public static void destroyPlugin() {
+        if (instance != null) {
+            try {
+                if (serviceRegistration != null) {
+                    serviceRegistration.unregister();
+                    serviceRegistration = null;
+                }
+            } finally {
+                instance = null;
+            }
+        }
+    }
+
+    public static final class Plugin extends HttpServlet {
+
+        private static AtomicLong requestCounter = new AtomicLong(0);
+
+        private final SlowRequestRecorder recorder;
+
+        Plugin(int maxRequests, long windowMsec) {
+            this.recorder = new SlowRequestRecorder(maxRequests, windowMsec);
+        }
+
+        private void addRequest(final RequestData requestData) {
+            final long elapsed = requestData.getElapsedTimeMsec();
+            final long now = System.currentTimeMillis();
+            if (!recorder.isSlow(elapsed, now)) {
+                return;
+            }
+
+            final SlingHttpServletRequest request = requestData.getSlingRequest();
+
+            String servletName = null;
+            final ContentData contentData = requestData.getContentData();
+            if (contentData != null && contentData.getServlet() != null) {
+                servletName = RequestUtil.getServletName(contentData.getServlet());
+            }
+
+            final List<String> timeline = new ArrayList<String>();
+            final Iterator<String> messages = requestData.getRequestProgressTracker().getMessages();
+            while (messages.hasNext()) {
+                timeline.add(messages.next());
+            }
+
+            recorder.add(new SlowRequestRecorder.SlowRequest(
+                String.valueOf(requestCounter.incrementAndGet()), now,
+                elapsed, request.getMethod(), request.getPathInfo(),
+                request.getRemoteUser(), servletName,
+                requestData.getResourceCount(),
+                requestData.getServletCallCount(),
+                requestData.getPeakRecusionDepth(), timeline,
+                SlowRequestRecorder.getIncludeTree(timeline.iterator())));
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+
+            final List<SlowRequestRecorder.SlowRequest> current = recorder.getCurrent();
+            final List<SlowRequestRecorder.SlowRequest> previous = recorder.getPrevious();
+
+            // the web console does not decorate requests with an extension
+            if (req.getRequestURI().endsWith(".json")
+                || "json".equals(req.getParameter(FORMAT))) {
+                resp.setContentType("application/json");
+                resp.setCharacterEncoding("UTF-8");
+                final PrintWriter pw = resp.getWriter();
+                pw.print("{\"maxRequests\":");
+                pw.print(recorder.getMaxRequests());
+                pw.print(",\"windowMsec\":");
+                pw.print(recorder.getWindowMsec());
+                pw.print(",\"windowStart\":");
+                pw.print(recorder.getWindowStart());
+                pw.print(",\"current\":");
+                printJson(pw, current);
+                pw.print(",\"previous\":");
+                printJson(pw, previous);
+                pw.print("}");
+                return;
+            }
+
+            // Select request to display
+            final String key = req.getParameter(INDEX);
+            SlowRequestRecorder.SlowRequest info = find(current, key);
+            if (info == null) {
+                info = find(previous, key);
+            }
+
+            final PrintWriter pw = resp.getWriter();
+
+            pw.println("<p class='statline ui-state-highlight'>Recording the "
+                + recorder.getMaxRequests() + " slowest requests per "
+                + (recorder.getWindowMsec() / 1000) + " seconds, current window since "
+                + new Date(recorder.getWindowStart()) + "</p>");
+
+            pw.println("<div class='ui-widget-header ui-corner-top buttonGroup'>");
+            pw.println("<span style='float: left; margin-left: 1em'>Slow Requests</span>");
+            pw.println("<form method='POST'><input type='hidden' name='clear' value='clear'><input type='submit' value='Clear' class='ui-state-default ui-corner-all'></form>");
+            pw.println("<a href='" + LABEL + ".json'>JSON</a>");
+            pw.println("</div>");
+
+            printTable(pw, "Current Window", current, key);
+            printTable(pw, "Previous Window", previous, key);
+
+            if (info != null) {
+                pw.println("<table class='nicetable ui-widget'>");
+                pw.println("<thead>");
+                pw.println("<tr>");
+                pw.printf(
+                    "<th class='ui-widget-header'>Request %s (%s %s) by %s - %dms, Servlet %s</th>%n",
+                    ResponseUtil.escapeXml(info.getKey()),
+                    ResponseUtil.escapeXml(info.getMethod()),
+                    ResponseUtil.escapeXml(info.getPathInfo()),
+                    ResponseUtil.escapeXml(info.getUser()), info.getElapsed(),
+                    ResponseUtil.escapeXml(info.getServletName()));
+                pw.println("</tr>");
+                pw.println("</thead>");
+
+                pw.println("<tbody>");
+                pw.println("<tr><td><pre>");
+                for (String line : info.getIncludeTree()) {
+                    pw.println(ResponseUtil.escapeXml(line));
+                }
+                pw.println("</pre></td></tr>");
+                pw.println("<tr><td><pre>");
+                for (String line : info.getTimeline()) {
+                    pw.print(ResponseUtil.escapeXml(line));
+                }
+                pw.println("</pre></td></tr>");
+                pw.println("</tbody></table>");
+            }
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws IOException {
+            if (req.getParameter(CLEAR) != null) {
+                recorder.clear();
+                resp.sendRedirect(req.getRequestURI());
+            }
+        }
+
+        private void printTable(final PrintWriter pw, final String title,
+                final List<SlowRequestRecorder.SlowRequest> requests,
+                final String currentKey) {
+            pw.println("<table class='nicetable ui-widget'>");
+            pw.println("<thead><tr>");
+            pw.println("<th class='ui-widget-header'>" + title + "</th>");
+            pw.println("<th class='ui-widget-header'>Time (ms)</th>");
+            pw.println("<th class='ui-widget-header'>Servlet</th>");
+            pw.println("<th class='ui-widget-header'>Resources</th>");
+            pw.println("<th class='ui-widget-header'>Servlet Calls</th>");
+            pw.println("<th class='ui-widget-header'>Recursion Depth</th>");
+            pw.println("</tr></thead>");
+            pw.println("<tbody>");
+            if (requests.isEmpty()) {
+                pw.println("<tr><td colspan='6'>No Requests recorded</td></tr>");
+            }
+            for (SlowRequestRecorder.SlowRequest info : requests) {
+                final boolean isCurrent = info.getKey().equals(currentKey);
+                pw.print("<tr><td><a href='" + LABEL + "?" + INDEX + "="
+                    + ResponseUtil.escapeXml(info.getKey()) + "'>");
+                if (isCurrent) {
+                    pw.print("<b>");
+                }
+                pw.print(ResponseUtil.escapeXml(info.getMethod() + " "
+                    + info.getPathInfo()));
+                if (isCurrent) {
+                    pw.print("</b>");
+                }
+                pw.print("</a></td>");
+                pw.print("<td>" + info.getElapsed() + "</td>");
+                pw.print("<td>" + ResponseUtil.escapeXml(info.getServletName()) + "</td>");
+                pw.print("<td>" + info.getResourceCount() + "</td>");
+                pw.print("<td>" + info.getServletCallCount() + "</td>");
+                pw.println("<td>" + info.getPeakRecursionDepth() + "</td></tr>");
+            }
+            pw.println("</tbody></table>");
+            pw.println("<br/>");
+        }
+
+        private SlowRequestRecorder.SlowRequest find(
+                final List<SlowRequestRecorder.SlowRequest> requests,
+                final String key) {
+            if (key != null) {
+                for (SlowRequestRecorder.SlowRequest info : requests) {
+                    if (info.getKey().equals(key)) {
+                        return info;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void printJson(final PrintWriter pw,
+                final List<SlowRequestRecorder.SlowRequest> requests) {
+            pw.print('[');
+            boolean first = true;
+            for (SlowRequestRecorder.SlowRequest info : requests) {
+                if (!first) {
+                    pw.print(',');
+                }
+                first = false;
+                pw.print("{\"key\":");
+                printJson(pw, info.getKey());
+                pw.print(",\"end\":");
+                pw.print(info.getEnd());
+                pw.print(",\"elapsed\":");
+                pw.print(info.getElapsed());
+                pw.print(",\"method\":");
+                printJson(pw, info.getMethod());
+                pw.print(",\"pathInfo\":");
+                printJson(pw, info.getPathInfo());
+                pw.print(",\"user\":");
+                printJson(pw, info.getUser());
+                pw.print(",\"servlet\":");
+                printJson(pw, info.getServletName());
+                pw.print(",\"resources\":");
+                pw.print(info.getResourceCount());
+                pw.print(",\"servletCalls\":");
+                pw.print(info.getServletCallCount());
+                pw.print(",\"recursionDepth\":");
+                pw.print(info.getPeakRecursionDepth());
+                pw.print(",\"includes\":");
+                printJsonArray(pw, info.getIncludeTree());
+                pw.print(",\"timeline\":");
+                printJsonArray(pw, info.getTimeline());
+                pw.print('}');
+            }
+            pw.print(']');
+        }
+
+        private void printJsonArray(final PrintWriter pw,
+                final List<String> values) {
+            pw.print('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    pw.print(',');
+                }
+                // timeline messages are terminated by a line separator
+                String value = values.get(i);
+                int end = value.length();
+                while (end > 0 && Character.isWhitespace(value.charAt(end - 1))) {
+                    end--;
+                }
+                printJson(pw, value.substring(0, end));
+            }
+            pw.print(']');
+        }
+
+        private void printJson(final PrintWriter pw, final String value) {
+            if (value == null) {
+                pw.print("null");
+                return;
+            }
+            pw.print('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        pw.print('\\');
+                        pw.print(c);
+                        break;
+                    case '\n':
+                        pw.print("\\n");
+                        break;
+                    case '\r':
+                        pw.print("\\r");
+                        break;
+                    case '\t':
+                        pw.print("\\t");
+                        break;
+                    default:
+                        if (c < ' ' || c == '<' || c == '>') {
+                            pw.printf("\\u%04x", (int) c);
+                        } else {
+                            pw.print(c);
+                        }
+                }
+            }
+            pw.print('"');
+        }
+    }
+}
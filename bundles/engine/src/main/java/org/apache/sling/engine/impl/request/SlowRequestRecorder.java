@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.request;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The <code>SlowRequestRecorder</code> keeps the slowest requests of fixed
+ * length time windows. For each window at most a fixed number of requests
+ * is kept; a request is only kept if it took longer than the fastest request
+ * already kept for the current window. The requests of the current and of
+ * the previous window are available.
+ * <p>
+ * Most requests are rejected by {@link #isSlow(long, long)} without any
+ * locking, only requests actually stored are added under a lock.
+ */
+class SlowRequestRecorder {
+
+    /**
+     * Pattern of the progress tracker messages of servlet timers, which are
+     * named <code>&lt;servlet name&gt;#&lt;call number&gt;</code>.
+     */
+    private static final Pattern SERVLET_TIMER = Pattern.compile(
+        "TIMER_(START|END)\\{(?:(\\d+),)?(.+#\\d+)\\}");
+
+    private static final Comparator<SlowRequest> FASTEST_FIRST = new Comparator<SlowRequest>() {
+        public int compare(SlowRequest o1, SlowRequest o2) {
+            return (o1.getElapsed() < o2.getElapsed()) ? -1
+                    : ((o1.getElapsed() == o2.getElapsed()) ? 0 : 1);
+        }
+    };
+
+    private final int maxRequests;
+
+    private final long windowMsec;
+
+    // min-heap of the requests of the current window, fastest first
+    private final PriorityQueue<SlowRequest> current;
+
+    private List<SlowRequest> previous = Collections.emptyList();
+
+    private long windowStart;
+
+    // end of the current window, read without locking by isSlow
+    private volatile long windowEnd;
+
+    // minimum elapsed time for a request to be kept, read without locking
+    private volatile long threshold;
+
+    SlowRequestRecorder(final int maxRequests, final long windowMsec) {
+        this.maxRequests = maxRequests;
+        this.windowMsec = windowMsec;
+        this.current = new PriorityQueue<SlowRequest>(maxRequests + 1,
+            FASTEST_FIRST);
+        this.windowStart = System.currentTimeMillis();
+        this.windowEnd = this.windowStart + windowMsec;
+    }
+
+    int getMaxRequests() {
+        return maxRequests;
+    }
+
+    long getWindowMsec() {
+        return windowMsec;
+    }
+
+    /**
+     * Returns <code>true</code> if a request completed at the given time
+     * after the given number of milliseconds would be kept by
+     * {@link #add(SlowRequest)}. This check does not lock and may
+     * occasionally accept a request which is not kept after all.
+     */
+    boolean isSlow(final long elapsed, final long now) {
+        return now >= windowEnd || elapsed > threshold;
+    }
+
+    /**
+     * Adds the request to the current window if it is among the slowest
+     * requests of the window.
+     */
+    synchronized void add(final SlowRequest request) {
+        roll(request.getEnd());
+
+        if (current.size() < maxRequests) {
+            current.add(request);
+        } else if (request.getElapsed() > current.peek().getElapsed()) {
+            current.poll();
+            current.add(request);
+        } else {
+            return;
+        }
+
+        threshold = (current.size() < maxRequests)
+                ? 0
+                : current.peek().getElapsed();
+    }
+
+    /**
+     * Returns the requests of the current window, slowest first.
+     */
+    synchronized List<SlowRequest> getCurrent() {
+        roll(System.currentTimeMillis());
+        return sorted(current);
+    }
+
+    /**
+     * Returns the requests of the previous window, slowest first.
+     */
+    synchronized List<SlowRequest> getPrevious() {
+        roll(System.currentTimeMillis());
+        return previous;
+    }
+
+    synchronized long getWindowStart() {
+        return windowStart;
+    }
+
+    synchronized void clear() {
+        current.clear();
+        previous = Collections.emptyList();
+        threshold = 0;
+    }
+
+    /**
+     * Starts a new window if the current window ended before the given time.
+     * The current window becomes the previous window unless more than one
+     * window length has passed since it ended.
+     */
+    private void roll(final long now) {
+        if (now < windowEnd) {
+            return;
+        }
+
+        if (now < windowEnd + windowMsec) {
+            previous = sorted(current);
+        } else {
+            previous = Collections.emptyList();
+        }
+        current.clear();
+        threshold = 0;
+
+        windowStart = now - ((now - windowStart) % windowMsec);
+        windowEnd = windowStart + windowMsec;
+    }
+
+    private static List<SlowRequest> sorted(final PriorityQueue<SlowRequest> queue) {
+        final List<SlowRequest> list = new ArrayList<SlowRequest>(queue);
+        Collections.sort(list, Collections.reverseOrder(FASTEST_FIRST));
+        return list;
+    }
+
+    /**
+     * Returns the tree of servlet and script calls of a request from the
+     * messages of the request progress tracker. Each entry is indented by
+     * two spaces per inclusion level and contains the servlet timer name and
+     * the elapsed time in milliseconds, if the timer has been ended.
+     */
+    static List<String> getIncludeTree(final Iterator<String> messages) {
+        final List<String> tree = new ArrayList<String>();
+        final List<Integer> open = new ArrayList<Integer>();
+        while (messages.hasNext()) {
+            final Matcher m = SERVLET_TIMER.matcher(messages.next());
+            if (!m.find()) {
+                continue;
+            }
+
+            if ("START".equals(m.group(1))) {
+                open.add(tree.size());
+                tree.add(indent(open.size() - 1) + m.group(3));
+            } else if (!open.isEmpty() && m.group(2) != null) {
+                final int index = open.remove(open.size() - 1);
+                tree.set(index, tree.get(index) + " (" + m.group(2) + "ms)");
+            }
+        }
+        return tree;
+    }
+
+    private static String indent(final int level) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < level; i++) {
+            sb.append("  ");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The information recorded about a single slow request.
+     */
+    static final class SlowRequest {
+
+        private final String key;
+
+        private final long end;
+
+        private final long elapsed;
+
+        private final String method;
+
+        private final String pathInfo;
+
+        private final String user;
+
+        private final String servletName;
+
+        private final int resourceCount;
+
+        private final int servletCallCount;
+
+        private final int peakRecursionDepth;
+
+        private final List<String> timeline;
+
+        private final List<String> includeTree;
+
+        SlowRequest(final String key, final long end, final long elapsed,
+                final String method, final String pathInfo, final String user,
+                final String servletName, final int resourceCount,
+                final int servletCallCount, final int peakRecursionDepth,
+                final List<String> timeline, final List<String> includeTree) {
+            this.key = key;
+            this.end = end;
+            this.elapsed = elapsed;
+            this.method = method;
+            this.pathInfo = pathInfo;
+            this.user = user;
+            this.servletName = servletName;
+            this.resourceCount = resourceCount;
+            this.servletCallCount = servletCallCount;
+            this.peakRecursionDepth = peakRecursionDepth;
+            this.timeline = timeline;
+            this.includeTree = includeTree;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the time at which the request completed.
+         */
+        long getEnd() {
+            return end;
+        }
+
+        long getElapsed() {
+            return elapsed;
+        }
+
+        String getMethod() {
+            return method;
+        }
+
+        String getPathInfo() {
+            return pathInfo;
+        }
+
+        String getUser() {
+            return user;
+        }
+
+        String getServletName() {
+            return servletName;
+        }
+
+        int getResourceCount() {
+            return resourceCount;
+        }
+
+        int getServletCallCount() {
+            return servletCallCount;
+        }
+
+        int getPeakRecursionDepth() {
+            return peakRecursionDepth;
+        }
+
+        List<String> getTimeline() {
+            return timeline;
+        }
+
+        List<String> getIncludeTree() {
+            return includeTree;
+        }
+    }
+}
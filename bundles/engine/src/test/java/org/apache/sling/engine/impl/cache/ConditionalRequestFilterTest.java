@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.engine.impl.cache.MockRequests.Recording;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+
+@RunWith(JMock.class)
+public class ConditionalRequestFilterTest {
+
+    private final Mockery context = new JUnit4Mockery();
+
+    private final MockRequests mocks = new MockRequests(context);
+
+    private BundleContext bundleContext;
+
+    private ConditionalRequestFilter filter;
+
+    /** The filter registered for includes */
+    private Filter includeFilter;
+
+    /** The include cache running before the include filter, if any */
+    private IncludeCacheFilter includeCache;
+
+    /** The number of responses rendered by the chain */
+    private int rendered;
+
+    /** The number of included fragments rendered */
+    private int renderedFragments;
+
+    @Before
+    public void setUp() {
+        bundleContext = context.mock(BundleContext.class);
+        final ServiceRegistration registration = context.mock(ServiceRegistration.class);
+        context.checking(new Expectations() {{
+            allowing(bundleContext).registerService(with(any(String.class)),
+                with(any(Object.class)), with(any(Dictionary.class)));
+            will(new CustomAction("register include filter") {
+                public Object invoke(Invocation invocation) {
+                    includeFilter = (Filter) invocation.getParameter(1);
+                    return registration;
+                }
+            });
+            allowing(registration).unregister();
+        }});
+
+        filter = new ConditionalRequestFilter();
+        filter.activate(bundleContext, new HashMap<String, Object>());
+        assertNotNull(includeFilter);
+    }
+
+    @After
+    public void tearDown() {
+        if (includeCache != null) {
+            includeCache.deactivate();
+        }
+        filter.deactivate();
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        final String etag = get(null, null).getHeader("ETag");
+        assertNotNull(etag);
+
+        final Recording second = get(etag, null);
+        assertEquals(304, second.status);
+        assertEquals(1, rendered);
+    }
+
+    @Test
+    public void testReadResourceChanged() throws Exception {
+        final String etag = get(null, "/content/shared/footer").getHeader("ETag");
+
+        changed("/content/other");
+        assertEquals(304, get(etag, "/content/shared/footer").status);
+
+        changed("/content/shared/footer/jcr:content");
+        final Recording third = get(etag, "/content/shared/footer");
+        assertEquals(200, third.status);
+        assertEquals(2, rendered);
+    }
+
+    @Test
+    public void testIncludedResourceChanged() throws Exception {
+        final String etag = get(null, null, "/content/shared/header").getHeader("ETag");
+        assertEquals(304, get(etag, null, "/content/shared/header").status);
+
+        changed("/content/shared/header");
+        assertEquals(200, get(etag, null, "/content/shared/header").status);
+        assertEquals(2, rendered);
+    }
+
+    @Test
+    public void testReplayedFragmentChanged() throws Exception {
+        final Filter dependencyFilter = includeFilter;
+        includeCache = new IncludeCacheFilter();
+        includeCache.activate(bundleContext, Collections.<String, Object> singletonMap(
+            "include.cache.resource.types", "test/component"));
+        includeFilter = dependencyFilter;
+
+        final String etag = get(null, null, "/content/shared/header").getHeader("ETag");
+        changed("/content/page");
+
+        // the page is rendered again replaying the cached fragment
+        final String replayed = get(etag, null, "/content/shared/header").getHeader("ETag");
+        assertEquals(2, rendered);
+        assertEquals(1, renderedFragments);
+        assertEquals(304, get(replayed, null, "/content/shared/header").status);
+
+        changed("/content/shared/header");
+        assertEquals(200, get(replayed, null, "/content/shared/header").status);
+        assertEquals(3, rendered);
+    }
+
+    @Test
+    public void testQueryStringVariants() throws Exception {
+        final String etag = getQuery(null, "page=1").getHeader("ETag");
+        assertEquals(304, getQuery(etag, "page=1").status);
+
+        // the response to another query is validated separately
+        final Recording other = getQuery(etag, "page=2");
+        assertEquals(200, other.status);
+        assertFalse(etag.equals(other.getHeader("ETag")));
+        assertEquals(304, getQuery(other.getHeader("ETag"), "page=2").status);
+        assertEquals(200, getQuery(etag, null).status);
+        assertEquals(3, rendered);
+    }
+
+    private void changed(final String path) {
+        final Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(SlingConstants.PROPERTY_PATH, path);
+        filter.handleEvent(new Event(SlingConstants.TOPIC_RESOURCE_CHANGED, props));
+    }
+
+    private Recording get(final String ifNoneMatch, final String read)
+            throws Exception {
+        return get(ifNoneMatch, read, null);
+    }
+
+    /**
+     * Sends a GET request for /content/page.html through the filter, whose
+     * rendering reads the resource at the path read and includes the
+     * resource at the path included.
+     */
+    private Recording get(final String ifNoneMatch, final String read,
+            final String included) throws Exception {
+        final Map<String, String> headers = (ifNoneMatch == null)
+                ? Collections.<String, String> emptyMap()
+                : Collections.singletonMap("If-None-Match", ifNoneMatch);
+        final ResourceResolver resolver = mocks.resolver("anonymous");
+        if (read != null) {
+            context.checking(new Expectations() {{
+                allowing(resolver).getResource(read);
+                will(returnValue(mocks.resource(read)));
+            }});
+        }
+        final SlingHttpServletRequest request = mocks.request("/content/page",
+            null, headers, resolver);
+        final Recording recording = new Recording();
+        filter.doFilter(request, mocks.response(recording), new FilterChain() {
+            public void doFilter(ServletRequest request,
+                    ServletResponse response) throws IOException,
+                    ServletException {
+                rendered++;
+                final SlingHttpServletRequest slingRequest = (SlingHttpServletRequest) request;
+                if (read != null) {
+                    slingRequest.getResourceResolver().getResource(read);
+                }
+                if (included != null) {
+                    include(slingRequest, included);
+                }
+                response.getOutputStream().write("Hello".getBytes("UTF-8"));
+            }
+        });
+        return recording;
+    }
+
+    /**
+     * Sends a GET request for /content/page.html with the query string
+     * through the filter.
+     */
+    private Recording getQuery(final String ifNoneMatch,
+            final String queryString) throws Exception {
+        final Map<String, String> headers = (ifNoneMatch == null)
+                ? Collections.<String, String> emptyMap()
+                : Collections.singletonMap("If-None-Match", ifNoneMatch);
+        final Recording recording = new Recording();
+        filter.doFilter(mocks.request("/content/page", queryString, null,
+            headers, mocks.resolver("anonymous")), mocks.response(recording),
+            new FilterChain() {
+                public void doFilter(ServletRequest request,
+                        ServletResponse response) throws IOException {
+                    rendered++;
+                    response.getOutputStream().write("Hello".getBytes("UTF-8"));
+                }
+            });
+        return recording;
+    }
+
+    /**
+     * Sends the include request through the filter registered for includes.
+     * The include request shares the attributes of the request. If the
+     * include cache is configured, the include is sent through it first.
+     */
+    private void include(final SlingHttpServletRequest request,
+            final String path) throws IOException, ServletException {
+        if (includeCache != null) {
+            final SlingHttpServletRequest include = mocks.request(path, null,
+                Collections.<String, String> emptyMap(),
+                mocks.resolver("anonymous"));
+            final String attribute = ConditionalRequestFilter.class.getName() + ".validator";
+            include.setAttribute(attribute, request.getAttribute(attribute));
+            includeCache.doFilter(include, mocks.response(new Recording()),
+                new FilterChain() {
+                    public void doFilter(ServletRequest request,
+                            ServletResponse response) throws IOException,
+                            ServletException {
+                        renderedFragments++;
+                        includeFilter.doFilter(request, response, new FilterChain() {
+                            public void doFilter(ServletRequest request,
+                                    ServletResponse response) throws IOException {
+                                response.getOutputStream().write(
+                                    "Header".getBytes("UTF-8"));
+                            }
+                        });
+                    }
+                });
+            return;
+        }
+
+        final SlingHttpServletRequest include = context.mock(
+            SlingHttpServletRequest.class, "include" + path + rendered);
+        final Object validator = request.getAttribute(
+            ConditionalRequestFilter.class.getName() + ".validator");
+        context.checking(new Expectations() {{
+            allowing(include).getAttribute(with(any(String.class)));
+            will(returnValue(validator));
+            allowing(include).getResource();
+            will(returnValue(mocks.resource(path)));
+        }});
+        includeFilter.doFilter(include, null, new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) {
+            }
+        });
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.sling.engine.impl.cache.FragmentCache.Fragment;
+import org.junit.Test;
+
+public class FragmentCacheTest {
+
+    @Test
+    public void testGetAndPut() {
+        final FragmentCache cache = new FragmentCache(1000);
+        assertNull(cache.get("a"));
+        cache.put("a", new Fragment("/content/a", "text"));
+        assertEquals("text", cache.get("a").getText());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(8, cache.getSize());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        final FragmentCache cache = new FragmentCache(30);
+        cache.put("a", new Fragment("/content/a", new byte[10]));
+        cache.put("b", new Fragment("/content/b", new byte[10]));
+        cache.put("c", new Fragment("/content/c", new byte[10]));
+
+        // access a such that b is the least recently used
+        assertNotNull(cache.get("a"));
+        cache.put("d", new Fragment("/content/d", new byte[10]));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(30, cache.getSize());
+    }
+
+    @Test
+    public void testTooLarge() {
+        final FragmentCache cache = new FragmentCache(5);
+        cache.put("a", new Fragment("/content/a", new byte[10]));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testInvalidate() {
+        final FragmentCache cache = new FragmentCache(1000);
+        cache.put("a", new Fragment("/content/a", "a"));
+        cache.put("ab", new Fragment("/content/ab", "ab"));
+        cache.put("a/b", new Fragment("/content/a/b", "a/b"));
+        cache.put("c", new Fragment("/content/c", "c"));
+
+        cache.invalidate("/content/a");
+        assertNull(cache.get("a"));
+        assertNull(cache.get("a/b"));
+        assertNotNull(cache.get("ab"));
+        assertNotNull(cache.get("c"));
+
+        // change of an ancestor invalidates all descendants
+        cache.invalidate("/content");
+        assertEquals(0, cache.getFragmentCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testInvalidateAncestors() {
+        final FragmentCache cache = new FragmentCache(1000);
+        cache.put("root", new Fragment("/", "root"));
+        cache.put("content", new Fragment("/content", "content"));
+        cache.put("a1", new Fragment("/content/a", "a1"));
+        cache.put("a2", new Fragment("/content/a", "a2"));
+        cache.put("b", new Fragment("/content/b", "b"));
+
+        cache.invalidate("/content/a/x");
+        assertNull(cache.get("root"));
+        assertNull(cache.get("content"));
+        assertNull(cache.get("a1"));
+        assertNull(cache.get("a2"));
+        assertNotNull(cache.get("b"));
+        assertEquals(4, cache.getInvalidations());
+    }
+
+    @Test
+    public void testInvalidateAfterEviction() {
+        final FragmentCache cache = new FragmentCache(20);
+        cache.put("a", new Fragment("/content/a", new byte[10]));
+        cache.put("b", new Fragment("/content/b", new byte[10]));
+        cache.put("c", new Fragment("/content/c", new byte[10]));
+        assertNull(cache.get("a"));
+
+        // the evicted fragment is not counted as invalidated
+        cache.invalidate("/content");
+        assertEquals(2, cache.getInvalidations());
+        assertEquals(0, cache.getSize());
+
+        // replacing a fragment keeps it indexed once
+        cache.put("d", new Fragment("/content/d", new byte[5]));
+        cache.put("d", new Fragment("/content/d", new byte[5]));
+        cache.invalidate("/content/d");
+        assertEquals(0, cache.getFragmentCount());
+        assertEquals(3, cache.getInvalidations());
+    }
+
+    @Test
+    public void testIsRelated() {
+        assertTrue(FragmentCache.isRelated("/a", "/a"));
+        assertTrue(FragmentCache.isRelated("/a", "/a/b"));
+        assertTrue(FragmentCache.isRelated("/a/b", "/a"));
+        assertTrue(FragmentCache.isRelated("/", "/a"));
+        assertFalse(FragmentCache.isRelated("/a", "/ab"));
+        assertFalse(FragmentCache.isRelated("/apps/", "/application"));
+        assertTrue(FragmentCache.isRelated("/apps/", "/apps/x"));
+    }
+}
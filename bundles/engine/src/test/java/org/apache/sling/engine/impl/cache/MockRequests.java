@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.request.RequestProgressTracker;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+
+/**
+ * Creates mock requests and recording mock responses for the filter tests.
+ */
+class MockRequests {
+
+    private final Mockery context;
+
+    private int mocks;
+
+    MockRequests(final Mockery context) {
+        this.context = context;
+    }
+
+    /**
+     * Creates a resource resolver which resolves no resources.
+     */
+    ResourceResolver resolver(final String user) {
+        final ResourceResolver resolver = context.mock(ResourceResolver.class, "resolver" + (++mocks));
+        context.checking(new Expectations() {{
+            allowing(resolver).getSearchPath(); will(returnValue(new String[] { "/apps/", "/libs/" }));
+            allowing(resolver).getUserID(); will(returnValue(user));
+        }});
+        return resolver;
+    }
+
+    /**
+     * Creates a resource of the type <code>test/component</code>.
+     */
+    Resource resource(final String path) {
+        final Resource resource = context.mock(Resource.class, "resource" + (++mocks));
+        context.checking(new Expectations() {{
+            allowing(resource).getPath(); will(returnValue(path));
+            allowing(resource).getResourceType(); will(returnValue("test/component"));
+        }});
+        return resource;
+    }
+
+    /**
+     * Creates a GET request for the resource at the path with the html
+     * extension.
+     *
+     * @param authType The authentication type, <code>null</code> for
+     *            anonymous requests
+     * @param headers The request headers
+     */
+    SlingHttpServletRequest request(final String path, final String authType,
+            final Map<String, String> headers, final ResourceResolver resolver) {
+        return request(path, null, authType, headers, resolver);
+    }
+
+    /**
+     * Creates a GET request for the resource at the path with the html
+     * extension and the query string.
+     */
+    SlingHttpServletRequest request(final String path,
+            final String queryString, final String authType,
+            final Map<String, String> headers, final ResourceResolver resolver) {
+        final String id = String.valueOf(++mocks);
+        final SlingHttpServletRequest request = context.mock(SlingHttpServletRequest.class, "request" + id);
+        final Resource resource = resource(path);
+        final RequestPathInfo info = context.mock(RequestPathInfo.class, "info" + id);
+        final RequestProgressTracker tracker = context.mock(RequestProgressTracker.class, "tracker" + id);
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        final String user = resolver.getUserID();
+        context.checking(new Expectations() {{
+            allowing(request).getMethod(); will(returnValue("GET"));
+            allowing(request).getQueryString(); will(returnValue(queryString));
+            allowing(request).getRemoteUser(); will(returnValue(user));
+            allowing(request).getAuthType(); will(returnValue(authType));
+            allowing(request).getHeader(with(any(String.class)));
+            will(new CustomAction("get header") {
+                public Object invoke(Invocation invocation) {
+                    return headers.get(invocation.getParameter(0));
+                }
+            });
+            allowing(request).getDateHeader(with(any(String.class))); will(returnValue(-1L));
+            allowing(request).getAttribute(with(any(String.class)));
+            will(new CustomAction("get attribute") {
+                public Object invoke(Invocation invocation) {
+                    return attributes.get(invocation.getParameter(0));
+                }
+            });
+            allowing(request).setAttribute(with(any(String.class)), with(any(Object.class)));
+            will(new CustomAction("set attribute") {
+                public Object invoke(Invocation invocation) {
+                    attributes.put((String) invocation.getParameter(0),
+                        invocation.getParameter(1));
+                    return null;
+                }
+            });
+            allowing(request).getResource(); will(returnValue(resource));
+            allowing(request).getResourceResolver(); will(returnValue(resolver));
+            allowing(request).getRequestPathInfo(); will(returnValue(info));
+            allowing(request).getRequestProgressTracker(); will(returnValue(tracker));
+            allowing(info).getResourcePath(); will(returnValue(path));
+            allowing(info).getSelectorString(); will(returnValue(null));
+            allowing(info).getExtension(); will(returnValue("html"));
+            allowing(info).getSuffix(); will(returnValue(null));
+            allowing(tracker).log(with(any(String.class)), with(any(Object[].class)));
+        }});
+        return request;
+    }
+
+    SlingHttpServletResponse response(final Recording recording) throws IOException {
+        final SlingHttpServletResponse response = context.mock(SlingHttpServletResponse.class, "response" + (++mocks));
+        context.checking(new Expectations() {{
+            allowing(response).getOutputStream(); will(returnValue(recording.stream));
+            allowing(response).getContentType(); will(returnValue("text/html"));
+            allowing(response).getCharacterEncoding(); will(returnValue("UTF-8"));
+            allowing(response).isCommitted(); will(returnValue(false));
+            allowing(response).setStatus(with(any(Integer.class)));
+            will(new CustomAction("record status") {
+                public Object invoke(Invocation invocation) {
+                    recording.status = (Integer) invocation.getParameter(0);
+                    return null;
+                }
+            });
+            allowing(response).addHeader(with(any(String.class)), with(any(String.class)));
+            will(recording.headerAction(false));
+            allowing(response).setHeader(with(any(String.class)), with(any(String.class)));
+            will(recording.headerAction(true));
+            allowing(response).setDateHeader(with(any(String.class)), with(any(Long.class)));
+            allowing(response).setContentLength(with(any(Integer.class)));
+        }});
+        return response;
+    }
+
+    /**
+     * The status, headers and body sent to a mock response.
+     */
+    static class Recording {
+
+        int status = 200;
+
+        final List<String[]> headers = new ArrayList<String[]>();
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        final ServletOutputStream stream = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        };
+
+        String getBody() throws IOException {
+            return body.toString("UTF-8");
+        }
+
+        /**
+         * Returns the last value of the header or <code>null</code>.
+         */
+        String getHeader(final String name) {
+            String value = null;
+            for (final String[] header : headers) {
+                if (header[0].equalsIgnoreCase(name)) {
+                    value = header[1];
+                }
+            }
+            return value;
+        }
+
+        CustomAction headerAction(final boolean replace) {
+            return new CustomAction("record header") {
+                public Object invoke(Invocation invocation) {
+                    final String name = (String) invocation.getParameter(0);
+                    if (replace) {
+                        for (int i = headers.size() - 1; i >= 0; i--) {
+                            if (headers.get(i)[0].equalsIgnoreCase(name)) {
+                                headers.remove(i);
+                            }
+                        }
+                    }
+                    headers.add(new String[] { name,
+                        (String) invocation.getParameter(1) });
+                    return null;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.engine.impl.cache.MockRequests.Recording;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+@RunWith(JMock.class)
+public class ResponseCacheFilterTest {
+
+    private final Mockery context = new JUnit4Mockery();
+
+    private final MockRequests mocks = new MockRequests(context);
+
+    private File directory;
+
+    private ResponseCacheFilter filter;
+
+    private ConditionalRequestFilter conditionalFilter;
+
+    /** The number of responses rendered by the chain */
+    private int rendered;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("responsecache", ".test");
+        directory.delete();
+
+        final BundleContext bundleContext = context.mock(BundleContext.class);
+        final ServiceRegistration registration = context.mock(ServiceRegistration.class);
+        context.checking(new Expectations() {{
+            allowing(bundleContext).registerService(with(any(String.class)),
+                with(any(Object.class)), with(any(Dictionary.class)));
+            will(returnValue(registration));
+            allowing(registration).unregister();
+        }});
+
+        final Map<String, Object> config = new HashMap<String, Object>();
+        config.put("response.cache.directory", directory.getAbsolutePath());
+        filter = new ResponseCacheFilter();
+        filter.activate(bundleContext, config);
+
+        conditionalFilter = new ConditionalRequestFilter();
+        conditionalFilter.activate(bundleContext, new HashMap<String, Object>());
+    }
+
+    @After
+    public void tearDown() {
+        conditionalFilter.deactivate();
+        filter.deactivate();
+        directory.delete();
+    }
+
+    @Test
+    public void testAnonymousRequestIsCached() throws Exception {
+        // the authenticator sets the remote user of anonymous requests
+        final Recording first = get("anonymous", null);
+        assertEquals("Hello", first.getBody());
+
+        final Recording second = get("anonymous", null);
+        assertEquals("Hello", second.getBody());
+        assertEquals(1, rendered);
+        assertEquals(200, second.status);
+    }
+
+    @Test
+    public void testAuthenticatedRequestIsNotCached() throws Exception {
+        get("admin", "BASIC");
+        final Recording second = get("admin", "BASIC");
+        assertEquals("Hello", second.getBody());
+        assertEquals(2, rendered);
+    }
+
+    @Test
+    public void testContentCodingVariants() throws Exception {
+        final Recording gzip = getCoded("gzip, deflate");
+        assertEquals("gzip", gzip.getHeader("Content-Encoding"));
+        assertEquals("Hello", gunzip(gzip.body.toByteArray()));
+
+        final Recording identity = getCoded(null);
+        assertNull(identity.getHeader("Content-Encoding"));
+        assertEquals("Hello", identity.getBody());
+        assertEquals(2, rendered);
+
+        final String gzipETag = gzip.getHeader("ETag");
+        final String identityETag = identity.getHeader("ETag");
+        assertNotNull(gzipETag);
+        assertNotNull(identityETag);
+        assertFalse(gzipETag.equals(identityETag));
+
+        // both variants are served from the cache
+        final Recording cachedIdentity = getCoded(null);
+        assertNull(cachedIdentity.getHeader("Content-Encoding"));
+        assertEquals("Hello", cachedIdentity.getBody());
+        assertEquals(identityETag, cachedIdentity.getHeader("ETag"));
+
+        final Recording cachedGzip = getCoded("gzip");
+        assertEquals("gzip", cachedGzip.getHeader("Content-Encoding"));
+        assertEquals("Hello", gunzip(cachedGzip.body.toByteArray()));
+        assertEquals(gzipETag, cachedGzip.getHeader("ETag"));
+        assertEquals(2, rendered);
+    }
+
+    @Test
+    public void testConditionalRequestForCachedResponse() throws Exception {
+        final Recording first = getCoded(null);
+        final String etag = first.getHeader("ETag");
+        assertNotNull(etag);
+        assertEquals(1, rendered);
+
+        final Map<String, String> headers = new HashMap<String, String>();
+        headers.put("If-None-Match", etag);
+        final Recording notModified = getRendered(headers);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.status);
+        assertEquals(etag, notModified.getHeader("ETag"));
+        assertNotNull(notModified.getHeader("Last-Modified"));
+        assertEquals(0, notModified.body.size());
+
+        headers.put("If-None-Match", "\"other\"");
+        final Recording modified = getRendered(headers);
+        assertEquals(200, modified.status);
+        assertEquals("Hello", modified.getBody());
+        assertEquals(1, rendered);
+    }
+
+    @Test
+    public void testVaryingResponseIsNotCached() throws Exception {
+        final FilterChain chain = new FilterChain() {
+            public void doFilter(ServletRequest request,
+                    ServletResponse response) throws IOException {
+                rendered++;
+                ((HttpServletResponse) response).addHeader("Vary", "Cookie");
+                response.getOutputStream().write("Hello".getBytes("UTF-8"));
+            }
+        };
+        final Map<String, String> headers = Collections.emptyMap();
+        for (int i = 0; i < 2; i++) {
+            filter.doFilter(mocks.request("/content/page", null, headers,
+                mocks.resolver("anonymous")), mocks.response(new Recording()),
+                chain);
+        }
+        assertEquals(2, rendered);
+    }
+
+    /**
+     * Sends an anonymous GET request for /content/page.html with the
+     * Accept-Encoding header through the response cache and the
+     * conditional request filter. The response is compressed like the
+     * GzipResponseWrapper does if the client accepts gzip.
+     */
+    private Recording getCoded(final String acceptEncoding) throws Exception {
+        final Map<String, String> headers = new HashMap<String, String>();
+        if (acceptEncoding != null) {
+            headers.put("Accept-Encoding", acceptEncoding);
+        }
+        return getRendered(headers);
+    }
+
+    /**
+     * Sends an anonymous GET request for /content/page.html with the headers
+     * through the response cache and the conditional request filter.
+     */
+    private Recording getRendered(final Map<String, String> headers)
+            throws Exception {
+        final Recording recording = new Recording();
+        final FilterChain renderer = new FilterChain() {
+            public void doFilter(ServletRequest request,
+                    ServletResponse response) throws IOException {
+                rendered++;
+                final HttpServletResponse httpResponse = (HttpServletResponse) response;
+                final String accepted = ((HttpServletRequest) request).getHeader("Accept-Encoding");
+                httpResponse.addHeader("Vary", "Accept-Encoding");
+                if (accepted != null && accepted.contains("gzip")) {
+                    httpResponse.setHeader("Content-Encoding", "gzip");
+                    final GZIPOutputStream out = new GZIPOutputStream(
+                        response.getOutputStream());
+                    out.write("Hello".getBytes("UTF-8"));
+                    out.finish();
+                } else {
+                    response.getOutputStream().write("Hello".getBytes("UTF-8"));
+                }
+            }
+        };
+        filter.doFilter(mocks.request("/content/page", null, headers,
+            mocks.resolver("anonymous")), mocks.response(recording),
+            new FilterChain() {
+                public void doFilter(ServletRequest request,
+                        ServletResponse response) throws IOException,
+                        ServletException {
+                    conditionalFilter.doFilter(request, response, renderer);
+                }
+            });
+        return recording;
+    }
+
+    private String gunzip(final byte[] data) throws IOException {
+        final InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[256];
+        int rd;
+        while ((rd = in.read(buf)) >= 0) {
+            out.write(buf, 0, rd);
+        }
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Sends a GET request for /content/page.html through the filter.
+     */
+    private Recording get(final String user, final String authType)
+            throws Exception {
+        final Recording recording = new Recording();
+        final Map<String, String> headers = Collections.emptyMap();
+        filter.doFilter(mocks.request("/content/page", authType, headers,
+            mocks.resolver(user)), mocks.response(recording),
+            new FilterChain() {
+                public void doFilter(ServletRequest request,
+                        ServletResponse response) throws IOException {
+                    rendered++;
+                    response.getOutputStream().write("Hello".getBytes("UTF-8"));
+                }
+            });
+        return recording;
+    }
+}
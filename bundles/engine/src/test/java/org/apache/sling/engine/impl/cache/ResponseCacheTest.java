@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+    private File directory;
+
+    private ResponseCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("responsecache", ".test");
+        directory.delete();
+        cache = new ResponseCache(directory, 25);
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+        directory.delete();
+    }
+
+    @Test
+    public void testStoreAndEvict() throws IOException {
+        final CachedResponse a = createResponse("/content/a", 10);
+        final CachedResponse b = createResponse("/content/b", 10);
+        final CachedResponse c = createResponse("/content/c", 10);
+
+        cache.put("/content/a.html", a);
+        cache.put("/content/b.html", b);
+        assertNotNull(cache.get("/content/a.html"));
+        cache.put("/content/c.html", c);
+
+        // b is least recently used and must have been evicted
+        assertNull(cache.get("/content/b.html"));
+        assertFalse(b.getBody().exists());
+        assertTrue(a.getBody().exists());
+        assertTrue(c.getBody().exists());
+        assertEquals(20, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testTooLarge() throws IOException {
+        final CachedResponse a = createResponse("/content/a", 30);
+        cache.put("/content/a.html", a);
+        assertNull(cache.get("/content/a.html"));
+        assertFalse(a.getBody().exists());
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        final CachedResponse a = createResponse("/content/a", 5);
+        final CachedResponse ab = createResponse("/content/a/b", 5);
+        final CachedResponse c = createResponse("/content/c", 5);
+        cache.put("/content/a.html", a);
+        cache.put("/content/a/b.html", ab);
+        cache.put("/content/c.html", c);
+
+        // responses of ancestors may render the changed resource
+        cache.invalidate("/content/a/b/jcr:content");
+        assertNull(cache.get("/content/a/b.html"));
+        assertNull(cache.get("/content/a.html"));
+        assertNotNull(cache.get("/content/c.html"));
+        assertFalse(ab.getBody().exists());
+        assertFalse(a.getBody().exists());
+
+        cache.invalidate("/content");
+        assertEquals(0, cache.getResponseCount());
+        assertFalse(c.getBody().exists());
+    }
+
+    @Test
+    public void testCleanDirectoryOnStart() throws IOException {
+        final CachedResponse a = createResponse("/content/a", 5);
+        cache.put("/content/a.html", a);
+
+        cache = new ResponseCache(directory, 25);
+        assertFalse(a.getBody().exists());
+    }
+
+    private CachedResponse createResponse(final String path, final int size)
+            throws IOException {
+        final File body = cache.createBodyFile();
+        final FileOutputStream out = new FileOutputStream(body);
+        out.write(new byte[size]);
+        out.close();
+        return new CachedResponse(path, 200, new ArrayList<String[]>(), body);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.sling.engine.impl.cache.ValidatorCache.Validator;
+import org.junit.Test;
+
+public class ValidatorCacheTest {
+
+    @Test
+    public void testUniqueETags() {
+        final ValidatorCache cache = new ValidatorCache(10);
+        final Validator v1 = cache.create("/content/a", null);
+        final Validator v2 = cache.create("/content/a", null);
+        assertFalse(v1.getETag().equals(v2.getETag()));
+        assertTrue(v1.getETag().startsWith("\""));
+        assertTrue(v1.getETag().endsWith("\""));
+        assertEquals(0, v1.getLastModified() % 1000);
+    }
+
+    @Test
+    public void testVariantETag() {
+        final Validator v = new ValidatorCache(10).create("/content/a", "gzip");
+        assertTrue(v.getETag().endsWith("-gzip\""));
+    }
+
+    @Test
+    public void testMatches() {
+        final Validator v = new ValidatorCache(10).create("/content/a", null);
+        assertTrue(v.matches(v.getETag()));
+        assertTrue(v.matches("W/" + v.getETag()));
+        assertTrue(v.matches("\"other\", " + v.getETag()));
+        assertTrue(v.matches("*"));
+        assertFalse(v.matches("\"other\""));
+    }
+
+    @Test
+    public void testPutAndEvict() {
+        final ValidatorCache cache = new ValidatorCache(2);
+        final Validator a = cache.create("/content/a", null);
+        cache.put("a", a);
+        cache.put("b", cache.create("/content/b", null));
+        assertSame(a, cache.get("a"));
+        cache.put("c", cache.create("/content/c", null));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() {
+        final ValidatorCache cache = new ValidatorCache(10);
+        cache.put("a", cache.create("/content/a", null));
+        cache.put("b", cache.create("/content/b", null));
+        cache.invalidate("/content/a/jcr:content");
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+    }
+
+    @Test
+    public void testNoPutAfterChange() {
+        final ValidatorCache cache = new ValidatorCache(10);
+        final Validator a = cache.create("/content/a", null);
+        a.addDependency("/content/b");
+
+        // a resource read by the response changes while it is rendered
+        cache.invalidate("/content/b/jcr:content");
+        cache.put("a", a);
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testPutAfterUnrelatedChange() {
+        final ValidatorCache cache = new ValidatorCache(10);
+        final Validator a = cache.create("/content/a", null);
+
+        // steady writes elsewhere do not prevent storing validators
+        cache.invalidate("/content/b");
+        cache.invalidate("/var/audit/1");
+        cache.put("a", a);
+        assertSame(a, cache.get("a"));
+    }
+
+    @Test
+    public void testNoPutAfterClear() {
+        final ValidatorCache cache = new ValidatorCache(10);
+        final Validator a = cache.create("/content/a", null);
+        cache.clear();
+        cache.put("a", a);
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testInvalidateDependency() {
+        final ValidatorCache cache = new ValidatorCache(10);
+        final Validator a = cache.create("/content/a", null);
+        a.addDependency("/content/shared/footer");
+        cache.put("a", a);
+        cache.put("b", cache.create("/content/b", null));
+
+        cache.invalidate("/content/shared/footer/jcr:content");
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+    }
+
+    @Test
+    public void testDependenciesCoveredByAncestor() {
+        final Validator a = new ValidatorCache(10).create("/content/a", null);
+        a.addDependency("/content/a/b/c");
+        a.addDependency("/content/b");
+        a.addDependency("/content/b/c");
+        assertEquals(2, a.getDependencies().size());
+        assertTrue(a.getDependencies().contains("/content/b"));
+    }
+
+    @Test
+    public void testUntracked() {
+        final ValidatorCache cache = new ValidatorCache(10);
+        final Validator a = cache.create("/content/a", null);
+        a.untrack();
+        cache.put("a", a);
+        assertNull(cache.get("a"));
+        assertTrue(a.dependsOn("/anything"));
+    }
+
+    @Test
+    public void testTooManyDependencies() {
+        final Validator a = new ValidatorCache(10).create("/content/a", null);
+        for (int i = 0; i < ValidatorCache.MAX_DEPENDENCIES; i++) {
+            a.addDependency("/content/b" + i);
+        }
+        assertFalse(a.isTracked());
+    }
+}
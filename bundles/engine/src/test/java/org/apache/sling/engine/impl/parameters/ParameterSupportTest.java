@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import junit.framework.TestCase;
+
+public class ParameterSupportTest extends TestCase {
+
+    private static final String BOUNDARY = "----boundary";
+
+    private static final String UTF8 = "UTF-8";
+
+    // latin small letters a and o with diaeresis
+    private static final String UMLAUTS = "\u00e4\u00f6";
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("uploads", ".test");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ParameterSupport.configure(-1, null, -1, -1, false);
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testCompleteParsing() throws Exception {
+        final Request request = new Request(new Body().field("a", "1").file(
+            "data", 100000).field("b", "2"));
+        final ParameterSupport support = ParameterSupport.getInstance(request.proxy());
+
+        assertEquals("1", support.getParameter("a"));
+        assertEquals(request.length, request.read);
+        assertEquals("2", support.getParameter("b"));
+        assertEquals(100000, support.getRequestParameter("data").getSize());
+    }
+
+    public void testPartialReads() throws Exception {
+        ParameterSupport.configure(-1, null, -1, -1, true);
+        final Request request = new Request(new Body().field("a", "1").file(
+            "data", 100000).field("b", "2"));
+        final ParameterSupport support = ParameterSupport.getInstance(request.proxy());
+
+        // the upload following the first field is not read yet
+        assertEquals("1", support.getParameter("a"));
+        assertTrue(request.read < 100000);
+
+        assertEquals("2", support.getParameter("b"));
+        assertEquals(request.length, request.read);
+        assertEquals(100000, support.getRequestParameter("data").getSize());
+
+        // missing parameters are looked up after reading the complete request
+        assertNull(support.getParameter("c"));
+        assertEquals(3, support.getParameterMap().size());
+    }
+
+    public void testCharsetBeforeFields() throws Exception {
+        ParameterSupport.configure(-1, null, -1, -1, true);
+        final ParameterSupport support = ParameterSupport.getInstance(new Request(
+            new Body().field("_charset_", UTF8).field(UMLAUTS, UMLAUTS)).proxy());
+
+        assertEquals(UMLAUTS, support.getParameter(UMLAUTS));
+    }
+
+    public void testCharsetAfterFields() throws Exception {
+        testCharsetAfterFields(false);
+        testCharsetAfterFields(true);
+    }
+
+    private void testCharsetAfterFields(boolean streaming) throws Exception {
+        ParameterSupport.configure(-1, null, -1, -1, streaming);
+        final Request request = new Request(new Body().field(UMLAUTS, UMLAUTS).field(
+            "_charset_", UTF8));
+        request.query.put("q", latin1(UMLAUTS));
+        final ParameterSupport support = ParameterSupport.getInstance(request.proxy());
+
+        // the parameters read before the _charset_ field are decoded again
+        assertEquals(UMLAUTS, support.getParameterValues(UMLAUTS)[0]);
+        assertEquals(UMLAUTS, support.getParameter("q"));
+        assertEquals(UTF8, support.getParameter("_charset_"));
+    }
+
+    public void testMaxRequestSize() throws Exception {
+        ParameterSupport.configure(1000, null, -1, -1, false);
+        ParameterSupport support = ParameterSupport.getInstance(new Request(
+            new Body().field("a", "1").file("data", 2000)).proxy());
+        assertNull(support.getParameter("a"));
+
+        support = ParameterSupport.getInstance(new Request(
+            new Body().field("a", "1").file("data", 500)).proxy());
+        assertEquals("1", support.getParameter("a"));
+    }
+
+    public void testMaxFileSize() throws Exception {
+        ParameterSupport.configure(-1, null, 1000, -1, true);
+        final ParameterSupport support = ParameterSupport.getInstance(new Request(
+            new Body().field("a", "1").file("data", 2000).field("b", "2")).proxy());
+
+        // the items preceding the upload exceeding the limit are kept
+        assertEquals("1", support.getParameter("a"));
+        assertNull(support.getParameter("b"));
+        assertNull(support.getRequestParameter("data"));
+    }
+
+    public void testFileSizeThreshold() throws Exception {
+        directory.mkdirs();
+        ParameterSupport.configure(-1, directory.getPath(), -1, 1000, true);
+        final ParameterSupport support = ParameterSupport.getInstance(new Request(
+            new Body().file("small", 500).file("large", 2000)).proxy());
+
+        assertEquals(500, support.getRequestParameter("small").getSize());
+        assertEquals(0, directory.list().length);
+        assertEquals(2000, support.getRequestParameter("large").getSize());
+        assertEquals(1, directory.list().length);
+    }
+
+    private static String latin1(String value) throws UnsupportedEncodingException {
+        return new String(value.getBytes(UTF8), Util.ENCODING_DIRECT);
+    }
+
+    /**
+     * Builds the UTF-8 encoded body of a multipart request.
+     */
+    private static class Body {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Body field(String name, String value) throws IOException {
+            out.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\""
+                + name + "\"\r\n\r\n" + value + "\r\n").getBytes(UTF8));
+            return this;
+        }
+
+        Body file(String name, int size) throws IOException {
+            out.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\""
+                + name + "\"; filename=\"" + name
+                + ".bin\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(UTF8));
+            for (int i = 0; i < size; i++) {
+                out.write('x');
+            }
+            out.write("\r\n".getBytes(UTF8));
+            return this;
+        }
+
+        byte[] toByteArray() throws IOException {
+            return (out.toString(Util.ENCODING_DIRECT) + "--" + BOUNDARY + "--\r\n").getBytes(Util.ENCODING_DIRECT);
+        }
+    }
+
+    /**
+     * Multipart POST request counting the bytes read from its body.
+     */
+    private static class Request implements InvocationHandler {
+
+        final Map<String, String> query = new HashMap<String, String>();
+
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        private final ByteArrayInputStream body;
+
+        final int length;
+
+        int read;
+
+        private String encoding;
+
+        Request(Body body) throws IOException {
+            final byte[] data = body.toByteArray();
+            this.body = new ByteArrayInputStream(data);
+            this.length = data.length;
+        }
+
+        HttpServletRequest proxy() {
+            return (HttpServletRequest) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            final String name = method.getName();
+            if ("getAttribute".equals(name)) {
+                return attributes.get(args[0]);
+            } else if ("setAttribute".equals(name)) {
+                attributes.put((String) args[0], args[1]);
+            } else if ("getCharacterEncoding".equals(name)) {
+                return encoding;
+            } else if ("setCharacterEncoding".equals(name)) {
+                encoding = (String) args[0];
+            } else if ("getMethod".equals(name)) {
+                return "POST";
+            } else if ("getContentType".equals(name)) {
+                return "multipart/form-data; boundary=" + BOUNDARY;
+            } else if ("getContentLength".equals(name)) {
+                return length;
+            } else if ("getParameterMap".equals(name)) {
+                final Map<String, String[]> parameters = new HashMap<String, String[]>();
+                for (Map.Entry<String, String> entry : query.entrySet()) {
+                    parameters.put(entry.getKey(), new String[] { entry.getValue() });
+                }
+                return parameters;
+            } else if ("getInputStream".equals(name)) {
+                return new ServletInputStream() {
+                    @Override
+                    public int read() {
+                        final int b = body.read();
+                        if (b >= 0) {
+                            read++;
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) {
+                        final int rd = body.read(b, off, len);
+                        if (rd > 0) {
+                            read += rd;
+                        }
+                        return rd;
+                    }
+                };
+            } else if ("getHeader".equals(name)) {
+                return null;
+            } else {
+                throw new UnsupportedOperationException(name);
+            }
+            return null;
+        }
+    }
+}
@@ -114,4 +114,22 @@ public class UtilTest extends TestCase {
         assertEquals(utf8String, pm3.getValue("par").getString());
         Util.setDefaultFixEncoding(Util.ENCODING_DIRECT);
     }
+
+    public void test_form_encoding() {
+        ParameterMap pm4 = new ParameterMap();
+        assertEquals(Util.ENCODING_DIRECT, Util.getFormEncoding(pm4));
+        pm4.addParameter("_charset_", new ContainerRequestParameter(utf8,
+            Util.ENCODING_DIRECT));
+        assertEquals(utf8, Util.getFormEncoding(pm4));
+    }
+
+    public void test_fix_encoding_single() {
+        ContainerRequestParameter par = new ContainerRequestParameter(
+            utf8Coded, Util.ENCODING_DIRECT);
+        assertEquals(utf8String, Util.fixEncoding(utf8Coded, par, utf8));
+        assertEquals(utf8String, par.getString());
+
+        // already fixed parameters are not touched again
+        assertEquals(utf8Coded, Util.fixEncoding(utf8Coded, par, utf8));
+    }
 }
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SlowRequestRecorderTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Test
+    public void testKeepsSlowest() {
+        final SlowRequestRecorder recorder = new SlowRequestRecorder(3, HOUR);
+        final long now = System.currentTimeMillis();
+        for (long elapsed : new long[] { 10, 50, 20, 40, 30 }) {
+            recorder.add(request(now, elapsed));
+        }
+
+        final List<SlowRequestRecorder.SlowRequest> current = recorder.getCurrent();
+        assertEquals(3, current.size());
+        assertEquals(50, current.get(0).getElapsed());
+        assertEquals(40, current.get(1).getElapsed());
+        assertEquals(30, current.get(2).getElapsed());
+    }
+
+    @Test
+    public void testIsSlow() {
+        final SlowRequestRecorder recorder = new SlowRequestRecorder(2, HOUR);
+        final long now = System.currentTimeMillis();
+        assertTrue(recorder.isSlow(1, now));
+
+        recorder.add(request(now, 10));
+        assertTrue(recorder.isSlow(1, now));
+
+        recorder.add(request(now, 20));
+        assertFalse(recorder.isSlow(10, now));
+        assertTrue(recorder.isSlow(11, now));
+
+        // a new window accepts any request
+        assertTrue(recorder.isSlow(1, now + HOUR));
+    }
+
+    @Test
+    public void testWindowRoll() {
+        final SlowRequestRecorder recorder = new SlowRequestRecorder(2, HOUR);
+        final long start = recorder.getWindowStart();
+        recorder.add(request(start, 10));
+        recorder.add(request(start + HOUR, 5));
+
+        assertEquals(start + HOUR, recorder.getWindowStart());
+        assertEquals(1, recorder.getPrevious().size());
+        assertEquals(10, recorder.getPrevious().get(0).getElapsed());
+        assertEquals(1, recorder.getCurrent().size());
+        assertEquals(5, recorder.getCurrent().get(0).getElapsed());
+
+        // skipping a window drops the previous requests
+        recorder.add(request(start + 3 * HOUR, 1));
+        assertEquals(start + 3 * HOUR, recorder.getWindowStart());
+        assertTrue(recorder.getPrevious().isEmpty());
+    }
+
+    @Test
+    public void testClear() {
+        final SlowRequestRecorder recorder = new SlowRequestRecorder(1, HOUR);
+        final long now = System.currentTimeMillis();
+        recorder.add(request(now, 10));
+        assertFalse(recorder.isSlow(5, now));
+
+        recorder.clear();
+        assertTrue(recorder.getCurrent().isEmpty());
+        assertTrue(recorder.isSlow(5, now));
+    }
+
+    @Test
+    public void testIncludeTree() {
+        final List<String> messages = Arrays.asList(
+            "      0 (2011-01-01 00:00:00) TIMER_START{Request Processing}\n",
+            "      1 (2011-01-01 00:00:00) TIMER_START{ResourceResolution}\n",
+            "      2 (2011-01-01 00:00:00) TIMER_END{1,ResourceResolution} URI=/a\n",
+            "      3 (2011-01-01 00:00:00) TIMER_START{/apps/a/html.jsp#0}\n",
+            "      4 (2011-01-01 00:00:00) TIMER_START{/apps/b/html.jsp#1}\n",
+            "      6 (2011-01-01 00:00:00) TIMER_END{2,/apps/b/html.jsp#1}\n",
+            "      7 (2011-01-01 00:00:00) TIMER_START{/apps/c/html.jsp#2}\n",
+            "      9 (2011-01-01 00:00:00) TIMER_END{2,/apps/c/html.jsp#2}\n",
+            "     10 (2011-01-01 00:00:00) TIMER_END{7,/apps/a/html.jsp#0}\n");
+
+        final List<String> tree = SlowRequestRecorder.getIncludeTree(messages.iterator());
+        assertEquals(Arrays.asList("/apps/a/html.jsp#0 (7ms)",
+            "  /apps/b/html.jsp#1 (2ms)", "  /apps/c/html.jsp#2 (2ms)"), tree);
+    }
+
+    private SlowRequestRecorder.SlowRequest request(final long end,
+            final long elapsed) {
+        final List<String> empty = Collections.emptyList();
+        return new SlowRequestRecorder.SlowRequest(String.valueOf(elapsed),
+            end, elapsed, "GET", "/content/" + elapsed + ".html", "admin",
+            "servlet", 1, 1, 1, empty, empty);
+    }
+}
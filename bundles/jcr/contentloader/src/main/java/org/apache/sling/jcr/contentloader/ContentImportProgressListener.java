@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.contentloader;
+
+/**
+ * A {@link ContentImportListener} which is also notified about the
+ * progress of an import. Imports saving in batches report their progress
+ * after each batch, all imports report it when a content file has been
+ * imported.
+ * @since 2.1.5
+ */
+public interface ContentImportProgressListener extends ContentImportListener {
+
+    /**
+     * Reports the progress of the import.
+     * @param createdNodes The number of nodes created so far
+     * @param nodesPerSecond The number of nodes created per second
+     */
+	void onProgress(long createdNodes, long nodesPerSecond);
+}
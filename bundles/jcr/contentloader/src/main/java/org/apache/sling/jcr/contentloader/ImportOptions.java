@@ -55,6 +55,19 @@ public abstract class ImportOptions {
 		return true;
 	}
 
+	/**
+	 * Specifies the number of imported nodes after which the session is
+	 * saved while the import is still running. This bounds the transient
+	 * space of large imports, but leaves the nodes saved so far in place
+	 * if the import fails later on.
+	 * @return the number of nodes per save or 0 to save once at the end
+	 *         of the import
+	 * @since 2.1.5
+	 */
+	public int getSaveBatchSize() {
+		return 0;
+	}
+
 	/**
 	 * Check if the import provider for the given file extension should
 	 * be ignored.
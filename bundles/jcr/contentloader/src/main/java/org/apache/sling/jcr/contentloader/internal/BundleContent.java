@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.contentloader.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * The <code>BundleContent</code> class provides helper methods about the
+ * initial content of bundles: a checksum detecting changed content and the
+ * repository paths the content is loaded to, which tell which bundles may be
+ * loaded in parallel.
+ */
+public class BundleContent {
+
+    private static final String CHECKSUM_ALGORITHM = "MD5";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private BundleContent() {
+        // no instances
+    }
+
+    /**
+     * Returns the checksum of the initial content of the bundle, which is
+     * calculated from the {@link PathEntry#CONTENT_HEADER} header and the
+     * names and contents of all entries below the content paths.
+     *
+     * @return the checksum as hex string or <code>null</code> if the bundle
+     *         has no initial content or the entries cannot be read
+     */
+    public static String getChecksum(final Bundle bundle) {
+        final String header = (String) bundle.getHeaders().get(PathEntry.CONTENT_HEADER);
+        final Iterator<PathEntry> pathIter = PathEntry.getContentPaths(bundle);
+        if (header == null || pathIter == null) {
+            return null;
+        }
+
+        try {
+            final MessageDigest digest = MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+            update(digest, header);
+
+            final byte[] buffer = new byte[8192];
+            while (pathIter.hasNext()) {
+                final String path = pathIter.next().getPath();
+                final List<String> files = new ArrayList<String>();
+                collectFiles(bundle, path, files);
+                for (final String file : files) {
+                    update(digest, file);
+                    final URL url = bundle.getEntry(file);
+                    if (url == null) {
+                        continue;
+                    }
+                    final InputStream ins = url.openStream();
+                    try {
+                        int rd;
+                        while ((rd = ins.read(buffer)) >= 0) {
+                            digest.update(buffer, 0, rd);
+                        }
+                    } finally {
+                        ins.close();
+                    }
+                }
+            }
+
+            final byte[] sum = digest.digest();
+            final char[] hex = new char[sum.length * 2];
+            for (int i = 0; i < sum.length; i++) {
+                hex[2 * i] = HEX[(sum[i] >> 4) & 0x0f];
+                hex[2 * i + 1] = HEX[sum[i] & 0x0f];
+            }
+            return new String(hex);
+
+        } catch (NoSuchAlgorithmException nsae) {
+            return null;
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the repository paths below which the initial content of the
+     * bundle is loaded, prefixed with the workspace name and a colon. The
+     * paths are derived from the targets of the content paths and the names
+     * of their top level entries, such that bundles loading into the same
+     * target but different child nodes do not overlap.
+     *
+     * @param extensions the extensions of the node descriptors
+     * @return the paths, which are empty if the bundle has no initial content
+     */
+    public static Set<String> getContentRoots(final Bundle bundle,
+            final Collection<String> extensions) {
+        final Set<String> roots = new HashSet<String>();
+        final Iterator<PathEntry> pathIter = PathEntry.getContentPaths(bundle);
+        if (pathIter == null) {
+            return roots;
+        }
+
+        while (pathIter.hasNext()) {
+            final PathEntry entry = pathIter.next();
+            final String prefix = (entry.getWorkspace() == null ? "" : entry.getWorkspace()) + ":";
+            String target = entry.getTarget();
+            if (target == null || target.length() == 0) {
+                target = "/";
+            } else if (!target.startsWith("/")) {
+                target = "/" + target;
+            }
+
+            String path = entry.getPath();
+            if (path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+
+            @SuppressWarnings("unchecked")
+            final Enumeration<String> children = bundle.getEntryPaths(path);
+            if (children == null) {
+                // single file content
+                roots.add(prefix + append(target, getNodeName(path)));
+                continue;
+            }
+
+            // a descriptor of the content path itself changes the target
+            boolean hasDescriptor = false;
+            for (final String ext : extensions) {
+                if (bundle.getEntry(path + ext) != null) {
+                    hasDescriptor = true;
+                    break;
+                }
+            }
+            if (hasDescriptor) {
+                roots.add(prefix + target);
+            } else {
+                while (children.hasMoreElements()) {
+                    roots.add(prefix + append(target, getNodeName(children.nextElement())));
+                }
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Splits the bundles into groups whose initial content does not overlap
+     * with the content of the bundles in the other groups. The groups and
+     * the bundles in each group are in the order of the given list.
+     *
+     * @param extensions the extensions of the node descriptors
+     */
+    public static List<List<Bundle>> getIndependentGroups(final List<Bundle> bundles,
+            final Collection<String> extensions) {
+        final List<List<Bundle>> groups = new ArrayList<List<Bundle>>();
+        final List<Set<String>> groupRoots = new ArrayList<Set<String>>();
+
+        for (final Bundle bundle : bundles) {
+            final Set<String> roots = getContentRoots(bundle, extensions);
+            final List<Bundle> group = new ArrayList<Bundle>();
+            group.add(bundle);
+
+            // merge all groups overlapping with the bundle into the first one
+            int first = -1;
+            for (int i = 0; i < groups.size(); i++) {
+                if (overlaps(roots, groupRoots.get(i))) {
+                    if (first < 0) {
+                        first = i;
+                    } else {
+                        groups.get(first).addAll(groups.remove(i));
+                        groupRoots.get(first).addAll(groupRoots.remove(i));
+                        i--;
+                    }
+                }
+            }
+
+            if (first < 0) {
+                groups.add(group);
+                groupRoots.add(roots);
+            } else {
+                groups.get(first).add(bundle);
+                groupRoots.get(first).addAll(roots);
+            }
+        }
+
+        // bundles of merged groups are appended, restore the given order
+        for (final List<Bundle> group : groups) {
+            Collections.sort(group, new Comparator<Bundle>() {
+                public int compare(Bundle b1, Bundle b2) {
+                    return bundles.indexOf(b1) - bundles.indexOf(b2);
+                }
+            });
+        }
+        return groups;
+    }
+
+    private static boolean overlaps(final Set<String> roots, final Set<String> others) {
+        for (final String root : roots) {
+            for (final String other : others) {
+                if (isAncestorOrSelf(root, other) || isAncestorOrSelf(other, root)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAncestorOrSelf(final String ancestor, final String path) {
+        if (!path.startsWith(ancestor)) {
+            return false;
+        }
+        return path.length() == ancestor.length() || ancestor.endsWith("/")
+            || path.charAt(ancestor.length()) == '/';
+    }
+
+    /**
+     * Returns the name of the node created for the entry, which is the last
+     * path segment up to the first dot. This may be shorter than the actual
+     * name, which only makes the content overlap with more paths.
+     */
+    private static String getNodeName(String entry) {
+        if (entry.endsWith("/")) {
+            entry = entry.substring(0, entry.length() - 1);
+        }
+        String name = entry.substring(entry.lastIndexOf('/') + 1);
+        final int dot = name.indexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return name;
+    }
+
+    private static String append(final String parent, final String name) {
+        return parent.endsWith("/") ? parent + name : parent + "/" + name;
+    }
+
+    private static void collectFiles(final Bundle bundle, final String path,
+            final List<String> files) {
+        @SuppressWarnings("unchecked")
+        final Enumeration<String> entries = bundle.getEntryPaths(path);
+        if (entries == null) {
+            files.add(path);
+            return;
+        }
+
+        final List<String> children = new ArrayList<String>();
+        while (entries.hasMoreElements()) {
+            children.add(entries.nextElement());
+        }
+        Collections.sort(children);
+        for (final String child : children) {
+            if (child.endsWith("/")) {
+                collectFiles(bundle, child, files);
+            } else {
+                files.add(child);
+            }
+        }
+    }
+
+    private static void update(final MessageDigest digest, final String value)
+            throws UnsupportedEncodingException {
+        digest.update(value.getBytes("UTF-8"));
+        digest.update((byte) 0);
+    }
+}
@@ -175,4 +175,11 @@ public interface ContentCreator {
      */
     void createAce(String principal, String [] grantedPrivileges, String [] deniedPrivileges, String order )
     throws RepositoryException;
+
+    /**
+     * Returns <code>true</code> if the created nodes are saved in batches
+     * while the content is read. Readers should then create the nodes while
+     * reading instead of reading the complete content first.
+     */
+    boolean isBatched();
 }
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.contentloader.internal;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * This is a configuration printer for the web console which
+ * prints out the time spent loading the initial content of each bundle.
+ */
+public class ContentLoaderPrinter {
+
+    private static final String HEADLINE = "Apache Sling Initial Content Loading";
+
+    /** The last timing of each bundle by bundle id */
+    private final Map<Long, Timing> timings = new HashMap<Long, Timing>();
+
+    private ServiceRegistration pluginReg;
+
+    private volatile long activationTime = -1;
+
+    private volatile int threads;
+
+    public void register(final BundleContext bundleContext) {
+        final Dictionary<String, String> props = new Hashtable<String, String>();
+        props.put(Constants.SERVICE_DESCRIPTION,
+            "Apache Sling Initial Content Loading Configuration Printer");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put("felix.webconsole.label", "slinginitialcontent");
+        props.put("felix.webconsole.title", "Sling Initial Content");
+        props.put("felix.webconsole.configprinter.modes", "always");
+
+        pluginReg = bundleContext.registerService(ContentLoaderPrinter.class.getName(),
+                this,
+                props);
+    }
+
+    public void unregister() {
+        if ( pluginReg != null) {
+            pluginReg.unregister();
+            pluginReg = null;
+        }
+    }
+
+    /**
+     * Records the result of loading the content of a bundle.
+     * @param bundle The bundle
+     * @param result What has been done, e.g. loaded or unchanged
+     * @param time The time spent in milliseconds
+     */
+    public void record(final Bundle bundle, final String result, final long time) {
+        synchronized ( this.timings ) {
+            this.timings.put(bundle.getBundleId(), new Timing(bundle, result, time));
+        }
+    }
+
+    /**
+     * Records the time spent loading the content of all bundles present
+     * on activation.
+     */
+    public void recordActivation(final long time, final int threads) {
+        this.activationTime = time;
+        this.threads = threads;
+    }
+
+    /**
+     * Print out the timings of the bundles, slowest first.
+     * @see org.apache.felix.webconsole.ConfigurationPrinter#printConfiguration(java.io.PrintWriter)
+     */
+    public void printConfiguration(PrintWriter pw) {
+        pw.println(HEADLINE);
+        pw.println();
+        if ( this.activationTime >= 0 ) {
+            pw.print("Content of installed bundles loaded in ");
+            pw.print(this.activationTime);
+            pw.print("ms using ");
+            pw.print(this.threads);
+            pw.println(" thread(s)");
+            pw.println();
+        }
+
+        final List<Timing> sorted;
+        synchronized ( this.timings ) {
+            sorted = new ArrayList<Timing>(this.timings.values());
+        }
+        Collections.sort(sorted, new Comparator<Timing>() {
+            public int compare(Timing t1, Timing t2) {
+                return (t1.time < t2.time) ? 1 : ((t1.time == t2.time) ? 0 : -1);
+            }
+        });
+        for (final Timing timing : sorted) {
+            pw.print(timing.symbolicName);
+            pw.print(" (");
+            pw.print(timing.bundleId);
+            pw.print("): ");
+            pw.print(timing.result);
+            pw.print(" in ");
+            pw.print(timing.time);
+            pw.print("ms [");
+            pw.print(timing.thread);
+            pw.println("]");
+        }
+    }
+
+    private static final class Timing {
+        final String symbolicName;
+        final long bundleId;
+        final String result;
+        final long time;
+        final String thread;
+
+        Timing(final Bundle bundle, final String result, final long time) {
+            this.symbolicName = bundle.getSymbolicName();
+            this.bundleId = bundle.getBundleId();
+            this.result = result;
+            this.time = time;
+            this.thread = Thread.currentThread().getName();
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.sling.jcr.contentloader.internal;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,6 +26,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
@@ -54,6 +60,7 @@ import org.slf4j.LoggerFactory;
  * @scr.property name="service.description" value="Sling
  *               Content Loader Implementation"
  * @scr.property name="service.vendor" value="The Apache Software Foundation"
+ * @scr.property name="content.loader.threads" value="4" type="Integer"
  */
 public class ContentLoaderService implements SynchronousBundleListener, JcrContentHelper {
 
@@ -63,6 +70,15 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
     private static final String PROPERTY_CONTENT_UNLOADED_AT = "content-unload-time";
     private static final String PROPERTY_CONTENT_UNLOADED_BY = "content-unloaded-by";
     public static final String PROPERTY_UNINSTALL_PATHS = "uninstall-paths";
+    public static final String PROPERTY_CONTENT_CHECKSUM = "content-checksum";
+
+    /**
+     * The number of threads loading the content of the bundles present on
+     * activation in parallel.
+     */
+    private static final String PROP_THREADS = "content.loader.threads";
+
+    private static final int DEFAULT_THREADS = 4;
 
     public static final String BUNDLE_CONTENT_NODE = "/var/sling/bundle-content";
 
@@ -90,6 +106,11 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
      */
     private Loader initialContentLoader;
 
+    /**
+     * The web console printer of the time spent loading content.
+     */
+    private ContentLoaderPrinter printer;
+
     /**
      * The id of the current instance
      */
@@ -207,7 +228,9 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
     /** Activates this component, called by SCR before registering as a service */
     protected void activate(ComponentContext componentContext) {
         this.slingId = this.settingsService.getSlingId();
-        this.initialContentLoader = new Loader(this);
+        this.printer = new ContentLoaderPrinter();
+        this.printer.register(componentContext.getBundleContext());
+        this.initialContentLoader = new Loader(this, this.printer);
 
         componentContext.getBundleContext().addBundleListener(this);
 
@@ -220,23 +243,15 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
                     + "bundles which are neither INSTALLED nor UNINSTALLED");
 
             int ignored = 0;
+            final List<Bundle> contentBundles = new ArrayList<Bundle>();
             Bundle[] bundles = componentContext.getBundleContext().getBundles();
             for (Bundle bundle : bundles) {
                 if ((bundle.getState() & (Bundle.INSTALLED | Bundle.UNINSTALLED)) == 0) {
 
                     // load content for bundles which are neither INSTALLED nor
                     // UNINSTALLED
-                    try {
-                        initialContentLoader.registerBundle(session, bundle, false);
-                    } catch (Throwable t) {
-                        log.error(
-                            "Problem loading initial content of bundle "
-                                + bundle.getSymbolicName() + " ("
-                                + bundle.getBundleId() + ")", t);
-                    } finally {
-                        if ( session.hasPendingChanges() ) {
-                            session.refresh(false);
-                        }
+                    if (bundle.getHeaders().get(PathEntry.CONTENT_HEADER) != null) {
+                        contentBundles.add(bundle);
                     }
                 } else {
                     ignored++;
@@ -249,6 +264,13 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
                     bundles.length, ignored
                     );
 
+            this.registerBundles(contentBundles,
+                getThreads(componentContext.getProperties().get(PROP_THREADS)));
+
+            // bundles failing in parallel, e.g. because of creating the same
+            // target folders, are retried one after the other
+            this.initialContentLoader.retryDelayedBundles(session);
+
         } catch (Throwable t) {
             log.error("activate: Problem while loading initial content and"
                 + " registering mappings for existing bundles", t);
@@ -257,6 +279,87 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
         }
     }
 
+    /**
+     * Registers the content of the bundles. Bundles whose content does not
+     * overlap are registered in parallel with separate sessions, bundles
+     * with overlapping content in the given order by the same thread.
+     */
+    private void registerBundles(final List<Bundle> bundles, int threads)
+    throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final List<List<Bundle>> groups = this.initialContentLoader.getIndependentGroups(bundles);
+        threads = Math.max(1, Math.min(threads, groups.size()));
+        log.info("Loading initial content of {} bundles in {} independent groups using {} threads",
+            new Object[] {bundles.size(), groups.size(), threads});
+
+        final AtomicInteger counter = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "Sling Content Loader #" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (final List<Bundle> group : groups) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        registerGroup(group);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+        while (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+            log.info("Still loading initial content of bundles after {}ms",
+                System.currentTimeMillis() - start);
+        }
+
+        final long time = System.currentTimeMillis() - start;
+        this.printer.recordActivation(time, threads);
+        log.info("Loaded initial content of {} bundles in {}ms", bundles.size(), time);
+    }
+
+    private void registerGroup(final List<Bundle> group) {
+        Session session = null;
+        try {
+            session = this.getSession();
+            for (final Bundle bundle : group) {
+                try {
+                    // delayed bundles are retried once all groups are done
+                    initialContentLoader.registerBundle(session, bundle, false, false);
+                } catch (Throwable t) {
+                    log.error(
+                        "Problem loading initial content of bundle "
+                            + bundle.getSymbolicName() + " ("
+                            + bundle.getBundleId() + ")", t);
+                } finally {
+                    if ( session.hasPendingChanges() ) {
+                        session.refresh(false);
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            log.error("Problem while loading initial content of bundles " + group, t);
+        } finally {
+            this.ungetSession(session);
+        }
+    }
+
+    private int getThreads(final Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value != null) {
+            try {
+                return Integer.parseInt(value.toString());
+            } catch (NumberFormatException nfe) {
+                log.warn("Invalid number of threads {}, using {}", value, DEFAULT_THREADS);
+            }
+        }
+        return DEFAULT_THREADS;
+    }
+
     /** Deativates this component, called by SCR to take out of service */
     protected void deactivate(ComponentContext componentContext) {
         componentContext.getBundleContext().removeBundleListener(this);
@@ -265,6 +368,10 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
             this.initialContentLoader.dispose();
             this.initialContentLoader = null;
         }
+        if ( this.printer != null ) {
+            this.printer.unregister();
+            this.printer = null;
+        }
     }
 
     // ---------- internal helper ----------------------------------------------
@@ -347,13 +454,38 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
             }
             info.put(ContentLoaderService.PROPERTY_UNINSTALL_PATHS, s);
         }
+        if ( bcNode.hasProperty(ContentLoaderService.PROPERTY_CONTENT_CHECKSUM) ) {
+            info.put(ContentLoaderService.PROPERTY_CONTENT_CHECKSUM,
+                    bcNode.getProperty(ContentLoaderService.PROPERTY_CONTENT_CHECKSUM).getString());
+        }
         return info;
     }
 
+    /**
+     * Return the checksum of the loaded content of the bundle without
+     * locking the bundle content info.
+     * @return The checksum or null if the content is not loaded.
+     */
+    public String getBundleContentChecksum(final Session session, final Bundle bundle)
+    throws RepositoryException {
+        final String path = BUNDLE_CONTENT_NODE + '/' + bundle.getSymbolicName();
+        if ( !session.itemExists(path) ) {
+            return null;
+        }
+        final Node bcNode = (Node)session.getItem(path);
+        if ( !bcNode.hasProperty(ContentLoaderService.PROPERTY_CONTENT_LOADED)
+             || !bcNode.getProperty(ContentLoaderService.PROPERTY_CONTENT_LOADED).getBoolean()
+             || !bcNode.hasProperty(ContentLoaderService.PROPERTY_CONTENT_CHECKSUM) ) {
+            return null;
+        }
+        return bcNode.getProperty(ContentLoaderService.PROPERTY_CONTENT_CHECKSUM).getString();
+    }
+
     public void unlockBundleContentInfo(final Session session,
                                         final Bundle  bundle,
                                         final boolean contentLoaded,
-                                        final List<String> createdNodes)
+                                        final List<String> createdNodes,
+                                        final String checksum)
     throws RepositoryException {
         final String nodeName = bundle.getSymbolicName();
         final Node parentNode = (Node)session.getItem(BUNDLE_CONTENT_NODE);
@@ -367,6 +499,7 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
             if ( createdNodes != null && createdNodes.size() > 0 ) {
                 bcNode.setProperty(PROPERTY_UNINSTALL_PATHS, createdNodes.toArray(new String[createdNodes.size()]));
             }
+            bcNode.setProperty(PROPERTY_CONTENT_CHECKSUM, checksum);
             bcNode.save();
         }
         bcNode.unlock();
@@ -383,6 +516,7 @@ public class ContentLoaderService implements SynchronousBundleListener, JcrConte
                 bcNode.setProperty(PROPERTY_CONTENT_UNLOADED_AT, Calendar.getInstance());
                 bcNode.setProperty(PROPERTY_CONTENT_UNLOADED_BY, this.slingId);
                 bcNode.setProperty(PROPERTY_UNINSTALL_PATHS, (String[])null);
+                bcNode.setProperty(PROPERTY_CONTENT_CHECKSUM, (String)null);
                 bcNode.save();
             }
         } catch (RepositoryException re) {
@@ -25,6 +25,7 @@ import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.contentloader.ContentImportListener;
+import org.apache.sling.jcr.contentloader.ContentImportProgressListener;
 import org.apache.sling.jcr.contentloader.ImportOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +41,8 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +60,7 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
 import javax.jcr.ValueFactory;
+import javax.jcr.nodetype.NodeDefinition;
 
 /**
  * The <code>ContentLoader</code> creates the nodes and properties.
@@ -103,6 +107,30 @@ public class DefaultContentCreator implements ContentCreator {
 
     /** Optional listener to get notified about changes */
     private ContentImportListener importListener;
+
+    /** The number of nodes finished since the last intermediate save */
+    private int unsavedNodes;
+
+    /** The number of nodes finished since parsing started */
+    private long finishedNodes;
+
+    /** The number of nodes created since parsing started */
+    private long createdNodeCount;
+
+    /** The time parsing started */
+    private long parsingStarted;
+
+    /** The node below which the current content file is imported */
+    private Node parsingRoot;
+
+    /**
+     * What is known about the nodes created by a batched import which are
+     * still on the stack, by node.
+     */
+    private final Map<Node, CreatedNode> createdNodeStates = new IdentityHashMap<Node, CreatedNode>();
+
+    /** Whether the node types by name auto create child nodes */
+    private final Map<String, Boolean> autoCreatesChildren = new HashMap<String, Boolean>();
     
     /**
      * A one time use seed to randomize the user location.
@@ -159,6 +187,56 @@ public class DefaultContentCreator implements ContentCreator {
         this.defaultName = defaultName;
         isParentNodeImport = defaultName == null;
         this.createdRootNode = null;
+        this.unsavedNodes = 0;
+        this.finishedNodes = 0;
+        this.createdNodeCount = 0;
+        this.parsingStarted = System.currentTimeMillis();
+        this.parsingRoot = parentNode;
+        this.createdNodeStates.clear();
+    }
+
+    /**
+     * Completes the import of the current content file. In batched mode
+     * this resolves the references to the nodes created so far in one
+     * pass, before the caller saves the session.
+     */
+    public void finishParsing() throws RepositoryException {
+        if ( isBatched() && !this.delayedReferences.isEmpty() ) {
+            final Session session = this.parsingRoot.getSession();
+            for (final String path : new ArrayList<String>(this.delayedReferences.keySet())) {
+                if ( session.itemExists(path) ) {
+                    final Item item = session.getItem(path);
+                    if ( item.isNode() ) {
+                        resolveReferences((Node) item);
+                    }
+                }
+            }
+        }
+        this.createdNodeStates.clear();
+        reportProgress();
+    }
+
+    /**
+     * In batched mode the session is saved every
+     * {@link ImportOptions#getSaveBatchSize()} nodes, references are
+     * resolved once at the end of each content file and nodes created by
+     * the import are not looked up in the repository again.
+     *
+     * @see org.apache.sling.jcr.contentloader.internal.ContentCreator#isBatched()
+     */
+    public boolean isBatched() {
+        return this.configuration.getSaveBatchSize() > 0;
+    }
+
+    private void reportProgress() {
+        final long time = Math.max(1, System.currentTimeMillis() - this.parsingStarted);
+        final long nodesPerSecond = this.createdNodeCount * 1000 / time;
+        log.debug("Created {} nodes in {}ms ({} nodes/s)",
+            new Object[] {this.createdNodeCount, time, nodesPerSecond});
+        if ( this.importListener instanceof ContentImportProgressListener ) {
+            ((ContentImportProgressListener) this.importListener).onProgress(
+                this.createdNodeCount, nodesPerSecond);
+        }
     }
 
     /**
@@ -250,15 +328,22 @@ public class DefaultContentCreator implements ContentCreator {
 
         // if we are in parent node import mode, we don't create the root top level node!
         if ( !isParentImport || this.parentNodeStack.size() > 1 ) {
+            // the children of nodes created by a batched import are known
+            final CreatedNode parentState = this.createdNodeStates.get(parentNode);
+            boolean exists = (parentState != null)
+                    ? parentState.childNames.contains(name)
+                    : parentNode.hasNode(name);
+
             // if node already exists but should be overwritten, delete it
-            if (!this.ignoreOverwriteFlag && this.configuration.isOverwrite() && parentNode.hasNode(name)) {
+            if (!this.ignoreOverwriteFlag && this.configuration.isOverwrite() && exists) {
             	checkoutIfNecessary(parentNode);
                 parentNode.getNode(name).remove();
+                exists = false;
             }
 
             // ensure repository node
             Node node;
-            if (parentNode.hasNode(name)) {
+            if (exists) {
 
                 // use existing node
                 node = parentNode.getNode(name);
@@ -298,6 +383,21 @@ public class DefaultContentCreator implements ContentCreator {
                 this.versionables.add(node);
             }
 
+            if ( !exists ) {
+                this.createdNodeCount++;
+                if ( parentState != null ) {
+                    parentState.childNames.add(name);
+                }
+                if ( isBatched() && primaryNodeType != null
+                     && (mixinNodeTypes == null || mixinNodeTypes.length == 0)
+                     && !autoCreatesChildren(node.getSession(), primaryNodeType) ) {
+                    final Node versionable = isVersionable(node) ? node
+                            : (parentState != null) ? parentState.versionableAncestor
+                            : findVersionableAncestor(parentNode);
+                    this.createdNodeStates.put(node, new CreatedNode(versionable));
+                }
+            }
+
             this.parentNodeStack.push(node);
             if ( this.createdRootNode == null ) {
                 this.createdRootNode = node;
@@ -305,6 +405,27 @@ public class DefaultContentCreator implements ContentCreator {
         }
     }
 
+    /**
+     * Returns whether nodes of the type get child nodes when they are
+     * created, in which case their children are not known.
+     */
+    private boolean autoCreatesChildren(final Session session, final String nodeType)
+    throws RepositoryException {
+        Boolean autoCreates = this.autoCreatesChildren.get(nodeType);
+        if ( autoCreates == null ) {
+            autoCreates = Boolean.FALSE;
+            for (final NodeDefinition def : session.getWorkspace().getNodeTypeManager()
+                    .getNodeType(nodeType).getChildNodeDefinitions()) {
+                if ( def.isAutoCreated() ) {
+                    autoCreates = Boolean.TRUE;
+                    break;
+                }
+            }
+            this.autoCreatesChildren.put(nodeType, autoCreates);
+        }
+        return autoCreates.booleanValue();
+    }
+
     /**
      * @see org.apache.sling.jcr.contentloader.internal.ContentCreator#createProperty(java.lang.String, int, java.lang.String)
      */
@@ -478,8 +599,30 @@ public class DefaultContentCreator implements ContentCreator {
     public void finishNode()
     throws RepositoryException {
         final Node node = this.parentNodeStack.pop();
-        // resolve REFERENCE property values pointing to this node
-        resolveReferences(node);
+        this.createdNodeStates.remove(node);
+
+        // resolve REFERENCE property values pointing to this node, batched
+        // imports resolve all references when finishing parsing
+        if ( !isBatched() && !this.delayedReferences.isEmpty() ) {
+            resolveReferences(node);
+        }
+
+        // save the completed nodes if configured to save in batches
+        this.finishedNodes++;
+        final int batchSize = this.configuration.getSaveBatchSize();
+        if ( batchSize > 0 && ++this.unsavedNodes >= batchSize ) {
+            node.getSession().save();
+            this.unsavedNodes = 0;
+            log.debug("Saved import after {} nodes", this.finishedNodes);
+            reportProgress();
+        }
+    }
+
+    /**
+     * Get the number of nodes finished since parsing started.
+     */
+    public long getFinishedNodes() {
+        return this.finishedNodes;
     }
 
     private void addNodeToCreatedList(Node node) throws RepositoryException {
@@ -770,6 +913,11 @@ public class DefaultContentCreator implements ContentCreator {
             	checkoutIfNecessary(node);
                 final Node n = node.addNode(token, newNodeType);
                 addNodeToCreatedList(n);
+                this.createdNodeCount++;
+                final CreatedNode state = this.createdNodeStates.get(node);
+                if ( state != null ) {
+                    state.childNames.add(token);
+                }
                 if ( this.importListener != null ) {
                 	this.importListener.onCreate(node.getPath());
                 }
@@ -898,6 +1046,8 @@ public class DefaultContentCreator implements ContentCreator {
 			String order)
 			throws RepositoryException {
 		final Node parentNode = this.parentNodeStack.peek();
+		// the access control policy node is not created by the import
+		this.createdNodeStates.remove(parentNode);
 		Session session = parentNode.getSession();
 		PrincipalManager principalManager = AccessControlUtil.getPrincipalManager(session);
 		Principal principal = principalManager.getPrincipal(principalId);
@@ -970,7 +1120,10 @@ public class DefaultContentCreator implements ContentCreator {
      */
     protected void checkoutIfNecessary(Node node) throws RepositoryException {
         if (this.configuration.isAutoCheckout()) {
-            Node versionableNode = findVersionableAncestor(node);
+            // the versionable ancestor of nodes created by a batched import is known
+            final CreatedNode state = this.createdNodeStates.get(node);
+            Node versionableNode = (state != null) ? state.versionableAncestor
+                    : findVersionableAncestor(node);
             if (versionableNode != null) {
                 if (!versionableNode.isCheckedOut()) {
                     versionableNode.checkout();
@@ -981,5 +1134,20 @@ public class DefaultContentCreator implements ContentCreator {
             }
         }
     }
-    
+
+    /**
+     * The state of a node created by a batched import.
+     */
+    private static final class CreatedNode {
+
+        /** The names of the child nodes created by the import */
+        final Set<String> childNames = new HashSet<String>();
+
+        /** The versionable node or ancestor, or null */
+        final Node versionableAncestor;
+
+        CreatedNode(final Node versionableAncestor) {
+            this.versionableAncestor = versionableAncestor;
+        }
+    }
 }
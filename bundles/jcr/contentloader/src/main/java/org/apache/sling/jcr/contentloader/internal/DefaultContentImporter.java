@@ -94,10 +94,13 @@ public class DefaultContentImporter extends BaseImportLoader implements JcrConte
         final ImportProvider ip = contentCreator.getImportProvider(name);
         ContentReader reader = ip.getReader();
 		reader.parse(contentStream, contentCreator);
+		contentCreator.finishParsing();
 
 		//save changes
         Session session = parent.getSession();
 		session.save();
+        log.debug("importContent: Imported {} nodes from {}",
+            contentCreator.getFinishedNodes(), name);
 
         // finally checkin versionable nodes
         for (final Node versionable : contentCreator.getVersionables()) {
@@ -60,26 +60,30 @@ public class Loader extends BaseImportLoader {
 
     private ContentLoaderService contentLoaderService;
 
+    /** the timings of the bundles */
+    private final ContentLoaderPrinter printer;
+
     // bundles whose registration failed and should be retried
-    private List<Bundle> delayedBundles;
+    private final List<Bundle> delayedBundles;
 
-    public Loader(ContentLoaderService contentLoaderService) {
+    public Loader(ContentLoaderService contentLoaderService, ContentLoaderPrinter printer) {
     	super();
     	this.contentLoaderService = contentLoaderService;
+        this.printer = printer;
         this.delayedBundles = new LinkedList<Bundle>();
     }
 
     public void dispose() {
-        if (delayedBundles != null) {
+        synchronized (delayedBundles) {
             delayedBundles.clear();
-            delayedBundles = null;
         }
         contentLoaderService = null;
         super.dispose();
     }
 
     /**
-     * Register a bundle and install its content.
+     * Register a bundle and install its content. Delayed bundles are retried
+     * if the content of the bundle is installed.
      *
      * @param metadataSession
      * @param bundle
@@ -88,18 +92,65 @@ public class Loader extends BaseImportLoader {
     public void registerBundle(final Session metadataSession,
                                final Bundle bundle,
                                final boolean isUpdate) throws RepositoryException {
+        registerBundle(metadataSession, bundle, isUpdate, true);
+    }
+
+    /**
+     * Register a bundle and install its content.
+     *
+     * @param metadataSession
+     * @param bundle
+     * @param retryDelayed Whether to retry the delayed bundles if the content
+     *            of the bundle is installed. Bundles registered in parallel
+     *            must not retry, the delayed bundles are retried by
+     *            {@link #retryDelayedBundles(Session)} once all are
+     *            registered.
+     * @throws RepositoryException
+     */
+    public void registerBundle(final Session metadataSession,
+                               final Bundle bundle,
+                               boolean isUpdate,
+                               final boolean retryDelayed) throws RepositoryException {
 
         // if this is an update, we have to uninstall the old content first
+        // unless the content has not changed at all
+        String checksum = null;
         if ( isUpdate ) {
-            this.unregisterBundle(metadataSession, bundle);
+            checksum = BundleContent.getChecksum(bundle);
+            if (checksum != null
+                && checksum.equals(contentLoaderService.getBundleContentChecksum(metadataSession, bundle))) {
+                log.info("Content of updated bundle {} has not changed.",
+                    bundle.getSymbolicName());
+                isUpdate = false;
+            } else {
+                this.unregisterBundle(metadataSession, bundle);
+            }
         }
 
         log.debug("Registering bundle {} for content loading.",
             bundle.getSymbolicName());
 
-        if (registerBundleInternal(metadataSession, bundle, false, isUpdate)) {
+        if (registerBundleInternal(metadataSession, bundle, false, isUpdate, checksum)) {
 
             // handle delayed bundles, might help now
+            if (retryDelayed) {
+                retryDelayedBundles(metadataSession);
+            }
+
+        } else if (!isUpdate) {
+            // add to delayed bundles - if this is not an update!
+            synchronized (delayedBundles) {
+                delayedBundles.add(bundle);
+            }
+        }
+    }
+
+    /**
+     * Retries registering the bundles whose registration failed until no
+     * more bundles succeed.
+     */
+    public void retryDelayedBundles(final Session metadataSession) {
+        synchronized (delayedBundles) {
             int currentSize = -1;
             for (int i = delayedBundles.size(); i > 0
                 && currentSize != delayedBundles.size()
@@ -108,7 +159,7 @@ public class Loader extends BaseImportLoader {
                 for (Iterator<Bundle> di = delayedBundles.iterator(); di.hasNext();) {
 
                     Bundle delayed = di.next();
-                    if (registerBundleInternal(metadataSession, delayed, true, false)) {
+                    if (registerBundleInternal(metadataSession, delayed, true, false, null)) {
                         di.remove();
                     }
 
@@ -116,15 +167,21 @@ public class Loader extends BaseImportLoader {
 
                 currentSize = delayedBundles.size();
             }
-
-        } else if (!isUpdate) {
-            // add to delayed bundles - if this is not an update!
-            delayedBundles.add(bundle);
         }
     }
 
+    /**
+     * Splits the bundles into groups of bundles whose initial content does
+     * not overlap, such that the groups can be registered in parallel.
+     */
+    public List<List<Bundle>> getIndependentGroups(final List<Bundle> bundles) {
+        return BundleContent.getIndependentGroups(bundles,
+            this.defaultImportProviders.keySet());
+    }
+
     private boolean registerBundleInternal(final Session metadataSession,
-            final Bundle bundle, final boolean isRetry, final boolean isUpdate) {
+            final Bundle bundle, final boolean isRetry, final boolean isUpdate,
+            String checksum) {
 
         // check if bundle has initial content
         final Iterator<PathEntry> pathIter = PathEntry.getContentPaths(bundle);
@@ -134,6 +191,8 @@ public class Loader extends BaseImportLoader {
             return true;
         }
 
+        final long start = System.currentTimeMillis();
+        String result = "failed";
         try {
             contentLoaderService.createRepositoryPath(metadataSession, ContentLoaderService.BUNDLE_CONTENT_NODE);
 
@@ -143,6 +202,7 @@ public class Loader extends BaseImportLoader {
 
             // if we don't get an info, someone else is currently loading
             if (bundleContentInfo == null) {
+                result = "locked";
                 return false;
             }
 
@@ -163,17 +223,36 @@ public class Loader extends BaseImportLoader {
 
                     log.info("Content of bundle already loaded {}.",
                         bundle.getSymbolicName());
+                    checksum = (String) bundleContentInfo.get(ContentLoaderService.PROPERTY_CONTENT_CHECKSUM);
+                    result = "already loaded";
 
                 } else {
 
-                    createdNodes = installContent(metadataSession, bundle, pathIter,
-                        contentAlreadyLoaded);
+                    // the checksum is only calculated if the content may
+                    // have to be loaded, reading all entries takes time
+                    if (checksum == null) {
+                        checksum = BundleContent.getChecksum(bundle);
+                    }
 
-                    if (isRetry) {
-                        // log success of retry
-                        log.info(
-                            "Retrying to load initial content for bundle {} succeeded.",
+                    if (contentAlreadyLoaded && checksum != null
+                        && checksum.equals(bundleContentInfo.get(ContentLoaderService.PROPERTY_CONTENT_CHECKSUM))) {
+
+                        log.info("Content of bundle {} has not changed.",
                             bundle.getSymbolicName());
+                        result = "unchanged";
+
+                    } else {
+
+                        createdNodes = installContent(metadataSession, bundle, pathIter,
+                            contentAlreadyLoaded);
+                        result = "loaded";
+
+                        if (isRetry) {
+                            // log success of retry
+                            log.info(
+                                "Retrying to load initial content for bundle {} succeeded.",
+                                bundle.getSymbolicName());
+                        }
                     }
 
                 }
@@ -183,7 +262,7 @@ public class Loader extends BaseImportLoader {
 
             } finally {
                 contentLoaderService.unlockBundleContentInfo(metadataSession, bundle,
-                    success, createdNodes);
+                    success, createdNodes, checksum);
             }
 
         } catch (RepositoryException re) {
@@ -193,6 +272,9 @@ public class Loader extends BaseImportLoader {
                 log.error("Cannot load initial content for bundle "
                     + bundle.getSymbolicName() + " : " + re.getMessage(), re);
             }
+        } finally {
+            printer.record(bundle, isRetry ? result + " on retry" : result,
+                System.currentTimeMillis() - start);
         }
 
         return false;
@@ -205,11 +287,12 @@ public class Loader extends BaseImportLoader {
      */
     public void unregisterBundle(final Session session, final Bundle bundle) {
 
-        if (delayedBundles.contains(bundle)) {
-
-            delayedBundles.remove(bundle);
+        final boolean delayed;
+        synchronized (delayedBundles) {
+            delayed = delayedBundles.remove(bundle);
+        }
 
-        } else {
+        if (!delayed) {
             try {
                 contentLoaderService.createRepositoryPath(session, ContentLoaderService.BUNDLE_CONTENT_NODE);
 
@@ -226,7 +309,7 @@ public class Loader extends BaseImportLoader {
                     uninstallContent(session, bundle, (String[])bundleContentInfo.get(ContentLoaderService.PROPERTY_UNINSTALL_PATHS));
                     contentLoaderService.contentIsUninstalled(session, bundle);
                 } finally {
-                    contentLoaderService.unlockBundleContentInfo(session, bundle, false, null);
+                    contentLoaderService.unlockBundleContentInfo(session, bundle, false, null, null);
 
                 }
             } catch (RepositoryException re) {
@@ -542,6 +625,7 @@ public class Loader extends BaseImportLoader {
 
             contentCreator.prepareParsing(parent, toPlainName(name, contentCreator));
             nodeReader.parse(resourceUrl, contentCreator);
+            contentCreator.finishParsing();
 
             return contentCreator.getCreatedRootNode();
         } catch (RepositoryException re) {
@@ -849,6 +933,7 @@ public class Loader extends BaseImportLoader {
         try {
             contentCreator.prepareParsing(parent, null);
             descriptor.nodeReader.parse(descriptor.rootNodeDescriptor, contentCreator);
+            contentCreator.finishParsing();
 
             return descriptor.rootNodeDescriptor;
         } catch (RepositoryException re) {
@@ -81,6 +81,14 @@ public class PathEntry extends ImportOptions {
      */
     public static final String IGNORE_IMPORT_PROVIDERS_DIRECTIVE = "ignoreImportProviders";
 
+    /**
+     * The save batch size directive specifying the number of nodes after
+     * which the session is saved while loading the content. This defaults
+     * to 0, saving the content of the bundle at once.
+     * @since 2.1.5
+     */
+    public static final String SAVE_BATCH_SIZE_DIRECTIVE = "saveBatchSize";
+
     /** The path for the initial content. */
     private final String path;
 
@@ -111,6 +119,9 @@ public class PathEntry extends ImportOptions {
     /** Workspace to import into. */
     private final String workspace;
 
+    /** The number of nodes per save, 0 to save at once. */
+    private final int saveBatchSize;
+
     private long lastModified;
 
     public static Iterator<PathEntry> getContentPaths(final Bundle bundle) {
@@ -199,6 +210,18 @@ public class PathEntry extends ImportOptions {
             }
         }
 
+        // save batch size directive
+        final String saveBatchSizeValue = entry.getDirectiveValue(SAVE_BATCH_SIZE_DIRECTIVE);
+        int batchSize = 0;
+        if (saveBatchSizeValue != null) {
+            try {
+                batchSize = Integer.parseInt(saveBatchSizeValue);
+            } catch (NumberFormatException nfe) {
+                // ignore invalid values and save at once
+            }
+        }
+        this.saveBatchSize = Math.max(0, batchSize);
+
         // workspace directive
         final String workspaceValue = entry.getDirectiveValue(WORKSPACE_DIRECTIVE);
         if (pathValue != null) {
@@ -250,6 +273,14 @@ public class PathEntry extends ImportOptions {
 		return this.autoCheckout;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.apache.sling.jcr.contentloader.ImportOptions#getSaveBatchSize()
+	 */
+	@Override
+	public int getSaveBatchSize() {
+		return this.saveBatchSize;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.apache.sling.jcr.contentloader.internal.ImportOptions#isIgnoredImportProvider(java.lang.String)
 	 */
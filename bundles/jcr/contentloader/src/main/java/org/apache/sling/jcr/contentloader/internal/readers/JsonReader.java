@@ -19,11 +19,15 @@
 package org.apache.sling.jcr.contentloader.internal.readers;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -34,9 +38,12 @@ import javax.jcr.RepositoryException;
 import org.apache.sling.commons.json.JSONArray;
 import org.apache.sling.commons.json.JSONException;
 import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONParser;
 import org.apache.sling.jcr.contentloader.internal.ContentCreator;
 import org.apache.sling.jcr.contentloader.internal.ContentReader;
 import org.apache.sling.jcr.contentloader.internal.ImportProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The <code>JsonReader</code> Parses a Json document on content load and creates the
@@ -86,9 +93,20 @@ import org.apache.sling.jcr.contentloader.internal.ImportProvider;
  *   }
  *
  * </pre>
+ *
+ * If the content creator saves the nodes in batches, the document is parsed
+ * while the nodes are created, so only the node being read and its ancestors
+ * are kept in memory. In this case <code>jcr:primaryType</code> and
+ * <code>jcr:mixinTypes</code> have to precede the child nodes. Documents
+ * giving them after a child node are rejected, as the node has already been
+ * created with the wrong type. Otherwise the complete document is read
+ * before the nodes are created and the properties may be given in any order.
  */
 public class JsonReader implements ContentReader {
 
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(JsonReader.class);
+
     private static final Pattern jsonDate = Pattern.compile("^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}\\.[0-9]{3}[-+]{1}[0-9]{2}[:]{0,1}[0-9]{2}$");
     private static final String REFERENCE = "jcr:reference:";
     private static final String PATH = "jcr:path:";
@@ -121,7 +139,7 @@ public class JsonReader implements ContentReader {
     public static final ImportProvider PROVIDER = new ImportProvider() {
         private JsonReader jsonReader;
 
-        public ContentReader getReader() {
+        public synchronized ContentReader getReader() {
             if (jsonReader == null) {
                 jsonReader = new JsonReader();
             }
@@ -150,18 +168,37 @@ public class JsonReader implements ContentReader {
 
     public void parse(InputStream ins, ContentCreator contentCreator) throws IOException, RepositoryException {
         try {
-            String jsonString = toString(ins).trim();
-            if (!jsonString.startsWith("{")) {
-                jsonString = "{" + jsonString + "}";
+            final PushbackReader reader = new PushbackReader(toReader(ins), 1);
+
+            // allow the outermost braces to be omitted
+            int c;
+            do {
+                c = reader.read();
+            } while (c != -1 && Character.isWhitespace((char) c));
+            if (c != -1) {
+                reader.unread(c);
             }
 
-            JSONObject json = new JSONObject(jsonString);
-            this.createNode(null, json, contentCreator);
+            final JSONParser parser = new JSONParser(c == '{'
+                    ? reader
+                    : new EnclosingReader(reader));
+            parser.next();
+            if (contentCreator.isBatched()) {
+                this.createNode(null, parser, contentCreator);
+            } else {
+                final JSONObject json = (JSONObject) readValue(
+                    JSONParser.Event.START_OBJECT, parser);
+                this.createNode(null, json, contentCreator);
+            }
         } catch (JSONException je) {
             throw (IOException) new IOException(je.getMessage()).initCause(je);
         }
     }
 
+    /**
+     * Creates the node and its properties and child nodes from the
+     * completely read JSON object.
+     */
     protected void createNode(String name, JSONObject obj, ContentCreator contentCreator)
     throws JSONException, RepositoryException {
         Object primaryTypeObj = obj.opt("jcr:primaryType");
@@ -189,20 +226,122 @@ public class JsonReader implements ContentReader {
             // skip well known objects
             if (!ignoredNames.contains(n)) {
                 Object o = obj.get(n);
-                if (SECURITY_PRINCIPLES.equals(n)) {
-                	this.createPrincipals(o, contentCreator);
-                } else if (SECURITY_ACL.equals(n)) {
-                	this.createAcl(o, contentCreator);
-                } else if (o instanceof JSONObject) {
+                if (o instanceof JSONObject
+                        && !SECURITY_PRINCIPLES.equals(n) && !SECURITY_ACL.equals(n)) {
                     this.createNode(n, (JSONObject) o, contentCreator);
                 } else {
-                    this.createProperty(n, o, contentCreator);
+                    this.createItem(n, o, contentCreator);
+                }
+            }
+        }
+        contentCreator.finishNode();
+    }
+
+    /**
+     * Creates the node whose START_OBJECT event has just been read from the
+     * parser and its properties and child nodes while they are read. This is
+     * used if the content creator saves in batches.
+     * Properties preceding the first child node are kept until the node
+     * type is known.
+     *
+     * @throws JSONException If <code>jcr:primaryType</code> or
+     *             <code>jcr:mixinTypes</code> follow a child node.
+     */
+    protected void createNode(String name, JSONParser parser, ContentCreator contentCreator)
+    throws JSONException, RepositoryException {
+        String primaryType = null;
+        String[] mixinTypes = null;
+        List<String> pendingNames = new ArrayList<String>();
+        List<Object> pendingValues = new ArrayList<Object>();
+
+        for (JSONParser.Event event = parser.next(); event != JSONParser.Event.END_OBJECT; event = parser.next()) {
+            final String n = parser.getString();
+            event = parser.next();
+            if (event == JSONParser.Event.START_OBJECT
+                    && !SECURITY_PRINCIPLES.equals(n) && !SECURITY_ACL.equals(n)) {
+                if (pendingNames != null) {
+                    // create this node before its first child node
+                    contentCreator.createNode(name, primaryType, mixinTypes);
+                    for (int i = 0; i < pendingNames.size(); i++) {
+                        this.createItem(pendingNames.get(i), pendingValues.get(i), contentCreator);
+                    }
+                    pendingNames = null;
+                    pendingValues = null;
+                }
+                this.createNode(n, parser, contentCreator);
+            } else {
+                final Object o = readValue(event, parser);
+                if ("jcr:primaryType".equals(n) || "jcr:mixinTypes".equals(n)) {
+                    if (pendingNames == null) {
+                        throw new JSONException(n + " of node " + name
+                            + " must precede its child nodes");
+                    } else if ("jcr:primaryType".equals(n)) {
+                        primaryType = String.valueOf(o);
+                    } else if (o instanceof JSONArray) {
+                        JSONArray mixins = (JSONArray) o;
+                        mixinTypes = new String[mixins.length()];
+                        for (int i = 0; i < mixins.length(); i++) {
+                            mixinTypes[i] = mixins.getString(i);
+                        }
+                    } else {
+                        mixinTypes = null;
+                    }
+                } else if (ignoredNames.contains(n)) {
+                    // skip well known objects
+                } else if (pendingNames != null) {
+                    pendingNames.add(n);
+                    pendingValues.add(o);
+                } else {
+                    this.createItem(n, o, contentCreator);
                 }
             }
         }
+
+        if (pendingNames != null) {
+            contentCreator.createNode(name, primaryType, mixinTypes);
+            for (int i = 0; i < pendingNames.size(); i++) {
+                this.createItem(pendingNames.get(i), pendingValues.get(i), contentCreator);
+            }
+        }
         contentCreator.finishNode();
     }
 
+    private void createItem(String name, Object value, ContentCreator contentCreator)
+    throws JSONException, RepositoryException {
+        if (SECURITY_PRINCIPLES.equals(name)) {
+            this.createPrincipals(value, contentCreator);
+        } else if (SECURITY_ACL.equals(name)) {
+            this.createAcl(value, contentCreator);
+        } else {
+            this.createProperty(name, value, contentCreator);
+        }
+    }
+
+    /**
+     * Reads the value starting with the event as a JSONObject or JSONArray
+     * tree or a primitive value.
+     */
+    private Object readValue(JSONParser.Event event, JSONParser parser)
+    throws JSONException {
+        switch (event) {
+            case START_OBJECT:
+                final JSONObject object = new JSONObject();
+                for (event = parser.next(); event != JSONParser.Event.END_OBJECT; event = parser.next()) {
+                    final String key = parser.getString();
+                    object.put(key, readValue(parser.next(), parser));
+                }
+                return object;
+            case START_ARRAY:
+                final JSONArray array = new JSONArray();
+                for (event = parser.next(); event != JSONParser.Event.END_ARRAY; event = parser.next()) {
+                    array.put(readValue(event, parser));
+                }
+                return array;
+            default:
+                return parser.getValue();
+        }
+    }
+
     protected void createProperty(String name, Object value, ContentCreator contentCreator)
     throws JSONException, RepositoryException {
         // assume simple value
@@ -254,7 +393,7 @@ public class JsonReader implements ContentReader {
         return name;
     }
 
-    private String toString(InputStream ins) throws IOException {
+    private Reader toReader(InputStream ins) throws IOException {
         if (!ins.markSupported()) {
             ins = new BufferedInputStream(ins);
         }
@@ -274,17 +413,51 @@ public class JsonReader implements ContentReader {
             encoding = "UTF-8";
         }
 
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        byte[] buf = new byte[1024];
-        int rd;
-        while ( (rd = ins.read(buf)) >= 0) {
-            bos.write(buf, 0, rd);
+        return new InputStreamReader(ins, encoding);
+    }
+
+    /**
+     * Reader adding the outermost braces around the JSON text read from
+     * another reader.
+     */
+    private static class EnclosingReader extends Reader {
+
+        private final Reader reader;
+
+        /** 0 before the opening brace, 1 in the text, 2 after the closing brace */
+        private int state;
+
+        EnclosingReader(Reader reader) {
+            this.reader = reader;
         }
-        bos.close(); // just to comply with the contract
 
-        return new String(bos.toByteArray(), encoding);
-    }
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (state == 0) {
+                state = 1;
+                cbuf[off] = '{';
+                return 1;
+            }
+            if (state == 1) {
+                final int rd = reader.read(cbuf, off, len);
+                if (rd >= 0) {
+                    return rd;
+                }
+                state = 2;
+                cbuf[off] = '}';
+                return 1;
+            }
+            return -1;
+        }
 
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
 
     /**
      * Create or update one or more user and/or groups
@@ -129,27 +129,20 @@ public class XmlReader implements ContentReader {
     public static final ImportProvider PROVIDER = new ImportProvider() {
         private XmlReader xmlReader;
 
-        public ContentReader getReader() throws IOException {
+        public synchronized ContentReader getReader() {
             if (xmlReader == null) {
-                try {
-                    xmlReader = new XmlReader();
-                } catch (Throwable t) {
-                    throw (IOException) new IOException(t.getMessage()).initCause(t);
-                }
+                xmlReader = new XmlReader();
             }
             return xmlReader;
         }
     };
-    private KXmlParser xmlParser;
 
+    /**
+     * Creates the reader, which keeps no state between calls and may be used
+     * by many threads at the same time: each call of a parse method uses its
+     * own parser.
+     */
     XmlReader() {
-        this.xmlParser = new KXmlParser();
-        try {
-            // Make namespace-aware
-            this.xmlParser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
-        } catch (XmlPullParserException e) {
-            throw new RuntimeException(e);
-        }
     }
 
     // ---------- XML content access -------------------------------------------
@@ -158,7 +151,7 @@ public class XmlReader implements ContentReader {
     /**
      * @see org.apache.sling.jcr.contentloader.internal.ContentReader#parse(URL, org.apache.sling.jcr.contentloader.internal.ContentCreator)
      */
-    public synchronized void parse(final URL url, final ContentCreator creator)
+    public void parse(final URL url, final ContentCreator creator)
     throws IOException, RepositoryException {
         BufferedInputStream bufferedInput = null;
         try {
@@ -197,25 +190,29 @@ public class XmlReader implements ContentReader {
         final StringBuilder contentBuffer = new StringBuilder();
         // Mark the beginning of the stream. We assume that if there's an XSL processing instruction,
         // it will occur in the first gulp - which makes sense, as processing instructions must be
-        // specified before the root element of an XML file.
-        bufferedInput.mark(bufferedInput.available());
+        // specified before the root element of an XML file. Stylesheets are only applied with a
+        // location to resolve them against, so without one the input is not kept in the buffer.
+        if (xmlLocation != null) {
+            bufferedInput.mark(bufferedInput.available());
+        }
         // set the parser input, use null encoding to force detection with
         // <?xml?>
-        this.xmlParser.setInput(bufferedInput, null);
+        final KXmlParser xmlParser = createParser();
+        xmlParser.setInput(bufferedInput, null);
 
-        NodeDescription.SHARED.clear();
-        PropertyDescription.SHARED.clear();
-        FileDescription.SHARED.clear();
+        final NodeDescription nodeDescription = new NodeDescription();
+        final PropertyDescription propertyDescription = new PropertyDescription();
+        final FileDescription fileDescription = new FileDescription();
 
         NodeDescription currentNode = null;
         PropertyDescription currentProperty = null;
         String currentElement;
 
 
-        int eventType = this.xmlParser.getEventType();
+        int eventType = xmlParser.getEventType();
         while (eventType != XmlPullParser.END_DOCUMENT) {
             if (eventType == XmlPullParser.PROCESSING_INSTRUCTION) {
-                ProcessingInstruction pi = new ProcessingInstruction(this.xmlParser.getText());
+                ProcessingInstruction pi = new ProcessingInstruction(xmlParser.getText());
                 // Look for a reference to an XSL stylesheet
                 if (pi.getName().equals(XML_STYLESHEET_PROCESSING_INSTRUCTION) && xmlLocation != null ) {
                     // Rewind the input stream to the beginning, so that it can be transformed with XSL
@@ -233,37 +230,36 @@ public class XmlReader implements ContentReader {
             }
             if (eventType == XmlPullParser.START_TAG) {
 
-                currentElement = this.xmlParser.getName();
+                currentElement = xmlParser.getName();
 
                 if (ELEM_PROPERTY.equals(currentElement)) {
                     currentNode = NodeDescription.create(currentNode, creator);
-                    currentProperty = PropertyDescription.SHARED;
+                    currentProperty = propertyDescription;
                 } else if (ELEM_NODE.equals(currentElement)) {
                     currentNode = NodeDescription.create(currentNode, creator);
-                    currentNode = NodeDescription.SHARED;
-                } else if (ELEM_FILE_NAME.equals(currentElement) && ELEM_FILE_NAMESPACE.equals(this.xmlParser.getNamespace())) {
-                    int attributeCount = this.xmlParser.getAttributeCount();
+                    currentNode = nodeDescription;
+                } else if (ELEM_FILE_NAME.equals(currentElement) && ELEM_FILE_NAMESPACE.equals(xmlParser.getNamespace())) {
+                    int attributeCount = xmlParser.getAttributeCount();
                     if (attributeCount < 2 || attributeCount > 3) {
                         throw new IOException("File element must have these attributes: url, mimeType and lastModified: " + xmlLocation);
                     }
                     try {
-                        AttributeMap attributes = AttributeMap.getInstance();
+                        AttributeMap attributes = new AttributeMap();
                         attributes.setValues(xmlParser);
-                        FileDescription.SHARED.setBaseLocation(xmlLocation);
-                        FileDescription.SHARED.setValues(attributes);
-                        attributes.clear();
+                        fileDescription.setBaseLocation(xmlLocation);
+                        fileDescription.setValues(attributes);
                     } catch (ParseException e) {
                         IOException ioe = new IOException("Error parsing file description: " + xmlLocation);
                         ioe.initCause(e);
                         throw ioe;
                     }
-                    FileDescription.SHARED.create(creator);
-                    FileDescription.SHARED.clear();
+                    fileDescription.create(creator);
+                    fileDescription.clear();
                 }
 
             } else if (eventType == XmlPullParser.END_TAG) {
 
-                String qName = this.xmlParser.getName();
+                String qName = xmlParser.getName();
                 String content = contentBuffer.toString().trim();
                 contentBuffer.delete(0, contentBuffer.length());
 
@@ -312,13 +308,22 @@ public class XmlReader implements ContentReader {
                     currentNode.addMixinType(content);
                 }
             } else if (eventType == XmlPullParser.TEXT || eventType == XmlPullParser.CDSECT) {
-                contentBuffer.append(this.xmlParser.getText());
+                contentBuffer.append(xmlParser.getText());
             }
 
-            eventType = this.xmlParser.nextToken();
+            eventType = xmlParser.nextToken();
         }
     }
 
+    /**
+     * Creates a namespace aware parser.
+     */
+    private static KXmlParser createParser() throws XmlPullParserException {
+        final KXmlParser xmlParser = new KXmlParser();
+        xmlParser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        return xmlParser;
+    }
+
     /**
      * Takes an XML input stream and pipes it through an XSL transformer.
      * Callers should call {@link #startTransform} before trying to use the stream, or the caller will wait indefinately for input.
@@ -400,8 +405,6 @@ public class XmlReader implements ContentReader {
 
     protected static final class NodeDescription {
 
-        public static NodeDescription SHARED = new NodeDescription();
-
         public String name;
         public String primaryNodeType;
         public List<String> mixinTypes;
@@ -441,8 +444,6 @@ public class XmlReader implements ContentReader {
 
     protected static final class PropertyDescription {
 
-        public static PropertyDescription SHARED = new PropertyDescription();
-
         public static PropertyDescription create(PropertyDescription desc, ContentCreator creator)
                 throws RepositoryException {
             int type = (desc.type == null ? PropertyType.STRING : PropertyType.valueFromName(desc.type));
@@ -541,14 +542,16 @@ public class XmlReader implements ContentReader {
         private URL baseLocation;
         private Long lastModified;
 
-        public static FileDescription SHARED = new FileDescription();
         private static final String SRC_ATTRIBUTE = "src";
         private static final String MIME_TYPE_ATTRIBUTE = "mimeType";
         private static final String LAST_MODIFIED_ATTRIBUTE = "lastModified";
-        public static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        public static final String DATE_PATTERN = "yyyy-MM-dd'T'HH:mm:ssZ";
+
+        /** the format of the last modified dates, used by one parse only */
+        private final DateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
 
-        static {
-            DATE_FORMAT.setLenient(true);
+        {
+            dateFormat.setLenient(true);
         }
 
         public void setValues(AttributeMap attributes) throws MalformedURLException, ParseException {
@@ -560,7 +563,7 @@ public class XmlReader implements ContentReader {
                 } else if (name.equals(MIME_TYPE_ATTRIBUTE)) {
                     mimeType = value;
                 } else if (name.equals(LAST_MODIFIED_ATTRIBUTE)) {
-                    lastModified = DATE_FORMAT.parse(value).getTime();
+                    lastModified = dateFormat.parse(value).getTime();
                 }
             }
         }
@@ -613,11 +616,6 @@ public class XmlReader implements ContentReader {
     protected static class AttributeMap extends HashMap<String, String> {
 
 		private static final long serialVersionUID = -6304058237706001104L;
-		private static final AttributeMap instance = new AttributeMap();
-
-        public static AttributeMap getInstance() {
-            return instance;
-        }
 
         /**
          * Puts values in an <code>AttributeMap</code> by extracting attributes from the <code>xmlParser</code>.
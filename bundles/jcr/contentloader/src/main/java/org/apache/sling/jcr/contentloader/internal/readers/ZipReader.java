@@ -26,13 +26,19 @@ import java.util.zip.ZipInputStream;
 import javax.jcr.RepositoryException;
 
 import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.sling.jcr.contentloader.internal.ContentCreator;
 import org.apache.sling.jcr.contentloader.internal.ContentReader;
 import org.apache.sling.jcr.contentloader.internal.ImportProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
- * The <code>ZipReader</code> TODO
+ * The <code>ZipReader</code> imports the files of a ZIP or JAR archive as
+ * <code>nt:file</code> nodes below an <code>nt:folder</code> node. The
+ * archive is read as a stream, the content of each file is passed directly
+ * to the content creator, which saves in batches if configured to.
  *
  * @since 2.0.4
  */
@@ -40,10 +46,13 @@ public class ZipReader implements ContentReader {
 
     private static final String NT_FOLDER = "nt:folder";
 
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(ZipReader.class);
+
     public static final ImportProvider ZIP_PROVIDER = new ImportProvider() {
         private ZipReader zipReader;
 
-        public ContentReader getReader() {
+        public synchronized ContentReader getReader() {
             if (zipReader == null) {
                 zipReader = new ZipReader(false);
             }
@@ -54,7 +63,7 @@ public class ZipReader implements ContentReader {
     public static final ImportProvider JAR_PROVIDER = new ImportProvider() {
         private ZipReader zipReader;
 
-        public ContentReader getReader() {
+        public synchronized ContentReader getReader() {
             if (zipReader == null) {
                 zipReader = new ZipReader(true);
             }
@@ -82,9 +91,16 @@ public class ZipReader implements ContentReader {
 	 */
 	public void parse(InputStream ins, ContentCreator creator)
 			throws IOException, RepositoryException {
+        final long start = System.currentTimeMillis();
+        final CountingInputStream counter = new CountingInputStream(ins);
+        int files = 0;
         try {
             creator.createNode(null, NT_FOLDER, null);
-            final ZipInputStream zis = new ZipInputStream(ins);
+            final ZipInputStream zis = new ZipInputStream(counter);
+
+            // the folder of the previous entry stays the current node, as
+            // entries are usually grouped by folder
+            String currentFolder = null;
             ZipEntry entry;
             do {
                 entry = zis.getNextEntry();
@@ -92,20 +108,30 @@ public class ZipReader implements ContentReader {
                     if ( !entry.isDirectory() ) {
                         String name = entry.getName();
                         int pos = name.lastIndexOf('/');
-                        if ( pos != -1 ) {
-                            creator.switchCurrentNode(name.substring(0, pos), NT_FOLDER);
+                        final String folder = (pos != -1) ? name.substring(0, pos) : null;
+                        if ( currentFolder != null && !currentFolder.equals(folder) ) {
+                            creator.finishNode();
+                            currentFolder = null;
                         }
+                        if ( folder != null && currentFolder == null ) {
+                            creator.switchCurrentNode(folder, NT_FOLDER);
+                            currentFolder = folder;
+                        }
+
+                        // the entry is read directly from the archive into
+                        // the binary property
                         creator.createFileAndResourceNode(name, new CloseShieldInputStream(zis), null, entry.getTime());
                         creator.finishNode();
                         creator.finishNode();
-                        if ( pos != -1 ) {
-                            creator.finishNode();
-                        }
+                        files++;
                     }
                     zis.closeEntry();
                 }
 
             } while ( entry != null );
+            if ( currentFolder != null ) {
+                creator.finishNode();
+            }
             creator.finishNode();
         } finally {
             if (ins != null) {
@@ -115,6 +141,13 @@ public class ZipReader implements ContentReader {
                 }
             }
         }
+
+        if ( log.isInfoEnabled() ) {
+            final long time = Math.max(1, System.currentTimeMillis() - start);
+            log.info("Imported {} files from {} bytes in {}ms ({} MB/s)",
+                new Object[] { files, counter.getByteCount(), time,
+                    String.format("%.2f", counter.getByteCount() * 1000.0 / time / (1024 * 1024)) });
+        }
 	}
-    
+
 }
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.contentloader.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.runner.RunWith;
+import org.osgi.framework.Bundle;
+
+@RunWith(JMock.class)
+public class BundleContentTest {
+
+    private static final List<String> EXTENSIONS = Arrays.asList(".json", ".xml");
+
+    Mockery mockery = new JUnit4Mockery();
+
+    @org.junit.Test public void testContentRoots() {
+        final Bundle bundle = mockBundle("a", "SLING-INF/content;path:=/apps",
+            "SLING-INF/content/", "SLING-INF/content/a/", "SLING-INF/content/a.json",
+            "SLING-INF/content/b.txt");
+        assertEquals(new HashSet<String>(Arrays.asList(":/apps/a", ":/apps/b")),
+            BundleContent.getContentRoots(bundle, EXTENSIONS));
+    }
+
+    @org.junit.Test public void testContentRootsWithDescriptor() {
+        final Bundle bundle = mockBundle("a", "SLING-INF/content;path:=/apps;workspace:=ws",
+            "SLING-INF/content/", "SLING-INF/content/a/", "SLING-INF/content.json");
+        assertEquals(Collections.singleton("ws:/apps"),
+            BundleContent.getContentRoots(bundle, EXTENSIONS));
+    }
+
+    @org.junit.Test public void testIndependentGroups() {
+        final Bundle a = mockBundle("a", "SLING-INF/a;path:=/apps", "SLING-INF/a/", "SLING-INF/a/a/");
+        final Bundle b = mockBundle("b", "SLING-INF/b;path:=/apps", "SLING-INF/b/", "SLING-INF/b/b/");
+        final Bundle c = mockBundle("c", "SLING-INF/c;path:=/apps/a", "SLING-INF/c/", "SLING-INF/c/x/");
+        final Bundle d = mockBundle("d", "SLING-INF/d;path:=/content", "SLING-INF/d/", "SLING-INF/d/d/");
+
+        final List<List<Bundle>> groups = BundleContent.getIndependentGroups(
+            Arrays.asList(a, b, c, d), EXTENSIONS);
+        assertEquals(Arrays.asList(Arrays.asList(a, c), Arrays.asList(b), Arrays.asList(d)), groups);
+    }
+
+    @org.junit.Test public void testMergedGroupsKeepOrder() {
+        final Bundle a = mockBundle("a", "SLING-INF/a;path:=/apps", "SLING-INF/a/", "SLING-INF/a/a/");
+        final Bundle b = mockBundle("b", "SLING-INF/b;path:=/apps", "SLING-INF/b/", "SLING-INF/b/b/");
+        final Bundle c = mockBundle("c", "SLING-INF/c;path:=/content", "SLING-INF/c/", "SLING-INF/c/c/");
+        final Bundle all = mockBundle("all", "SLING-INF/all;path:=/", "SLING-INF/all/", "SLING-INF/all/apps/");
+
+        final List<List<Bundle>> groups = BundleContent.getIndependentGroups(
+            Arrays.asList(a, c, b, all), EXTENSIONS);
+        assertEquals(Arrays.asList(Arrays.asList(a, b, all), Arrays.asList(c)), groups);
+    }
+
+    @org.junit.Test public void testChecksum() {
+        final String first = BundleContent.getChecksum(mockBundle("a",
+            "SLING-INF/content", "SLING-INF/content/", "SLING-INF/content/file.txt"));
+        final String same = BundleContent.getChecksum(mockBundle("b",
+            "SLING-INF/content", "SLING-INF/content/", "SLING-INF/content/file.txt"));
+        final String otherHeader = BundleContent.getChecksum(mockBundle("c",
+            "SLING-INF/content;overwrite:=true", "SLING-INF/content/", "SLING-INF/content/file.txt"));
+        final String otherName = BundleContent.getChecksum(mockBundle("d",
+            "SLING-INF/content", "SLING-INF/content/", "SLING-INF/content/other.txt"));
+
+        assertNotNull(first);
+        assertEquals(first, same);
+        assertFalse(first.equals(otherHeader));
+        assertFalse(first.equals(otherName));
+    }
+
+    /**
+     * Mocks a bundle with the initial content header and the entries, which
+     * are listed by their parent folder. All files have the same contents.
+     */
+    private Bundle mockBundle(final String name, final String header, final String... entries) {
+        final Bundle bundle = this.mockery.mock(Bundle.class, name);
+        final Hashtable<String, String> headers = new Hashtable<String, String>();
+        headers.put(PathEntry.CONTENT_HEADER, header);
+        final URL contents = getClass().getResource("/reader/testfile.txt");
+
+        this.mockery.checking(new Expectations() {{
+            allowing(bundle).getHeaders(); will(returnValue(headers));
+            allowing(bundle).getLastModified(); will(returnValue(0L));
+            for (final String entry : entries) {
+                final String path = entry.endsWith("/") ? entry.substring(0, entry.length() - 1) : entry;
+                final List<String> children = new ArrayList<String>();
+                for (final String child : entries) {
+                    if (child.startsWith(path + "/") && child.length() > path.length() + 1
+                        && child.substring(path.length() + 1, child.length() - 1).indexOf('/') < 0) {
+                        children.add(child);
+                    }
+                }
+                if (entry.endsWith("/")) {
+                    allowing(bundle).getEntryPaths(path); will(returnEnumeration(children));
+                    allowing(bundle).getEntryPaths(entry); will(returnEnumeration(children));
+                } else {
+                    allowing(bundle).getEntryPaths(entry); will(returnValue(null));
+                    allowing(bundle).getEntry(entry); will(returnValue(contents));
+                }
+            }
+            allowing(bundle).getEntryPaths(with(any(String.class))); will(returnValue(null));
+            allowing(bundle).getEntry(with(any(String.class))); will(returnValue(null));
+        }});
+        return bundle;
+    }
+}
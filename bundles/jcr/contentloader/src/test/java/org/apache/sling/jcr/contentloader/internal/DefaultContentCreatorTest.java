@@ -6,7 +6,13 @@ import javax.jcr.Node;
 import javax.jcr.Property;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.nodetype.NodeDefinition;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.NodeTypeManager;
 
+import org.apache.sling.jcr.contentloader.ContentImportProgressListener;
 import org.apache.sling.jcr.contentloader.ImportOptions;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -106,4 +112,78 @@ public class DefaultContentCreatorTest {
         contentCreator.createProperty("foo", PropertyType.UNDEFINED, "bar");
     }
 
+    @org.junit.Test public void willNotLookupChildrenOfCreatedNodesInBatchedMode() throws RepositoryException {
+        final ContentImportProgressListener listener = mockery.mock(ContentImportProgressListener.class);
+        contentCreator = new DefaultContentCreator(null);
+        parentNode = mockery.mock(Node.class, "parent");
+        final Node a = mockery.mock(Node.class, "a");
+        final Node b = mockery.mock(Node.class, "b");
+        final Session session = mockery.mock(Session.class);
+        final Workspace workspace = mockery.mock(Workspace.class);
+        final NodeTypeManager nodeTypeManager = mockery.mock(NodeTypeManager.class);
+        final NodeType nodeType = mockery.mock(NodeType.class);
+        contentCreator.init(new ImportOptions(){
+
+            @Override
+            public boolean isCheckin() {
+                return false;
+            }
+
+            @Override
+            public boolean isAutoCheckout() {
+                return false;
+            }
+
+            @Override
+            public boolean isIgnoredImportProvider(String extension) {
+                return false;
+            }
+
+            @Override
+            public boolean isOverwrite() {
+                return false;
+            }
+
+            @Override
+            public boolean isPropertyOverwrite() {
+                return false;
+            }
+
+            @Override
+            public int getSaveBatchSize() {
+                return 100;
+            } }, new HashMap<String, ImportProvider>(), null, listener);
+
+        contentCreator.prepareParsing(parentNode, null);
+        this.mockery.checking(new Expectations() {{
+            allowing(session).getWorkspace(); will(returnValue(workspace));
+            allowing(workspace).getNodeTypeManager(); will(returnValue(nodeTypeManager));
+            allowing(nodeTypeManager).getNodeType("nt:unstructured"); will(returnValue(nodeType));
+            allowing(nodeType).getChildNodeDefinitions(); will(returnValue(new NodeDefinition[0]));
+            allowing(parentNode).isNodeType("mix:versionable"); will(returnValue(Boolean.FALSE));
+            allowing(parentNode).getParent(); will(returnValue(null));
+
+            oneOf (parentNode).hasNode("a"); will(returnValue(Boolean.FALSE));
+            oneOf (parentNode).addNode("a", "nt:unstructured"); will(returnValue(a));
+            allowing(a).getSession(); will(returnValue(session));
+            allowing(a).getPath(); will(returnValue("/a"));
+            allowing(a).isNodeType("mix:versionable"); will(returnValue(Boolean.FALSE));
+            oneOf (listener).onCreate("/a");
+
+            // the children of the created node a are known
+            never (a).hasNode("b");
+            oneOf (a).addNode("b", "nt:unstructured"); will(returnValue(b));
+            allowing(b).getSession(); will(returnValue(session));
+            allowing(b).getPath(); will(returnValue("/a/b"));
+            allowing(b).isNodeType("mix:versionable"); will(returnValue(Boolean.FALSE));
+            oneOf (listener).onCreate("/a/b");
+
+            oneOf (listener).onProgress(with(equal(2L)), with(any(Long.class)));
+        }});
+        contentCreator.createNode("a", "nt:unstructured", null);
+        contentCreator.createNode("b", "nt:unstructured", null);
+        contentCreator.finishNode();
+        contentCreator.finishNode();
+        contentCreator.finishParsing();
+    }
 }
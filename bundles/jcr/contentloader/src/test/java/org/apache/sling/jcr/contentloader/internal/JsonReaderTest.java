@@ -16,6 +16,9 @@
  */
 package org.apache.sling.jcr.contentloader.internal;
 
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,8 +33,10 @@ import org.apache.sling.jcr.contentloader.internal.readers.JsonReader;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.Sequence;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit4.JMock;
 import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
 import org.junit.runner.RunWith;
 
 @RunWith(JMock.class)
@@ -45,10 +50,21 @@ public class JsonReaderTest {
 
     Sequence mySequence;
 
+    /** Whether the creator saves in batches, which makes the reader stream */
+    boolean batched;
+
     @org.junit.Before public void setUp() throws Exception {
         this.jsonReader = new JsonReader();
         this.creator = this.mockery.mock(ContentCreator.class);
         this.mySequence = this.mockery.sequence("my-sequence");
+        this.mockery.checking(new Expectations() {{
+            allowing(creator).isBatched();
+            will(new CustomAction("is batched") {
+                public Object invoke(Invocation invocation) {
+                    return batched;
+                }
+            });
+        }});
     }
 
     @org.junit.After public void tearDown() throws Exception {
@@ -260,6 +276,79 @@ public class JsonReaderTest {
         this.parse(json);
     }
 
+    @org.junit.Test public void testPropertiesAroundChild() throws Exception {
+        this.batched = true;
+        String json = "{ p1 : \"v1\", c1 : { c1p1 : \"v2\" }, p2 : \"v3\" }";
+        this.mockery.checking(new Expectations() {{
+            allowing(creator).createNode(null, null, null); inSequence(mySequence);
+            allowing(creator).createProperty("p1", PropertyType.UNDEFINED, "v1"); inSequence(mySequence);
+            allowing(creator).createNode("c1", null, null); inSequence(mySequence);
+            allowing(creator).createProperty("c1p1", PropertyType.UNDEFINED, "v2"); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+            allowing(creator).createProperty("p2", PropertyType.UNDEFINED, "v3"); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+        }});
+        this.parse(json);
+    }
+
+    @org.junit.Test public void testPrimaryNodeTypeBeforeChild() throws Exception {
+        this.batched = true;
+        final String type = "xyz:testType";
+        String json = "{ p1 : \"v1\", \"jcr:primaryType\": \"" + type + "\", c1 : {} }";
+        this.mockery.checking(new Expectations() {{
+            allowing(creator).createNode(null, type, null); inSequence(mySequence);
+            allowing(creator).createProperty("p1", PropertyType.UNDEFINED, "v1"); inSequence(mySequence);
+            allowing(creator).createNode("c1", null, null); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+        }});
+        this.parse(json);
+    }
+
+    @org.junit.Test public void testPrimaryNodeTypeAfterChild() throws Exception {
+        final String type = "xyz:testType";
+        String json = "{ c1 : {}, p1 : \"v1\", \"jcr:primaryType\": \"" + type + "\" }";
+        this.mockery.checking(new Expectations() {{
+            allowing(creator).createNode(null, type, null); inSequence(mySequence);
+            allowing(creator).createNode("c1", null, null); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+            allowing(creator).createProperty("p1", PropertyType.UNDEFINED, "v1"); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+        }});
+        this.parse(json);
+    }
+
+    @org.junit.Test public void testBatchedPrimaryNodeTypeAfterChild() throws Exception {
+        this.batched = true;
+        String json = "{ c1 : {}, \"jcr:primaryType\": \"xyz:testType\" }";
+        this.mockery.checking(new Expectations() {{
+            allowing(creator).createNode(null, null, null); inSequence(mySequence);
+            allowing(creator).createNode("c1", null, null); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+        }});
+        try {
+            this.parse(json);
+            fail("Expected the primary type following a child node to fail");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("jcr:primaryType"));
+        }
+    }
+
+    @org.junit.Test public void testBatchedMixinTypesAfterChild() throws Exception {
+        this.batched = true;
+        String json = "{ c1 : {}, \"jcr:mixinTypes\": [\"xyz:mixin\"] }";
+        this.mockery.checking(new Expectations() {{
+            allowing(creator).createNode(null, null, null); inSequence(mySequence);
+            allowing(creator).createNode("c1", null, null); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+        }});
+        try {
+            this.parse(json);
+            fail("Expected the mixin types following a child node to fail");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("jcr:mixinTypes"));
+        }
+    }
 
     @org.junit.Test public void testCreateAcl() throws Exception {
     	String json = " { " +
@@ -19,21 +19,26 @@
 package org.apache.sling.jcr.contentloader.internal.readers;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
 
 import javax.jcr.RepositoryException;
 
 import junit.framework.TestCase;
 
 import org.apache.sling.jcr.contentloader.internal.ContentCreator;
+import org.apache.sling.jcr.contentloader.internal.ContentReader;
 
 public class XmlReaderTest extends TestCase {
 
@@ -66,7 +71,7 @@ public class XmlReaderTest extends TestCase {
             // Expected
         }
         assertEquals("mimeType mismatch", "application/test", file.mimeType);
-        assertEquals("lastModified mismatch", XmlReader.FileDescription.DATE_FORMAT.parse("1977-06-01T07:00:00+0100"), new Date(file.lastModified));
+        assertEquals("lastModified mismatch", new SimpleDateFormat(XmlReader.FileDescription.DATE_PATTERN).parse("1977-06-01T07:00:00+0100"), new Date(file.lastModified));
         assertEquals("Could not read file", "This is a test file.", file.content);
 
     }
@@ -83,6 +88,65 @@ public class XmlReaderTest extends TestCase {
 
     }
 
+    /**
+     * Parses the content of two bundles at the same time, like the content
+     * loader does for independent bundles, with the shared reader.
+     */
+    public void testParallelParsing() throws Exception {
+        final String[] documents = new String[] { document("a", 20), document("b", 30) };
+        final List<String> expected = new ArrayList<String>();
+        for (final String document : documents) {
+            final MockContentCreator single = new MockContentCreator();
+            reader.parse(new ByteArrayInputStream(document.getBytes("UTF-8")), single);
+            expected.add(single + " " + single.properties);
+        }
+
+        final ContentReader shared = XmlReader.PROVIDER.getReader();
+        final CyclicBarrier start = new CyclicBarrier(documents.length);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread[] threads = new Thread[documents.length];
+        for (int i = 0; i < documents.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int n = 0; n < 200; n++) {
+                            final MockContentCreator parallel = new MockContentCreator();
+                            shared.parse(new ByteArrayInputStream(
+                                documents[index].getBytes("UTF-8")), parallel);
+                            assertEquals(expected.get(index), parallel + " "
+                                + parallel.properties);
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+        assertSame(shared, XmlReader.PROVIDER.getReader());
+    }
+
+    /**
+     * Returns a document with a node holding the given number of child
+     * nodes with a property each, all named by the prefix.
+     */
+    private static String document(String prefix, int children) {
+        final StringBuilder document = new StringBuilder("<node><name>" + prefix + "</name><nodes>");
+        for (int i = 0; i < children; i++) {
+            document.append("<node><name>").append(prefix).append(i)
+                .append("</name><primaryNodeType>nt:unstructured</primaryNodeType><properties>")
+                .append("<property><name>").append(prefix).append("</name><value>")
+                .append(i).append("</value></property></properties></node>");
+        }
+        return document.append("</nodes></node>").toString();
+    }
+
     protected void setUp() throws Exception {
         super.setUp();
         reader = new XmlReader();
@@ -110,9 +174,15 @@ public class XmlReaderTest extends TestCase {
 
         public List<FileDescription> filesCreated = new ArrayList<FileDescription>();
 
+        public List<String> properties = new ArrayList<String>();
+
 		public MockContentCreator() {
         }
 
+        public boolean isBatched() {
+            return false;
+        }
+
         public void createNode(String name, String primaryNodeType, String[] mixinNodeTypes) throws RepositoryException {
             this.add(name);
         }
@@ -121,6 +191,7 @@ public class XmlReaderTest extends TestCase {
         }
 
         public void createProperty(String name, int propertyType, String value) throws RepositoryException {
+            this.properties.add(name + "=" + value);
         }
 
         public void createProperty(String name, int propertyType, String[] values) throws RepositoryException {
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.contentloader.internal.readers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.jcr.RepositoryException;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.jcr.contentloader.internal.ContentCreator;
+
+public class ZipReaderTest extends TestCase {
+
+    private ZipReader reader;
+    private MockContentCreator creator;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        reader = new ZipReader(false);
+        creator = new MockContentCreator();
+    }
+
+    /**
+     * Test that folders are only switched to when the folder of the
+     * entries changes and the files are read from the archive.
+     */
+    public void testFolders() throws Exception {
+        final byte[] zip = zip("a/b.txt", "a/c.txt", "a/d/e.txt", "f.txt", "g/h.txt");
+        reader.parse(new ByteArrayInputStream(zip), creator);
+        assertEquals(Arrays.asList("node:nt:folder",
+            "switch:a", "file:a/b.txt=a/b.txt", "finish", "finish",
+            "file:a/c.txt=a/c.txt", "finish", "finish",
+            "finish", "switch:a/d", "file:a/d/e.txt=a/d/e.txt", "finish", "finish",
+            "finish", "file:f.txt=f.txt", "finish", "finish",
+            "switch:g", "file:g/h.txt=g/h.txt", "finish", "finish",
+            "finish", "finish"), creator);
+    }
+
+    public void testEmpty() throws Exception {
+        reader.parse(new ByteArrayInputStream(zip()), creator);
+        assertEquals(Arrays.asList("node:nt:folder", "finish"), creator);
+    }
+
+    /**
+     * Creates an archive whose files contain their own names.
+     */
+    private static byte[] zip(String... names) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ZipOutputStream zos = new ZipOutputStream(out);
+        for (final String name : names) {
+            zos.putNextEntry(new ZipEntry(name));
+            zos.write(name.getBytes("UTF-8"));
+            zos.closeEntry();
+        }
+        zos.close();
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("serial")
+    private static class MockContentCreator extends ArrayList<String> implements ContentCreator {
+
+        public boolean isBatched() {
+            return false;
+        }
+
+        public void createNode(String name, String primaryNodeType, String[] mixinNodeTypes) throws RepositoryException {
+            this.add("node:" + primaryNodeType);
+        }
+
+        public void finishNode() throws RepositoryException {
+            this.add("finish");
+        }
+
+        public void createProperty(String name, int propertyType, String value) throws RepositoryException {
+        }
+
+        public void createProperty(String name, int propertyType, String[] values) throws RepositoryException {
+        }
+
+        public void createProperty(String name, Object value) throws RepositoryException {
+        }
+
+        public void createProperty(String name, Object[] values) throws RepositoryException {
+        }
+
+        public void createFileAndResourceNode(String name, InputStream data, String mimeType, long lastModified) throws RepositoryException {
+            try {
+                final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                int b;
+                while ((b = data.read()) >= 0) {
+                    content.write(b);
+                }
+                data.close();
+                this.add("file:" + name + "=" + content.toString("UTF-8"));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public boolean switchCurrentNode(String subPath, String newNodeType) throws RepositoryException {
+            this.add("switch:" + subPath);
+            return true;
+        }
+
+        public void createAce(String principal,
+                String[] grantedPrivileges, String[] deniedPrivileges,
+                String order)
+                throws RepositoryException {
+        }
+
+        public void createGroup(String name, String[] members,
+                Map<String, Object> extraProperties) throws RepositoryException {
+        }
+
+        public void createUser(String name, String password,
+                Map<String, Object> extraProperties) throws RepositoryException {
+        }
+    }
+}
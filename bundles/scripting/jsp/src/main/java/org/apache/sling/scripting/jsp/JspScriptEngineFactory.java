@@ -115,6 +115,8 @@ public class JspScriptEngineFactory
 
     private ServiceRegistration eventHandlerRegistration;
 
+    private ServiceRegistration pageContextPrinterRegistration;
+
     /** The handler for the jsp factories. */
     private JspRuntimeContext.JspFactoryHandler jspFactoryHandler;
 
@@ -322,6 +324,14 @@ public class JspScriptEngineFactory
         this.eventHandlerRegistration = componentContext.getBundleContext()
                   .registerService(EventHandler.class.getName(), this, props);
 
+        // register the page context counts as a configuration printer
+        final Dictionary<String, String> printerProps = new Hashtable<String, String>();
+        printerProps.put("felix.webconsole.label", "jsppagecontexts");
+        printerProps.put("felix.webconsole.title", "JSP Page Contexts");
+        printerProps.put("felix.webconsole.configprinter.modes", "always");
+        this.pageContextPrinterRegistration = componentContext.getBundleContext()
+                  .registerService(Object.class.getName(), this.jspFactoryHandler, printerProps);
+
         logger.debug("IMPORTANT: Do not modify the generated servlets");
     }
 
@@ -339,6 +349,10 @@ public class JspScriptEngineFactory
             this.eventHandlerRegistration.unregister();
             this.eventHandlerRegistration = null;
         }
+        if ( this.pageContextPrinterRegistration != null ) {
+            this.pageContextPrinterRegistration.unregister();
+            this.pageContextPrinterRegistration = null;
+        }
         if (jspRuntimeContext != null) {
             try {
                 jspRuntimeContext.destroy();
@@ -19,6 +19,7 @@ package org.apache.sling.scripting.jsp.jasper.compiler;
 
 import java.io.File;
 import java.io.FilePermission;
+import java.io.PrintWriter;
 import java.net.URL;
 import java.security.CodeSource;
 import java.security.PermissionCollection;
@@ -130,6 +131,15 @@ public final class JspRuntimeContext {
             return this.getFactory().getJspApplicationContext(paramServletContext);
         }
 
+        /**
+         * Prints the page context counts of our own factory.
+         */
+        public void printConfiguration(final PrintWriter pw) {
+            if ( this.own instanceof JspFactoryImpl ) {
+                ((JspFactoryImpl)this.own).printConfiguration(pw);
+            }
+        }
+
         /**
          * Reset the jsp factory.
          */
@@ -138,6 +148,9 @@ public final class JspRuntimeContext {
             if ( current == this ) {
                 JspFactory.setDefaultFactory(this.original);
             }
+            if ( this.own instanceof JspFactoryImpl ) {
+                ((JspFactoryImpl)this.own).destroy();
+            }
         }
 
         public void incUsage() {
@@ -16,8 +16,12 @@
  */
 package org.apache.sling.scripting.jsp.jasper.runtime;
 
+import java.io.PrintWriter;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
@@ -44,6 +48,48 @@ public class JspFactoryImpl extends JspFactory {
 
     private static final String SPEC_VERSION = "2.1";
 
+    /**
+     * Whether released page contexts are kept for reuse. Reusing a page
+     * context also reuses the buffers of its <code>JspWriterImpl</code> and
+     * <code>BodyContentImpl</code> writers.
+     */
+    private static final boolean USE_POOL =
+        Boolean.valueOf(System.getProperty("org.apache.sling.scripting.jsp.jasper.runtime.JspFactoryImpl.USE_POOL", "true")).booleanValue();
+
+    /**
+     * The maximum number of released page contexts kept for reuse by all
+     * threads. Each level of nested JSP includes uses its own page context,
+     * so this should cover the concurrent requests times their include depth.
+     */
+    private static final int POOL_SIZE =
+        Integer.valueOf(System.getProperty("org.apache.sling.scripting.jsp.jasper.runtime.JspFactoryImpl.POOL_SIZE", "64")).intValue();
+
+    /**
+     * The pool is shared by all threads and owned by this factory, such
+     * that {@link #destroy()} releases the pooled page contexts, which are
+     * loaded by this bundle, when the bundle stops. Unlike per-thread pools
+     * no page contexts remain referenced by the container threads.
+     */
+    private final PageContextPool pool;
+
+    /** The number of page contexts created */
+    private final AtomicLong createdPageContexts = new AtomicLong();
+
+    /** The number of page contexts taken from the pool */
+    private final AtomicLong reusedPageContexts = new AtomicLong();
+
+    public JspFactoryImpl() {
+        this(USE_POOL ? POOL_SIZE : 0);
+    }
+
+    /**
+     * Creates a factory keeping at most the given number of released page
+     * contexts for reuse.
+     */
+    JspFactoryImpl(int poolSize) {
+        this.pool = new PageContextPool(poolSize);
+    }
+
     public PageContext getPageContext(Servlet servlet, ServletRequest request,
             ServletResponse response, String errorPageURL, boolean needsSession,
             int bufferSize, boolean autoflush) {
@@ -84,7 +130,13 @@ public class JspFactoryImpl extends JspFactory {
             ServletResponse response, String errorPageURL, boolean needsSession,
             int bufferSize, boolean autoflush) {
         try {
-            PageContext pc = new PageContextImpl();
+            PageContext pc = pool.get();
+            if (pc == null) {
+                pc = new PageContextImpl();
+                createdPageContexts.incrementAndGet();
+            } else {
+                reusedPageContexts.incrementAndGet();
+            }
             pc.initialize(servlet, request, response, errorPageURL,
                     needsSession, bufferSize, autoflush);
             return pc;
@@ -97,6 +149,61 @@ public class JspFactoryImpl extends JspFactory {
 
     private void internalReleasePageContext(PageContext pc) {
         pc.release();
+        if (pc instanceof PageContextImpl) {
+            pool.put(pc);
+        }
+    }
+
+    /**
+     * Returns the number of page contexts created by this factory. Together
+     * with {@link #getReusedPageContexts()} this tells how many page
+     * contexts and writer buffers the pool saves.
+     */
+    public long getCreatedPageContexts() {
+        return createdPageContexts.get();
+    }
+
+    /**
+     * Returns the number of page contexts taken from the pool instead of
+     * being created.
+     */
+    public long getReusedPageContexts() {
+        return reusedPageContexts.get();
+    }
+
+    /**
+     * Returns the number of released page contexts currently kept for
+     * reuse.
+     */
+    public int getPooledPageContexts() {
+        return pool.getCount();
+    }
+
+    /**
+     * Prints the pool configuration and the page context counts.
+     */
+    public void printConfiguration(final PrintWriter pw) {
+        final long created = getCreatedPageContexts();
+        final long reused = getReusedPageContexts();
+        pw.println("JSP Page Contexts:");
+        pw.println("  Pool Size : " + pool.getSize());
+        pw.println("  Pooled    : " + getPooledPageContexts());
+        pw.println("  Created   : " + created);
+        pw.println("  Reused    : " + reused);
+        pw.println("  Reuse     : "
+            + ((created + reused > 0) ? (100 * reused / (created + reused)) : 0)
+            + "%");
+    }
+
+    /**
+     * Drops the pooled page contexts and stops pooling released ones.
+     */
+    public void destroy() {
+        pool.destroy();
+        if (log.isInfoEnabled()) {
+            log.info("Created " + getCreatedPageContexts() + " and reused "
+                + getReusedPageContexts() + " page contexts");
+        }
     }
 
     private class PrivilegedGetPageContext implements PrivilegedAction {
@@ -149,4 +256,63 @@ public class JspFactoryImpl extends JspFactory {
     public JspApplicationContext getJspApplicationContext(ServletContext context) {
         return JspApplicationContextImpl.getInstance(context);
     }
+
+    /**
+     * Bounded pool of released page contexts available for reuse. Page
+     * contexts are taken and returned without locking, so concurrent
+     * requests do not contend for the pool.
+     */
+    private static final class PageContextPool {
+
+        private final ConcurrentLinkedQueue<PageContext> pool = new ConcurrentLinkedQueue<PageContext>();
+
+        /** The number of page contexts in the pool, including reserved slots */
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final int size;
+
+        private volatile boolean destroyed;
+
+        PageContextPool(int size) {
+            this.size = size;
+        }
+
+        void put(PageContext o) {
+            if (destroyed) {
+                return;
+            }
+            // reserve a slot first to never exceed the size
+            if (count.incrementAndGet() > size) {
+                count.decrementAndGet();
+                return;
+            }
+            pool.offer(o);
+            if (destroyed) {
+                // destroyed concurrently, drop what might have been added
+                pool.clear();
+            }
+        }
+
+        void destroy() {
+            destroyed = true;
+            pool.clear();
+            count.set(0);
+        }
+
+        PageContext get() {
+            final PageContext item = pool.poll();
+            if (item != null) {
+                count.decrementAndGet();
+            }
+            return item;
+        }
+
+        int getCount() {
+            return pool.size();
+        }
+
+        int getSize() {
+            return size;
+        }
+    }
 }
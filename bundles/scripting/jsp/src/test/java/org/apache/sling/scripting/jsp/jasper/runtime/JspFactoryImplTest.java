@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.jsp.PageContext;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class JspFactoryImplTest {
+
+    private final Mockery context = new JUnit4Mockery();
+
+    private Servlet servlet;
+
+    private ServletRequest request;
+
+    private ServletResponse response;
+
+    @Before
+    public void setUp() {
+        servlet = context.mock(Servlet.class);
+        request = context.mock(ServletRequest.class);
+        response = context.mock(ServletResponse.class);
+        final ServletConfig config = context.mock(ServletConfig.class);
+        final ServletContext servletContext = context.mock(ServletContext.class);
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        context.checking(new Expectations() {{
+            allowing(servlet).getServletConfig(); will(returnValue(config));
+            allowing(config).getServletContext(); will(returnValue(servletContext));
+            allowing(servletContext).getAttribute(with(any(String.class)));
+            will(new CustomAction("get attribute") {
+                public Object invoke(Invocation invocation) {
+                    return attributes.get(invocation.getParameter(0));
+                }
+            });
+            allowing(servletContext).setAttribute(with(any(String.class)), with(any(Object.class)));
+            will(new CustomAction("set attribute") {
+                public Object invoke(Invocation invocation) {
+                    attributes.put((String) invocation.getParameter(0),
+                        invocation.getParameter(1));
+                    return null;
+                }
+            });
+            allowing(request).getAttribute(with(any(String.class))); will(returnValue(null));
+        }});
+    }
+
+    @Test
+    public void testReleasedPageContextIsReused() {
+        final JspFactoryImpl factory = new JspFactoryImpl(2);
+        final PageContext first = get(factory);
+        factory.releasePageContext(first);
+        assertEquals(1, factory.getPooledPageContexts());
+
+        assertSame(first, get(factory));
+        assertEquals(0, factory.getPooledPageContexts());
+        assertEquals(1, factory.getCreatedPageContexts());
+        assertEquals(1, factory.getReusedPageContexts());
+    }
+
+    @Test
+    public void testPoolSizeIsLimited() {
+        final JspFactoryImpl factory = new JspFactoryImpl(2);
+        final PageContext[] pcs = new PageContext[3];
+        for (int i = 0; i < pcs.length; i++) {
+            pcs[i] = get(factory);
+        }
+        for (final PageContext pc : pcs) {
+            factory.releasePageContext(pc);
+        }
+        assertEquals(2, factory.getPooledPageContexts());
+
+        get(factory);
+        get(factory);
+        get(factory);
+        assertEquals(6, factory.getCreatedPageContexts()
+            + factory.getReusedPageContexts());
+        assertEquals(2, factory.getReusedPageContexts());
+    }
+
+    @Test
+    public void testReleaseResetsPageContext() {
+        final JspFactoryImpl factory = new JspFactoryImpl(2);
+        final PageContext pc = get(factory);
+        pc.setAttribute("test", "value");
+        assertSame(request, pc.getRequest());
+
+        factory.releasePageContext(pc);
+        assertNull(pc.getAttribute("test"));
+        assertNull(pc.getAttribute(PageContext.REQUEST));
+        assertNull(pc.getRequest());
+    }
+
+    @Test
+    public void testDestroyedFactoryDoesNotPool() {
+        final JspFactoryImpl factory = new JspFactoryImpl(2);
+        final PageContext first = get(factory);
+        factory.releasePageContext(first);
+        factory.destroy();
+        assertEquals(0, factory.getPooledPageContexts());
+
+        final PageContext second = get(factory);
+        assertNotSame(first, second);
+        factory.releasePageContext(second);
+        assertEquals(0, factory.getPooledPageContexts());
+    }
+
+    @Test
+    public void testNoPooling() {
+        final JspFactoryImpl factory = new JspFactoryImpl(0);
+        factory.releasePageContext(get(factory));
+        assertEquals(0, factory.getPooledPageContexts());
+        get(factory);
+        assertEquals(2, factory.getCreatedPageContexts());
+    }
+
+    private PageContext get(final JspFactoryImpl factory) {
+        return factory.getPageContext(servlet, request, response, null, false,
+            8192, true);
+    }
+}
@@ -37,6 +37,9 @@ import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.commons.osgi.OsgiUtil;
+import org.apache.sling.servlets.get.impl.helpers.BinaryJsonRendererServlet;
+import org.apache.sling.servlets.get.impl.helpers.GzipResponseWrapper;
+import org.apache.sling.servlets.get.impl.helpers.GzipVariantCache;
 import org.apache.sling.servlets.get.impl.helpers.HtmlRendererServlet;
 import org.apache.sling.servlets.get.impl.helpers.JsonRendererServlet;
 import org.apache.sling.servlets.get.impl.helpers.PlainTextRendererServlet;
@@ -86,6 +89,9 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
     @Property(value={ "index", "index.html" })
     private static final String INDEX_FILES_PROPERTY = "index.files";
 
+    @Property(intValue=StreamRendererServlet.DEFAULT_INDEX_PAGE_SIZE)
+    private static final String INDEX_PAGE_SIZE_PROPERTY = "index.page.size";
+
     /** Default value for renderer selection (value is "true"). */
     private static final boolean DEFAULT_RENDERER_PROPERTY = true;
 
@@ -100,6 +106,12 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
 
     @Property(boolValue=DEFAULT_RENDERER_PROPERTY)
     private static final String XML_RENDERER_PROPERTY = "enable.xml";
+
+    /** Default value for the binary JSON renderer (value is "false"). */
+    private static final boolean DEFAULT_BJSON_RENDERER_PROPERTY = false;
+
+    @Property(boolValue=DEFAULT_BJSON_RENDERER_PROPERTY)
+    private static final String BJSON_RENDERER_PROPERTY = "enable.bjson";
     
     /** Default value for the maximum amount of results that should be returned by the jsonResourceWriter */
     public static final int DEFAULT_JSON_RENDERER_MAXIMUM_RESULTS = 200;
@@ -108,7 +120,37 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
     public static final String JSON_RENDERER_MAXIMUM_RESULTS_PROPERTY = "json.maximumresults";
     
     private int jsonMaximumResults;
-    
+
+    /** Default value for gzip compression of responses (value is "false"). */
+    private static final boolean DEFAULT_GZIP_PROPERTY = false;
+
+    @Property(boolValue=DEFAULT_GZIP_PROPERTY)
+    private static final String GZIP_PROPERTY = "gzip.enabled";
+
+    /** Default minimum size in bytes of compressed responses. */
+    private static final int DEFAULT_GZIP_THRESHOLD = 1024;
+
+    @Property(intValue=DEFAULT_GZIP_THRESHOLD)
+    private static final String GZIP_THRESHOLD_PROPERTY = "gzip.threshold";
+
+    /** Default size in bytes of the cache of compressed streamed resources. */
+    private static final int DEFAULT_GZIP_CACHE_SIZE = 10 * 1024 * 1024;
+
+    @Property(intValue=DEFAULT_GZIP_CACHE_SIZE)
+    private static final String GZIP_CACHE_SIZE_PROPERTY = "gzip.cache.size";
+
+    private static final String[] DEFAULT_GZIP_CONTENT_TYPES = { "text/*",
+        "application/javascript", "application/x-javascript",
+        "application/json", "application/xml", "*+xml" };
+
+    @Property(value={ "text/*", "application/javascript",
+        "application/x-javascript", "application/json", "application/xml",
+        "*+xml" })
+    private static final String GZIP_CONTENT_TYPES_PROPERTY = "gzip.content.types";
+
+    /** The gzip variants and settings, <code>null</code> if disabled */
+    private GzipVariantCache gzip;
+
     /** Additional aliases. */
     private String[] aliases;
 
@@ -118,6 +160,9 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
     /** The names of index rendering children */
     private String[] indexFiles;
 
+    /** The maximum number of children listed per index page */
+    private int indexPageSize;
+
     private boolean enableHtml;
 
     private boolean enableTxt;
@@ -126,6 +171,8 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
 
     private boolean enableXml;
 
+    private boolean enableBinaryJson;
+
     protected void activate(ComponentContext ctx) {
         Dictionary<?, ?> props = ctx.getProperties();
         this.aliases = OsgiUtil.toStringArray(props.get(ALIAS_PROPERTY));
@@ -133,6 +180,9 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
             DEFAULT_INDEX_PROPERTY);
         this.indexFiles = OsgiUtil.toStringArray(
             props.get(INDEX_FILES_PROPERTY), DEFAULT_INDEX_FILES_PROPERTY);
+        this.indexPageSize = OsgiUtil.toInteger(
+            props.get(INDEX_PAGE_SIZE_PROPERTY),
+            StreamRendererServlet.DEFAULT_INDEX_PAGE_SIZE);
 
         this.enableHtml = OsgiUtil.toBoolean(props.get(HTML_RENDERER_PROPERTY),
             DEFAULT_RENDERER_PROPERTY);
@@ -142,14 +192,31 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
             DEFAULT_RENDERER_PROPERTY);
         this.enableXml = OsgiUtil.toBoolean(props.get(XML_RENDERER_PROPERTY),
             DEFAULT_RENDERER_PROPERTY);
+        this.enableBinaryJson = OsgiUtil.toBoolean(
+            props.get(BJSON_RENDERER_PROPERTY), DEFAULT_BJSON_RENDERER_PROPERTY);
         this.jsonMaximumResults = OsgiUtil.toInteger(props.get(JSON_RENDERER_MAXIMUM_RESULTS_PROPERTY), 
             DEFAULT_JSON_RENDERER_MAXIMUM_RESULTS);
+
+        if (OsgiUtil.toBoolean(props.get(GZIP_PROPERTY), DEFAULT_GZIP_PROPERTY)) {
+            this.gzip = new GzipVariantCache(
+                ctx.getBundleContext().getDataFile("gzip"),
+                OsgiUtil.toInteger(props.get(GZIP_CACHE_SIZE_PROPERTY),
+                    DEFAULT_GZIP_CACHE_SIZE),
+                OsgiUtil.toInteger(props.get(GZIP_THRESHOLD_PROPERTY),
+                    DEFAULT_GZIP_THRESHOLD),
+                OsgiUtil.toStringArray(props.get(GZIP_CONTENT_TYPES_PROPERTY),
+                    DEFAULT_GZIP_CONTENT_TYPES));
+        }
     }
 
     protected void deactivate(ComponentContext ctx) {
         this.aliases = null;
         this.index = false;
         this.indexFiles = null;
+        if (this.gzip != null) {
+            this.gzip.clear();
+            this.gzip = null;
+        }
     }
 
     @Override
@@ -158,7 +225,8 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
 
         // Register renderer servlets
         setupServlet(rendererMap, StreamRendererServlet.EXT_RES,
-            new StreamRendererServlet(index, indexFiles));
+            new StreamRendererServlet(index, indexFiles, indexPageSize,
+                gzip));
 
         if (enableHtml) {
             setupServlet(rendererMap, HtmlRendererServlet.EXT_HTML,
@@ -177,7 +245,12 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
 
         if (enableXml) {
             setupServlet(rendererMap, XMLRendererServlet.EXT_XML,
-                new XMLRendererServlet());
+                new XMLRendererServlet(jsonMaximumResults));
+        }
+
+        if (enableBinaryJson) {
+            setupServlet(rendererMap, BinaryJsonRendererServlet.EXT_BJSON,
+                new BinaryJsonRendererServlet(jsonMaximumResults));
         }
 
         // use the servlet for rendering StreamRendererServlet.EXT_RES as the
@@ -249,7 +322,23 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
         request.getRequestProgressTracker().log(
             "Using " + rendererServlet.getClass().getName()
                 + " to render for extension=" + ext);
-        rendererServlet.service(request, response);
+
+        // compress rendered responses, the streamer handles its own variants
+        final GzipVariantCache gzip = this.gzip;
+        if (gzip != null && rendererServlet != streamerServlet
+            && !response.isCommitted()
+            && request.getAttribute(SlingConstants.ATTR_REQUEST_SERVLET) == null
+            && GzipVariantCache.acceptsGzip(request)) {
+            final GzipResponseWrapper gzipResponse = new GzipResponseWrapper(
+                response, gzip);
+            try {
+                rendererServlet.service(request, gzipResponse);
+            } finally {
+                gzipResponse.finish();
+            }
+        } else {
+            rendererServlet.service(request, response);
+        }
     }
 
     @Override
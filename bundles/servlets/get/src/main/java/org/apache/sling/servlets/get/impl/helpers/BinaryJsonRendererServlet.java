@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.io.IOException;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONWriter;
+
+/**
+ * The <code>BinaryJsonRendererServlet</code> renders the current resource
+ * like the {@link JsonRendererServlet} with the same selectors and limits,
+ * but in the binary encoding of the {@link BinaryJsonWriter}. Clients decode
+ * it with the <code>BinaryJSONParser</code> of the Sling JSON library.
+ */
+public class BinaryJsonRendererServlet extends JsonRendererServlet {
+
+    private static final long serialVersionUID = -2818526839540374235L;
+
+    public static final String EXT_BJSON = "bjson";
+
+    public BinaryJsonRendererServlet(long maximumResults) {
+        super(maximumResults);
+    }
+
+    @Override
+    protected void prepareResponse(SlingHttpServletRequest req,
+            SlingHttpServletResponse resp) {
+        resp.setContentType(BinaryJsonWriter.CONTENT_TYPE);
+    }
+
+    @Override
+    protected JSONWriter createWriter(SlingHttpServletResponse resp,
+            boolean tidy) throws IOException {
+        return new BinaryJsonWriter(resp.getOutputStream());
+    }
+
+    @Override
+    protected void writeObject(SlingHttpServletResponse resp,
+            JSONObject object, boolean tidy) throws IOException, JSONException {
+        createWriter(resp, tidy).value(object);
+    }
+
+    @Override
+    protected String getExtension() {
+        return EXT_BJSON;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.Iterator;
+
+import org.apache.sling.commons.json.JSONArray;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONWriter;
+
+/**
+ * The <code>BinaryJsonWriter</code> writes the values passed to the
+ * <code>JSONWriter</code> methods in the binary JSON encoding read by the
+ * <code>BinaryJSONParser</code> of the Sling JSON library. Each value starts
+ * with a type byte, numbers and dates keep their type, strings are UTF-8
+ * prefixed with their length and objects and arrays end with an end byte.
+ * <p>
+ * The output is buffered and flushed to the stream once the top level value
+ * has been written completely.
+ */
+public class BinaryJsonWriter extends JSONWriter {
+
+    static final int TYPE_NULL = 0x00;
+
+    static final int TYPE_FALSE = 0x01;
+
+    static final int TYPE_TRUE = 0x02;
+
+    static final int TYPE_LONG = 0x03;
+
+    static final int TYPE_DOUBLE = 0x04;
+
+    static final int TYPE_STRING = 0x05;
+
+    static final int TYPE_DATE = 0x06;
+
+    static final int TYPE_OBJECT = 0x07;
+
+    static final int TYPE_ARRAY = 0x08;
+
+    static final int TYPE_END = 0x09;
+
+    /** The MIME type of the binary JSON encoding */
+    public static final String CONTENT_TYPE = "application/x-sling-bjson";
+
+    private final OutputStream out;
+
+    private final byte[] buffer = new byte[8192];
+
+    private int pos;
+
+    /** whether the enclosing containers are objects */
+    private boolean[] stack = new boolean[32];
+
+    private int depth;
+
+    /** whether a key has been written whose value is expected */
+    private boolean afterKey;
+
+    private boolean done;
+
+    public BinaryJsonWriter(OutputStream out) {
+        // the text writer of the base class is never used
+        super(null);
+        this.out = out;
+    }
+
+    @Override
+    public JSONWriter array() throws JSONException {
+        beforeValue();
+        push(false);
+        write(TYPE_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JSONWriter endArray() throws JSONException {
+        return end(false, "Misplaced endArray.");
+    }
+
+    @Override
+    public JSONWriter object() throws JSONException {
+        beforeValue();
+        push(true);
+        write(TYPE_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JSONWriter endObject() throws JSONException {
+        return end(true, "Misplaced endObject.");
+    }
+
+    @Override
+    public JSONWriter key(String s) throws JSONException {
+        if (s == null) {
+            throw new JSONException("Null key.");
+        }
+        if (done || depth == 0 || !stack[depth - 1] || afterKey) {
+            throw new JSONException("Misplaced key.");
+        }
+        writeString(s);
+        afterKey = true;
+        return this;
+    }
+
+    @Override
+    public JSONWriter value(boolean b) throws JSONException {
+        beforeValue();
+        write(b ? TYPE_TRUE : TYPE_FALSE);
+        return afterValue();
+    }
+
+    @Override
+    public JSONWriter value(double d) throws JSONException {
+        if (Double.isInfinite(d) || Double.isNaN(d)) {
+            throw new JSONException("JSON does not allow non-finite numbers");
+        }
+        beforeValue();
+        write(TYPE_DOUBLE);
+        final long bits = Double.doubleToLongBits(d);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            write((int) (bits >>> shift));
+        }
+        return afterValue();
+    }
+
+    @Override
+    public JSONWriter value(long l) throws JSONException {
+        beforeValue();
+        write(TYPE_LONG);
+        writeVarint((l << 1) ^ (l >> 63));
+        return afterValue();
+    }
+
+    /**
+     * Append a date value as the milliseconds since the epoch and the
+     * offset of its time zone at that time in minutes.
+     */
+    public JSONWriter value(Calendar date) throws JSONException {
+        beforeValue();
+        write(TYPE_DATE);
+        final long millis = date.getTimeInMillis();
+        final long minutes = date.getTimeZone().getOffset(millis) / 60000;
+        writeVarint((millis << 1) ^ (millis >> 63));
+        writeVarint((minutes << 1) ^ (minutes >> 63));
+        return afterValue();
+    }
+
+    /**
+     * Append an object value. Objects and arrays are written with their
+     * contents, numbers and dates with their type and any other object as
+     * the string returned by its <code>toString</code> method.
+     */
+    @Override
+    public JSONWriter value(Object o) throws JSONException {
+        if (o == null || JSONObject.NULL.equals(o)) {
+            beforeValue();
+            write(TYPE_NULL);
+            return afterValue();
+        } else if (o instanceof String) {
+            beforeValue();
+            writeString((String) o);
+            return afterValue();
+        } else if (o instanceof Boolean) {
+            return value(((Boolean) o).booleanValue());
+        } else if (o instanceof Long || o instanceof Integer
+            || o instanceof Short || o instanceof Byte) {
+            return value(((Number) o).longValue());
+        } else if (o instanceof Number) {
+            return value(((Number) o).doubleValue());
+        } else if (o instanceof Calendar) {
+            return value((Calendar) o);
+        } else if (o instanceof JSONObject) {
+            final JSONObject object = (JSONObject) o;
+            object();
+            for (Iterator<String> keys = object.keys(); keys.hasNext();) {
+                final String key = keys.next();
+                key(key);
+                value(object.opt(key));
+            }
+            return endObject();
+        } else if (o instanceof JSONArray) {
+            final JSONArray array = (JSONArray) o;
+            array();
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            return endArray();
+        }
+        beforeValue();
+        writeString(o.toString());
+        return afterValue();
+    }
+
+    /**
+     * Writes the buffered output to the stream.
+     */
+    public void flush() throws JSONException {
+        try {
+            out.write(buffer, 0, pos);
+            out.flush();
+            pos = 0;
+        } catch (IOException ioe) {
+            throw new JSONException(ioe);
+        }
+    }
+
+    private void beforeValue() throws JSONException {
+        if (done || (depth > 0 && stack[depth - 1] && !afterKey)) {
+            throw new JSONException("Value out of sequence.");
+        }
+    }
+
+    private JSONWriter afterValue() throws JSONException {
+        afterKey = false;
+        if (depth == 0) {
+            done = true;
+            flush();
+        }
+        return this;
+    }
+
+    private void push(boolean object) {
+        if (depth == stack.length) {
+            final boolean[] newStack = new boolean[depth * 2];
+            System.arraycopy(stack, 0, newStack, 0, depth);
+            stack = newStack;
+        }
+        stack[depth++] = object;
+        afterKey = false;
+    }
+
+    private JSONWriter end(boolean object, String message)
+            throws JSONException {
+        if (done || depth == 0 || stack[depth - 1] != object || afterKey) {
+            throw new JSONException(message);
+        }
+        depth--;
+        write(TYPE_END);
+        return afterValue();
+    }
+
+    private void writeString(String s) throws JSONException {
+        final int len = s.length();
+        long bytes = 0;
+        for (int i = 0; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (c >= '\uD800' && c <= '\uDFFF') {
+                // unpaired surrogates are written as '?'
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+
+        write(TYPE_STRING);
+        writeVarint(bytes);
+        for (int i = 0; i < len; i++) {
+            if (pos + 4 > buffer.length) {
+                drain();
+            }
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xc0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer[pos++] = (byte) (0xf0 | (cp >> 18));
+                buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (c >= '\uD800' && c <= '\uDFFF') {
+                buffer[pos++] = '?';
+            } else {
+                buffer[pos++] = (byte) (0xe0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void writeVarint(long v) throws JSONException {
+        while ((v & ~0x7fL) != 0) {
+            write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        write((int) v);
+    }
+
+    private void write(int b) throws JSONException {
+        if (pos == buffer.length) {
+            drain();
+        }
+        buffer[pos++] = (byte) b;
+    }
+
+    /**
+     * Writes the full buffer to the stream without flushing the stream.
+     */
+    private void drain() throws JSONException {
+        try {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        } catch (IOException ioe) {
+            throw new JSONException(ioe);
+        }
+    }
+}
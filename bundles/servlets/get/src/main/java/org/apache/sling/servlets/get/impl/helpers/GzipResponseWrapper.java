@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+
+/**
+ * The <code>GzipResponseWrapper</code> compresses a rendered response on the
+ * fly if the response has a compressible content type and its body exceeds
+ * the threshold of the {@link GzipVariantCache}. The body is buffered up to
+ * the threshold, smaller bodies are sent uncompressed with their length.
+ * <p>
+ * {@link #finish()} must be called once the response has been rendered,
+ * also if rendering fails, to release the compressor.
+ */
+public class GzipResponseWrapper extends SlingHttpServletResponseWrapper {
+
+    private final GzipVariantCache gzip;
+
+    private GzipServletOutputStream stream;
+
+    private PrintWriter writer;
+
+    private String contentLength;
+
+    public GzipResponseWrapper(final SlingHttpServletResponse response,
+            final GzipVariantCache gzip) {
+        super(response);
+        this.gzip = gzip;
+    }
+
+    /**
+     * Writes any buffered or compressed data to the wrapped response. Only
+     * the first call has an effect.
+     */
+    public void finish() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (stream != null) {
+            stream.finish();
+        } else if (contentLength != null) {
+            super.setHeader("Content-Length", contentLength);
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("Writer already obtained");
+        }
+        if (stream == null) {
+            stream = new GzipServletOutputStream();
+        }
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (stream != null) {
+                throw new IllegalStateException("OutputStream already obtained");
+            }
+            stream = new GzipServletOutputStream();
+            String encoding = getCharacterEncoding();
+            if (encoding == null) {
+                encoding = "ISO-8859-1";
+            }
+            writer = new PrintWriter(new OutputStreamWriter(stream, encoding));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (stream != null) {
+            stream.flush();
+        }
+        super.flushBuffer();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        if (stream != null) {
+            stream.resetBuffer();
+        }
+        contentLength = null;
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        if (stream != null) {
+            stream.resetBuffer();
+        }
+    }
+
+    // the length of the uncompressed body is only set if not compressing
+
+    @Override
+    public void setContentLength(int len) {
+        contentLength = String.valueOf(len);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            contentLength = value;
+        } else {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            contentLength = String.valueOf(value);
+        } else {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            contentLength = value;
+        } else {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            contentLength = String.valueOf(value);
+        } else {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the response is to be compressed. This is
+     * decided once the buffered body exceeds the threshold.
+     */
+    private boolean startCompression() {
+        if (isCommitted()
+            || containsHeader(GzipVariantCache.HEADER_CONTENT_ENCODING)
+            || !gzip.isCompressible(getContentType(), -1)) {
+            return false;
+        }
+
+        super.setHeader(GzipVariantCache.HEADER_CONTENT_ENCODING,
+            GzipVariantCache.GZIP);
+        super.addHeader(GzipVariantCache.HEADER_VARY,
+            GzipVariantCache.HEADER_ACCEPT_ENCODING);
+        return true;
+    }
+
+    private class GzipServletOutputStream extends ServletOutputStream {
+
+        // body buffered until the threshold is exceeded
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        // the stream writing to the response once the threshold is exceeded
+        private OutputStream out;
+
+        private boolean finished;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null) {
+                if (buffer.size() + len <= gzip.getThreshold()) {
+                    buffer.write(b, off, len);
+                    return;
+                }
+                open();
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // flushing the buffer would prevent compression, ignore
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        void resetBuffer() {
+            if (out == null) {
+                buffer.reset();
+            }
+        }
+
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (out == null) {
+                // below the threshold, send uncompressed
+                if (contentLength != null) {
+                    GzipResponseWrapper.super.setHeader("Content-Length",
+                        contentLength);
+                } else {
+                    GzipResponseWrapper.super.setContentLength(buffer.size());
+                }
+                if (buffer.size() > 0) {
+                    getResponse().getOutputStream().write(buffer.toByteArray());
+                }
+                buffer = null;
+            } else if (out instanceof GZIPOutputStream) {
+                // releases the deflater, the response stream is kept open
+                out.close();
+            }
+        }
+
+        private void open() throws IOException {
+            final OutputStream target = getResponse().getOutputStream();
+            if (startCompression()) {
+                out = new GZIPOutputStream(new FilterOutputStream(target) {
+                    @Override
+                    public void write(byte[] b, int off, int len)
+                            throws IOException {
+                        target.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        target.flush();
+                    }
+                }, 8192);
+            } else {
+                if (contentLength != null) {
+                    GzipResponseWrapper.super.setHeader("Content-Length",
+                        contentLength);
+                }
+                out = target;
+            }
+            buffer.writeTo(out);
+            buffer = null;
+        }
+    }
+}
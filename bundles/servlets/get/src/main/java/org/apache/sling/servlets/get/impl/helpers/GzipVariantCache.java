@@ -0,0 +1,468 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>GzipVariantCache</code> keeps gzip compressed variants of
+ * streamed resources in files of a directory. The cache is bounded by the
+ * total size of the compressed files; the least recently used variants are
+ * removed first.
+ * <p>
+ * Variants are stored under the SHA-1 digest of the uncompressed content,
+ * such that resources with the same content share a variant. The digest is
+ * computed while compressing, so variants are looked up by a key
+ * identifying the resource content, such as its path and entity tag, which
+ * is mapped to the digest. A modified resource has a new key and is
+ * compressed again.
+ * <p>
+ * The cache also decides which responses are to be compressed: Responses
+ * with one of the configured content types and at least the configured size
+ * for requests accepting the gzip content coding.
+ */
+public class GzipVariantCache {
+
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    public static final String HEADER_VARY = "Vary";
+
+    public static final String GZIP = "gzip";
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final File directory;
+
+    private final long maxSize;
+
+    private final int threshold;
+
+    private final String[] contentTypes;
+
+    // access ordered map of variants by digest, eldest entry is least
+    // recently used
+    private final LinkedHashMap<String, Variant> variants = new LinkedHashMap<String, Variant>(
+        16, 0.75f, true);
+
+    // the digests of the variants by key, guarded by the variants
+    private final Map<String, String> digests = new HashMap<String, String>();
+
+    private long size;
+
+    private long counter;
+
+    /**
+     * Creates a cache storing variants in the given directory. All files in
+     * the directory are removed. If the directory is <code>null</code> or the
+     * maximum size is not positive, variants are not cached and only
+     * {@link #isCompressible(String, long)} and
+     * {@link #acceptsGzip(HttpServletRequest)} are used to compress dynamic
+     * responses.
+     */
+    public GzipVariantCache(final File directory, final long maxSize,
+            final int threshold, final String[] contentTypes) {
+        this.directory = (maxSize > 0) ? directory : null;
+        this.maxSize = maxSize;
+        this.threshold = threshold;
+        this.contentTypes = contentTypes;
+
+        if (this.directory != null) {
+            this.directory.mkdirs();
+            clearDirectory();
+        }
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns <code>true</code> if variants of streamed resources are cached.
+     */
+    public boolean isCaching() {
+        return directory != null;
+    }
+
+    /**
+     * Returns <code>true</code> if content of the given type and length is
+     * to be compressed. Content of unknown length (length less than zero) is
+     * compressible if the type is.
+     */
+    public boolean isCompressible(final String contentType, final long length) {
+        if (contentType == null || (length >= 0 && length < threshold)) {
+            return false;
+        }
+
+        // strip parameters such as charset
+        String type = contentType;
+        final int semi = type.indexOf(';');
+        if (semi >= 0) {
+            type = type.substring(0, semi);
+        }
+        type = type.trim().toLowerCase();
+
+        for (final String candidate : contentTypes) {
+            if (candidate.endsWith("/*")) {
+                if (type.startsWith(candidate.substring(0, candidate.length() - 1))) {
+                    return true;
+                }
+            } else if (candidate.startsWith("*")) {
+                if (type.endsWith(candidate.substring(1))) {
+                    return true;
+                }
+            } else if (candidate.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if the <code>Accept-Encoding</code> header of
+     * the request accepts the gzip content coding with a non-zero quality.
+     */
+    public static boolean acceptsGzip(final HttpServletRequest request) {
+        final String header = request.getHeader(HEADER_ACCEPT_ENCODING);
+        if (header == null) {
+            return false;
+        }
+
+        boolean accepted = false;
+        final StringTokenizer tokens = new StringTokenizer(header, ",");
+        while (tokens.hasMoreTokens()) {
+            final String token = tokens.nextToken();
+            final int semi = token.indexOf(';');
+            final String coding = ((semi >= 0) ? token.substring(0, semi) : token).trim();
+            final boolean zero = semi >= 0 && isZeroQuality(token.substring(semi + 1));
+            if (GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+                // an explicit gzip entry takes precedence over a wildcard
+                return !zero;
+            } else if ("*".equals(coding)) {
+                accepted = !zero;
+            }
+        }
+        return accepted;
+    }
+
+    private static boolean isZeroQuality(final String params) {
+        final String param = params.trim();
+        if (!param.startsWith("q=")) {
+            return false;
+        }
+        try {
+            return Float.parseFloat(param.substring(2).trim()) <= 0;
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the cached gzip compressed variant of the content identified by
+     * the key. The returned stream must be closed by the caller.
+     *
+     * @return the variant or <code>null</code> if it is not cached
+     */
+    public FileInputStream openVariant(final String key) {
+        synchronized (variants) {
+            final String digest = digests.get(key);
+            if (digest == null) {
+                return null;
+            }
+            final Variant variant = variants.get(digest);
+            try {
+                return new FileInputStream(variant.file);
+            } catch (FileNotFoundException fnfe) {
+                // removed from the directory, compress again
+                remove(digest);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Compresses the content identified by the key to the output stream and
+     * caches the compressed variant at the same time. Variants exceeding
+     * the size of the cache are only sent. Neither the content nor the
+     * output stream are closed.
+     *
+     * @throws IOException if the content cannot be read or written to the
+     *             output stream
+     */
+    public void writeVariant(final String key, final InputStream content,
+            final OutputStream out) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw (IOException) new IOException(
+                "SHA-1 digests are not supported").initCause(nsae);
+        }
+
+        final File file = createFile();
+        final VariantOutputStream variant = new VariantOutputStream(out,
+            file);
+        boolean success = false;
+        try {
+            final GZIPOutputStream gzipOut = new GZIPOutputStream(variant,
+                8192);
+            try {
+                final byte[] buf = new byte[8192];
+                int rd;
+                while ((rd = content.read(buf)) >= 0) {
+                    digest.update(buf, 0, rd);
+                    gzipOut.write(buf, 0, rd);
+                }
+                gzipOut.finish();
+                success = true;
+            } finally {
+                // releases the deflater, the output stream is kept open
+                try {
+                    gzipOut.close();
+                } catch (IOException ioe) {
+                    if (success) {
+                        throw ioe;
+                    }
+                }
+            }
+        } finally {
+            variant.close();
+            if (!success || !variant.isCached()) {
+                delete(file);
+            }
+        }
+
+        if (variant.isCached()) {
+            put(key, toHex(digest.digest()), file);
+        }
+    }
+
+    /**
+     * Removes all variants from the cache.
+     */
+    public void clear() {
+        synchronized (variants) {
+            variants.clear();
+            digests.clear();
+            size = 0;
+        }
+        if (directory != null) {
+            clearDirectory();
+        }
+    }
+
+    /**
+     * Caches the variant file of the content with the given digest under
+     * the key. If a variant of the same content is already cached, the file
+     * is removed and the key mapped to the cached variant.
+     */
+    private void put(final String key, final String digest, final File file) {
+        synchronized (variants) {
+            Variant variant = variants.get(digest);
+            if (variant == null) {
+                variant = new Variant(file, file.length());
+                variants.put(digest, variant);
+                size += variant.length;
+            } else {
+                delete(file);
+            }
+
+            final String old = digests.put(key, digest);
+            if (old != null && !old.equals(digest)) {
+                // keep the variant of the old content if other keys share it
+                final Variant oldVariant = variants.get(old);
+                oldVariant.keys.remove(key);
+                if (oldVariant.keys.isEmpty()) {
+                    remove(old);
+                }
+            }
+            variant.keys.add(key);
+
+            final Iterator<Variant> vi = variants.values().iterator();
+            while (size > maxSize && vi.hasNext()) {
+                final Variant eldest = vi.next();
+                vi.remove();
+                removed(eldest);
+            }
+        }
+    }
+
+    /**
+     * Removes the variant with the given digest, must be called with the
+     * lock of the variants held.
+     */
+    private void remove(final String digest) {
+        final Variant variant = variants.remove(digest);
+        if (variant != null) {
+            removed(variant);
+        }
+    }
+
+    private void removed(final Variant variant) {
+        size -= variant.length;
+        for (final String key : variant.keys) {
+            digests.remove(key);
+        }
+        delete(variant.file);
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
+
+    private File createFile() {
+        final long id;
+        synchronized (variants) {
+            id = ++counter;
+        }
+        return new File(directory, "variant-" + id + ".gz");
+    }
+
+    private void clearDirectory() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                delete(file);
+            }
+        }
+    }
+
+    private void delete(final File file) {
+        if (file.exists() && !file.delete()) {
+            log.debug("delete: Cannot remove gzip variant {}", file);
+        }
+    }
+
+    private static final class Variant {
+
+        final File file;
+
+        final long length;
+
+        /** the keys mapped to the variant */
+        final Set<String> keys = new HashSet<String>();
+
+        Variant(final File file, final long length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Writes the compressed data to the output stream and to the variant
+     * file as long as the file does not exceed the size of the cache.
+     * Closing the stream only closes the file.
+     */
+    private final class VariantOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        private final File file;
+
+        private OutputStream fileOut;
+
+        private long length;
+
+        private boolean closed;
+
+        VariantOutputStream(final OutputStream out, final File file)
+                throws IOException {
+            this.out = out;
+            this.file = file;
+            this.fileOut = new FileOutputStream(file);
+        }
+
+        /**
+         * Returns <code>true</code> if the variant file has been written
+         * completely.
+         */
+        boolean isCached() {
+            return closed && fileOut != null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (fileOut != null) {
+                length += len;
+                if (length > maxSize) {
+                    // too large to be cached
+                    log.debug("writeVariant: Not caching {}, exceeds {} bytes",
+                        file, maxSize);
+                    fileOut.close();
+                    fileOut = null;
+                } else {
+                    fileOut.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                if (fileOut != null) {
+                    try {
+                        fileOut.close();
+                    } catch (IOException ioe) {
+                        log.debug("writeVariant: Cannot close {}: {}", file,
+                            ioe.toString());
+                        fileOut = null;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
 import org.apache.sling.commons.json.io.JSONWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -93,8 +94,7 @@ public class JsonRendererServlet extends SlingSafeMethodsServlet {
             }
         }
 
-        resp.setContentType(req.getResponseContentType());
-        resp.setCharacterEncoding("UTF-8");
+        prepareResponse(req, resp);
 
         // We check the tree to see if the nr of nodes isn't bigger than the allowed nr.
         boolean allowDump = true;
@@ -103,7 +103,11 @@ public class JsonRendererServlet extends SlingSafeMethodsServlet {
         ResourceTraversor traversor = null;
         try {
             traversor = new ResourceTraversor(maxRecursionLevels, maximumResults, r, tidy);
-			traversor.collectResources();
+            traversor.check();
+            if (traversor.getDepth() > ResourceTraversor.MAX_STREAMING_DEPTH) {
+                // too deep to be streamed, collect in memory
+                traversor.collectResources();
+            }
         } catch (RecursionTooDeepException e) {
             allowDump = false;
             allowedLevel = Integer.parseInt(e.getMessage()); // this is to avoid depending on a SNAPSHOT version of the SLing API.
@@ -115,10 +119,11 @@ public class JsonRendererServlet extends SlingSafeMethodsServlet {
         try {
             // Check if we can dump the resource.
             if (allowDump) {
-                if (tidy) {
-                    resp.getWriter().write(traversor.getJSONObject().toString(2));
+                if (traversor.getJSONObject() == null) {
+                    // stream the resources as they are visited
+                    traversor.writeResources(createWriter(resp, tidy));
                 } else {
-                    resp.getWriter().write(traversor.getJSONObject().toString());
+                    writeObject(resp, traversor.getJSONObject(), tidy);
                 }
 
             } else {
@@ -126,10 +131,10 @@ public class JsonRendererServlet extends SlingSafeMethodsServlet {
                 // Send a 300
                 String tidyUrl = (tidy) ? "tidy." : "";
                 resp.setStatus(HttpServletResponse.SC_MULTIPLE_CHOICES);
-                JSONWriter writer = new JSONWriter(resp.getWriter());
+                JSONWriter writer = createWriter(resp, false);
                 writer.array();
                 while (allowedLevel >= 0) {
-                    writer.value(r.getResourceMetadata().getResolutionPath() + "." + tidyUrl + allowedLevel + ".json");
+                    writer.value(r.getResourceMetadata().getResolutionPath() + "." + tidyUrl + allowedLevel + "." + getExtension());
                     allowedLevel--;
                 }
                 writer.endArray();
@@ -139,6 +144,36 @@ public class JsonRendererServlet extends SlingSafeMethodsServlet {
         }
     }
 
+    /** Sets the content type and character encoding of the response */
+    protected void prepareResponse(SlingHttpServletRequest req,
+            SlingHttpServletResponse resp) {
+        resp.setContentType(req.getResponseContentType());
+        resp.setCharacterEncoding("UTF-8");
+    }
+
+    /** Returns a writer rendering to the response */
+    protected JSONWriter createWriter(SlingHttpServletResponse resp,
+            boolean tidy) throws IOException {
+        final JSONWriter writer = new JSONWriter(resp.getWriter());
+        writer.setTidy(tidy);
+        return writer;
+    }
+
+    /** Renders a tree which has been collected in memory */
+    protected void writeObject(SlingHttpServletResponse resp,
+            JSONObject object, boolean tidy) throws IOException, JSONException {
+        if (tidy) {
+            resp.getWriter().write(object.toString(2));
+        } else {
+            resp.getWriter().write(object.toString());
+        }
+    }
+
+    /** The extension of the URLs offered for trees too large to render */
+    protected String getExtension() {
+        return EXT_JSON;
+    }
+
     /** True if our request wants the "tidy" pretty-printed format */
     protected boolean isTidy(SlingHttpServletRequest req) {
         for(String selector : req.getRequestPathInfo().getSelectors()) {
@@ -198,7 +198,12 @@ public class JsonResourceWriter {
             // input stream is already handled
             w.value(0);
         } else if ( value instanceof Calendar ) {
-            w.value(format((Calendar)value));
+            if ( w instanceof BinaryJsonWriter ) {
+                // the binary encoding keeps dates typed
+                ((BinaryJsonWriter)w).value((Calendar)value);
+            } else {
+                w.value(format((Calendar)value));
+            }
         } else if ( value instanceof Boolean ) {
             w.value(((Boolean)value).booleanValue());
         } else if ( value instanceof Long ) {
@@ -22,6 +22,7 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.commons.json.JSONException;
 import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONWriter;
 
 import java.io.StringWriter;
 import java.util.Iterator;
@@ -31,8 +32,17 @@ import javax.jcr.RepositoryException;
 
 public class ResourceTraversor {
 
+    /**
+     * The maximum depth of a tree below the start resource which may be
+     * written by {@link #writeResources(JSONWriter)}. The
+     * <code>JSONWriter</code> refuses to nest more than 50 objects.
+     */
+    public static final int MAX_STREAMING_DEPTH = 48;
+
     private long count;
 
+    private int depth;
+
     private long maxResources;
 
     private int maxRecursionLevels;
@@ -54,14 +64,69 @@ public class ResourceTraversor {
     public ResourceTraversor(int levels, long maxNodes, Resource resource, boolean tidy) throws RepositoryException,
             JSONException {
         this.setMaxNodes(maxNodes);
-        this.maxRecursionLevels = levels;
+        // levels below -1 do not descend at all, unlike -1 (infinity)
+        this.maxRecursionLevels = (levels < -1) ? 0 : levels;
         this.startResource = resource;
         this.tidy = tidy;
         startingPath = resource.getPath();
         jsResourceWriter = new JsonResourceWriter(null);
         currentQueue = new LinkedList<Resource>();
         nextQueue = new LinkedList<Resource>();
-        startObject = adapt(resource);
+    }
+
+    /**
+     * Checks the tree below the start resource without collecting it. Throws
+     * the same RecursionTooDeepException as {@link #collectResources()}
+     * would if the maximum number of nodes is reached on a "deep" traversal.
+     * <p>
+     * The tree is counted level by level in a single breadth first
+     * traversal. Counting stops as soon as the maximum number of nodes is
+     * exceeded, so at most that many resources are kept in memory.
+     *
+     * @throws RecursionTooDeepException When the resource has more child nodes
+     *             then allowed.
+     */
+    public void check() throws RecursionTooDeepException {
+        count = 0;
+        depth = 0;
+
+        // SLING-2320: always allow enumeration of one's children
+        if (maxRecursionLevels == 0 || maxRecursionLevels == 1) {
+            depth = maxRecursionLevels;
+            return;
+        }
+
+        LinkedList<Resource> level = new LinkedList<Resource>();
+        level.add(startResource);
+        for (int currentLevel = 0; maxRecursionLevels == -1 || currentLevel < maxRecursionLevels; currentLevel++) {
+            final LinkedList<Resource> next = new LinkedList<Resource>();
+            for (final Resource resource : level) {
+                final Iterator<Resource> children = ResourceUtil.listChildren(resource);
+                while (children.hasNext()) {
+                    if (++count > maxResources) {
+                        throw new RecursionTooDeepException(String.valueOf(currentLevel));
+                    }
+                    next.add(children.next());
+                }
+            }
+            if (next.isEmpty()) {
+                break;
+            }
+            depth = currentLevel + 1;
+            level = next;
+        }
+    }
+
+    /**
+     * Writes the tree below the start resource as visited to the writer
+     * without building it in memory. {@link #check()} must have been called
+     * before to enforce the maximum number of nodes and
+     * {@link #getDepth()} must not exceed {@link #MAX_STREAMING_DEPTH}.
+     *
+     * @throws JSONException
+     */
+    public void writeResources(JSONWriter writer) throws JSONException {
+        jsResourceWriter.dump(startResource, writer, 0, maxRecursionLevels);
     }
 
     /**
@@ -76,6 +141,9 @@ public class ResourceTraversor {
      * @throws JSONException
      */
     public void collectResources() throws RepositoryException, RecursionTooDeepException, JSONException {
+        if (startObject == null) {
+            startObject = adapt(startResource);
+        }
         collectChildren(startResource, 0);
     }
 
@@ -182,6 +250,14 @@ public class ResourceTraversor {
         return count;
     }
 
+    /**
+     * @return The depth of the tree below the start resource found by
+     *         {@link #check()}, limited to the number of recursion levels.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
     /**
      * @param maxNodes the maxNodes to set
      */
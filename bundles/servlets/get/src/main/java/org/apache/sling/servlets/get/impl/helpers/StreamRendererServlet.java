@@ -22,10 +22,15 @@ import static org.apache.sling.api.servlets.HttpConstants.HEADER_LAST_MODIFIED;
 
 import java.io.BufferedInputStream;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
@@ -38,6 +43,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingException;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.request.RequestDispatcherOptions;
@@ -47,6 +53,8 @@ import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.io.JSONWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,6 +83,26 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
 
     private static final int IO_BUFFER_SIZE = 2048;
 
+    private static final String HEADER_ETAG = "ETag";
+
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final String HEADER_IF_RANGE = "If-Range";
+
+    /** The default number of children listed per index page */
+    public static final int DEFAULT_INDEX_PAGE_SIZE = 1000;
+
+    /** The request parameter giving the first child of an index page */
+    private static final String PARAM_OFFSET = "offset";
+
+    /** The request parameter giving the number of children of an index page */
+    private static final String PARAM_LIMIT = "limit";
+
+    /** The request parameter selecting the JSON index listing */
+    private static final String PARAM_FORMAT = "format";
+
+    private static final String FORMAT_JSON = "json";
+
     /** default log */
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -82,9 +110,22 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
 
     private String[] indexFiles;
 
+    private int indexPageSize;
+
+    private GzipVariantCache gzip;
+
     public StreamRendererServlet(boolean index, String[] indexFiles) {
+        this(index, indexFiles, DEFAULT_INDEX_PAGE_SIZE, null);
+    }
+
+    public StreamRendererServlet(boolean index, String[] indexFiles,
+            int indexPageSize, GzipVariantCache gzip) {
         this.index = index;
         this.indexFiles = indexFiles;
+        this.indexPageSize = (indexPageSize > 0)
+                ? indexPageSize
+                : DEFAULT_INDEX_PAGE_SIZE;
+        this.gzip = gzip;
     }
 
     @Override
@@ -121,12 +162,23 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
             return;
         }
 
-        // check the last modification time and If-Modified-Since header
+        // whether to send the gzip compressed variant of the resource
+        final boolean compress = !included && isCompressed(request, resource);
+
+        // check the entity tag and last modification time against the
+        // If-None-Match and If-Modified-Since headers
         if (!included) {
             ResourceMetadata meta = resource.getResourceMetadata();
             long modifTime = meta.getModificationTime();
-            if (unmodified(request, modifTime)) {
+            String etag = getETag(meta);
+            if (compress) {
+                etag = getGzipETag(etag);
+            }
+            if (unmodified(request, etag, modifTime)) {
                 response.setStatus(SC_NOT_MODIFIED);
+                if (etag != null) {
+                    response.setHeader(HEADER_ETAG, etag);
+                }
                 return;
             }
         }
@@ -135,7 +187,11 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
         InputStream stream = resource.adaptTo(InputStream.class);
         if (stream != null) {
 
-            streamResource(resource, stream, included, request, response);
+            if (compress) {
+                streamVariant(resource, stream, response);
+            } else {
+                streamResource(resource, stream, included, request, response);
+            }
 
         } else {
 
@@ -169,17 +225,30 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
     }
 
     /**
-     * Returns <code>true</code> if the request has a
-     * <code>If-Modified-Since</code> header whose date value is later than the
-     * last modification time given as <code>modifTime</code>.
+     * Returns <code>true</code> if the request has an
+     * <code>If-None-Match</code> header matching the entity tag or, if there
+     * is no such header, an <code>If-Modified-Since</code> header whose date
+     * value is later than the last modification time given as
+     * <code>modifTime</code>.
      *
      * @param request The <code>ComponentRequest</code> checked for the
-     *            <code>If-Modified-Since</code> header.
+     *            <code>If-None-Match</code> and
+     *            <code>If-Modified-Since</code> headers.
+     * @param etag The entity tag of the resource, may be <code>null</code>.
      * @param modifTime The last modification time to compare the header to.
-     * @return <code>true</code> if the <code>modifTime</code> is less than or
-     *         equal to the time of the <code>If-Modified-Since</code> header.
+     * @return <code>true</code> if the entity tag matches or the
+     *         <code>modifTime</code> is less than or equal to the time of the
+     *         <code>If-Modified-Since</code> header.
      */
-    private boolean unmodified(HttpServletRequest request, long modifTime) {
+    private boolean unmodified(HttpServletRequest request, String etag,
+            long modifTime) {
+        // RFC 2616, 14.26: If-Modified-Since is ignored unless the entity
+        // tag matches, in which case the result is the same
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch, etag, false);
+        }
+
         if (modifTime > 0) {
             long modTime = modifTime / 1000; // seconds
             long ims = request.getDateHeader(HEADER_IF_MODIFIED_SINCE) / 1000;
@@ -190,11 +259,128 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
         return false;
     }
 
+    /**
+     * Returns a strong entity tag for the resource built from the content
+     * length and the last modification time of the resource. These are the
+     * size and modification time of the file for file backed resources and
+     * the size of the binary property and the last modification time of the
+     * content node for JCR resources. Returns <code>null</code> if the
+     * modification time is not known.
+     */
+    static String getETag(final ResourceMetadata meta) {
+        final long modifTime = meta.getModificationTime();
+        if (modifTime <= 0) {
+            return null;
+        }
+        return "\"" + Long.toHexString(Math.max(meta.getContentLength(), 0))
+            + "-" + Long.toHexString(modifTime) + "\"";
+    }
+
+    /**
+     * Returns <code>true</code> if the comma separated list of entity tags of
+     * an <code>If-None-Match</code> or <code>If-Range</code> header contains
+     * <code>*</code> or the entity tag. With strong comparison weak entity
+     * tags never match.
+     *
+     * @param header The header value
+     * @param etag The entity tag of the resource, may be <code>null</code>.
+     * @param strong Whether to use the strong comparison function.
+     */
+    static boolean matches(final String header, final String etag,
+            final boolean strong) {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if ("*".equals(tag)) {
+                return true;
+            }
+            if (etag == null) {
+                continue;
+            }
+            if (tag.startsWith("W/")) {
+                if (strong) {
+                    continue;
+                }
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the entity tag of the gzip compressed variant of a resource
+     * with the given entity tag. The variant must have its own entity tag
+     * since it is not byte for byte identical with the resource.
+     */
+    static String getGzipETag(final String etag) {
+        return etag.substring(0, etag.length() - 1) + "-" + GzipVariantCache.GZIP
+            + "\"";
+    }
+
+    /**
+     * Returns <code>true</code> if the gzip compressed variant of the
+     * resource is to be sent. This is the case if variants are cached, the
+     * request accepts gzip and does not ask for ranges and the resource has
+     * a compressible content type and length and an entity tag identifying
+     * the variant.
+     */
+    private boolean isCompressed(final SlingHttpServletRequest request,
+            final Resource resource) {
+        if (gzip == null || !gzip.isCaching()
+            || request.getHeader("Range") != null
+            || !GzipVariantCache.acceptsGzip(request)) {
+            return false;
+        }
+
+        final ResourceMetadata meta = resource.getResourceMetadata();
+        return getETag(meta) != null
+            && gzip.isCompressible(getContentType(resource),
+                meta.getContentLength());
+    }
+
+    /**
+     * Sends the gzip compressed variant of the resource. If the variant is
+     * not cached yet, the resource stream is compressed to the response and
+     * cached at the same time.
+     */
+    private void streamVariant(final Resource resource,
+            final InputStream stream, final SlingHttpServletResponse response)
+            throws IOException {
+        final String etag = getGzipETag(getETag(resource.getResourceMetadata()));
+        final String key = resource.getPath() + '\0' + etag;
+        FileInputStream variant = null;
+        try {
+            setHeaders(resource, response);
+            response.setHeader(HEADER_ETAG, etag);
+            response.setHeader(GzipVariantCache.HEADER_CONTENT_ENCODING,
+                GzipVariantCache.GZIP);
+            response.addHeader(GzipVariantCache.HEADER_VARY,
+                GzipVariantCache.HEADER_ACCEPT_ENCODING);
+
+            variant = gzip.openVariant(key);
+            if (variant != null) {
+                final FileChannel channel = variant.getChannel();
+                final long length = channel.size();
+                setContentLength(response, length);
+                transfer(channel, response.getOutputStream(), 0, length);
+            } else {
+                // the length of the compressed variant is not known yet
+                gzip.writeVariant(key, stream, response.getOutputStream());
+            }
+        } finally {
+            closeSilently(variant);
+            closeSilently(stream);
+        }
+    }
+
     private void streamResource(final Resource resource,
             final InputStream stream, final boolean included,
             final SlingHttpServletRequest request,
             final SlingHttpServletResponse response) throws IOException {
         // finally stream the resource
+        FileChannel channel = null;
         try {
 
             final ArrayList<Range> ranges;
@@ -216,19 +402,34 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
 
                 // set various response headers, unless the request is included
                 setHeaders(resource, response);
+
+                // the response differs for clients accepting gzip
+                if (gzip != null && gzip.isCaching()
+                    && gzip.isCompressible(getContentType(resource),
+                        resource.getResourceMetadata().getContentLength())) {
+                    response.addHeader(GzipVariantCache.HEADER_VARY,
+                        GzipVariantCache.HEADER_ACCEPT_ENCODING);
+                }
             }
 
             ServletOutputStream out = response.getOutputStream();
 
+            // file backed resources are transferred from the file channel
+            channel = getFileChannel(resource, stream);
+
             if (ranges == FULL) {
 
                 // return full resource
                 setContentLength(response,
                     resource.getResourceMetadata().getContentLength());
-                byte[] buf = new byte[IO_BUFFER_SIZE];
-                int rd;
-                while ((rd = stream.read(buf)) >= 0) {
-                    out.write(buf, 0, rd);
+                if (channel != null) {
+                    transfer(channel, out, 0, channel.size());
+                } else {
+                    byte[] buf = new byte[IO_BUFFER_SIZE];
+                    int rd;
+                    while ((rd = stream.read(buf)) >= 0) {
+                        out.write(buf, 0, rd);
+                    }
                 }
 
             } else {
@@ -243,23 +444,88 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
                         + "-" + range.end + "/" + range.length);
                     setContentLength(response, range.end - range.start + 1);
 
-                    copy(stream, out, range);
+                    if (channel != null) {
+                        transfer(channel, out, range.start, range.end
+                            - range.start + 1);
+                    } else {
+                        copy(stream, out, range);
+                    }
 
                 } else {
 
                     response.setContentType("multipart/byteranges; boundary="
                         + mimeSeparation);
 
-                    copy(resource, out, ranges.iterator());
+                    copy(resource, channel, out, ranges.iterator());
                 }
 
             }
 
         } finally {
+            closeSilently(channel);
             closeSilently(stream);
         }
     }
 
+    /**
+     * Returns the channel of the file from which the resource stream reads or
+     * <code>null</code> if the resource is not backed by a file. The channel
+     * must be closed by the caller.
+     */
+    private FileChannel getFileChannel(final Resource resource,
+            final InputStream stream) {
+        if (stream instanceof FileInputStream) {
+            return ((FileInputStream) stream).getChannel();
+        }
+
+        final File file = resource.adaptTo(File.class);
+        if (file != null && file.isFile() && file.canRead()) {
+            try {
+                return new FileInputStream(file).getChannel();
+            } catch (IOException ioe) {
+                log.debug("getFileChannel: Cannot open file " + file, ioe);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Transfers a part of the file to the output stream. The file channel
+     * sends the data directly to the output stream if the stream is a
+     * channel itself. Servlet output streams usually are not, in which case
+     * the data is still copied through the heap buffers of the file channel
+     * and of the channel wrapping the output stream. Ranges are read at
+     * their position without skipping over the preceding data.
+     *
+     * @param channel The channel of the file to transfer
+     * @param ostream The output stream to write to
+     * @param position The position of the first byte to transfer
+     * @param count The number of bytes to transfer
+     * @exception IOException if an input/output error occurs
+     */
+    private void transfer(final FileChannel channel,
+            final OutputStream ostream, long position, long count)
+            throws IOException {
+
+        log.debug("transfer: Serving bytes: {}-{}", position, position + count
+            - 1);
+
+        final WritableByteChannel target = (ostream instanceof WritableByteChannel)
+                ? (WritableByteChannel) ostream
+                : Channels.newChannel(ostream);
+        while (count > 0) {
+            final long transferred = channel.transferTo(position, count,
+                target);
+            if (transferred <= 0) {
+                throw new IOException("Failed to transfer " + count
+                    + " bytes at position " + position);
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
     private void renderDirectory(final SlingHttpServletRequest request,
             final SlingHttpServletResponse response, final boolean included)
             throws ServletException, IOException {
@@ -301,7 +567,7 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
         }
 
         if (index) {
-            renderIndex(resource, response);
+            renderIndex(request, resource, response);
         } else {
             response.sendError(HttpServletResponse.SC_FORBIDDEN);
         }
@@ -322,8 +588,25 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
             response.setDateHeader(HEADER_LAST_MODIFIED, modifTime);
         }
 
+        final String etag = getETag(meta);
+        if (etag != null) {
+            response.setHeader(HEADER_ETAG, etag);
+        }
+
+        final String contentType = getContentType(resource);
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+
+        String encoding = meta.getCharacterEncoding();
+        if (encoding != null) {
+            response.setCharacterEncoding(encoding);
+        }
+    }
+
+    private String getContentType(final Resource resource) {
         final String defaultContentType = "application/octet-stream";
-        String contentType = meta.getContentType();
+        String contentType = resource.getResourceMetadata().getContentType();
         if (contentType == null || defaultContentType.equals(contentType)) {
             // if repository doesn't provide a content-type, or
             // provides the
@@ -335,14 +618,7 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
                 contentType = ct;
             }
         }
-        if (contentType != null) {
-            response.setContentType(contentType);
-        }
-
-        String encoding = meta.getCharacterEncoding();
-        if (encoding != null) {
-            response.setCharacterEncoding(encoding);
-        }
+        return contentType;
     }
 
     /**
@@ -366,8 +642,36 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
         }
     }
 
-    private void renderIndex(Resource resource,
-            SlingHttpServletResponse response) throws IOException {
+    /**
+     * Renders a page of the children of the resource as an HTML listing or,
+     * with the <code>format=json</code> parameter, as a JSON listing of the
+     * child names. The page is selected with the <code>offset</code> and
+     * <code>limit</code> parameters, the limit being at most the configured
+     * page size.
+     */
+    private void renderIndex(SlingHttpServletRequest request,
+            Resource resource, SlingHttpServletResponse response)
+            throws IOException {
+
+        final int offset = getIntParameter(request, PARAM_OFFSET, 0);
+        final int limit = Math.min(getIntParameter(request, PARAM_LIMIT,
+            indexPageSize), indexPageSize);
+        if (offset < 0 || limit <= 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                "Invalid index page offset " + offset + " or limit " + limit);
+            return;
+        }
+
+        // skip the children of the preceding pages
+        Iterator<Resource> children = ResourceUtil.listChildren(resource);
+        for (int i = 0; i < offset && children.hasNext(); i++) {
+            children.next();
+        }
+
+        if (FORMAT_JSON.equals(request.getParameter(PARAM_FORMAT))) {
+            renderJsonIndex(children, offset, limit, response);
+            return;
+        }
 
         response.setContentType("text/html");
         response.setCharacterEncoding("UTF-8");
@@ -392,11 +696,23 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
             pw.println("<a href='../'>../</a>                                                                 -     Parent");
         }
 
-        // render the children
-        Iterator<Resource> children = ResourceUtil.listChildren(resource);
-        while (children.hasNext()) {
+        // render the children of the page
+        int count = 0;
+        while (count < limit && children.hasNext()) {
             renderChild(pw, children.next());
+            count++;
+        }
+
+        pw.println("<hr>");
+        if (offset > 0) {
+            pw.printf("<a href='%s'>Previous page</a>  ", getPageQuery(Math.max(
+                offset - limit, 0), limit));
+        }
+        if (children.hasNext()) {
+            pw.printf("<a href='%s'>Next page</a>",
+                getPageQuery(offset + count, limit));
         }
+        pw.println();
 
         pw.println("</pre>");
         pw.println("</body>");
@@ -404,6 +720,56 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
 
     }
 
+    /**
+     * Streams the names of a page of children as JSON. The names are taken
+     * from the child paths, so the children are not adapted and their
+     * metadata is not accessed.
+     */
+    private void renderJsonIndex(Iterator<Resource> children, int offset,
+            int limit, SlingHttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        try {
+            final JSONWriter writer = new JSONWriter(response.getWriter());
+            writer.object();
+            writer.key(PARAM_OFFSET).value(offset);
+            writer.key(PARAM_LIMIT).value(limit);
+            writer.key("children").array();
+            int count = 0;
+            while (count < limit && children.hasNext()) {
+                writer.value(ResourceUtil.getName(children.next().getPath()));
+                count++;
+            }
+            writer.endArray();
+            if (children.hasNext()) {
+                writer.key("next").value(getPageQuery(offset + count, limit)
+                    + "&" + PARAM_FORMAT + "=" + FORMAT_JSON);
+            }
+            writer.endObject();
+        } catch (JSONException je) {
+            throw new SlingException("Cannot write index listing", je);
+        }
+    }
+
+    private String getPageQuery(int offset, int limit) {
+        return "?" + PARAM_OFFSET + "=" + offset + "&" + PARAM_LIMIT + "="
+            + limit;
+    }
+
+    private int getIntParameter(HttpServletRequest request, String name,
+            int defaultValue) {
+        final String value = request.getParameter(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException nfe) {
+                return -1;
+            }
+        }
+        return defaultValue;
+    }
+
     private void renderChild(PrintWriter pw, Resource resource) {
 
         String name = ResourceUtil.getName(resource.getPath());
@@ -451,22 +817,29 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
      * the face of an exception).
      *
      * @param resource The resource from which to send ranges
+     * @param channel The channel of the file backing the resource or
+     *            <code>null</code> to read the ranges from the resource
+     *            stream
      * @param ostream The output stream to write to
      * @param ranges Iterator of the ranges the client wanted to retrieve
      * @param contentType Content type of the resource
      * @exception IOException if an input/output error occurs
      */
-    private void copy(Resource resource, ServletOutputStream ostream,
-            Iterator<Range> ranges) throws IOException {
+    private void copy(Resource resource, FileChannel channel,
+            ServletOutputStream ostream, Iterator<Range> ranges)
+            throws IOException {
 
         String contentType = resource.getResourceMetadata().getContentType();
         IOException exception = null;
 
         while ((exception == null) && (ranges.hasNext())) {
 
-            InputStream resourceInputStream = resource.adaptTo(InputStream.class);
-            InputStream istream = new BufferedInputStream(resourceInputStream,
-                IO_BUFFER_SIZE);
+            InputStream istream = null;
+            if (channel == null) {
+                InputStream resourceInputStream = resource.adaptTo(InputStream.class);
+                istream = new BufferedInputStream(resourceInputStream,
+                    IO_BUFFER_SIZE);
+            }
 
             try {
                 Range currentRange = ranges.next();
@@ -482,8 +855,17 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
                 ostream.println();
 
                 // Printing content
-                exception = copyRange(istream, ostream, currentRange.start,
-                    currentRange.end);
+                if (channel != null) {
+                    try {
+                        transfer(channel, ostream, currentRange.start,
+                            currentRange.end - currentRange.start + 1);
+                    } catch (IOException ioe) {
+                        exception = ioe;
+                    }
+                } else {
+                    exception = copyRange(istream, ostream,
+                        currentRange.start, currentRange.end);
+                }
             } finally {
                 closeSilently(istream);
             }
@@ -586,12 +968,12 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
             throws IOException {
 
         // Checking If-Range
-        String headerValue = request.getHeader("If-Range");
+        String headerValue = request.getHeader(HEADER_IF_RANGE);
         if (headerValue != null) {
 
             long headerValueTime = (-1L);
             try {
-                headerValueTime = request.getDateHeader("If-Range");
+                headerValueTime = request.getDateHeader(HEADER_IF_RANGE);
             } catch (IllegalArgumentException e) {
                 // Ignore
             }
@@ -599,9 +981,13 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
             if (headerValueTime == (-1L)) {
 
                 // If the ETag the client gave does not match the entity
-                // etag, then the entire entity is returned.
-                // Sling: no etag support yet, return full range
-                return FULL;
+                // etag, then the entire entity is returned. If-Range
+                // requires the strong comparison function.
+                String etag = getETag(metadata);
+                if (headerValue.trim().startsWith("*")
+                    || !matches(headerValue, etag, true)) {
+                    return FULL;
+                }
 
             } else if (metadata.getModificationTime() > (headerValueTime + 1000)) {
 
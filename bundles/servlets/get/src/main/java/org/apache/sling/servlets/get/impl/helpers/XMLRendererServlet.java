@@ -22,20 +22,36 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
 
 import org.apache.sling.api.SlingConstants;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RecursionTooDeepException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.commons.json.JSONException;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
 
 /**
  * The <code>XMLRendererServlet</code> renders the current resource in XML
  * on behalf of the {@link org.apache.sling.servlets.get.impl.DefaultGetServlet}.
+ * <p>
+ * The document view is rendered unless the <code>sysview</code> selector is
+ * given. The last selector may give the number of levels of descendants to
+ * render like for JSON, all levels being the default. Nodes are written as
+ * they are visited; if more than the maximum number of resources would be
+ * rendered, with or without a level selector, a 300/MULTIPLE CHOICES
+ * response lists the renderable levels.
  *
  * At the moment only JCR nodes can be rendered as XML.
  */
@@ -46,6 +62,12 @@ public class XMLRendererServlet extends SlingSafeMethodsServlet {
     private static final String SYSVIEW = "sysview";
     private static final String DOCVIEW = "docview";
 
+    private final long maximumResults;
+
+    public XMLRendererServlet(long maximumResults) {
+        this.maximumResults = maximumResults;
+    }
+
     @Override
     protected void doGet(SlingHttpServletRequest req,
                          SlingHttpServletResponse resp)
@@ -63,37 +85,111 @@ public class XMLRendererServlet extends SlingSafeMethodsServlet {
         final boolean isIncluded = req.getAttribute(SlingConstants.ATTR_REQUEST_SERVLET) != null;
 
         final Node node = r.adaptTo(Node.class);
-        if ( node != null ) {
-            try {
-                if ( req.getRequestPathInfo().getSelectorString() == null
-                     || req.getRequestPathInfo().getSelectorString().equals(DOCVIEW) ) {
-                    // check if response is adaptable to a content handler
-                    final ContentHandler ch = resp.adaptTo(ContentHandler.class);
-                    if ( ch == null ) {
-                        node.getSession().exportDocumentView(node.getPath(), resp.getOutputStream(), false, false);
-                    } else {
-                        node.getSession().exportDocumentView(node.getPath(), ch, false, false);
-                    }
-                } else if ( req.getRequestPathInfo().getSelectorString().equals(SYSVIEW) ) {
-                    // check if response is adaptable to a content handler
-                    final ContentHandler ch = resp.adaptTo(ContentHandler.class);
-                    if ( ch == null ) {
-                        node.getSession().exportSystemView(node.getPath(), resp.getOutputStream(), false, false);
-                    } else {
-                        node.getSession().exportSystemView(node.getPath(), ch, false, false);
-                    }
-                } else {
-                    resp.sendError(HttpServletResponse.SC_NO_CONTENT); // NO Content
-                }
-            } catch (RepositoryException e) {
-                throw new ServletException("Unable to export resource as xml: " + r, e);
-            } catch (SAXException e) {
-                throw new ServletException("Unable to export resource as xml: " + r, e);
-            }
-        } else {
+        if ( node == null ) {
             if ( !isIncluded ) {
                 resp.sendError(HttpServletResponse.SC_NO_CONTENT); // NO Content
             }
+            return;
+        }
+
+        // the view and recursion level selectors
+        boolean sysview = false;
+        int maxRecursionLevels = -1;
+        String view = "";
+        final String[] selectors = req.getRequestPathInfo().getSelectors();
+        for ( int i = 0; selectors != null && i < selectors.length; i++ ) {
+            final String selector = selectors[i];
+            if ( i == 0 && (DOCVIEW.equals(selector) || SYSVIEW.equals(selector)) ) {
+                sysview = SYSVIEW.equals(selector);
+                view = selector + ".";
+            } else if ( i == selectors.length - 1 && JsonRendererServlet.INFINITY.equals(selector) ) {
+                maxRecursionLevels = -1;
+            } else if ( i == selectors.length - 1 && isLevel(selector) ) {
+                maxRecursionLevels = Integer.parseInt(selector);
+            } else {
+                resp.sendError(HttpServletResponse.SC_NO_CONTENT); // NO Content
+                return;
+            }
+        }
+
+        // check the number of nodes to render before writing anything
+        try {
+            new ResourceTraversor(maxRecursionLevels, maximumResults, r, false).check();
+        } catch (RecursionTooDeepException e) {
+            renderChoices(req, resp, view, Integer.parseInt(e.getMessage()));
+            return;
+        } catch (RepositoryException e) {
+            throw new ServletException("Unable to export resource as xml: " + r, e);
+        } catch (JSONException e) {
+            throw new ServletException("Unable to export resource as xml: " + r, e);
+        }
+
+        try {
+            new XmlNodeExporter(maxRecursionLevels, sysview).export(node,
+                getContentHandler(resp));
+        } catch (RepositoryException e) {
+            throw new ServletException("Unable to export resource as xml: " + r, e);
+        } catch (SAXException e) {
+            throw new ServletException("Unable to export resource as xml: " + r, e);
+        }
+    }
+
+    /**
+     * Sends a 300/MULTIPLE CHOICES response listing the URLs of the renderings
+     * of the resource with the given level and less.
+     */
+    private void renderChoices(SlingHttpServletRequest req,
+            SlingHttpServletResponse resp, String view, int allowedLevel)
+            throws ServletException, IOException {
+        resp.setStatus(HttpServletResponse.SC_MULTIPLE_CHOICES);
+        try {
+            final ContentHandler ch = getContentHandler(resp);
+            ch.startDocument();
+            ch.startElement("", "choices", "choices", new AttributesImpl());
+            for ( int level = allowedLevel; level >= 0; level-- ) {
+                final char[] url = (req.getResource().getResourceMetadata().getResolutionPath()
+                    + "." + view + level + "." + EXT_XML).toCharArray();
+                ch.startElement("", "choice", "choice", new AttributesImpl());
+                ch.characters(url, 0, url.length);
+                ch.endElement("", "choice", "choice");
+            }
+            ch.endElement("", "choices", "choices");
+            ch.endDocument();
+        } catch (SAXException e) {
+            throw new ServletException("Unable to render choices: " + req.getResource(), e);
+        }
+    }
+
+    /**
+     * Returns the content handler of the response if the response is
+     * adaptable to one or a handler serializing to the response stream.
+     */
+    private ContentHandler getContentHandler(SlingHttpServletResponse resp)
+            throws ServletException, IOException {
+        final ContentHandler ch = resp.adaptTo(ContentHandler.class);
+        if ( ch != null ) {
+            return ch;
+        }
+
+        try {
+            final TransformerHandler th = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+            th.getTransformer().setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            th.setResult(new StreamResult(resp.getOutputStream()));
+            return th;
+        } catch (TransformerConfigurationException e) {
+            throw new ServletException("Unable to create xml serializer", e);
+        }
+    }
+
+    private boolean isLevel(String selector) {
+        if ( selector.length() == 0 ) {
+            return false;
+        }
+        for ( int i = 0; i < selector.length(); i++ ) {
+            if ( !Character.isDigit(selector.charAt(i)) ) {
+                return false;
+            }
         }
+        return selector.length() < 10;
     }
 }
@@ -0,0 +1,400 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * The <code>XmlNodeExporter</code> exports a JCR node and its descendants
+ * down to a number of levels in the document or system view format to a
+ * SAX <code>ContentHandler</code>. Nodes are written as they are visited, so
+ * only the current path is kept in memory. Binary values are written base64
+ * encoded in chunks in the system view. Like the JSON rendering, the document
+ * view does not contain binary data: binary properties are written with an
+ * empty value, as if exported with <code>skipBinary</code>.
+ */
+public class XmlNodeExporter {
+
+    public static final String SV_URI = "http://www.jcp.org/jcr/sv/1.0";
+
+    private static final String SV_PREFIX = "sv";
+
+    private static final String CDATA = "CDATA";
+
+    private static final String JCR_ROOT = "jcr:root";
+
+    private static final String JCR_PRIMARY_TYPE = "jcr:primaryType";
+
+    private static final String JCR_MIXIN_TYPES = "jcr:mixinTypes";
+
+    private static final String JCR_UUID = "jcr:uuid";
+
+    private static final String JCR_XMLTEXT = "jcr:xmltext";
+
+    private static final String JCR_XMLCHARACTERS = "jcr:xmlcharacters";
+
+    /**
+     * The number of bytes base64 encoded at once, a multiple of three.
+     */
+    private static final int BASE64_BYTES = 3 * 1024;
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final int maxRecursionLevels;
+
+    private final boolean systemView;
+
+    private ContentHandler handler;
+
+    private Session session;
+
+    /**
+     * @param maxRecursionLevels The number of levels of descendants to
+     *            export, <code>-1</code> exports all descendants.
+     * @param systemView Whether to export the system view instead of the
+     *            document view.
+     */
+    public XmlNodeExporter(int maxRecursionLevels, boolean systemView) {
+        this.maxRecursionLevels = maxRecursionLevels;
+        this.systemView = systemView;
+    }
+
+    /**
+     * Exports the node as a complete XML document.
+     */
+    public void export(Node node, ContentHandler handler)
+            throws RepositoryException, SAXException {
+        this.handler = handler;
+        this.session = node.getSession();
+        try {
+            handler.startDocument();
+
+            // declare all namespaces on the root element
+            final List<String> prefixes = new ArrayList<String>();
+            for (String prefix : session.getNamespacePrefixes()) {
+                if (prefix.length() > 0 && !prefix.startsWith("xml")) {
+                    handler.startPrefixMapping(prefix,
+                        session.getNamespaceURI(prefix));
+                    prefixes.add(prefix);
+                }
+            }
+            if (systemView && !prefixes.contains(SV_PREFIX)) {
+                handler.startPrefixMapping(SV_PREFIX, SV_URI);
+                prefixes.add(SV_PREFIX);
+            }
+
+            exportNode(node, 0);
+
+            for (String prefix : prefixes) {
+                handler.endPrefixMapping(prefix);
+            }
+            handler.endDocument();
+        } finally {
+            this.handler = null;
+            this.session = null;
+        }
+    }
+
+    private void exportNode(Node node, int currentLevel)
+            throws RepositoryException, SAXException {
+        final String name = (node.getDepth() == 0) ? JCR_ROOT : node.getName();
+        if (systemView) {
+            final AttributesImpl attrs = new AttributesImpl();
+            addAttribute(attrs, SV_URI, "name", SV_PREFIX + ":name", name);
+            startElement(SV_URI, "node", SV_PREFIX + ":node", attrs);
+            for (Property prop : getProperties(node)) {
+                exportSystemViewProperty(prop);
+            }
+        } else {
+            if (JCR_XMLTEXT.equals(name) && currentLevel > 0
+                && node.hasProperty(JCR_XMLCHARACTERS)) {
+                // XML text nodes are exported as character data
+                final char[] text = node.getProperty(JCR_XMLCHARACTERS).getString().toCharArray();
+                handler.characters(text, 0, text.length);
+                return;
+            }
+
+            final AttributesImpl attrs = new AttributesImpl();
+            for (Property prop : getProperties(node)) {
+                final String value = getDocumentViewValue(prop);
+                final String qName = encodeName(prop.getName());
+                addAttribute(attrs, getURI(qName), getLocalName(qName), qName,
+                    value);
+            }
+            final String qName = encodeName(name);
+            startElement(getURI(qName), getLocalName(qName), qName, attrs);
+        }
+
+        if (maxRecursionLevels == -1 || currentLevel < maxRecursionLevels) {
+            final NodeIterator children = node.getNodes();
+            while (children.hasNext()) {
+                exportNode(children.nextNode(), currentLevel + 1);
+            }
+        }
+
+        if (systemView) {
+            handler.endElement(SV_URI, "node", SV_PREFIX + ":node");
+        } else {
+            final String qName = encodeName(name);
+            handler.endElement(getURI(qName), getLocalName(qName), qName);
+        }
+    }
+
+    private void exportSystemViewProperty(Property prop)
+            throws RepositoryException, SAXException {
+        final AttributesImpl attrs = new AttributesImpl();
+        addAttribute(attrs, SV_URI, "name", SV_PREFIX + ":name", prop.getName());
+        addAttribute(attrs, SV_URI, "type", SV_PREFIX + ":type",
+            PropertyType.nameFromValue(prop.getType()));
+        startElement(SV_URI, "property", SV_PREFIX + ":property", attrs);
+
+        final Value[] values = prop.getDefinition().isMultiple()
+                ? prop.getValues()
+                : new Value[] { prop.getValue() };
+        for (Value value : values) {
+            startElement(SV_URI, "value", SV_PREFIX + ":value",
+                new AttributesImpl());
+            if (value.getType() == PropertyType.BINARY) {
+                writeBase64(value.getStream());
+            } else {
+                final char[] chars = value.getString().toCharArray();
+                handler.characters(chars, 0, chars.length);
+            }
+            handler.endElement(SV_URI, "value", SV_PREFIX + ":value");
+        }
+
+        handler.endElement(SV_URI, "property", SV_PREFIX + ":property");
+    }
+
+    /**
+     * Returns the attribute value of the property in the document view.
+     * Values of multi-value properties are separated by spaces, spaces within
+     * the values are escaped.
+     */
+    private String getDocumentViewValue(Property prop)
+            throws RepositoryException {
+        if (!prop.getDefinition().isMultiple()) {
+            return getString(prop.getValue());
+        }
+
+        final StringBuilder buf = new StringBuilder();
+        for (Value value : prop.getValues()) {
+            if (buf.length() > 0) {
+                buf.append(' ');
+            }
+            final String string = getString(value);
+            for (int i = 0; i < string.length(); i++) {
+                final char c = string.charAt(i);
+                if (c == ' ') {
+                    buf.append("_x0020_");
+                } else if (c == '_' && isEscape(string, i)) {
+                    buf.append("_x005f_");
+                } else {
+                    buf.append(c);
+                }
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Returns the string of the value or an empty string for binary values,
+     * which would have to be kept in memory to write them as attributes.
+     */
+    private String getString(Value value) throws RepositoryException {
+        if (value.getType() == PropertyType.BINARY) {
+            return "";
+        }
+        return value.getString();
+    }
+
+    /**
+     * Writes the base64 encoding of the stream as character data in chunks.
+     */
+    private void writeBase64(InputStream in) throws SAXException {
+        try {
+            final byte[] bytes = new byte[BASE64_BYTES];
+            final char[] chunk = new char[BASE64_BYTES / 3 * 4];
+            int len;
+            while ((len = readFully(in, bytes)) > 0) {
+                handler.characters(chunk, 0, encodeBase64(bytes, len, chunk));
+            }
+        } catch (IOException ioe) {
+            throw new SAXException(ioe);
+        } finally {
+            closeSilently(in);
+        }
+    }
+
+    /**
+     * Returns the properties of the node with <code>jcr:primaryType</code>,
+     * <code>jcr:mixinTypes</code> and <code>jcr:uuid</code> first.
+     */
+    private List<Property> getProperties(Node node) throws RepositoryException {
+        final List<Property> first = new ArrayList<Property>();
+        final List<Property> others = new ArrayList<Property>();
+        for (String name : new String[] { JCR_PRIMARY_TYPE, JCR_MIXIN_TYPES,
+            JCR_UUID }) {
+            if (node.hasProperty(name)) {
+                first.add(node.getProperty(name));
+            }
+        }
+        final PropertyIterator props = node.getProperties();
+        while (props.hasNext()) {
+            final Property prop = props.nextProperty();
+            final String name = prop.getName();
+            if (!JCR_PRIMARY_TYPE.equals(name) && !JCR_MIXIN_TYPES.equals(name)
+                && !JCR_UUID.equals(name)) {
+                others.add(prop);
+            }
+        }
+        first.addAll(others);
+        return first;
+    }
+
+    private void startElement(String uri, String localName, String qName,
+            AttributesImpl attrs) throws SAXException {
+        handler.startElement(uri, localName, qName, attrs);
+    }
+
+    private void addAttribute(AttributesImpl attrs, String uri,
+            String localName, String qName, String value) {
+        attrs.addAttribute(uri, localName, qName, CDATA, value);
+    }
+
+    private String getURI(String qName) throws RepositoryException {
+        final int colon = qName.indexOf(':');
+        if (colon < 0) {
+            return "";
+        }
+        try {
+            return session.getNamespaceURI(qName.substring(0, colon));
+        } catch (NamespaceException ne) {
+            return "";
+        }
+    }
+
+    private static String getLocalName(String qName) {
+        return qName.substring(qName.indexOf(':') + 1);
+    }
+
+    /**
+     * Encodes the local part of the JCR name as an XML name according to
+     * ISO 9075: characters not valid in XML names are replaced by
+     * <code>_xHHHH_</code> and underscores starting such a sequence are
+     * escaped.
+     */
+    static String encodeName(String name) {
+        final int colon = name.indexOf(':');
+        final String local = name.substring(colon + 1);
+        StringBuilder buf = null;
+        for (int i = 0; i < local.length(); i++) {
+            final char c = local.charAt(i);
+            final boolean valid = (i == 0)
+                    ? (Character.isLetter(c) || c == '_')
+                    : (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.');
+            final boolean escape = !valid || (c == '_' && isEscape(local, i));
+            if (escape && buf == null) {
+                buf = new StringBuilder(name.substring(0, colon + 1 + i));
+            }
+            if (escape) {
+                final String hex = Integer.toHexString(c);
+                buf.append("_x");
+                for (int j = hex.length(); j < 4; j++) {
+                    buf.append('0');
+                }
+                buf.append(hex).append('_');
+            } else if (buf != null) {
+                buf.append(c);
+            }
+        }
+        return (buf == null) ? name : buf.toString();
+    }
+
+    /**
+     * Returns <code>true</code> if the underscore at the given position
+     * starts a sequence <code>_xHHHH_</code> which must be escaped.
+     */
+    private static boolean isEscape(String string, int pos) {
+        if (pos + 6 >= string.length() || string.charAt(pos + 1) != 'x'
+            || string.charAt(pos + 6) != '_') {
+            return false;
+        }
+        for (int i = pos + 2; i < pos + 6; i++) {
+            if (Character.digit(string.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the first <code>len</code> bytes in groups of three bytes to
+     * the characters and returns the number of characters written. Only the
+     * last group may be incomplete and is padded.
+     */
+    static int encodeBase64(byte[] bytes, int len, char[] chars) {
+        int pos = 0;
+        for (int i = 0; i < len; i += 3) {
+            final int b0 = bytes[i] & 0xff;
+            final int b1 = (i + 1 < len) ? bytes[i + 1] & 0xff : 0;
+            final int b2 = (i + 2 < len) ? bytes[i + 2] & 0xff : 0;
+            chars[pos++] = BASE64[b0 >> 2];
+            chars[pos++] = BASE64[((b0 & 0x03) << 4) | (b1 >> 4)];
+            chars[pos++] = (i + 1 < len) ? BASE64[((b1 & 0x0f) << 2) | (b2 >> 6)] : '=';
+            chars[pos++] = (i + 2 < len) ? BASE64[b2 & 0x3f] : '=';
+        }
+        return pos;
+    }
+
+    private static int readFully(InputStream in, byte[] bytes)
+            throws IOException {
+        int len = 0;
+        while (len < bytes.length) {
+            final int rd = in.read(bytes, len, bytes.length - len);
+            if (rd < 0) {
+                break;
+            }
+            len += rd;
+        }
+        return len;
+    }
+
+    private static void closeSilently(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
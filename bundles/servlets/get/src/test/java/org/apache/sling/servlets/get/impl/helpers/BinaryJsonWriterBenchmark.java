@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Calendar;
+
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.io.JSONWriter;
+import org.junit.Test;
+
+/**
+ * Compares the size and the time of writing the same resources as text and
+ * binary JSON.
+ * <p>
+ * The benchmark is not run with the unit tests, run it with
+ * <code>mvn test -Pbenchmarks</code>.
+ */
+public class BinaryJsonWriterBenchmark {
+
+    @Test
+    public void testThroughput() throws JSONException {
+        final int entries = 50000;
+        final String[] names = new String[entries];
+        final Calendar date = Calendar.getInstance();
+        for (int i = 0; i < entries; i++) {
+            names[i] = "entry-" + i;
+        }
+
+        // the last of several rounds, after warming up
+        long textTime = 0;
+        long binaryTime = 0;
+        int textSize = 0;
+        int binarySize = 0;
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            final StringWriter text = new StringWriter();
+            BinaryJsonWriterTest.write(new JSONWriter(text), names, date, true);
+            textSize = text.getBuffer().length();
+            textTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            BinaryJsonWriterTest.write(new BinaryJsonWriter(binary), names, date, false);
+            binarySize = binary.size();
+            binaryTime = System.nanoTime() - start;
+        }
+
+        System.out.println("BinaryJsonWriter " + entries + " resources: text "
+            + (textTime / 1000000) + "ms/" + (textSize >> 10) + "KB, binary "
+            + (binaryTime / 1000000) + "ms/" + (binarySize >> 10) + "KB");
+    }
+}
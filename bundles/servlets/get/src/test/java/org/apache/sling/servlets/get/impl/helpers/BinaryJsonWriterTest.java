@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.apache.sling.commons.json.JSONArray;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONWriter;
+import org.junit.Test;
+
+public class BinaryJsonWriterTest {
+
+    @Test
+    public void testEncoding() throws JSONException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final JSONWriter w = new BinaryJsonWriter(out);
+        w.object();
+        w.key("a").value(-1);
+        w.key("b").array().value(true).value((Object) null).value(300L).endArray();
+        w.key("c").value(0.5);
+        w.key("d").value("\u00e4");
+        w.endObject();
+
+        assertArrayEquals(new byte[] { 0x07,
+            0x05, 1, 'a', 0x03, 0x01,
+            0x05, 1, 'b', 0x08, 0x02, 0x00, 0x03, (byte) 0xd8, 0x04, 0x09,
+            0x05, 1, 'c', 0x04, 0x3f, (byte) 0xe0, 0, 0, 0, 0, 0, 0,
+            0x05, 1, 'd', 0x05, 2, (byte) 0xc3, (byte) 0xa4,
+            0x09 }, out.toByteArray());
+    }
+
+    @Test
+    public void testDate() throws JSONException {
+        final Calendar date = Calendar.getInstance(TimeZone.getTimeZone("GMT+01:30"));
+        date.setTimeInMillis(1000);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryJsonWriter(out).value(date);
+        // zigzag 1000 is 2000, zigzag 90 is 180
+        assertArrayEquals(new byte[] { 0x06, (byte) 0xd0, 0x0f, (byte) 0xb4,
+            0x01 }, out.toByteArray());
+    }
+
+    @Test
+    public void testTree() throws JSONException {
+        final JSONObject tree = new JSONObject("{\"a\":[1,{\"b\":\"c\"}],\"d\":null}");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryJsonWriter(out).value(tree);
+        assertArrayEquals(new byte[] { 0x07, 0x05, 1, 'a', 0x08, 0x03, 0x02,
+            0x07, 0x05, 1, 'b', 0x05, 1, 'c', 0x09, 0x09, 0x05, 1, 'd', 0x00,
+            0x09 }, out.toByteArray());
+    }
+
+    @Test
+    public void testSequence() throws JSONException {
+        try {
+            new BinaryJsonWriter(new ByteArrayOutputStream()).object().value(1);
+            fail("Expected value without key to fail");
+        } catch (JSONException expected) {
+            // expected
+        }
+        try {
+            new BinaryJsonWriter(new ByteArrayOutputStream()).array().key("a");
+            fail("Expected key in array to fail");
+        } catch (JSONException expected) {
+            // expected
+        }
+        try {
+            new BinaryJsonWriter(new ByteArrayOutputStream()).array().endObject();
+            fail("Expected unbalanced end to fail");
+        } catch (JSONException expected) {
+            // expected
+        }
+        try {
+            new BinaryJsonWriter(new ByteArrayOutputStream()).value(1).value(2);
+            fail("Expected second top level value to fail");
+        } catch (JSONException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * Writes the same resources as text and binary JSON.
+     */
+    @Test
+    public void testResources() throws JSONException {
+        final int entries = 1000;
+        final String[] names = new String[entries];
+        final Calendar date = Calendar.getInstance();
+        for (int i = 0; i < entries; i++) {
+            names[i] = "entry-" + i;
+        }
+
+        final StringWriter text = new StringWriter();
+        write(new JSONWriter(text), names, date, true);
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        write(new BinaryJsonWriter(binary), names, date, false);
+
+        // a single object, which is smaller than the text
+        final byte[] bytes = binary.toByteArray();
+        assertEquals(0x07, bytes[0]);
+        assertEquals(0x09, bytes[bytes.length - 1]);
+        assertTrue(bytes.length < text.getBuffer().length());
+    }
+
+    static void write(JSONWriter w, String[] names, Calendar date,
+            boolean text) throws JSONException {
+        w.object();
+        w.key("jcr:primaryType").value("nt:unstructured");
+        for (int i = 0; i < names.length; i++) {
+            w.key(names[i]).object();
+            w.key("jcr:primaryType").value("nt:unstructured");
+            w.key("title").value("Entry \"" + i + "\"");
+            w.key("index").value(i);
+            w.key("ratio").value(i / 3.0);
+            if (text) {
+                w.key("jcr:created").value(JsonResourceWriter.format(date));
+            } else {
+                w.key("jcr:created");
+                ((BinaryJsonWriter) w).value(date);
+            }
+            w.key("tags").value(new JSONArray().put("a").put("b"));
+            w.endObject();
+        }
+        w.endObject();
+    }
+}
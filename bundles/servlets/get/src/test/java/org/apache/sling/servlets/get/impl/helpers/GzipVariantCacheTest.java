@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GzipVariantCacheTest {
+
+    private static final String[] TYPES = { "text/*", "application/json",
+        "*+xml" };
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("gzip", ".test");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testIsCompressible() {
+        final GzipVariantCache gzip = new GzipVariantCache(null, 0, 100, TYPES);
+        assertFalse(gzip.isCaching());
+
+        assertTrue(gzip.isCompressible("text/html", 100));
+        assertTrue(gzip.isCompressible("text/plain; charset=UTF-8", -1));
+        assertTrue(gzip.isCompressible("application/json", 1000));
+        assertTrue(gzip.isCompressible("application/atom+xml", 1000));
+        assertFalse(gzip.isCompressible("image/png", 1000));
+        assertFalse(gzip.isCompressible(null, 1000));
+
+        // too small to be worth compressing
+        assertFalse(gzip.isCompressible("text/html", 99));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertFalse(GzipVariantCache.acceptsGzip(request(null)));
+        assertTrue(GzipVariantCache.acceptsGzip(request("gzip, deflate")));
+        assertTrue(GzipVariantCache.acceptsGzip(request("deflate, x-gzip")));
+        assertTrue(GzipVariantCache.acceptsGzip(request("*")));
+        assertFalse(GzipVariantCache.acceptsGzip(request("deflate")));
+        assertFalse(GzipVariantCache.acceptsGzip(request("gzip;q=0")));
+        assertFalse(GzipVariantCache.acceptsGzip(request("*, gzip;q=0.0")));
+        assertTrue(GzipVariantCache.acceptsGzip(request("*;q=0, gzip;q=0.5")));
+    }
+
+    @Test
+    public void testWriteVariant() throws IOException {
+        final GzipVariantCache gzip = new GzipVariantCache(directory, 100000,
+            0, TYPES);
+        final byte[] content = content(10000);
+        assertNull(gzip.openVariant("a"));
+
+        // the variant is sent while it is cached
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gzip.writeVariant("a", new ByteArrayInputStream(content), out);
+        assertTrue(Arrays.equals(content, read(new ByteArrayInputStream(out.toByteArray()))));
+        assertEquals(1, directory.listFiles().length);
+
+        // the cached variant is used without reading the content again
+        assertTrue(Arrays.equals(content, read(gzip.openVariant("a"))));
+
+        gzip.clear();
+        assertNull(gzip.openVariant("a"));
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testSameContentSharesVariant() throws IOException {
+        final GzipVariantCache gzip = new GzipVariantCache(directory, 100000,
+            0, TYPES);
+        write(gzip, "a", content(5000));
+        write(gzip, "b", content(5000));
+        assertEquals(1, directory.listFiles().length);
+        assertTrue(Arrays.equals(content(5000), read(gzip.openVariant("b"))));
+
+        // the modified content of a gets its own variant, b keeps the old
+        write(gzip, "a", content(6000));
+        assertEquals(2, directory.listFiles().length);
+        assertTrue(Arrays.equals(content(6000), read(gzip.openVariant("a"))));
+        assertTrue(Arrays.equals(content(5000), read(gzip.openVariant("b"))));
+
+        // the old content is removed once no key refers to it
+        write(gzip, "b", content(6000));
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        // random content hardly compresses, each variant exceeds 5000 bytes
+        final GzipVariantCache gzip = new GzipVariantCache(directory, 12000,
+            0, TYPES);
+        write(gzip, "a", content(5000));
+        write(gzip, "b", content(5001));
+        assertEquals(2, directory.listFiles().length);
+
+        // using a makes b the least recently used variant
+        read(gzip.openVariant("a"));
+        write(gzip, "c", content(5002));
+        assertEquals(2, directory.listFiles().length);
+        assertNull(gzip.openVariant("b"));
+        assertEquals(5000, read(gzip.openVariant("a")).length);
+        assertEquals(5002, read(gzip.openVariant("c")).length);
+
+        // variants larger than the cache are sent but not kept
+        final byte[] large = content(20000);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gzip.writeVariant("d", new ByteArrayInputStream(large), out);
+        assertTrue(Arrays.equals(large, read(new ByteArrayInputStream(out.toByteArray()))));
+        assertNull(gzip.openVariant("d"));
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    private void write(GzipVariantCache gzip, String key, byte[] content)
+            throws IOException {
+        gzip.writeVariant(key, new ByteArrayInputStream(content),
+            new ByteArrayOutputStream());
+    }
+
+    private byte[] content(int length) {
+        final byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private byte[] read(InputStream variant) throws IOException {
+        final InputStream in = new GZIPInputStream(variant);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[1024];
+            int rd;
+            while ((rd = in.read(buf)) >= 0) {
+                out.write(buf, 0, rd);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private MockSlingHttpServletRequest request(final String acceptEncoding) {
+        return new MockSlingHttpServletRequest("/content", null, "html", null,
+            null) {
+            @Override
+            public String getHeader(String name) {
+                return GzipVariantCache.HEADER_ACCEPT_ENCODING.equals(name)
+                        ? acceptEncoding
+                        : null;
+            }
+        };
+    }
+}
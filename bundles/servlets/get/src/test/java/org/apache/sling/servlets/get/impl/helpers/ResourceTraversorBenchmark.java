@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Writer;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.commons.json.io.JSONWriter;
+import org.apache.sling.servlets.get.impl.helpers.ResourceTraversorTest.IndexedResourceResolver;
+import org.junit.Test;
+
+/**
+ * Memory benchmark rendering a tree of 100k nodes collected in memory and
+ * streamed. The streamed rendering only keeps the current path while the
+ * collected rendering keeps the complete tree.
+ * <p>
+ * The benchmark is not run with the unit tests, run it with
+ * <code>mvn test -Pbenchmarks</code>.
+ */
+public class ResourceTraversorBenchmark {
+
+    @Test
+    public void testLargeTreeMemory() throws Exception {
+        final IndexedResourceResolver resolver = new IndexedResourceResolver();
+        final Resource root = resolver.add("/root");
+        for (int i = 0; i < 100; i++) {
+            final String parent = "/root/" + i;
+            resolver.add(parent);
+            for (int j = 0; j < 999; j++) {
+                resolver.add(parent + "/" + j);
+            }
+        }
+
+        final long baseline = usedHeap();
+
+        // collecting recurses once per node, which requires a large stack
+        final MemorySamplingWriter collectedOut = new MemorySamplingWriter(Long.MAX_VALUE);
+        final Exception[] failure = new Exception[1];
+        final Thread collector = new Thread(null, new Runnable() {
+            public void run() {
+                try {
+                    final ResourceTraversor collected = new ResourceTraversor(-1, 200000, root, false);
+                    collected.collectResources();
+                    collectedOut.sample();
+                    collectedOut.write(collected.getJSONObject().toString());
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        }, "collector", 256L << 20);
+        collector.start();
+        collector.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+
+        // measure half way through the output
+        final MemorySamplingWriter streamedOut = new MemorySamplingWriter(collectedOut.getLength() / 2);
+        final ResourceTraversor streamed = new ResourceTraversor(-1, 200000, root, false);
+        streamed.check();
+        streamed.writeResources(new JSONWriter(streamedOut));
+
+        assertEquals(100000, streamed.getCount());
+        assertEquals(collectedOut.getLength(), streamedOut.getLength());
+
+        System.out.println("ResourceTraversor 100k nodes: collected "
+            + ((collectedOut.getUsed() - baseline) >> 10) + "KB, streamed "
+            + ((streamedOut.getUsed() - baseline) >> 10) + "KB heap retained, output "
+            + (streamedOut.getLength() >> 10) + "KB");
+    }
+
+    private static long usedHeap() {
+        final Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Writer discarding the output but counting the characters and measuring
+     * the used heap once the given number of characters has been written.
+     */
+    private static class MemorySamplingWriter extends Writer {
+
+        private final long sampleAt;
+
+        private long length;
+
+        private long used;
+
+        MemorySamplingWriter(long sampleAt) {
+            this.sampleAt = sampleAt;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            if (length < sampleAt && length + len >= sampleAt) {
+                sample();
+            }
+            length += len;
+        }
+
+        void sample() {
+            used = usedHeap();
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        long getUsed() {
+            return used;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
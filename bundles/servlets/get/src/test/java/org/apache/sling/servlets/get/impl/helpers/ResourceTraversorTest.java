@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.request.RecursionTooDeepException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.commons.json.io.JSONWriter;
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockResourceResolver;
+import org.junit.Test;
+
+public class ResourceTraversorTest {
+
+    @Test
+    public void testCheckMatchesCollect() throws Exception {
+        final IndexedResourceResolver resolver = new IndexedResourceResolver();
+        final Resource root = resolver.add("/root");
+        createTree(resolver, "/root", 4, 4);
+
+        for (int levels : new int[] { -1, 0, 1, 2, 3, 4, 5 }) {
+            for (long max : new long[] { 0, 3, 4, 5, 19, 20, 21, 84, 339, 340, 1000 }) {
+                assertEquals("levels=" + levels + ", max=" + max,
+                    collect(root, levels, max), check(root, levels, max));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingMatchesCollected() throws Exception {
+        final IndexedResourceResolver resolver = new IndexedResourceResolver();
+        final Resource root = resolver.add("/root");
+        createTree(resolver, "/root", 3, 3);
+
+        for (int levels : new int[] { -1, 0, 1, 2, 5 }) {
+            final ResourceTraversor collected = new ResourceTraversor(levels, 1000, root, false);
+            collected.collectResources();
+
+            final ResourceTraversor streamed = new ResourceTraversor(levels, 1000, root, false);
+            streamed.check();
+            final StringWriter out = new StringWriter();
+            streamed.writeResources(new JSONWriter(out));
+
+            assertEquals(collected.getJSONObject().toString(), out.toString());
+        }
+    }
+
+    @Test
+    public void testDepth() throws Exception {
+        final IndexedResourceResolver resolver = new IndexedResourceResolver();
+        final Resource root = resolver.add("/root");
+        createTree(resolver, "/root", 2, 3);
+
+        assertEquals(3, check(root, -1, 1000, true));
+        assertEquals(2, check(root, 2, 1000, true));
+        assertEquals(1, check(root, 1, 1000, true));
+        assertEquals(0, check(root, 0, 1000, true));
+    }
+
+    @Test
+    public void testCheckListsChildrenOnce() throws Exception {
+        final IndexedResourceResolver resolver = new IndexedResourceResolver();
+        final Resource root = resolver.add("/root");
+        createTree(resolver, "/root", 4, 4);
+
+        final ResourceTraversor traversor = new ResourceTraversor(-1, 1000, root, false);
+        traversor.check();
+        assertEquals(340, traversor.getCount());
+        assertEquals(4, traversor.getDepth());
+        // the root and each of its 340 descendants
+        assertEquals(341, resolver.listed);
+    }
+
+    private String collect(Resource root, int levels, long max) throws Exception {
+        try {
+            new ResourceTraversor(levels, max, root, false).collectResources();
+            return "ok";
+        } catch (RecursionTooDeepException e) {
+            return e.getMessage();
+        }
+    }
+
+    private String check(Resource root, int levels, long max) throws Exception {
+        try {
+            new ResourceTraversor(levels, max, root, false).check();
+            return "ok";
+        } catch (RecursionTooDeepException e) {
+            return e.getMessage();
+        }
+    }
+
+    private int check(Resource root, int levels, long max, boolean depth) throws Exception {
+        final ResourceTraversor traversor = new ResourceTraversor(levels, max, root, false);
+        traversor.check();
+        return traversor.getDepth();
+    }
+
+    private void createTree(IndexedResourceResolver resolver, String path,
+            int width, int depth) {
+        if (depth > 0) {
+            for (int i = 0; i < width; i++) {
+                final String child = path + "/" + i;
+                resolver.add(child);
+                createTree(resolver, child, width, depth - 1);
+            }
+        }
+    }
+
+    /**
+     * Resource resolver keeping the children of each resource to list
+     * children of large trees without scanning all resources.
+     */
+    static class IndexedResourceResolver extends MockResourceResolver {
+
+        private final Map<String, List<Resource>> children = new HashMap<String, List<Resource>>();
+
+        /** The number of calls to listChildren */
+        int listed;
+
+        Resource add(String path) {
+            final Resource resource = new MockResource(this, path, ResourceUtil.getName(path));
+            addResource(resource);
+            final String parent = ResourceUtil.getParent(path);
+            if (parent != null) {
+                List<Resource> list = children.get(parent);
+                if (list == null) {
+                    list = new ArrayList<Resource>();
+                    children.put(parent, list);
+                }
+                list.add(resource);
+            }
+            return resource;
+        }
+
+        @Override
+        public Iterator<Resource> listChildren(Resource parent) {
+            listed++;
+            final List<Resource> list = children.get(parent.getPath());
+            if (list == null) {
+                return new ArrayList<Resource>().iterator();
+            }
+            return list.iterator();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import junitx.util.PrivateAccessor;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockResourceResolver;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletResponse;
+import org.junit.Test;
+
+public class StreamRendererServletTest {
+
+    @Test
+    public void testETag() {
+        final ResourceMetadata meta = new ResourceMetadata();
+        assertNull(StreamRendererServlet.getETag(meta));
+
+        meta.setModificationTime(0x1000);
+        meta.setContentLength(0xff);
+        assertEquals("\"ff-1000\"", StreamRendererServlet.getETag(meta));
+
+        // a change of either the size or the time changes the tag
+        meta.setContentLength(0xfe);
+        assertEquals("\"fe-1000\"", StreamRendererServlet.getETag(meta));
+        meta.setModificationTime(0x1001);
+        assertEquals("\"fe-1001\"", StreamRendererServlet.getETag(meta));
+
+        // the compressed variant has its own tag
+        assertEquals("\"fe-1001-gzip\"", StreamRendererServlet.getGzipETag(
+            StreamRendererServlet.getETag(meta)));
+    }
+
+    @Test
+    public void testMatches() {
+        final String etag = "\"ff-1000\"";
+
+        assertTrue(StreamRendererServlet.matches("\"ff-1000\"", etag, true));
+        assertTrue(StreamRendererServlet.matches("\"a\", \"ff-1000\"", etag, true));
+        assertTrue(StreamRendererServlet.matches("*", etag, true));
+        assertTrue(StreamRendererServlet.matches("*", null, false));
+        assertFalse(StreamRendererServlet.matches("\"a\", \"b\"", etag, false));
+        assertFalse(StreamRendererServlet.matches("\"ff-1000\"", null, false));
+
+        // weak tags only match with the weak comparison function
+        assertTrue(StreamRendererServlet.matches("W/\"ff-1000\"", etag, false));
+        assertFalse(StreamRendererServlet.matches("W/\"ff-1000\"", etag, true));
+    }
+
+    @Test
+    public void testJsonIndex() throws Throwable {
+        assertEquals("{\"offset\":0,\"limit\":2,\"children\":[\"0\",\"1\"],"
+            + "\"next\":\"?offset=2&limit=2&format=json\"}",
+            renderIndex("format", "json").getOutput().toString());
+        assertEquals("{\"offset\":2,\"limit\":2,\"children\":[\"2\",\"3\"],"
+            + "\"next\":\"?offset=4&limit=2&format=json\"}",
+            renderIndex("format", "json", "offset", "2").getOutput().toString());
+
+        // the last page has no next page
+        assertEquals("{\"offset\":4,\"limit\":2,\"children\":[\"4\"]}",
+            renderIndex("format", "json", "offset", "4").getOutput().toString());
+        assertEquals("{\"offset\":9,\"limit\":1,\"children\":[]}",
+            renderIndex("format", "json", "offset", "9", "limit", "1").getOutput().toString());
+    }
+
+    @Test
+    public void testIndexLimit() throws Throwable {
+        // the limit is capped by the page size
+        assertEquals("{\"offset\":3,\"limit\":2,\"children\":[\"3\",\"4\"]}",
+            renderIndex("format", "json", "offset", "3", "limit", "10").getOutput().toString());
+        assertEquals("{\"offset\":0,\"limit\":1,\"children\":[\"0\"],"
+            + "\"next\":\"?offset=1&limit=1&format=json\"}",
+            renderIndex("format", "json", "limit", "1").getOutput().toString());
+
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST,
+            renderIndex("limit", "0").error);
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST,
+            renderIndex("offset", "-1").error);
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST,
+            renderIndex("offset", "first").error);
+    }
+
+    @Test
+    public void testHtmlIndex() throws Throwable {
+        final String first = renderIndex().getOutput().toString();
+        assertTrue(first, first.contains("<a href='0/'>"));
+        assertTrue(first, first.contains("<a href='1/'>"));
+        assertFalse(first, first.contains("<a href='2/'>"));
+        assertFalse(first, first.contains("Previous page"));
+        assertTrue(first, first.contains("<a href='?offset=2&limit=2'>Next page</a>"));
+
+        final String last = renderIndex("offset", "3").getOutput().toString();
+        assertFalse(last, last.contains("<a href='2/'>"));
+        assertTrue(last, last.contains("<a href='4/'>"));
+        assertTrue(last, last.contains("<a href='?offset=1&limit=2'>Previous page</a>"));
+        assertFalse(last, last.contains("Next page"));
+    }
+
+    /**
+     * Renders the index of a folder with five child folders with a page size of
+     * two and the given request parameter names and values.
+     */
+    private IndexResponse renderIndex(String... parameters) throws Throwable {
+        final MockResourceResolver resolver = new MockResourceResolver();
+        final Resource folder = new MockResource(resolver, "/folder", "folder");
+        resolver.addResource(folder);
+        for (int i = 0; i < 5; i++) {
+            resolver.addResource(new MockResource(resolver, "/folder/" + i, "folder") {
+                @Override
+                public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+                    // folders have no content
+                    return null;
+                }
+            });
+        }
+
+        final Map<String, String> values = new HashMap<String, String>();
+        for (int i = 0; i < parameters.length; i += 2) {
+            values.put(parameters[i], parameters[i + 1]);
+        }
+        final MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(
+            "/folder/", null, null, null, null) {
+            @Override
+            public String getParameter(String name) {
+                return values.get(name);
+            }
+        };
+        request.setResourceResolver(resolver);
+        request.setResource(folder);
+
+        final IndexResponse response = new IndexResponse();
+        PrivateAccessor.invoke(new StreamRendererServlet(true, new String[0], 2, null),
+            "renderIndex", new Class[] { SlingHttpServletRequest.class,
+                Resource.class, SlingHttpServletResponse.class },
+            new Object[] { request, folder, response });
+        return response;
+    }
+
+    /**
+     * Response recording the status of errors sent.
+     */
+    private static class IndexResponse extends MockSlingHttpServletResponse {
+
+        int error;
+
+        @Override
+        public void sendError(int status) {
+            this.error = status;
+        }
+
+        @Override
+        public void sendError(int status, String message) {
+            this.error = status;
+        }
+    }
+}
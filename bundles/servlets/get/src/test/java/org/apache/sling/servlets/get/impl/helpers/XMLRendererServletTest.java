@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyIterator;
+import javax.jcr.Session;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockResourceResolver;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletResponse;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xml.sax.ContentHandler;
+
+@RunWith(JMock.class)
+public class XMLRendererServletTest {
+
+    private final Mockery context = new JUnit4Mockery();
+
+    private MockResourceResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        final Node node = context.mock(Node.class);
+        final Session session = context.mock(Session.class);
+        final PropertyIterator properties = context.mock(PropertyIterator.class);
+        final NodeIterator children = context.mock(NodeIterator.class);
+        context.checking(new Expectations() {{
+            allowing(node).getSession(); will(returnValue(session));
+            allowing(node).getDepth(); will(returnValue(2));
+            allowing(node).getName(); will(returnValue("tree"));
+            allowing(node).hasProperty(with(any(String.class))); will(returnValue(false));
+            allowing(node).getProperties(); will(returnValue(properties));
+            allowing(node).getNodes(); will(returnValue(children));
+            allowing(session).getNamespacePrefixes(); will(returnValue(new String[0]));
+            allowing(properties).hasNext(); will(returnValue(false));
+            allowing(children).hasNext(); will(returnValue(false));
+        }});
+
+        // more resources than the maximum number of results
+        resolver = new MockResourceResolver();
+        resolver.addResource(new MockResource(resolver, "/content/tree", "tree") {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+                if (type == Node.class) {
+                    return (AdapterType) node;
+                }
+                return super.adaptTo(type);
+            }
+        });
+        for (int i = 0; i < 300; i++) {
+            resolver.addResource(new MockResource(resolver, "/content/tree/" + i, "child"));
+        }
+    }
+
+    @Test
+    public void testAllLevelsByDefaultLimited() throws Exception {
+        final RecordingResponse response = get(null);
+        assertEquals(HttpServletResponse.SC_MULTIPLE_CHOICES, response.status);
+        assertTrue(response.getXml(), response.getXml().contains(
+            "<choice>/content/tree.0.xml</choice>"));
+        assertEquals(HttpServletResponse.SC_MULTIPLE_CHOICES, get("docview").status);
+    }
+
+    @Test
+    public void testLevelSelectorLimited() throws Exception {
+        assertEquals(HttpServletResponse.SC_MULTIPLE_CHOICES, get("infinity").status);
+        assertEquals(HttpServletResponse.SC_MULTIPLE_CHOICES, get("docview.2").status);
+        final RecordingResponse response = get("1");
+        assertEquals(HttpServletResponse.SC_OK, response.status);
+        assertTrue(response.getXml(), response.getXml().contains("<tree"));
+    }
+
+    private RecordingResponse get(String selectors) throws Exception {
+        final MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(
+            "/content/tree", selectors, "xml", null, null);
+        request.setMethod("GET");
+        request.setResourceResolver(resolver);
+        request.setResource(resolver.getResource("/content/tree"));
+
+        final RecordingResponse response = new RecordingResponse();
+        new XMLRendererServlet(200).doGet(request, response);
+        return response;
+    }
+
+    /**
+     * Response recording the status and serializing the XML rendered to its
+     * content handler.
+     */
+    private static class RecordingResponse extends MockSlingHttpServletResponse {
+
+        private final StringWriter xml = new StringWriter();
+
+        int status = HttpServletResponse.SC_OK;
+
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+            if (type == ContentHandler.class) {
+                try {
+                    final TransformerHandler th = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+                    th.setResult(new StreamResult(xml));
+                    return (AdapterType) th;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return super.adaptTo(type);
+        }
+
+        String getXml() {
+            return xml.toString();
+        }
+    }
+}
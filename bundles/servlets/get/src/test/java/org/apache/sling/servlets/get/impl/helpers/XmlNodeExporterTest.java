@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.nodetype.PropertyDefinition;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class XmlNodeExporterTest {
+
+    private final Mockery context = new JUnit4Mockery();
+
+    @Test
+    public void testEncodeName() {
+        assertEquals("content", XmlNodeExporter.encodeName("content"));
+        assertEquals("jcr:content", XmlNodeExporter.encodeName("jcr:content"));
+        assertEquals("my_x0020_node", XmlNodeExporter.encodeName("my node"));
+        assertEquals("_x0031_23", XmlNodeExporter.encodeName("123"));
+        assertEquals("sling:_x0031_", XmlNodeExporter.encodeName("sling:1"));
+
+        // underscores starting an escape sequence are escaped themselves
+        assertEquals("a_x005f_x0020_", XmlNodeExporter.encodeName("a_x0020_"));
+        assertEquals("a_b", XmlNodeExporter.encodeName("a_b"));
+    }
+
+    @Test
+    public void testEncodeBase64() {
+        assertEquals("TWFu", encode("Man"));
+        assertEquals("TWE=", encode("Ma"));
+        assertEquals("TQ==", encode("M"));
+        assertEquals("", encode(""));
+        assertEquals("TWFueSBoYW5kcw==", encode("Many hands"));
+        assertEquals("TWFueSBoYW5kcyBtYWtl", encode("Many hands make"));
+    }
+
+    @Test
+    public void testBinaries() throws Exception {
+        final Node node = context.mock(Node.class);
+        final Session session = context.mock(Session.class);
+        final Property prop = context.mock(Property.class);
+        final PropertyDefinition def = context.mock(PropertyDefinition.class);
+        final Value value = context.mock(Value.class);
+        final PropertyIterator properties = context.mock(PropertyIterator.class);
+        final NodeIterator children = context.mock(NodeIterator.class);
+        context.checking(new Expectations() {{
+            allowing(node).getSession(); will(returnValue(session));
+            allowing(node).getDepth(); will(returnValue(1));
+            allowing(node).getName(); will(returnValue("file"));
+            allowing(node).hasProperty(with(any(String.class))); will(returnValue(false));
+            allowing(node).getProperties(); will(returnValue(properties));
+            allowing(node).getNodes(); will(returnValue(children));
+            allowing(session).getNamespacePrefixes(); will(returnValue(new String[0]));
+            allowing(properties).hasNext(); will(onConsecutiveCalls(
+                returnValue(true), returnValue(false),
+                returnValue(true), returnValue(false)));
+            allowing(properties).nextProperty(); will(returnValue(prop));
+            allowing(children).hasNext(); will(returnValue(false));
+            allowing(prop).getName(); will(returnValue("data"));
+            allowing(prop).getType(); will(returnValue(PropertyType.BINARY));
+            allowing(prop).getDefinition(); will(returnValue(def));
+            allowing(prop).getValue(); will(returnValue(value));
+            allowing(def).isMultiple(); will(returnValue(false));
+            allowing(value).getType(); will(returnValue(PropertyType.BINARY));
+            // only the system view reads the binary
+            oneOf(value).getStream(); will(returnValue(new ByteArrayInputStream("Man".getBytes())));
+        }});
+
+        // the document view does not contain the binary data
+        assertTrue(export(node, false).contains("<file data=\"\"/>"));
+        assertTrue(export(node, true).contains(">TWFu</sv:value>"));
+    }
+
+    private String export(Node node, boolean systemView) throws Exception {
+        final StringWriter xml = new StringWriter();
+        final TransformerHandler th = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+        th.setResult(new StreamResult(xml));
+        new XmlNodeExporter(-1, systemView).export(node, th);
+        return xml.toString();
+    }
+
+    private String encode(String text) {
+        final byte[] bytes = text.getBytes();
+        final char[] chars = new char[(bytes.length + 2) / 3 * 4];
+        final int len = XmlNodeExporter.encodeBase64(bytes, bytes.length, chars);
+        assertEquals(chars.length, len);
+        return new String(chars, 0, len);
+    }
+}
@@ -334,6 +334,11 @@ public abstract class AbstractPostOperation implements PostOperation {
      * syntax is supported: <xmp> | first | before all child nodes | before A |
      * before child node A | after A | after child node A | last | after all
      * nodes | N | at a specific position, N being an integer </xmp>
+     * <p>
+     * The node is moved with a single <code>orderBefore</code> call, the
+     * siblings being only read up to the node to order after or the
+     * position, such that ordering a node near the top of a large folder
+     * does not read all its child nodes.
      *
      * @param item node to order
      * @throws RepositoryException if an error occurs
@@ -352,6 +357,7 @@ public abstract class AbstractPostOperation implements PostOperation {
         }
 
         Node parent = item.getParent();
+        String name = item.getName();
 
         String next = null;
         if (command.equals(SlingPostConstants.ORDER_FIRST)) {
@@ -368,41 +374,27 @@ public abstract class AbstractPostOperation implements PostOperation {
 
         } else if (command.startsWith(SlingPostConstants.ORDER_AFTER)) {
 
-            String name = command.substring(SlingPostConstants.ORDER_AFTER.length());
+            String after = command.substring(SlingPostConstants.ORDER_AFTER.length());
             NodeIterator iter = parent.getNodes();
             while (iter.hasNext()) {
-                Node n = iter.nextNode();
-                if (n.getName().equals(name)) {
-                    if (iter.hasNext()) {
-                        next = iter.nextNode().getName();
-                    } else {
-                        next = "";
-                    }
+                if (iter.nextNode().getName().equals(after)) {
+                    next = nextSibling(iter, name);
+                    break;
                 }
             }
 
         } else {
             // check for integer
             try {
-                // 01234
-                // abcde move a -> 2 (above 3)
-                // bcade move a -> 1 (above 1)
-                // bacde
+                // the position counts the siblings other than the node
                 int newPos = Integer.parseInt(command);
                 next = "";
                 NodeIterator iter = parent.getNodes();
-                while (iter.hasNext() && newPos >= 0) {
-                    Node n = iter.nextNode();
-                    if (n.getName().equals(item.getName())) {
-                        // if old node is found before index, need to
-                        // inc index
-                        newPos++;
-                    }
-                    if (newPos == 0) {
-                        next = n.getName();
+                for (int pos = 0; pos <= newPos; pos++) {
+                    next = nextSibling(iter, name);
+                    if (next.length() == 0) {
                         break;
                     }
-                    newPos--;
                 }
             } catch (NumberFormatException e) {
                 throw new IllegalArgumentException(
@@ -414,7 +406,7 @@ public abstract class AbstractPostOperation implements PostOperation {
             if (next.equals("")) {
                 next = null;
             }
-            parent.orderBefore(item.getName(), next);
+            parent.orderBefore(name, next);
             changes.add(Modification.onOrder(item.getPath(), next));
             if (log.isDebugEnabled()) {
                 log.debug("Node {} moved '{}'", item.getPath(), command);
@@ -425,6 +417,21 @@ public abstract class AbstractPostOperation implements PostOperation {
         }
     }
 
+    /**
+     * Returns the name of the next node of the iterator other than the node
+     * with the given name or an empty string if there is none.
+     */
+    private String nextSibling(NodeIterator iter, String name)
+            throws RepositoryException {
+        while (iter.hasNext()) {
+            String next = iter.nextNode().getName();
+            if (!next.equals(name)) {
+                return next;
+            }
+        }
+        return "";
+    }
+
     protected Node findVersionableAncestor(Node node) throws RepositoryException {
         if (isVersionable(node)) {
             return node;
@@ -155,6 +155,33 @@ public interface SlingPostConstants {
      */
     public static final String OPERATION_IMPORT = "import";
 
+    /**
+     * Name of the predefined job status operation (value is "jobstatus").
+     * <p>
+     * The job status operation requires the {@link #RP_JOB} request parameter
+     * naming a job started by an {@link #RP_ASYNC asynchronous} copy, delete
+     * or move operation. The response status is 202/ACCEPTED while the job is
+     * queued or running, 200/OK once it has succeeded and 500 if it failed.
+     * The number of nodes processed so far and the throughput of the job are
+     * reported as a change of type "job".
+     *
+     * @since 2.2.0
+     */
+    public static final String OPERATION_JOB_STATUS = "jobstatus";
+
+    /**
+     * Name of the predefined batch operation (value is "batch").
+     * <p>
+     * The batch operation executes a JSON array of entries, each naming the
+     * path, operation and properties of another operation, and saves their
+     * changes together. The array is taken from the {@link #RP_CONTENT} or
+     * {@link #RP_CONTENT_FILE} request parameter or a request body of type
+     * application/json.
+     *
+     * @since 2.2.0
+     */
+    public static final String OPERATION_BATCH = "batch";
+
     /**
      * Name of the request parameter used to indicate the resource to apply the
      * operation to (value is ":applyTo").
@@ -193,6 +220,27 @@ public interface SlingPostConstants {
      */
     public static final String RP_REPLACE_PROPERTIES = RP_PREFIX + "replaceProperties";
 
+    /**
+     * Optional request parameter indicating whether a copy, delete or move
+     * operation is to be run in the background (value is ":async"). If the
+     * parameter is set to the case-insignificant value true, the operation
+     * responds with 202/ACCEPTED and the id of the started job, reported as a
+     * change of type "job", and saves its changes in batches while running.
+     * The {@link #RP_ORDER} parameter is ignored for background operations.
+     *
+     * @see #OPERATION_JOB_STATUS
+     * @since 2.2.0
+     */
+    public static final String RP_ASYNC = RP_PREFIX + "async";
+
+    /**
+     * Name of the request parameter naming the job whose status is requested
+     * by the {@link #OPERATION_JOB_STATUS} operation (value is ":job").
+     *
+     * @since 2.2.0
+     */
+    public static final String RP_JOB = RP_PREFIX + "job";
+
     /**
      * Optional request parameter indicating the order of newly created nodes in
      * creation, copy and move operation requests (value is ":order").
@@ -441,6 +489,49 @@ public interface SlingPostConstants {
      */
     public static final char PATCH_REMOVE = '-';
 
+    /**
+     * Suffix indicating that the uploaded file is a chunk of a chunked upload
+     * identified by the parameter's value (value is "@UploadId"). The first
+     * chunk is sent with an empty value, which starts a new upload. The id
+     * of the upload is generated by the server and returned as the
+     * <code>upload</code> change of the response, whose arguments are the
+     * property path and the id, and is sent with the following chunks.
+     * Uploads are private to the user starting them.
+     * <p>
+     * The chunks are kept in a temporary store until they cover the
+     * {@link #SUFFIX_LENGTH length} of the file. The request completing the
+     * file writes it to the repository in one go, requests only sending
+     * other chunks do not modify the repository. Chunks may be sent in any
+     * order and in parallel and a chunk sent again replaces the chunk with
+     * the same offset, so a failed upload is resumed by sending the chunks
+     * not acknowledged yet. The size of chunks, the total size of the
+     * stored chunks and the number of uploads in progress are limited.
+     *
+     * @see #SUFFIX_OFFSET
+     * @see #SUFFIX_LENGTH
+     * @since 2.2.0
+     */
+    public static final String SUFFIX_UPLOAD_ID = "@UploadId";
+
+    /**
+     * Suffix indicating the offset in bytes of the chunk of a chunked upload
+     * in the complete file (value is "@Offset"). Defaults to 0.
+     *
+     * @see #SUFFIX_UPLOAD_ID
+     * @since 2.2.0
+     */
+    public static final String SUFFIX_OFFSET = "@Offset";
+
+    /**
+     * Suffix indicating the length in bytes of the complete file of a chunked
+     * upload (value is "@Length"). This parameter is required for chunked
+     * uploads.
+     *
+     * @see #SUFFIX_UPLOAD_ID
+     * @since 2.2.0
+     */
+    public static final String SUFFIX_LENGTH = "@Length";
+
     /**
      * Name of the request parameter containing the content to be imported
      * by the 'import' operation.
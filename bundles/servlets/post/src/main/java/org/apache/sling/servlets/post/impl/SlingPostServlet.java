@@ -16,6 +16,7 @@
  */
 package org.apache.sling.servlets.post.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -57,14 +58,18 @@ import org.apache.sling.servlets.post.VersioningConfiguration;
 import org.apache.sling.servlets.post.impl.helper.DateParser;
 import org.apache.sling.servlets.post.impl.helper.DefaultNodeNameGenerator;
 import org.apache.sling.servlets.post.impl.helper.MediaRangeList;
+import org.apache.sling.servlets.post.impl.helper.UploadChunkStore;
+import org.apache.sling.servlets.post.impl.operations.BatchOperation;
 import org.apache.sling.servlets.post.impl.operations.CheckinOperation;
 import org.apache.sling.servlets.post.impl.operations.CheckoutOperation;
 import org.apache.sling.servlets.post.impl.operations.CopyOperation;
 import org.apache.sling.servlets.post.impl.operations.DeleteOperation;
 import org.apache.sling.servlets.post.impl.operations.ImportOperation;
+import org.apache.sling.servlets.post.impl.operations.JobStatusOperation;
 import org.apache.sling.servlets.post.impl.operations.ModifyOperation;
 import org.apache.sling.servlets.post.impl.operations.MoveOperation;
 import org.apache.sling.servlets.post.impl.operations.NopOperation;
+import org.apache.sling.servlets.post.impl.operations.PostJobManager;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
@@ -137,8 +142,45 @@ public class SlingPostServlet extends SlingAllMethodsServlet {
     @Property(value = DEFAULT_IGNORED_PARAMETER_NAME_PATTERN)
     private static final String PROP_IGNORED_PARAMETER_NAME_PATTERN = "servlet.post.ignorePattern";
 
+    private static final int DEFAULT_IMPORT_SAVE_BATCH_SIZE = 0;
+
+    @Property(intValue = DEFAULT_IMPORT_SAVE_BATCH_SIZE)
+    private static final String PROP_IMPORT_SAVE_BATCH_SIZE = "servlet.post.importSaveBatchSize";
+
+    private static final int DEFAULT_BATCH_SAVE_SIZE = 0;
+
+    @Property(intValue = DEFAULT_BATCH_SAVE_SIZE)
+    private static final String PROP_BATCH_SAVE_SIZE = "servlet.post.batchSaveSize";
+
+    private static final int DEFAULT_JOB_SAVE_BATCH_SIZE = 1000;
+
+    @Property(intValue = DEFAULT_JOB_SAVE_BATCH_SIZE)
+    private static final String PROP_JOB_SAVE_BATCH_SIZE = "servlet.post.jobSaveBatchSize";
+
+    /**
+     * The time after which incomplete chunked uploads are removed, 24 hours.
+     */
+    private static final long UPLOAD_EXPIRY = 24L * 60 * 60 * 1000;
+
+    private static final long DEFAULT_UPLOAD_MAX_CHUNK_SIZE = 20L * 1024 * 1024;
+
+    @Property(longValue = DEFAULT_UPLOAD_MAX_CHUNK_SIZE)
+    private static final String PROP_UPLOAD_MAX_CHUNK_SIZE = "servlet.post.uploadMaxChunkSize";
+
+    private static final long DEFAULT_UPLOAD_MAX_SIZE = 1024L * 1024 * 1024;
+
+    @Property(longValue = DEFAULT_UPLOAD_MAX_SIZE)
+    private static final String PROP_UPLOAD_MAX_SIZE = "servlet.post.uploadMaxSize";
+
+    private static final int DEFAULT_UPLOAD_MAX_COUNT = 100;
+
+    @Property(intValue = DEFAULT_UPLOAD_MAX_COUNT)
+    private static final String PROP_UPLOAD_MAX_COUNT = "servlet.post.uploadMaxCount";
+
     private ModifyOperation modifyOperation;
 
+    private UploadChunkStore uploadChunkStore;
+
     private ServiceRegistration[] internalOperations;
 
     private final List<ServiceReference> delayedPostOperations = new ArrayList<ServiceReference>();
@@ -167,6 +209,10 @@ public class SlingPostServlet extends SlingAllMethodsServlet {
 
     private ImportOperation importOperation;
 
+    private PostJobManager jobManager;
+
+    private BatchOperation batchOperation;
+
     /**
      * The content importer reference.
      */
@@ -378,9 +424,23 @@ public class SlingPostServlet extends SlingAllMethodsServlet {
         modifyOperation = new ModifyOperation();
         modifyOperation.setExtraNodeNameGenerators(cachedNodeNameGenerators);
 
+        // keep the chunks of chunked uploads in the bundle data area
+        File uploads = context.getBundleContext().getDataFile("uploads");
+        if (uploads == null) {
+            uploads = new File(System.getProperty("java.io.tmpdir"),
+                "sling-post-uploads");
+        }
+        uploadChunkStore = new UploadChunkStore(uploads, UPLOAD_EXPIRY);
+        modifyOperation.setUploadChunkStore(uploadChunkStore);
+
         importOperation = new ImportOperation(contentImporter);
         importOperation.setExtraNodeNameGenerators(cachedNodeNameGenerators);
 
+        batchOperation = new BatchOperation(postOperations, modifyOperation);
+
+        // background copy, delete and move
+        jobManager = new PostJobManager();
+
         // configure now
         configure(configuration);
 
@@ -389,12 +449,18 @@ public class SlingPostServlet extends SlingAllMethodsServlet {
         final BundleContext bundleContext = componentContext.getBundleContext();
         providedServices.add(registerOperation(bundleContext,
             SlingPostConstants.OPERATION_MODIFY, modifyOperation));
+        final CopyOperation copyOperation = new CopyOperation();
+        copyOperation.setJobManager(jobManager);
         providedServices.add(registerOperation(bundleContext,
-            SlingPostConstants.OPERATION_COPY, new CopyOperation()));
+            SlingPostConstants.OPERATION_COPY, copyOperation));
+        final MoveOperation moveOperation = new MoveOperation();
+        moveOperation.setJobManager(jobManager);
         providedServices.add(registerOperation(bundleContext,
-            SlingPostConstants.OPERATION_MOVE, new MoveOperation()));
+            SlingPostConstants.OPERATION_MOVE, moveOperation));
+        final DeleteOperation deleteOperation = new DeleteOperation();
+        deleteOperation.setJobManager(jobManager);
         providedServices.add(registerOperation(bundleContext,
-            SlingPostConstants.OPERATION_DELETE, new DeleteOperation()));
+            SlingPostConstants.OPERATION_DELETE, deleteOperation));
         providedServices.add(registerOperation(bundleContext,
             SlingPostConstants.OPERATION_NOP, new NopOperation()));
         providedServices.add(registerOperation(bundleContext,
@@ -403,6 +469,11 @@ public class SlingPostServlet extends SlingAllMethodsServlet {
             SlingPostConstants.OPERATION_CHECKOUT, new CheckoutOperation()));
         providedServices.add(registerOperation(bundleContext,
             SlingPostConstants.OPERATION_IMPORT, importOperation));
+        providedServices.add(registerOperation(bundleContext,
+            SlingPostConstants.OPERATION_JOB_STATUS,
+            new JobStatusOperation(jobManager)));
+        providedServices.add(registerOperation(bundleContext,
+            SlingPostConstants.OPERATION_BATCH, batchOperation));
 
         internalOperations = providedServices.toArray(new ServiceRegistration[providedServices.size()]);
     }
@@ -444,6 +515,20 @@ public class SlingPostServlet extends SlingAllMethodsServlet {
         this.importOperation.setDefaultNodeNameGenerator(nodeNameGenerator);
         this.modifyOperation.setIgnoredParameterNamePattern(paramMatchPattern);
         this.importOperation.setIgnoredParameterNamePattern(paramMatchPattern);
+        this.importOperation.setSaveBatchSize((int) OsgiUtil.toLong(
+            configuration.get(PROP_IMPORT_SAVE_BATCH_SIZE),
+            DEFAULT_IMPORT_SAVE_BATCH_SIZE));
+        this.batchOperation.setSaveBatchSize((int) OsgiUtil.toLong(
+            configuration.get(PROP_BATCH_SAVE_SIZE), DEFAULT_BATCH_SAVE_SIZE));
+        this.jobManager.setSaveBatchSize((int) OsgiUtil.toLong(
+            configuration.get(PROP_JOB_SAVE_BATCH_SIZE),
+            DEFAULT_JOB_SAVE_BATCH_SIZE));
+        this.uploadChunkStore.setLimits(OsgiUtil.toLong(
+            configuration.get(PROP_UPLOAD_MAX_CHUNK_SIZE),
+            DEFAULT_UPLOAD_MAX_CHUNK_SIZE), OsgiUtil.toLong(
+            configuration.get(PROP_UPLOAD_MAX_SIZE), DEFAULT_UPLOAD_MAX_SIZE),
+            (int) OsgiUtil.toLong(configuration.get(PROP_UPLOAD_MAX_COUNT),
+                DEFAULT_UPLOAD_MAX_COUNT));
     }
 
     @Override
@@ -458,6 +543,10 @@ public class SlingPostServlet extends SlingAllMethodsServlet {
             }
             internalOperations = null;
         }
+        if (jobManager != null) {
+            jobManager.shutdown();
+            jobManager = null;
+        }
         modifyOperation = null;
         this.componentContext = null;
     }
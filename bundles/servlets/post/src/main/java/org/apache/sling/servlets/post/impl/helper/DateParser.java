@@ -16,13 +16,13 @@
  */
 package org.apache.sling.servlets.post.impl.helper;
 
-import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jcr.Value;
 import javax.jcr.ValueFactory;
@@ -34,6 +34,13 @@ import org.slf4j.LoggerFactory;
 /**
  * Takes a string representation of a time-date string and tries for parse it
  * using different formats.
+ * <p>
+ * The parser is thread-safe without locking: each thread parses with its
+ * own copies of the <code>SimpleDateFormat</code>s. The formats are always
+ * tried in the order of their registration, so the first registered format
+ * parsing a string wins even if strings of the same shape were parsed by a
+ * later format before. Recently parsed strings are cached, which serves
+ * imports repeating the same dates.
  */
 public class DateParser {
 
@@ -43,9 +50,20 @@ public class DateParser {
     private static final Logger log = LoggerFactory.getLogger(DateParser.class);
 
     /**
-     * lits of formats
+     * The number of strings remembered, the cache is cleared when growing
+     * beyond
      */
-    private final List<CalendarParserSupport> formats = new LinkedList<CalendarParserSupport>();
+    private static final int MAX_CACHE_SIZE = 1024;
+
+    /**
+     * lits of formats, replaced when registering a format
+     */
+    private volatile CalendarParserSupport[] formats = new CalendarParserSupport[0];
+
+    /**
+     * recently parsed strings
+     */
+    private final Map<String, Calendar> parsed = new ConcurrentHashMap<String, Calendar>();
 
     /**
      * Registers a format string to the list of internally checked ones.
@@ -53,38 +71,55 @@ public class DateParser {
      * @param format format as in {@link SimpleDateFormat}
      * @throws IllegalArgumentException if the format is not valid.
      */
-    public void register(String format) {
+    public synchronized void register(String format) {
         final CalendarParserSupport parser;
         if (Iso8601ParserSupport.FORMAT_MARKER.equalsIgnoreCase(format)) {
             parser = new Iso8601ParserSupport();
         } else {
             parser = new SimpleDateFormatParserSupport(format);
         }
-        formats.add(parser);
+        final CalendarParserSupport[] newFormats = new CalendarParserSupport[formats.length + 1];
+        System.arraycopy(formats, 0, newFormats, 0, formats.length);
+        newFormats[formats.length] = parser;
+        formats = newFormats;
+        parsed.clear();
     }
 
     /**
      * Parses the given source string and returns the respective calendar
      * instance. If no format matches returns <code>null</code>.
-     * <p/>
-     * Note: method is synchronized because SimpleDateFormat is not.
      *
      * @param source date time source string
      * @return calendar representation of the source or <code>null</code>
      */
-    public synchronized Calendar parse(String source) {
+    public Calendar parse(String source) {
+        Calendar c = parsed.get(source);
+        if (c == null) {
+            c = parseUncached(source);
+            if (c == null) {
+                return null;
+            }
+            if (parsed.size() >= MAX_CACHE_SIZE) {
+                parsed.clear();
+            }
+            parsed.put(source, c);
+        }
+        // callers may modify the returned calendar
+        return (Calendar) c.clone();
+    }
+
+    private Calendar parseUncached(String source) {
         for (CalendarParserSupport fmt : formats) {
-            try {
-                final Calendar c = fmt.parse(source);
+            final Calendar c = fmt.parse(source);
+            if (c != null) {
                 if (log.isDebugEnabled()) {
                     log.debug("Parsed " + source + " using " + fmt + " into "
                         + c);
                 }
                 return c;
-            } catch (ParseException e) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Failed parsing " + source + " using " + fmt);
-                }
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Failed parsing " + source + " using " + fmt);
             }
         }
         return null;
@@ -94,13 +129,11 @@ public class DateParser {
      * Parses the given source strings and returns the respective calendar
      * instances. If no format matches for any of the sources
      * returns <code>null</code>.
-     * <p/>
-     * Note: method is synchronized because SimpleDateFormat is not.
      *
      * @param sources date time source strings
      * @return calendar representations of the source or <code>null</code>
      */
-    public synchronized Calendar[] parse(String sources[]) {
+    public Calendar[] parse(String sources[]) {
         Calendar ret[] = new Calendar[sources.length];
         for (int i=0; i< sources.length; i++) {
             if ((ret[i] = parse(sources[i])) == null) {
@@ -114,14 +147,12 @@ public class DateParser {
      * Parses the given source strings and returns the respective jcr date value
      * instances. If no format matches for any of the sources
      * returns <code>null</code>.
-     * <p/>
-     * Note: method is synchronized because SimpleDateFormat is not.
      *
      * @param sources date time source strings
      * @param factory the value factory
      * @return jcr date value representations of the source or <code>null</code>
      */
-    public synchronized Value[] parse(String sources[], ValueFactory factory) {
+    public Value[] parse(String sources[], ValueFactory factory) {
         Value ret[] = new Value[sources.length];
         for (int i=0; i< sources.length; i++) {
             Calendar c = parse(sources[i]);
@@ -134,20 +165,38 @@ public class DateParser {
     }
 
     private static interface CalendarParserSupport {
-        Calendar parse(String dateTime) throws ParseException;
+        /**
+         * Returns the calendar or <code>null</code> if the string cannot be
+         * parsed.
+         */
+        Calendar parse(String dateTime);
     }
 
     private static class SimpleDateFormatParserSupport implements CalendarParserSupport {
-        private final SimpleDateFormat dateFormat;
+        private final String pattern;
+
+        /** the format of each thread, SimpleDateFormat is not thread-safe */
+        private final ThreadLocal<SimpleDateFormat> dateFormat;
 
         SimpleDateFormatParserSupport(String format) {
-            this.dateFormat = new SimpleDateFormat(format, Locale.US);
+            // fail early for invalid formats
+            final SimpleDateFormat prototype = new SimpleDateFormat(format, Locale.US);
+            this.pattern = format;
+            this.dateFormat = new ThreadLocal<SimpleDateFormat>() {
+                @Override
+                protected SimpleDateFormat initialValue() {
+                    return (SimpleDateFormat) prototype.clone();
+                }
+            };
         }
 
-        public Calendar parse(String dateTime) throws ParseException {
-            final Date d;
-            synchronized (dateFormat) {
-                d = dateFormat.parse(dateTime);
+        public Calendar parse(String dateTime) {
+            // like SimpleDateFormat.parse(String) the text may be followed
+            // by other text, but failures do not create exceptions
+            final ParsePosition pos = new ParsePosition(0);
+            final Date d = dateFormat.get().parse(dateTime, pos);
+            if (d == null || pos.getIndex() == 0) {
+                return null;
             }
 
             final Calendar c = Calendar.getInstance();
@@ -158,7 +207,7 @@ public class DateParser {
 
         @Override
         public String toString() {
-            return "SimpleDateFormat:" + dateFormat.toPattern();
+            return "SimpleDateFormat:" + pattern;
         }
     }
 
@@ -166,17 +215,11 @@ public class DateParser {
 
         static final String FORMAT_MARKER = "ISO8601";
 
-        public Calendar parse(String dateTime) throws ParseException {
+        public Calendar parse(String dateTime) {
             try {
-                final Calendar c = ISO8601.parse(dateTime);
-                if (c == null) {
-                    throw new ParseException(dateTime
-                        + " cannot be parsed as ISO8601 formatted date string",
-                        0);
-                }
-                return c;
+                return ISO8601.parse(dateTime);
             } catch (Exception e) {
-                throw new ParseException(e.getMessage(), 0);
+                return null;
             }
         }
 
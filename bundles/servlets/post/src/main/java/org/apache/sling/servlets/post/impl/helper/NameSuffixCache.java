@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.helper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * The <code>NameSuffixCache</code> makes generated node paths unique by
+ * appending the suffix <code>_&lt;n&gt;</code> with a free index
+ * <code>n</code>, which is the smallest free index if the used indexes have
+ * no gaps. Instead of probing the indexes one by one it remembers the next
+ * index for recently used paths and otherwise searches the end of the used
+ * indexes with exponentially growing and then halving steps, which takes a
+ * logarithmic number of lookups.
+ * <p>
+ * The remembered indexes are only hints: each candidate path is checked in
+ * the repository, such that changes by other cluster nodes or sessions never
+ * cause collisions.
+ */
+public class NameSuffixCache {
+
+    /** The number of paths whose next index is remembered */
+    private static final int MAX_ENTRIES = 1000;
+
+    private final Map<String, Integer> nextIndexes = new LinkedHashMap<String, Integer>(
+        16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Returns the path if no item exists at the path or the path with the
+     * suffix of a free index otherwise.
+     *
+     * @param session The session checking whether items exist
+     * @param path The absolute path of the new node
+     * @return a path at which no item exists
+     * @throws RepositoryException if checking the items fails or no free
+     *             index has been found
+     */
+    public String getUniquePath(Session session, String path)
+            throws RepositoryException {
+        if (!session.itemExists(path)) {
+            return path;
+        }
+
+        final String key = session.getWorkspace().getName() + ":" + path;
+        Integer hint;
+        synchronized (nextIndexes) {
+            hint = nextIndexes.get(key);
+        }
+
+        final int index = search(session, path, (hint == null) ? 0 : hint);
+
+        synchronized (nextIndexes) {
+            nextIndexes.put(key, index + 1);
+        }
+        return path + "_" + index;
+    }
+
+    /**
+     * Returns the start index if it is free. Otherwise finds a free index by
+     * doubling the distance from the start until a free index is found and
+     * bisecting the range between the last used and the first free index.
+     */
+    private int search(Session session, String path, int start)
+            throws RepositoryException {
+        if (!exists(session, path, start)) {
+            return start;
+        }
+
+        int used = start;
+        long step = 1;
+        long free;
+        for (;;) {
+            free = used + step;
+            if (free > Integer.MAX_VALUE) {
+                throw new RepositoryException(
+                    "Collision in generated node names for path=" + path);
+            }
+            if (!exists(session, path, (int) free)) {
+                break;
+            }
+            used = (int) free;
+            step <<= 1;
+        }
+
+        // used is taken and free is free, bisect to the boundary
+        while (free - used > 1) {
+            final int middle = (int) ((used + free) >>> 1);
+            if (exists(session, path, middle)) {
+                used = middle;
+            } else {
+                free = middle;
+            }
+        }
+        return (int) free;
+    }
+
+    private static boolean exists(Session session, String path, int index)
+            throws RepositoryException {
+        return session.itemExists(path + "_" + index);
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.sling.servlets.post.impl.helper;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -65,6 +66,14 @@ public class RequestProperty {
 
     private boolean patch = false;
 
+    private String uploadId;
+
+    private long chunkOffset;
+
+    private long fileLength = -1;
+
+    private InputStream uploadData;
+
     public RequestProperty(String path) {
         assert path.startsWith("/");
         this.path = ResourceUtil.normalize(path);
@@ -299,4 +308,49 @@ public class RequestProperty {
     public boolean isPatch() {
         return patch;
     }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    /**
+     * Returns the id of the chunked upload the file belongs to or
+     * <code>null</code> if the complete file is uploaded. The id is empty if
+     * the chunk starts a new upload.
+     */
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setChunkOffset(long chunkOffset) {
+        this.chunkOffset = chunkOffset;
+    }
+
+    public long getChunkOffset() {
+        return chunkOffset;
+    }
+
+    public void setFileLength(long fileLength) {
+        this.fileLength = fileLength;
+    }
+
+    /**
+     * Returns the length of the complete file of a chunked upload or -1 if
+     * it has not been sent.
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public void setUploadData(InputStream uploadData) {
+        this.uploadData = uploadData;
+    }
+
+    /**
+     * Returns the complete file of a chunked upload once its chunks have
+     * been stored or <code>null</code>.
+     */
+    public InputStream getUploadData() {
+        return uploadData;
+    }
 }
\ No newline at end of file
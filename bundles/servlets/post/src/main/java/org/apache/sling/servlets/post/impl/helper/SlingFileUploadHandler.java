@@ -17,8 +17,13 @@
 package org.apache.sling.servlets.post.impl.helper;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
@@ -29,6 +34,8 @@ import javax.servlet.ServletContext;
 import org.apache.jackrabbit.util.Text;
 import org.apache.sling.api.request.RequestParameter;
 import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostResponse;
+import org.apache.sling.servlets.post.SlingPostConstants;
 
 /**
  * Handles file uploads.
@@ -67,6 +74,22 @@ import org.apache.sling.servlets.post.Modification;
  * this will create a new node with the type my:file below admin. if the hinted
  * type extends from nt:file an intermediate file node is created otherwise
  * directly a resource node.
+ * <p/>
+ *
+ * Chunked upload example:
+ * <xmp>
+ *   <form action="/home/admin" method="POST" enctype="multipart/form-data">
+ *     <input type="file" name="./portrait" />
+ *     <input type="hidden" name="./portrait@UploadId" value="" />
+ *     <input type="hidden" name="./portrait@Offset" value="0" />
+ *     <input type="hidden" name="./portrait@Length" value="5000000" />
+ *   </form>
+ * </xmp>
+ *
+ * the empty upload id starts a new upload, whose id is returned in the
+ * response and sent with the following chunks. the uploaded file is kept as
+ * the chunk at the offset of the upload of the user. once the chunks cover
+ * the length, the node is created as above with the data of all chunks.
  */
 public class SlingFileUploadHandler {
 
@@ -92,6 +115,15 @@ public class SlingFileUploadHandler {
         this.servletContext = servletContext;
     }
 
+    /**
+     * The store for the chunks of chunked uploads.
+     */
+    private UploadChunkStore chunkStore;
+
+    public void setChunkStore(UploadChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+    }
+
     /**
      * Uses the file(s) in the request parameter for creation of new nodes.
      * if the parent node is a nt:folder a new nt:file is created. otherwise
@@ -104,6 +136,13 @@ public class SlingFileUploadHandler {
      */
     public void setFile(Node parent, RequestProperty prop, List<Modification> changes)
             throws RepositoryException {
+        // the complete file of a chunked upload
+        final InputStream data = prop.getUploadData();
+        if (prop.getUploadId() != null && data == null) {
+            throw new RepositoryException("Chunk of upload "
+                + prop.getUploadId() + " has not been stored");
+        }
+
     	RequestParameter[] values = prop.getValues();
     	for (RequestParameter requestParameter : values) {
         	RequestParameter value = requestParameter;
@@ -113,92 +152,230 @@ public class SlingFileUploadHandler {
                 continue;
             }
 
-            // get node name
-            String name = prop.getName();
-            if (name.equals("*")) {
-                name = value.getFileName();
-                // strip of possible path (some browsers include the entire path)
-                name = name.substring(name.lastIndexOf('/') + 1);
-                name = name.substring(name.lastIndexOf('\\') + 1);
+            setFile(parent, prop, value, data, changes);
+		}
+    }
+
+    /**
+     * Stores the chunks of chunked uploads before the repository is
+     * modified. A chunk with an empty upload id starts a new upload, whose
+     * id is reported as an "upload" change with the property path and the
+     * id. The properties of chunks not completing their file are removed,
+     * the others are given the complete file, which is released by
+     * {@link #closeUploads(Collection)}.
+     *
+     * @param userId the id of the user uploading the chunks
+     * @param reqProperties the request properties
+     * @param response the response to report started uploads to
+     * @return <code>true</code> if any chunks have been stored
+     * @throws RepositoryException if a chunk cannot be stored
+     */
+    public boolean storeChunks(String userId,
+            Map<String, RequestProperty> reqProperties, PostResponse response)
+            throws RepositoryException {
+        boolean stored = false;
+        for (Iterator<RequestProperty> i = reqProperties.values().iterator(); i.hasNext();) {
+            final RequestProperty prop = i.next();
+            if (prop.getUploadId() != null) {
+                final InputStream data = storeChunk(userId, prop, response);
+                if (data == null) {
+                    i.remove();
+                } else {
+                    prop.setUploadData(data);
+                }
+                stored = true;
             }
-            name = Text.escapeIllegalJcrChars(name);
-
-            // check type hint. if the type is ok and extends from nt:file,
-            // create an nt:file with that type. if it's invalid, drop it and let
-            // the parent node type decide.
-            boolean createNtFile = parent.isNodeType(NT_FOLDER);
-            String typeHint = prop.getTypeHint();
-            if (typeHint != null) {
+        }
+        return stored;
+    }
+
+    /**
+     * Closes the complete files of chunked uploads given to the request
+     * properties by {@link #storeChunks(String, Map, PostResponse)} and
+     * returns them to be finished by {@link #finishUploads(List, boolean)}
+     * once it is known whether they have been saved.
+     */
+    public List<InputStream> closeUploads(Collection<RequestProperty> reqProperties) {
+        final List<InputStream> uploads = new ArrayList<InputStream>();
+        for (RequestProperty prop : reqProperties) {
+            final InputStream data = prop.getUploadData();
+            if (data != null) {
+                prop.setUploadData(null);
                 try {
-                    NodeTypeManager ntMgr = parent.getSession().getWorkspace().getNodeTypeManager();
-                    NodeType nt = ntMgr.getNodeType(typeHint);
-                    createNtFile = nt.isNodeType(NT_FILE);
-                } catch (RepositoryException e) {
-                    // assuming type not valid.
-                    typeHint = null;
+                    data.close();
+                } catch (IOException ignore) {
+                    // ignore
                 }
+                uploads.add(data);
             }
+        }
+        return uploads;
+    }
+
+    /**
+     * Removes the chunks of the uploads returned by
+     * {@link #closeUploads(Collection)} if their files have been saved or
+     * keeps them otherwise, such that the uploads may be completed again.
+     */
+    public void finishUploads(List<InputStream> uploads, boolean saved) {
+        for (InputStream data : uploads) {
+            if (saved) {
+                chunkStore.commit(data);
+            } else {
+                chunkStore.release(data);
+            }
+        }
+    }
+
+    /**
+     * Stores the chunk of a chunked upload and returns the complete file
+     * once all chunks have been stored.
+     *
+     * @return the complete file or <code>null</code> if chunks are missing
+     * @throws RepositoryException if the chunk cannot be stored
+     */
+    private InputStream storeChunk(String userId, RequestProperty prop,
+            PostResponse response) throws RepositoryException {
+        final UploadChunkStore store = this.chunkStore;
+        if (store == null) {
+            throw new RepositoryException("Chunked uploads are not supported");
+        }
+        if (prop.getFileLength() <= 0) {
+            throw new RepositoryException("Missing or invalid "
+                + SlingPostConstants.SUFFIX_LENGTH + " of chunked upload "
+                + prop.getUploadId());
+        }
 
-            // also create an nt:file if the name contains an extension
-            // the rationale is that if the file name is "important" we want
-            // an nt:file, and an image name with an extension is probably "important"
-            if(!createNtFile && name.indexOf('.') > 0) {
-                createNtFile = true;
+        // a chunked upload has one file
+        RequestParameter value = null;
+        if (prop.getValues() != null) {
+            for (RequestParameter candidate : prop.getValues()) {
+                if (!candidate.isFormField() && candidate.getSize() > 0) {
+                    if (value != null) {
+                        throw new RepositoryException("More than one chunk of upload "
+                            + prop.getUploadId() + " in the request");
+                    }
+                    value = candidate;
+                }
             }
+        }
+        if (value == null) {
+            throw new RepositoryException("Missing chunk of upload "
+                + prop.getUploadId());
+        }
 
-            // set empty type
-            if (typeHint == null) {
-                typeHint = createNtFile ? NT_FILE : NT_RESOURCE;
+        try {
+            if (prop.getUploadId().length() == 0) {
+                prop.setUploadId(store.create(userId));
+                response.onChange("upload", prop.getPath(), prop.getUploadId());
+            }
+            final InputStream chunk = value.getInputStream();
+            try {
+                store.store(userId, prop.getUploadId(), prop.getChunkOffset(),
+                    prop.getFileLength(), chunk);
+            } finally {
+                chunk.close();
             }
+            return store.assemble(userId, prop.getUploadId(),
+                prop.getFileLength());
+        } catch (IOException e) {
+            throw new RepositoryException("Error while storing chunk of upload "
+                + prop.getUploadId(), e);
+        }
+    }
 
-            // create nt:file node if needed
-            Node resParent;
-            if (createNtFile) {
-                // create nt:file
-                resParent = getOrCreateChildNode(parent, name, typeHint, changes);
-                name = JCR_CONTENT;
-                typeHint = NT_RESOURCE;
-            } else {
-            	resParent = parent;
+    /**
+     * Creates the node for a file of the request parameter. The contents of
+     * the file are read from <code>data</code> or, if <code>null</code>,
+     * from the request parameter.
+     */
+    private void setFile(Node parent, RequestProperty prop, RequestParameter value,
+            InputStream data, List<Modification> changes) throws RepositoryException {
+        // get node name
+        String name = prop.getName();
+        if (name.equals("*")) {
+            name = value.getFileName();
+            // strip of possible path (some browsers include the entire path)
+            name = name.substring(name.lastIndexOf('/') + 1);
+            name = name.substring(name.lastIndexOf('\\') + 1);
+        }
+        name = Text.escapeIllegalJcrChars(name);
+
+        // check type hint. if the type is ok and extends from nt:file,
+        // create an nt:file with that type. if it's invalid, drop it and let
+        // the parent node type decide.
+        boolean createNtFile = parent.isNodeType(NT_FOLDER);
+        String typeHint = prop.getTypeHint();
+        if (typeHint != null) {
+            try {
+                NodeTypeManager ntMgr = parent.getSession().getWorkspace().getNodeTypeManager();
+                NodeType nt = ntMgr.getNodeType(typeHint);
+                createNtFile = nt.isNodeType(NT_FILE);
+            } catch (RepositoryException e) {
+                // assuming type not valid.
+                typeHint = null;
             }
+        }
 
-            // create resource node
-            Node res = getOrCreateChildNode(resParent, name, typeHint, changes);
+        // also create an nt:file if the name contains an extension
+        // the rationale is that if the file name is "important" we want
+        // an nt:file, and an image name with an extension is probably "important"
+        if(!createNtFile && name.indexOf('.') > 0) {
+            createNtFile = true;
+        }
 
-            // get content type
-            String contentType = value.getContentType();
-            if (contentType != null) {
-                int idx = contentType.indexOf(';');
-                if (idx > 0) {
-                    contentType = contentType.substring(0, idx);
-                }
+        // set empty type
+        if (typeHint == null) {
+            typeHint = createNtFile ? NT_FILE : NT_RESOURCE;
+        }
+
+        // create nt:file node if needed
+        Node resParent;
+        if (createNtFile) {
+            // create nt:file
+            resParent = getOrCreateChildNode(parent, name, typeHint, changes);
+            name = JCR_CONTENT;
+            typeHint = NT_RESOURCE;
+        } else {
+        	resParent = parent;
+        }
+
+        // create resource node
+        Node res = getOrCreateChildNode(resParent, name, typeHint, changes);
+
+        // get content type
+        String contentType = value.getContentType();
+        if (contentType != null) {
+            int idx = contentType.indexOf(';');
+            if (idx > 0) {
+                contentType = contentType.substring(0, idx);
+            }
+        }
+        if (contentType == null || contentType.equals("application/octet-stream")) {
+            // try to find a better content type
+            ServletContext ctx = this.servletContext;
+            if (ctx != null) {
+                contentType = ctx.getMimeType(value.getFileName());
             }
             if (contentType == null || contentType.equals("application/octet-stream")) {
-                // try to find a better content type
-                ServletContext ctx = this.servletContext;
-                if (ctx != null) {
-                    contentType = ctx.getMimeType(value.getFileName());
-                }
-                if (contentType == null || contentType.equals("application/octet-stream")) {
-                    contentType = "application/octet-stream";
-                }
+                contentType = "application/octet-stream";
             }
+        }
 
-            // set properties
-            changes.add(Modification.onModified(
-                res.setProperty(JCR_LASTMODIFIED, Calendar.getInstance()).getPath()
-            ));
+        // set properties
+        changes.add(Modification.onModified(
+            res.setProperty(JCR_LASTMODIFIED, Calendar.getInstance()).getPath()
+        ));
+        changes.add(Modification.onModified(
+            res.setProperty(JCR_MIMETYPE, contentType).getPath()
+        ));
+        try {
             changes.add(Modification.onModified(
-                res.setProperty(JCR_MIMETYPE, contentType).getPath()
+                res.setProperty(JCR_DATA, (data != null) ? data : value.getInputStream()).getPath()
             ));
-            try {
-                changes.add(Modification.onModified(
-                    res.setProperty(JCR_DATA, value.getInputStream()).getPath()
-                ));
-            } catch (IOException e) {
-                throw new RepositoryException("Error while retrieving inputstream from parameter value.", e);
-            }
-		}
+        } catch (IOException e) {
+            throw new RepositoryException("Error while retrieving inputstream from parameter value.", e);
+        }
     }
 
     private Node getOrCreateChildNode(Node parent, String name, String typeHint,
@@ -0,0 +1,507 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.helper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.apache.jackrabbit.util.Text;
+
+/**
+ * The <code>UploadChunkStore</code> keeps the chunks of chunked file uploads
+ * in the file system until the file is complete. Uploads are started by
+ * {@link #create(String)}, which generates the upload id, and are private to
+ * the user starting them: each user has a directory holding one directory
+ * per upload named by its upload id holding one file per chunk named by the
+ * offset of the chunk, so chunks may be sent in any order, in parallel and
+ * again after a failed request.
+ * <p>
+ * The store limits the size of a chunk, the total size of all chunks in the
+ * store and the number of uploads. Uploads not completed within the maximum
+ * age are removed when the next upload is started.
+ */
+public class UploadChunkStore {
+
+    /** valid upload ids, which are used as directory names */
+    private static final Pattern UPLOAD_ID = Pattern.compile("[a-f0-9]{32}");
+
+    /** suffix of chunk files still being written */
+    private static final String PARTIAL = ".part";
+
+    /** suffix of upload directories claimed by a commit */
+    private static final String COMMIT = ".commit";
+
+    private final File directory;
+
+    private final long maxAge;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /** the maximum size of a chunk */
+    private volatile long maxChunkSize = Long.MAX_VALUE;
+
+    /** the maximum total size of the chunks of all uploads */
+    private volatile long maxSize = Long.MAX_VALUE;
+
+    /** the maximum number of uploads */
+    private volatile int maxUploads = Integer.MAX_VALUE;
+
+    /** the total size of the chunks stored, -1 until counted */
+    private long size = -1;
+
+    public UploadChunkStore(File directory, long maxAge) {
+        this.directory = directory;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Sets the limits of the store, which apply to chunks stored and uploads
+     * started afterwards.
+     *
+     * @param maxChunkSize the maximum size of a chunk in bytes
+     * @param maxSize the maximum total size in bytes of the chunks of all
+     *            uploads
+     * @param maxUploads the maximum number of uploads
+     */
+    public void setLimits(long maxChunkSize, long maxSize, int maxUploads) {
+        this.maxChunkSize = maxChunkSize;
+        this.maxSize = maxSize;
+        this.maxUploads = maxUploads;
+    }
+
+    /**
+     * Starts an upload of the user, removing expired uploads first.
+     *
+     * @param userId the id of the user uploading the file
+     * @return the id of the new upload
+     * @throws IOException if the maximum number of uploads is reached or the
+     *             upload cannot be created
+     */
+    public synchronized String create(String userId) throws IOException {
+        purge();
+        if (countUploads() >= maxUploads) {
+            throw new IOException("Too many uploads, at most " + maxUploads
+                + " uploads may be in progress");
+        }
+
+        final byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        final StringBuilder uploadId = new StringBuilder(32);
+        for (final byte b : bytes) {
+            uploadId.append(Character.forDigit((b >> 4) & 0xf, 16));
+            uploadId.append(Character.forDigit(b & 0xf, 16));
+        }
+
+        final File upload = getUploadDirectory(userId, uploadId.toString());
+        if (!upload.mkdirs()) {
+            throw new IOException("Cannot create upload " + upload);
+        }
+        return uploadId.toString();
+    }
+
+    /**
+     * Stores a chunk of an upload of the user. A chunk stored before for the
+     * same offset is replaced.
+     *
+     * @param userId the id of the user uploading the file
+     * @param uploadId the id of the upload returned by {@link #create(String)}
+     * @param offset the offset of the chunk in the file
+     * @param length the length of the complete file
+     * @param data the contents of the chunk
+     * @throws IOException if the upload does not exist, the offset is
+     *             invalid, the chunk exceeds the file or the limits of the
+     *             store or cannot be written
+     */
+    public void store(String userId, String uploadId, long offset,
+            long length, InputStream data) throws IOException {
+        if (offset < 0 || offset >= length) {
+            throw new IOException("Invalid offset " + offset);
+        }
+        if (length > maxSize) {
+            throw new IOException("File of " + length
+                + " bytes exceeds the upload size limit of " + maxSize);
+        }
+        final File upload = getUploadDirectory(userId, uploadId);
+        if (!upload.isDirectory()) {
+            throw new IOException("Unknown upload " + uploadId);
+        }
+
+        // write to a partial file first, such that aborted requests leave
+        // no incomplete chunks behind
+        final long limit = Math.min(maxChunkSize, length - offset);
+        final File partial = new File(upload, offset + PARTIAL + Thread.currentThread().getId());
+        final OutputStream out = new FileOutputStream(partial);
+        boolean written = false;
+        try {
+            final byte[] buffer = new byte[8192];
+            long count = 0;
+            int rd;
+            while ((rd = data.read(buffer)) >= 0) {
+                count += rd;
+                if (count > limit) {
+                    throw new IOException("Chunk at offset " + offset
+                        + " exceeds the file length " + length
+                        + " or the chunk size limit of " + maxChunkSize);
+                }
+                out.write(buffer, 0, rd);
+            }
+            written = true;
+        } finally {
+            out.close();
+            if (!written) {
+                partial.delete();
+            }
+        }
+
+        final File chunk = new File(upload, String.valueOf(offset));
+        final long grown = partial.length() - chunk.length();
+        if (!reserve(grown)) {
+            partial.delete();
+            throw new IOException("Chunk at offset " + offset
+                + " exceeds the upload size limit of " + maxSize);
+        }
+        chunk.delete();
+        if (!partial.renameTo(chunk)) {
+            partial.delete();
+            release(grown);
+            throw new IOException("Cannot store chunk " + chunk);
+        }
+    }
+
+    /**
+     * Returns the complete file of an upload of the user if its chunks cover
+     * the given length without gaps. The upload is claimed by the caller,
+     * such that concurrent calls for the same upload return
+     * <code>null</code>, until the returned stream is passed to
+     * {@link #commit(InputStream)} once the file has been saved or to
+     * {@link #release(InputStream)} to keep the chunks for another attempt.
+     *
+     * @param userId the id of the user uploading the file
+     * @param uploadId the id of the upload returned by {@link #create(String)}
+     * @param length the length of the complete file
+     * @return the contents of the file or <code>null</code> if chunks are
+     *         missing or the upload has been claimed by another caller
+     * @throws IOException if the upload id is invalid
+     */
+    public InputStream assemble(String userId, String uploadId, long length)
+            throws IOException {
+        final File upload = getUploadDirectory(userId, uploadId);
+        if (getChunks(upload, length) == null) {
+            return null;
+        }
+
+        final File claimed = new File(upload.getParentFile(), uploadId
+            + COMMIT + Thread.currentThread().getId());
+        if (!upload.renameTo(claimed)) {
+            return null;
+        }
+        final File[] chunks = getChunks(claimed, length);
+        if (chunks == null) {
+            remove(claimed);
+            throw new IOException("Chunks of upload " + uploadId + " changed while claiming it");
+        }
+        return new ChunkInputStream(uploadId, claimed, chunks, length);
+    }
+
+    /**
+     * Removes the chunks of an upload returned by
+     * {@link #assemble(String, String, long)} after its file has been saved.
+     *
+     * @param data the complete file of the upload
+     */
+    public void commit(InputStream data) {
+        final ChunkInputStream upload = getUpload(data);
+        upload.close();
+        remove(upload.upload);
+    }
+
+    /**
+     * Gives up the claim of an upload returned by
+     * {@link #assemble(String, String, long)}, whose file has not been
+     * saved, keeping its chunks such that the upload may be completed by
+     * another request until it expires.
+     *
+     * @param data the complete file of the upload
+     */
+    public void release(InputStream data) {
+        final ChunkInputStream upload = getUpload(data);
+        upload.close();
+        final File unclaimed = new File(upload.upload.getParentFile(),
+            upload.uploadId);
+        if (!upload.upload.renameTo(unclaimed)) {
+            // the claimed upload is removed once it expires
+            upload.upload.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Removes the uploads not modified within the maximum age and the
+     * directories of users without uploads.
+     */
+    public void purge() {
+        final File[] users = directory.listFiles();
+        if (users != null) {
+            final long expired = System.currentTimeMillis() - maxAge;
+            for (final File user : users) {
+                final File[] uploads = user.listFiles();
+                if (uploads != null) {
+                    for (final File upload : uploads) {
+                        if (upload.lastModified() < expired) {
+                            remove(upload);
+                        }
+                    }
+                }
+                if (user.lastModified() < expired) {
+                    // fails unless all uploads of the user are removed
+                    user.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the directory of an upload of the user, which is named by the
+     * upload id in a directory named by a digest of the user id.
+     */
+    private File getUploadDirectory(String userId, String uploadId)
+            throws IOException {
+        if (uploadId == null || !UPLOAD_ID.matcher(uploadId).matches()) {
+            throw new IOException("Invalid upload id " + uploadId);
+        }
+        final String user;
+        try {
+            user = Text.digest("SHA-1", String.valueOf(userId).getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException("Cannot digest user id: " + nsae);
+        }
+        return new File(new File(directory, user), uploadId);
+    }
+
+    private ChunkInputStream getUpload(InputStream data) {
+        if (!(data instanceof ChunkInputStream)
+            || ((ChunkInputStream) data).getStore() != this) {
+            throw new IllegalArgumentException("Not an upload of this store: "
+                + data);
+        }
+        return (ChunkInputStream) data;
+    }
+
+    private int countUploads() {
+        int count = 0;
+        final File[] users = directory.listFiles();
+        if (users != null) {
+            for (final File user : users) {
+                final String[] uploads = user.list();
+                if (uploads != null) {
+                    count += uploads.length;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds the bytes to the total size of the chunks, counting the chunks
+     * stored first, and returns <code>false</code> if this exceeds the
+     * maximum size.
+     */
+    private synchronized boolean reserve(long bytes) {
+        if (size < 0) {
+            size = 0;
+            final File[] users = directory.listFiles();
+            if (users != null) {
+                for (final File user : users) {
+                    final File[] uploads = user.listFiles();
+                    if (uploads != null) {
+                        for (final File upload : uploads) {
+                            size += sizeOf(upload);
+                        }
+                    }
+                }
+            }
+        }
+        if (bytes > 0 && size + bytes > maxSize) {
+            return false;
+        }
+        size += bytes;
+        return true;
+    }
+
+    private synchronized void release(long bytes) {
+        if (size >= 0) {
+            size = Math.max(0, size - bytes);
+        }
+    }
+
+    /**
+     * Returns the chunks in the order of their offsets if they cover the
+     * length without gaps or <code>null</code> otherwise.
+     */
+    private File[] getChunks(File upload, long length) {
+        final String[] names = upload.list();
+        if (names == null) {
+            return null;
+        }
+
+        long[] offsets = new long[names.length];
+        int count = 0;
+        for (final String name : names) {
+            if (name.indexOf(PARTIAL) < 0) {
+                offsets[count++] = Long.parseLong(name);
+            }
+        }
+        Arrays.sort(offsets, 0, count);
+
+        final File[] chunks = new File[count];
+        long covered = 0;
+        for (int i = 0; i < count; i++) {
+            if (offsets[i] > covered) {
+                return null;
+            }
+            chunks[i] = new File(upload, String.valueOf(offsets[i]));
+            covered = Math.max(covered, offsets[i] + chunks[i].length());
+        }
+        return (covered >= length) ? chunks : null;
+    }
+
+    /**
+     * Removes the upload and releases the size of its chunks.
+     */
+    private void remove(File upload) {
+        long removed = 0;
+        final File[] files = upload.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                final long length = file.length();
+                if (file.delete() && file.getName().indexOf(PARTIAL) < 0) {
+                    removed += length;
+                }
+            }
+        }
+        upload.delete();
+        release(removed);
+    }
+
+    private static long sizeOf(File upload) {
+        long size = 0;
+        final File[] files = upload.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (file.getName().indexOf(PARTIAL) < 0) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Reads the chunks of a claimed upload in order, skipping the bytes of
+     * overlapping chunks already read. Closing the stream only closes the
+     * chunk being read, the upload is kept until it is committed or
+     * released.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private final String uploadId;
+
+        private final File upload;
+
+        private final File[] chunks;
+
+        private final long length;
+
+        private int index;
+
+        private InputStream current;
+
+        /** the number of bytes read */
+        private long position;
+
+        ChunkInputStream(String uploadId, File upload, File[] chunks,
+                long length) {
+            this.uploadId = uploadId;
+            this.upload = upload;
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position < length) {
+                if (current == null) {
+                    if (index == chunks.length) {
+                        break;
+                    }
+                    final File chunk = chunks[index++];
+                    final long start = Long.parseLong(chunk.getName());
+                    if (start + chunk.length() <= position) {
+                        // completely overlapped by the chunks before
+                        continue;
+                    }
+                    current = new FileInputStream(chunk);
+                    long skip = position - start;
+                    while (skip > 0) {
+                        skip -= current.skip(skip);
+                    }
+                }
+                final int rd = current.read(b, off,
+                    (int) Math.min(len, length - position));
+                if (rd > 0) {
+                    position += rd;
+                    return rd;
+                }
+                current.close();
+                current = null;
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() {
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException ignore) {
+                    // ignore
+                }
+                current = null;
+            }
+        }
+
+        UploadChunkStore getStore() {
+            return UploadChunkStore.this;
+        }
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.sling.servlets.post.impl.operations;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -41,6 +42,16 @@ import org.apache.sling.servlets.post.VersioningConfiguration;
  */
 abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
 
+    /**
+     * The manager running background operations, <code>null</code> to
+     * always operate within the request
+     */
+    private PostJobManager jobManager;
+
+    public void setJobManager(PostJobManager jobManager) {
+        this.jobManager = jobManager;
+    }
+
     @Override
     protected final void doRun(SlingHttpServletRequest request,
             PostResponse response,
@@ -48,7 +59,8 @@ abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
     throws RepositoryException {
         Session session = request.getResourceResolver().adaptTo(Session.class);
 
-        VersioningConfiguration versioningConfiguration = getVersioningConfiguration(request);
+        final VersioningConfiguration versioningConfiguration = getVersioningConfiguration(request);
+        final boolean async = jobManager != null && PostJobManager.isAsync(request);
 
         Resource resource = request.getResource();
         String source = resource.getPath();
@@ -71,7 +83,10 @@ abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
         dest = removeAndValidateWorkspace(dest, session);
 
         // destination parent and name
-        String dstParent = trailingSlash ? dest : ResourceUtil.getParent(dest);
+        final String dstParent = trailingSlash ? dest : ResourceUtil.getParent(dest);
+
+        // the node to checkout before the operation, if versionable
+        String checkoutPath = null;
 
         // delete destination if already exists
         if (!trailingSlash && session.itemExists(dest)) {
@@ -84,7 +99,7 @@ abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
                         + dest + ": destination exists");
                 return;
             } else {
-                checkoutIfNecessary(session.getItem(dest).getParent(), changes, versioningConfiguration);
+                checkoutPath = ResourceUtil.getParent(dest);
             }
 
         } else {
@@ -93,7 +108,7 @@ abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
             // if it's a descendant of the current node
             if (!dstParent.equals("")) {
                 if (session.itemExists(dstParent)) {
-                    checkoutIfNecessary((Node) session.getItem(dstParent), changes, versioningConfiguration);
+                    checkoutPath = dstParent;
                 } else {
                     response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED,
                         "Cannot " + getOperationName() + " " + resource + " to "
@@ -107,6 +122,17 @@ abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
         }
 
         Iterator<Resource> resources = getApplyToResources(request);
+        if (async) {
+            runAsync(request, response, resources, checkoutPath, dstParent,
+                trailingSlash ? null : ResourceUtil.getName(dest),
+                versioningConfiguration);
+            return;
+        }
+
+        if (checkoutPath != null) {
+            checkoutIfNecessary((Node) session.getItem(checkoutPath), changes, versioningConfiguration);
+        }
+
         Item destItem = null;
         if (resources == null) {
 
@@ -119,7 +145,7 @@ abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
             }
 
             String dstName = trailingSlash ? null : ResourceUtil.getName(dest);
-            destItem = execute(changes, item, dstParent, dstName, versioningConfiguration);
+            destItem = execute(changes, item, dstParent, dstName, versioningConfiguration, null);
 
         } else {
 
@@ -138,7 +164,7 @@ abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
                 Resource applyTo = resources.next();
                 Item item = applyTo.adaptTo(Item.class);
                 if (item != null) {
-                    execute(changes, item, dstParent, null, versioningConfiguration);
+                    execute(changes, item, dstParent, null, versioningConfiguration, null);
                 }
             }
             destItem = session.getItem(dest);
@@ -149,6 +175,75 @@ abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
         orderNode(request, destItem, changes);
     }
 
+    /**
+     * Starts a job executing the operation in the background and responds
+     * with its id.
+     */
+    private void runAsync(SlingHttpServletRequest request,
+            PostResponse response, Iterator<Resource> resources,
+            final String checkoutPath, final String dstParent,
+            final String dstName,
+            final VersioningConfiguration versioningConfiguration)
+            throws RepositoryException {
+
+        final List<String> sources = new ArrayList<String>();
+        if (resources == null) {
+            Resource resource = request.getResource();
+            if (resource.adaptTo(Item.class) == null) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND,
+                    "Missing source " + resource + " for " + getOperationName());
+                return;
+            }
+            sources.add(resource.getPath());
+        } else {
+            if (dstName != null) {
+                throw new IllegalArgumentException(
+                    "Applying "
+                        + getOperationName()
+                        + " to multiple resources requires a trailing slash on the destination");
+            }
+            while (resources.hasNext()) {
+                Resource applyTo = resources.next();
+                if (applyTo.adaptTo(Item.class) != null) {
+                    sources.add(applyTo.getPath());
+                }
+            }
+        }
+
+        final PostJob job = jobManager.submit(getOperationName(),
+            response.getPath(), request.getResourceResolver(),
+            versioningConfiguration,
+            new PostJobManager.Task() {
+                public void execute(Session session, PostJob job)
+                        throws RepositoryException {
+                    if (checkoutPath != null) {
+                        checkoutIfNecessary((Node) session.getItem(checkoutPath),
+                            job.getChanges(), versioningConfiguration);
+                    }
+                    for (String source : sources) {
+                        if (session.itemExists(source)) {
+                            AbstractCopyMoveOperation.this.execute(
+                                job.getChanges(), session.getItem(source),
+                                dstParent, dstName, versioningConfiguration,
+                                job);
+                        }
+                    }
+                }
+            });
+
+        if (job == null) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "Too many queued " + getOperationName() + " jobs");
+            return;
+        }
+
+        // the job creates the destination, hence no 201/CREATED
+        response.setCreateRequest(false);
+        response.setStatus(HttpServletResponse.SC_ACCEPTED, "Started "
+            + getOperationName() + " job " + job.getId());
+        response.onChange("job", job.getId());
+    }
+
     /**
      * Returns a short name to be used in log and status messages.
      */
@@ -164,11 +259,15 @@ abstract class AbstractCopyMoveOperation extends AbstractPostOperation {
      * @param destName The name of the target item inside the
      *            <code>destParent</code>. If <code>null</code> the name of
      *            the <code>source</code> is used as the target item name.
+     * @param job The job running the operation in the background, which
+     *            counts the nodes processed and saves them in batches, or
+     *            <code>null</code> if the operation is part of the request.
      * @throws RepositoryException May be thrown if an error occurrs executing
      *             the operation.
      */
     protected abstract Item execute(List<Modification> changes, Item source,
             String destParent, String destName,
-            VersioningConfiguration versioningConfiguration) throws RepositoryException;
+            VersioningConfiguration versioningConfiguration, PostJob job)
+            throws RepositoryException;
 
 }
@@ -46,6 +46,7 @@ import org.apache.sling.servlets.post.PostResponse;
 import org.apache.sling.servlets.post.SlingPostConstants;
 import org.apache.sling.servlets.post.VersioningConfiguration;
 import org.apache.sling.servlets.post.impl.helper.DefaultNodeNameGenerator;
+import org.apache.sling.servlets.post.impl.helper.NameSuffixCache;
 import org.apache.sling.servlets.post.impl.helper.RequestProperty;
 
 abstract class AbstractCreateOperation extends AbstractPostOperation {
@@ -64,6 +65,11 @@ abstract class AbstractCreateOperation extends AbstractPostOperation {
      */
     private Pattern ignoredParameterNamePattern;
 
+    /**
+     * the next suffixes of recently generated node names
+     */
+    private final NameSuffixCache nameSuffixes = new NameSuffixCache();
+
     protected AbstractCreateOperation() {
 		this.defaultNodeNameGenerator = new DefaultNodeNameGenerator();
 		this.ignoredParameterNamePattern = null;
@@ -346,6 +352,51 @@ abstract class AbstractCreateOperation extends AbstractPostOperation {
                 continue;
             }
 
+            // @UploadId, @Offset and @Length of chunked uploads
+            // Example:
+            // <input name="./file" type="file" />
+            // <input name="./file@UploadId" value="4711" type="hidden" />
+            // <input name="./file@Offset" value="1048576" type="hidden" />
+            // <input name="./file@Length" value="5000000" type="hidden" />
+            if (propPath.endsWith(SlingPostConstants.SUFFIX_UPLOAD_ID)) {
+                RequestProperty prop = getOrCreateRequestProperty(
+                        reqProperties, propPath,
+                        SlingPostConstants.SUFFIX_UPLOAD_ID);
+
+                final RequestParameter[] rp = e.getValue();
+                if (rp.length > 0) {
+                    prop.setUploadId(rp[0].getString());
+                }
+
+                continue;
+            }
+
+            if (propPath.endsWith(SlingPostConstants.SUFFIX_OFFSET)) {
+                RequestProperty prop = getOrCreateRequestProperty(
+                        reqProperties, propPath,
+                        SlingPostConstants.SUFFIX_OFFSET);
+
+                final RequestParameter[] rp = e.getValue();
+                if (rp.length > 0) {
+                    prop.setChunkOffset(toLong(rp[0].getString()));
+                }
+
+                continue;
+            }
+
+            if (propPath.endsWith(SlingPostConstants.SUFFIX_LENGTH)) {
+                RequestProperty prop = getOrCreateRequestProperty(
+                        reqProperties, propPath,
+                        SlingPostConstants.SUFFIX_LENGTH);
+
+                final RequestParameter[] rp = e.getValue();
+                if (rp.length > 0) {
+                    prop.setFileLength(toLong(rp[0].getString()));
+                }
+
+                continue;
+            }
+
             // plain property, create from values
             RequestProperty prop = getOrCreateRequestProperty(reqProperties,
                 propPath, null);
@@ -420,6 +471,18 @@ abstract class AbstractCreateOperation extends AbstractPostOperation {
         return prop;
     }
 
+    /**
+     * Returns the number in the <code>value</code> or -1 if it is not a
+     * number.
+     */
+    private long toLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
 
     /**
      * Deep gets or creates a node, parent-padding with default nodes nodes. If
@@ -598,27 +661,10 @@ abstract class AbstractCreateOperation extends AbstractPostOperation {
 		Session session = request.getResourceResolver().adaptTo(Session.class);
 
 		String jcrPath = removeAndValidateWorkspace(basePath, session);
+		String uniquePath = nameSuffixes.getUniquePath(session, jcrPath);
 
-		// if resulting path exists, add a suffix until it's not the case
-		// anymore
-		if (session.itemExists(jcrPath)) {
-		    for (int idx = 0; idx < 1000; idx++) {
-		        String newPath = jcrPath + "_" + idx;
-		        if (!session.itemExists(newPath)) {
-		            basePath = basePath + "_" + idx;
-		            jcrPath = newPath;
-		            break;
-		        }
-		    }
-		}
-
-		// if it still exists there are more than 1000 nodes ?
-		if (session.itemExists(jcrPath)) {
-		    throw new RepositoryException(
-		        "Collision in generated node names for path=" + basePath);
-		}
-
-		return basePath;
+		// append the suffix, if any, to the path including the workspace
+		return basePath + uniquePath.substring(jcrPath.length());
     }
 
 }
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.operations;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.api.request.RequestParameterMap;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.wrappers.SlingHttpServletRequestWrapper;
+
+/**
+ * The <code>BatchEntryRequest</code> presents an entry of a batch request to
+ * the operation executing it: the resource of the entry is the request
+ * resource and the properties of the entry are the only request parameters.
+ * Attributes set on the entry request are not visible to the batch request.
+ */
+class BatchEntryRequest extends SlingHttpServletRequestWrapper {
+
+    private final Resource resource;
+
+    private final Map<String, String[]> parameters;
+
+    private final ParameterMap requestParameters = new ParameterMap();
+
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+    BatchEntryRequest(SlingHttpServletRequest request, Resource resource,
+            Map<String, String[]> parameters) {
+        super(request);
+        this.resource = resource;
+        this.parameters = parameters;
+        for (Map.Entry<String, String[]> entry : parameters.entrySet()) {
+            final String[] values = entry.getValue();
+            final RequestParameter[] params = new RequestParameter[values.length];
+            for (int i = 0; i < values.length; i++) {
+                params[i] = new Parameter(values[i]);
+            }
+            requestParameters.put(entry.getKey(), params);
+        }
+    }
+
+    @Override
+    public Resource getResource() {
+        return resource;
+    }
+
+    @Override
+    public RequestPathInfo getRequestPathInfo() {
+        return new RequestPathInfo() {
+            public String getResourcePath() {
+                return resource.getPath();
+            }
+
+            public String getExtension() {
+                return null;
+            }
+
+            public String getSelectorString() {
+                return null;
+            }
+
+            public String[] getSelectors() {
+                return new String[0];
+            }
+
+            public String getSuffix() {
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public RequestParameter getRequestParameter(String name) {
+        return requestParameters.getValue(name);
+    }
+
+    @Override
+    public RequestParameter[] getRequestParameters(String name) {
+        return requestParameters.getValues(name);
+    }
+
+    @Override
+    public RequestParameterMap getRequestParameterMap() {
+        return requestParameters;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        final String[] values = parameters.get(name);
+        return (values == null || values.length == 0) ? null : values[0];
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return parameters.get(name);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        if (attributes.containsKey(name)) {
+            return attributes.get(name);
+        }
+        return super.getAttribute(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.put(name, null);
+    }
+
+    private static class ParameterMap extends
+            LinkedHashMap<String, RequestParameter[]> implements
+            RequestParameterMap {
+
+        private static final long serialVersionUID = 1L;
+
+        public RequestParameter getValue(String name) {
+            final RequestParameter[] values = get(name);
+            return (values == null || values.length == 0) ? null : values[0];
+        }
+
+        public RequestParameter[] getValues(String name) {
+            return get(name);
+        }
+    }
+
+    /**
+     * A form field parameter with a string value.
+     */
+    private static class Parameter implements RequestParameter {
+
+        private final String value;
+
+        Parameter(String value) {
+            this.value = value;
+        }
+
+        public boolean isFormField() {
+            return true;
+        }
+
+        public String getContentType() {
+            return null;
+        }
+
+        public long getSize() {
+            return get().length;
+        }
+
+        public byte[] get() {
+            try {
+                return value.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException uee) {
+                // cannot happen, UTF-8 is always supported
+                return value.getBytes();
+            }
+        }
+
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(get());
+        }
+
+        public String getFileName() {
+            return null;
+        }
+
+        public String getString() {
+            return value;
+        }
+
+        public String getString(String encoding)
+                throws UnsupportedEncodingException {
+            return new String(get(), encoding);
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.operations;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.api.resource.NonExistingResource;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.io.JSONParser;
+import org.apache.sling.commons.json.io.JSONParser.Event;
+import org.apache.sling.servlets.post.AbstractPostOperation;
+import org.apache.sling.servlets.post.HtmlResponse;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostOperation;
+import org.apache.sling.servlets.post.PostResponse;
+import org.apache.sling.servlets.post.SlingPostConstants;
+import org.apache.sling.servlets.post.SlingPostProcessor;
+import org.apache.sling.servlets.post.VersioningConfiguration;
+
+/**
+ * The <code>BatchOperation</code> class implements the
+ * {@link org.apache.sling.servlets.post.SlingPostConstants#OPERATION_BATCH batch}
+ * operation executing a list of operations with the post operations
+ * registered with the Sling default POST servlet.
+ * <p>
+ * The entries are read one at a time from a JSON array like:
+ *
+ * <pre>
+ * [
+ *   { "path": "/content/a", "properties": { "title": "A", "tags": [ "x", "y" ] } },
+ *   { "path": "/content/b", "operation": "delete" },
+ *   { "path": "/content/c", "operation": "move", "properties": { ":dest": "/content/d" } }
+ * ]
+ * </pre>
+ *
+ * Each entry is executed with a request whose resource is addressed by the
+ * path, relative paths being resolved against the batch request resource,
+ * and whose parameters are the properties of the entry. A property with a
+ * <code>null</code> value is deleted like with the <code>@Delete</code>
+ * suffix. The operation of an entry defaults to modify. The changes of all
+ * entries are saved together after the last entry or in batches of entries,
+ * if configured. The first entry failing stops the batch and reverts the
+ * unsaved changes.
+ * <p>
+ * Each entry is reported as a change of type "entry" with the index, path,
+ * status code and status message of the entry. The changes of the entries
+ * are reported as well unless saving in batches: to keep the memory used by
+ * large batches bounded, only the checkouts, checkins and, if new versionable
+ * nodes are checked in, creations needed to check in the nodes after saving
+ * are kept then.
+ */
+public class BatchOperation extends AbstractPostOperation {
+
+    /** The request attribute handing the post processors to the entries */
+    private static final String ATTR_PROCESSORS = BatchOperation.class.getName()
+        + ".processors";
+
+    private static final String ENTRY_PATH = "path";
+
+    private static final String ENTRY_OPERATION = "operation";
+
+    private static final String ENTRY_PROPERTIES = "properties";
+
+    /** The registered operations by name */
+    private final Map<String, PostOperation> operations;
+
+    /** The operation of entries not naming one */
+    private final PostOperation defaultOperation;
+
+    /** The number of entries after which the batch is saved, 0 to save once */
+    private int saveBatchSize;
+
+    public BatchOperation(Map<String, PostOperation> operations,
+            PostOperation defaultOperation) {
+        this.operations = operations;
+        this.defaultOperation = defaultOperation;
+    }
+
+    public void setSaveBatchSize(int saveBatchSize) {
+        this.saveBatchSize = saveBatchSize;
+    }
+
+    /**
+     * Runs the batch, applying the post processors to each entry with the
+     * request of the entry instead of once to the batch.
+     */
+    @Override
+    public void run(SlingHttpServletRequest request, PostResponse response,
+            SlingPostProcessor[] processors) {
+        request.setAttribute(ATTR_PROCESSORS, processors);
+        try {
+            super.run(request, response, null);
+        } finally {
+            request.removeAttribute(ATTR_PROCESSORS);
+        }
+    }
+
+    @Override
+    protected void doRun(SlingHttpServletRequest request,
+            PostResponse response, final List<Modification> changes)
+            throws RepositoryException {
+        final Session session = request.getResourceResolver().adaptTo(Session.class);
+
+        final Reader content;
+        try {
+            content = getContent(request);
+        } catch (IOException ioe) {
+            throw new RepositoryException("Cannot read batch content", ioe);
+        }
+        if (content == null) {
+            response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED,
+                "Missing content for batch");
+            return;
+        }
+
+        final VersioningConfiguration versioningConfiguration = getVersioningConfiguration(request).clone();
+        versioningConfiguration.setAutoCheckin(false);
+        final boolean saveBatches = saveBatchSize > 0
+            && !isSkipSessionHandling(request);
+
+        // the entries collect their changes in the batch changes, which are
+        // saved and checked in once by the batch
+        final SlingPostProcessor[] processors = (SlingPostProcessor[]) request.getAttribute(ATTR_PROCESSORS);
+        final SlingPostProcessor[] entryProcessors = new SlingPostProcessor[] { new SlingPostProcessor() {
+            public void process(SlingHttpServletRequest entryRequest,
+                    List<Modification> entryChanges) throws Exception {
+                if (processors != null) {
+                    for (SlingPostProcessor processor : processors) {
+                        processor.process(entryRequest, entryChanges);
+                    }
+                }
+                if (!saveBatches) {
+                    changes.addAll(entryChanges);
+                    return;
+                }
+                for (Modification change : entryChanges) {
+                    if (isCheckinChange(change, versioningConfiguration)) {
+                        changes.add(change);
+                    }
+                }
+            }
+        } };
+
+        final JSONParser parser = new JSONParser(content);
+        try {
+            if (parser.next() != Event.START_ARRAY) {
+                throw new IllegalArgumentException(
+                    "Batch content must be a JSON array of entries");
+            }
+            int index = 0;
+            for (Event event = parser.next(); event != Event.END_ARRAY; event = parser.next()) {
+                if (event != Event.START_OBJECT) {
+                    throw new IllegalArgumentException("Batch entry " + index
+                        + " is not a JSON object");
+                }
+                final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+                final String[] entry = readEntry(parser, parameters);
+
+                final BatchEntryRequest entryRequest = new BatchEntryRequest(
+                    request, getResource(request, entry[0]), parameters);
+                entryRequest.setAttribute(
+                    VersioningConfiguration.class.getName(),
+                    versioningConfiguration);
+                entryRequest.setAttribute(
+                    SlingPostConstants.ATTR_SKIP_SESSION_HANDLING, "true");
+
+                final PostResponse entryResponse = new HtmlResponse();
+                final PostOperation operation = getOperation(entry[1]);
+                if (operation == null) {
+                    entryResponse.setStatus(
+                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        "Invalid operation " + entry[1]);
+                } else {
+                    try {
+                        operation.run(entryRequest, entryResponse,
+                            entryProcessors);
+                    } catch (Throwable t) {
+                        entryResponse.setError(t);
+                    }
+                }
+
+                final int status = entryResponse.getStatusCode();
+                response.onChange("entry", String.valueOf(index),
+                    entryRequest.getResource().getPath(),
+                    String.valueOf(status), entryResponse.getStatusMessage());
+                if (!entryResponse.isSuccessful()) {
+                    throw new RepositoryException("Batch entry " + index
+                        + " failed with status " + status + ": "
+                        + entryResponse.getStatusMessage(),
+                        entryResponse.getError());
+                }
+
+                index++;
+                if (saveBatches && index % saveBatchSize == 0) {
+                    session.save();
+                }
+            }
+        } catch (JSONException je) {
+            throw new IllegalArgumentException("Invalid batch content: "
+                + je.getMessage());
+        } finally {
+            try {
+                parser.close();
+            } catch (IOException ignore) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the change is needed to check in the
+     * nodes after saving the batch.
+     */
+    private boolean isCheckinChange(Modification change,
+            VersioningConfiguration versioningConfiguration) {
+        switch (change.getType()) {
+            case CHECKOUT:
+            case CHECKIN:
+                return true;
+            case CREATE:
+                return versioningConfiguration.isCheckinOnNewVersionableNode();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the JSON content of the batch, which is the
+     * {@link SlingPostConstants#RP_CONTENT} parameter, the
+     * {@link SlingPostConstants#RP_CONTENT_FILE} parameter or a request
+     * body of type application/json.
+     */
+    private Reader getContent(SlingHttpServletRequest request)
+            throws IOException {
+        RequestParameter content = request.getRequestParameter(SlingPostConstants.RP_CONTENT);
+        if (content != null) {
+            return new StringReader(content.getString());
+        }
+        content = request.getRequestParameter(SlingPostConstants.RP_CONTENT_FILE);
+        if (content != null) {
+            return new InputStreamReader(content.getInputStream(), "UTF-8");
+        }
+        final String contentType = request.getContentType();
+        if (contentType != null && contentType.startsWith("application/json")) {
+            return request.getReader();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the members of an entry after its START_OBJECT event, filling
+     * the properties into the parameters and returning the path and the
+     * operation name.
+     */
+    private String[] readEntry(JSONParser parser,
+            Map<String, String[]> parameters) throws JSONException {
+        final String[] entry = new String[2];
+        while (parser.next() == Event.KEY) {
+            final String key = parser.getString();
+            if (ENTRY_PROPERTIES.equals(key)) {
+                if (parser.next() != Event.START_OBJECT) {
+                    throw new IllegalArgumentException(
+                        "The properties of a batch entry must be a JSON object");
+                }
+                while (parser.next() == Event.KEY) {
+                    final String name = parser.getString();
+                    final String[] values = readValues(parser);
+                    if (values == null) {
+                        parameters.put(name + SlingPostConstants.SUFFIX_DELETE,
+                            new String[] { "" });
+                    } else {
+                        parameters.put(name, values);
+                    }
+                }
+            } else if (ENTRY_PATH.equals(key)) {
+                entry[0] = readValue(parser, key);
+            } else if (ENTRY_OPERATION.equals(key)) {
+                entry[1] = readValue(parser, key);
+            } else {
+                throw new IllegalArgumentException("Unknown batch entry member "
+                    + key);
+            }
+        }
+        if (entry[0] == null) {
+            throw new IllegalArgumentException("Missing path of batch entry");
+        }
+        return entry;
+    }
+
+    /**
+     * Reads a single value, which must not be <code>null</code>, of the
+     * entry member as a string.
+     */
+    private String readValue(JSONParser parser, String member)
+            throws JSONException {
+        final String[] values = readValues(parser);
+        if (values == null || values.length != 1) {
+            throw new IllegalArgumentException("The " + member
+                + " of a batch entry must be a single value");
+        }
+        return values[0];
+    }
+
+    /**
+     * Reads a value or an array of values as strings. Returns
+     * <code>null</code> for a <code>null</code> value; arrays must not
+     * contain <code>null</code> values.
+     */
+    private String[] readValues(JSONParser parser) throws JSONException {
+        final Event event = parser.next();
+        if (event == Event.VALUE) {
+            if (isNull(parser)) {
+                return null;
+            }
+            return new String[] { parser.getString() };
+        } else if (event == Event.START_ARRAY) {
+            final List<String> values = new ArrayList<String>();
+            for (Event e = parser.next(); e != Event.END_ARRAY; e = parser.next()) {
+                if (e != Event.VALUE) {
+                    throw new IllegalArgumentException(
+                        "Batch entry values must not be nested");
+                }
+                if (isNull(parser)) {
+                    throw new IllegalArgumentException(
+                        "Batch entry values must not contain null");
+                }
+                values.add(parser.getString());
+            }
+            return values.toArray(new String[values.size()]);
+        }
+        throw new IllegalArgumentException(
+            "Batch entry values must be strings, numbers, booleans or arrays");
+    }
+
+    private boolean isNull(JSONParser parser) {
+        return JSONObject.NULL.equals(parser.getValue());
+    }
+
+    private Resource getResource(SlingHttpServletRequest request, String path) {
+        path = resolvePath(request.getResource().getPath(), path);
+        final ResourceResolver resolver = request.getResourceResolver();
+        final Resource resource = resolver.getResource(path);
+        return (resource != null) ? resource : new NonExistingResource(
+            resolver, path);
+    }
+
+    private PostOperation getOperation(String name) {
+        if (name == null || name.length() == 0) {
+            return defaultOperation;
+        }
+        if (SlingPostConstants.OPERATION_BATCH.equals(name)) {
+            // batches are not nested
+            return null;
+        }
+        synchronized (operations) {
+            return operations.get(name);
+        }
+    }
+}
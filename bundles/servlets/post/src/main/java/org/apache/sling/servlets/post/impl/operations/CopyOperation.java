@@ -24,6 +24,7 @@ import javax.jcr.NodeIterator;
 import javax.jcr.Property;
 import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeDefinition;
 import javax.jcr.nodetype.NodeType;
 
 import org.apache.sling.servlets.post.Modification;
@@ -44,9 +45,15 @@ public class CopyOperation extends AbstractCopyMoveOperation {
     @Override
     protected Item execute(List<Modification> changes, Item source,
             String destParent, String destName,
-            VersioningConfiguration versioningConfiguration) throws RepositoryException {
+            VersioningConfiguration versioningConfiguration, PostJob job)
+            throws RepositoryException {
 
-        Item destItem = copy(source, (Node) source.getSession().getItem(destParent), destName);
+        Item destItem;
+        if (job != null && source.isNode()) {
+            destItem = copy((Node) source, (Node) source.getSession().getItem(destParent), destName, job);
+        } else {
+            destItem = copy(source, (Node) source.getSession().getItem(destParent), destName);
+        }
 
         String dest = destParent + "/" + destName;
         changes.add(Modification.onCopied(source.getPath(), dest));
@@ -96,6 +103,32 @@ public class CopyOperation extends AbstractCopyMoveOperation {
      */
     static Item copy(Node src, Node dstParent, String name)
             throws RepositoryException {
+        return copy(src, dstParent, name, null);
+    }
+
+    /**
+     * Copy the <code>src</code> node into the <code>dstParent</code> node
+     * like {@link #copy(Node, Node, String)}, counting the nodes copied with
+     * the given job. A node is counted once its subtree has been copied. The
+     * job only saves when none of the nodes the node has been copied into
+     * has mandatory child nodes, which may not have been copied yet.
+     *
+     * @param job The job counting the nodes or <code>null</code> to copy
+     *            the subtree without saving it.
+     */
+    static Item copy(Node src, Node dstParent, String name, PostJob job)
+            throws RepositoryException {
+        return copy(src, dstParent, name, job,
+            job == null || !hasMandatoryChildNodes(dstParent));
+    }
+
+    /**
+     * Copies the subtree, letting the job save the nodes copied only if
+     * <code>savable</code> is <code>true</code>, that is if the destination
+     * parent and its ancestors being copied have no mandatory child nodes.
+     */
+    private static Item copy(Node src, Node dstParent, String name,
+            PostJob job, boolean savable) throws RepositoryException {
 
         // ensure destination name
         if (name == null) {
@@ -104,7 +137,12 @@ public class CopyOperation extends AbstractCopyMoveOperation {
 
         // ensure new node creation
         if (dstParent.hasNode(name)) {
-            dstParent.getNode(name).remove();
+            if (job != null) {
+                DeleteOperation.removeTree(dstParent.getNode(name), job,
+                    savable);
+            } else {
+                dstParent.getNode(name).remove();
+            }
         }
 
         // create new node
@@ -119,15 +157,47 @@ public class CopyOperation extends AbstractCopyMoveOperation {
         }
 
         // copy the child nodes
+        final boolean childrenSavable = job != null && savable
+            && !hasMandatoryChildNodes(dst);
         for (NodeIterator iter = src.getNodes(); iter.hasNext();) {
             Node n = iter.nextNode();
             if (!n.getDefinition().isProtected()) {
-                copy(n, dst, null);
+                copy(n, dst, null, job, childrenSavable);
             }
         }
+
+        if (job != null) {
+            job.processed(dst.getSession(), savable);
+        }
         return dst;
     }
 
+    /**
+     * Returns <code>true</code> if the primary or a mixin type of the node
+     * defines mandatory child nodes.
+     */
+    private static boolean hasMandatoryChildNodes(Node node)
+            throws RepositoryException {
+        if (hasMandatoryChildNodes(node.getPrimaryNodeType())) {
+            return true;
+        }
+        for (NodeType mixin : node.getMixinNodeTypes()) {
+            if (hasMandatoryChildNodes(mixin)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasMandatoryChildNodes(NodeType type) {
+        for (NodeDefinition definition : type.getChildNodeDefinitions()) {
+            if (definition.isMandatory()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Copy the <code>src</code> property into the <code>dstParent</code>
      * node. The name of the newly created property is set to <code>name</code>.
@@ -16,11 +16,16 @@
  */
 package org.apache.sling.servlets.post.impl.operations;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 import javax.jcr.Item;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeDefinition;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.sling.api.SlingHttpServletRequest;
@@ -28,6 +33,7 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.servlets.post.AbstractPostOperation;
 import org.apache.sling.servlets.post.Modification;
 import org.apache.sling.servlets.post.PostResponse;
+import org.apache.sling.servlets.post.SlingPostConstants;
 import org.apache.sling.servlets.post.VersioningConfiguration;
 
 /**
@@ -37,13 +43,73 @@ import org.apache.sling.servlets.post.VersioningConfiguration;
  */
 public class DeleteOperation extends AbstractPostOperation {
 
+    /**
+     * The manager running background deletes, <code>null</code> to always
+     * delete within the request
+     */
+    private PostJobManager jobManager;
+
+    public void setJobManager(PostJobManager jobManager) {
+        this.jobManager = jobManager;
+    }
+
     @Override
     protected void doRun(SlingHttpServletRequest request, PostResponse response, List<Modification> changes)
     throws RepositoryException {
-        VersioningConfiguration versioningConfiguration = getVersioningConfiguration(request);
+        final VersioningConfiguration versioningConfiguration = getVersioningConfiguration(request);
 
         Iterator<Resource> res = getApplyToResources(request);
-        if (res == null) {
+        if (jobManager != null && PostJobManager.isAsync(request)) {
+
+            final List<String> paths = new ArrayList<String>();
+            if (res == null) {
+                Resource resource = request.getResource();
+                if (resource.adaptTo(Item.class) == null) {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND,
+                        "Missing source " + resource + " for delete");
+                    return;
+                }
+                paths.add(resource.getPath());
+            } else {
+                while (res.hasNext()) {
+                    Resource resource = res.next();
+                    if (resource.adaptTo(Item.class) != null) {
+                        paths.add(resource.getPath());
+                    }
+                }
+            }
+
+            final PostJob job = jobManager.submit(
+                SlingPostConstants.OPERATION_DELETE, response.getPath(),
+                request.getResourceResolver(), versioningConfiguration, new PostJobManager.Task() {
+                    public void execute(Session session, PostJob job)
+                            throws RepositoryException {
+                        for (String path : paths) {
+                            if (session.itemExists(path)) {
+                                Item item = session.getItem(path);
+                                checkoutIfNecessary(item.getParent(),
+                                    job.getChanges(), versioningConfiguration);
+                                if (item.isNode()) {
+                                    removeTree((Node) item, job);
+                                } else {
+                                    item.remove();
+                                    job.processed(session);
+                                }
+                            }
+                        }
+                    }
+                });
+            if (job == null) {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Too many queued delete jobs");
+                return;
+            }
+
+            response.setStatus(HttpServletResponse.SC_ACCEPTED,
+                "Started delete job " + job.getId());
+            response.onChange("job", job.getId());
+
+        } else if (res == null) {
 
             Resource resource = request.getResource();
             Item item = resource.adaptTo(Item.class);
@@ -72,4 +138,37 @@ public class DeleteOperation extends AbstractPostOperation {
         }
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Removes the subtree rooted at the node bottom-up, such that the job
+     * may save the removal of each batch of nodes. Protected and mandatory
+     * child nodes are removed together with their parent.
+     */
+    static void removeTree(Node node, PostJob job) throws RepositoryException {
+        removeTree(node, job, true);
+    }
+
+    /**
+     * Removes the subtree rooted at the node like
+     * {@link #removeTree(Node, PostJob)}, letting the job save the removal
+     * only if <code>savable</code> is <code>true</code>.
+     */
+    static void removeTree(Node node, PostJob job, boolean savable)
+            throws RepositoryException {
+        final List<Node> children = new ArrayList<Node>();
+        for (NodeIterator iter = node.getNodes(); iter.hasNext();) {
+            Node child = iter.nextNode();
+            NodeDefinition definition = child.getDefinition();
+            if (!definition.isProtected() && !definition.isMandatory()) {
+                children.add(child);
+            }
+        }
+        for (Node child : children) {
+            removeTree(child, job, savable);
+        }
+
+        final Session session = node.getSession();
+        node.remove();
+        job.processed(session, savable);
+    }
+}
@@ -50,6 +50,11 @@ public class ImportOperation extends AbstractCreateOperation {
      */
     private ContentImporter contentImporter;
 
+    /**
+     * The number of nodes after which the import is saved, 0 to save once
+     */
+    private int saveBatchSize;
+
     public ImportOperation(ContentImporter contentImporter) {
         this.contentImporter = contentImporter;
     }
@@ -58,6 +63,10 @@ public class ImportOperation extends AbstractCreateOperation {
         this.contentImporter = importer;
     }
 
+    public void setSaveBatchSize(int saveBatchSize) {
+        this.saveBatchSize = saveBatchSize;
+    }
+
     private String getRequestParamAsString(SlingHttpServletRequest request, String key) {
     	RequestParameter requestParameter = request.getRequestParameter(key);
     	if (requestParameter == null) {
@@ -151,6 +160,8 @@ public class ImportOperation extends AbstractCreateOperation {
             targetName = "";
         }
         final String contentRootName = targetName + "." + contentType;
+        final int batchSize = saveBatchSize;
+        final ChangeRecorder recorder = new ChangeRecorder(changes, batchSize > 0);
 
         try {
             InputStream contentStream = null;
@@ -201,40 +212,13 @@ public class ImportOperation extends AbstractCreateOperation {
                             public boolean isPropertyOverwrite() {
                                 return replaceProperties;
                             }
-                        },
-                        new ContentImportListener() {
-
-                            public void onReorder(String orderedPath, String beforeSibbling) {
-                                changes.add(Modification.onOrder(orderedPath, beforeSibbling));
-                            }
-
-                            public void onMove(String srcPath, String destPath) {
-                                changes.add(Modification.onMoved(srcPath, destPath));
-                            }
-
-                            public void onModify(String srcPath) {
-                                changes.add(Modification.onModified(srcPath));
-                            }
-
-                            public void onDelete(String srcPath) {
-                                changes.add(Modification.onDeleted(srcPath));
-                            }
-
-                            public void onCreate(String srcPath) {
-                                changes.add(Modification.onCreated(srcPath));
-                            }
 
-                            public void onCopy(String srcPath, String destPath) {
-                                changes.add(Modification.onCopied(srcPath, destPath));
-                            }
-
-                            public void onCheckin(String srcPath) {
-                                changes.add(Modification.onCheckin(srcPath));
-                            }
-                            public void onCheckout(String srcPath) {
-                                changes.add(Modification.onCheckout(srcPath));
+                            @Override
+                            public int getSaveBatchSize() {
+                                return batchSize;
                             }
-                        });
+                        },
+                        recorder);
             }
 
             if (!changes.isEmpty()) {
@@ -251,8 +235,78 @@ public class ImportOperation extends AbstractCreateOperation {
                     }
                 }
             }
+            if (batchSize > 0) {
+                // report the number of changes not listed individually
+                response.onChange("imported", response.getPath(),
+                    String.valueOf(recorder.getCount()));
+            }
         } catch (IOException e) {
             throw new RepositoryException(e);
         }
     }
+
+    /**
+     * Records the changes of the import. When saving in batches only the
+     * first change, usually the creation of the imported root node, and the
+     * checkouts and checkins are recorded to keep the memory used by large
+     * imports bounded, and the other changes are only counted.
+     */
+    private static class ChangeRecorder implements ContentImportListener {
+
+        private final List<Modification> changes;
+
+        private final boolean firstOnly;
+
+        private int count;
+
+        ChangeRecorder(List<Modification> changes, boolean firstOnly) {
+            this.changes = changes;
+            this.firstOnly = firstOnly;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        private void add(Modification modification) {
+            count++;
+            if (!firstOnly || changes.isEmpty()
+                || modification.getType() == ModificationType.CHECKOUT
+                || modification.getType() == ModificationType.CHECKIN) {
+                changes.add(modification);
+            }
+        }
+
+        public void onReorder(String orderedPath, String beforeSibbling) {
+            add(Modification.onOrder(orderedPath, beforeSibbling));
+        }
+
+        public void onMove(String srcPath, String destPath) {
+            add(Modification.onMoved(srcPath, destPath));
+        }
+
+        public void onModify(String srcPath) {
+            add(Modification.onModified(srcPath));
+        }
+
+        public void onDelete(String srcPath) {
+            add(Modification.onDeleted(srcPath));
+        }
+
+        public void onCreate(String srcPath) {
+            add(Modification.onCreated(srcPath));
+        }
+
+        public void onCopy(String srcPath, String destPath) {
+            add(Modification.onCopied(srcPath, destPath));
+        }
+
+        public void onCheckin(String srcPath) {
+            add(Modification.onCheckin(srcPath));
+        }
+
+        public void onCheckout(String srcPath) {
+            add(Modification.onCheckout(srcPath));
+        }
+    }
 }
\ No newline at end of file
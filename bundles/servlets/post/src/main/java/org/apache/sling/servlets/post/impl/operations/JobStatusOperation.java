@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.operations;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.servlets.post.PostOperation;
+import org.apache.sling.servlets.post.PostResponse;
+import org.apache.sling.servlets.post.SlingPostConstants;
+import org.apache.sling.servlets.post.SlingPostProcessor;
+
+/**
+ * The <code>JobStatusOperation</code> class implements the
+ * {@link org.apache.sling.servlets.post.SlingPostConstants#OPERATION_JOB_STATUS jobstatus}
+ * operation reporting the progress of a copy, delete or move operation run
+ * in the background. The job is reported as a change of type "job" with the
+ * job id, its state, the number of nodes processed, the nodes processed per
+ * second and the nodes per second of all finished jobs of the same operation.
+ * The jobs of other users than the one submitting the job are reported as
+ * unknown.
+ */
+public class JobStatusOperation implements PostOperation {
+
+    private final PostJobManager jobManager;
+
+    public JobStatusOperation(PostJobManager jobManager) {
+        this.jobManager = jobManager;
+    }
+
+    public void run(SlingHttpServletRequest request, PostResponse response,
+            SlingPostProcessor[] processors) {
+        final String id = request.getParameter(SlingPostConstants.RP_JOB);
+        final PostJob job = jobManager.getJob(id);
+        // the jobs of other users are not disclosed
+        if (job == null
+            || !job.isSubmittedBy(request.getResourceResolver().getUserID())) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND, "Unknown job "
+                + id);
+            return;
+        }
+
+        response.setPath(job.getPath());
+        response.onChange("job", job.getId(), job.getState().toString(),
+            String.valueOf(job.getProcessed()),
+            String.valueOf(job.getThroughput()),
+            String.valueOf(jobManager.getThroughput(job.getOperation())));
+
+        switch (job.getState()) {
+            case SUCCEEDED:
+                response.setStatus(HttpServletResponse.SC_OK, "Finished "
+                    + job.getOperation() + " job " + job.getId());
+                break;
+            case FAILED:
+                response.setStatus(
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed "
+                        + job.getOperation() + " job " + job.getId() + ": "
+                        + job.getError());
+                break;
+            default:
+                response.setStatus(HttpServletResponse.SC_ACCEPTED,
+                    job.getState() + " " + job.getOperation() + " job "
+                        + job.getId());
+        }
+    }
+}
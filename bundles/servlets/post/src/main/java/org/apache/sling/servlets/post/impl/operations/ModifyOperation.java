@@ -18,6 +18,7 @@
  */
 package org.apache.sling.servlets.post.impl.operations;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -37,12 +38,14 @@ import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.servlets.post.Modification;
 import org.apache.sling.servlets.post.PostResponse;
 import org.apache.sling.servlets.post.SlingPostConstants;
+import org.apache.sling.servlets.post.SlingPostProcessor;
 import org.apache.sling.servlets.post.VersioningConfiguration;
 import org.apache.sling.servlets.post.impl.helper.DateParser;
 import org.apache.sling.servlets.post.impl.helper.ReferenceParser;
 import org.apache.sling.servlets.post.impl.helper.RequestProperty;
 import org.apache.sling.servlets.post.impl.helper.SlingFileUploadHandler;
 import org.apache.sling.servlets.post.impl.helper.SlingPropertyValueHandler;
+import org.apache.sling.servlets.post.impl.helper.UploadChunkStore;
 
 /**
  * The <code>ModifyOperation</code> class implements the default operation
@@ -51,6 +54,10 @@ import org.apache.sling.servlets.post.impl.helper.SlingPropertyValueHandler;
  */
 public class ModifyOperation extends AbstractCreateOperation {
 
+    /** The request attribute handing the completed chunked uploads to run */
+    private static final String ATTR_UPLOADS = ModifyOperation.class.getName()
+        + ".uploads";
+
     private DateParser dateParser;
 
     /**
@@ -67,10 +74,35 @@ public class ModifyOperation extends AbstractCreateOperation {
         this.uploadHandler.setServletContext(servletContext);
     }
 
+    public void setUploadChunkStore(final UploadChunkStore chunkStore) {
+        this.uploadHandler.setChunkStore(chunkStore);
+    }
+
     public void setDateParser(final DateParser dateParser) {
         this.dateParser = dateParser;
     }
 
+    /**
+     * Runs the operation, removing the chunks of completed chunked uploads
+     * only if the operation succeeded and thus their files have been saved,
+     * or are left to be saved by the caller skipping the session handling.
+     * Otherwise the chunks are kept, such that the upload may be retried.
+     */
+    @Override
+    public void run(SlingHttpServletRequest request, PostResponse response,
+            SlingPostProcessor[] processors) {
+        try {
+            super.run(request, response, processors);
+        } finally {
+            @SuppressWarnings("unchecked")
+            final List<InputStream> uploads = (List<InputStream>) request.getAttribute(ATTR_UPLOADS);
+            if (uploads != null) {
+                request.removeAttribute(ATTR_UPLOADS);
+                uploadHandler.finishUploads(uploads, response.isSuccessful());
+            }
+        }
+    }
+
     @Override
     protected void doRun(SlingHttpServletRequest request, PostResponse response, List<Modification> changes)
             throws RepositoryException {
@@ -83,22 +115,36 @@ public class ModifyOperation extends AbstractCreateOperation {
         // do not change order unless you have a very good reason.
         Session session = request.getResourceResolver().adaptTo(Session.class);
 
-        // ensure root of new content
-        processCreate(session, reqProperties, response, changes, versioningConfiguration);
+        try {
+            // keep chunks of chunked uploads, requests only sending chunks
+            // not completing their file don't touch the repository
+            if (uploadHandler.storeChunks(session.getUserID(), reqProperties,
+                response) && reqProperties.isEmpty()) {
+                return;
+            }
 
-        // write content from existing content (@Move/CopyFrom parameters)
-        processMoves(session, reqProperties, changes, versioningConfiguration);
-        processCopies(session, reqProperties, changes, versioningConfiguration);
+            // ensure root of new content
+            processCreate(session, reqProperties, response, changes, versioningConfiguration);
 
-        // cleanup any old content (@Delete parameters)
-        processDeletes(session, reqProperties, changes, versioningConfiguration);
+            // write content from existing content (@Move/CopyFrom parameters)
+            processMoves(session, reqProperties, changes, versioningConfiguration);
+            processCopies(session, reqProperties, changes, versioningConfiguration);
 
-        // write content from form
-        writeContent(session, reqProperties, changes, versioningConfiguration);
+            // cleanup any old content (@Delete parameters)
+            processDeletes(session, reqProperties, changes, versioningConfiguration);
 
-        // order content
-        String path = response.getPath();
-        orderNode(request, session.getItem(path), changes);
+            // write content from form
+            writeContent(session, reqProperties, changes, versioningConfiguration);
+
+            // order content
+            String path = response.getPath();
+            orderNode(request, session.getItem(path), changes);
+        } finally {
+            final List<InputStream> uploads = uploadHandler.closeUploads(reqProperties.values());
+            if (!uploads.isEmpty()) {
+                request.setAttribute(ATTR_UPLOADS, uploads);
+            }
+        }
     }
 
     @Override
@@ -19,6 +19,7 @@ package org.apache.sling.servlets.post.impl.operations;
 import java.util.List;
 
 import javax.jcr.Item;
+import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
@@ -40,7 +41,8 @@ public class MoveOperation extends AbstractCopyMoveOperation {
     @Override
     protected Item execute(List<Modification> changes, Item source,
             String destParent, String destName,
-            VersioningConfiguration versioningConfiguration) throws RepositoryException {
+            VersioningConfiguration versioningConfiguration, PostJob job)
+            throws RepositoryException {
 
         if (destName == null) {
             destName = source.getName();
@@ -55,11 +57,27 @@ public class MoveOperation extends AbstractCopyMoveOperation {
         
         checkoutIfNecessary(source.getParent(), changes, versioningConfiguration);
 
-        if (session.itemExists(destPath)) {
-            session.getItem(destPath).remove();
+        if (job != null) {
+            // move in the workspace, which does not build up the moved
+            // subtree in the transient space of the session
+            if (session.itemExists(destPath)) {
+                Item destItem = session.getItem(destPath);
+                if (destItem.isNode()) {
+                    DeleteOperation.removeTree((Node) destItem, job);
+                } else {
+                    destItem.remove();
+                }
+            }
+            session.save();
+            session.getWorkspace().move(sourcePath, destPath);
+            job.processed(session);
+        } else {
+            if (session.itemExists(destPath)) {
+                session.getItem(destPath).remove();
+            }
+
+            session.move(sourcePath, destPath);
         }
-        
-        session.move(sourcePath, destPath);
         changes.add(Modification.onMoved(sourcePath, destPath));
         return session.getItem(destPath);
     }
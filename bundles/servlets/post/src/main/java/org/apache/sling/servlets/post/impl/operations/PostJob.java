@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.operations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.servlets.post.Modification;
+
+/**
+ * The <code>PostJob</code> class represents a copy, delete or move operation
+ * run in the background by the {@link PostJobManager}. The job counts the
+ * nodes processed and saves its session each time another batch of nodes has
+ * been processed.
+ */
+public class PostJob {
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private final String id;
+
+    private final String operation;
+
+    private final String path;
+
+    /** the user submitting the job */
+    private final String userId;
+
+    private final int saveBatchSize;
+
+    /** the modifications done by the job, only accessed by the job thread */
+    private final List<Modification> changes = new ArrayList<Modification>();
+
+    private volatile State state = State.QUEUED;
+
+    private volatile long processed;
+
+    /** the nodes processed since the session was saved */
+    private int unsaved;
+
+    private volatile long started;
+
+    private volatile long finished;
+
+    private volatile String error;
+
+    PostJob(String id, String operation, String path, String userId,
+            int saveBatchSize) {
+        this.id = id;
+        this.operation = operation;
+        this.path = path;
+        this.userId = userId;
+        this.saveBatchSize = saveBatchSize;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns <code>true</code> if the job has been submitted by the user.
+     */
+    public boolean isSubmittedBy(String userId) {
+        return (this.userId == null) ? userId == null
+                : this.userId.equals(userId);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the number of nodes processed so far.
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Returns the time the job has been running in milliseconds.
+     */
+    public long getElapsed() {
+        if (started == 0) {
+            return 0;
+        }
+        return ((finished == 0) ? System.currentTimeMillis() : finished)
+            - started;
+    }
+
+    /**
+     * Returns the number of nodes processed per second.
+     */
+    public long getThroughput() {
+        return processed * 1000 / Math.max(1, getElapsed());
+    }
+
+    /**
+     * Returns the message of the error failing the job or <code>null</code>.
+     */
+    public String getError() {
+        return error;
+    }
+
+    List<Modification> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Counts a node processed with the given session and saves the session
+     * if another batch of nodes has been processed.
+     */
+    void processed(Session session) throws RepositoryException {
+        processed(session, true);
+    }
+
+    /**
+     * Counts a node processed with the given session and saves the session
+     * if another batch of nodes has been processed and the pending changes
+     * may be saved. Otherwise the save is deferred to the next node
+     * processed at a point where the changes may be saved.
+     */
+    void processed(Session session, boolean savable)
+            throws RepositoryException {
+        processed++;
+        unsaved++;
+        if (savable && unsaved >= saveBatchSize) {
+            session.save();
+            unsaved = 0;
+        }
+    }
+
+    void start() {
+        started = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    void finish(Throwable t) {
+        finished = System.currentTimeMillis();
+        if (t == null) {
+            state = State.SUCCEEDED;
+        } else {
+            error = t.toString();
+            state = State.FAILED;
+        }
+    }
+
+    boolean isFinishedBefore(long time) {
+        return finished != 0 && finished < time;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.operations;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Item;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.ModificationType;
+import org.apache.sling.servlets.post.SlingPostConstants;
+import org.apache.sling.servlets.post.VersioningConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>PostJobManager</code> runs copy, delete and move operations
+ * requested with the {@link SlingPostConstants#RP_ASYNC} parameter one after
+ * the other in a background thread. Each job uses its own session, taken
+ * from a clone of the resource resolver of the request, which logs in with
+ * the credentials of the request for any user including anonymous. The
+ * session is saved in batches of nodes.
+ * <p>
+ * As each queued job holds a session, at most {@link #MAX_QUEUED_JOBS} jobs
+ * are queued. Further jobs are rejected until the queue drains.
+ * <p>
+ * Finished jobs are kept for an hour to be polled with the
+ * {@link SlingPostConstants#OPERATION_JOB_STATUS job status} operation. The
+ * throughput of the finished jobs is summed up per operation.
+ */
+public class PostJobManager {
+
+    /**
+     * The work done by a job.
+     */
+    interface Task {
+
+        /**
+         * Runs the operation with the session of the job, calling
+         * {@link PostJob#processed(Session)} for each node processed.
+         */
+        void execute(Session session, PostJob job) throws RepositoryException;
+    }
+
+    /** The time finished jobs are kept, one hour */
+    private static final long JOB_EXPIRY = 60L * 60 * 1000;
+
+    /** The maximum number of jobs waiting for the running job */
+    static final int MAX_QUEUED_JOBS = 100;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, PostJob> jobs = new ConcurrentHashMap<String, PostJob>();
+
+    /** the nodes processed and milliseconds spent per operation */
+    private final Map<String, long[]> statistics = new HashMap<String, long[]>();
+
+    private final ThreadPoolExecutor executor;
+
+    private volatile int saveBatchSize = 1000;
+
+    public PostJobManager() {
+        this(MAX_QUEUED_JOBS);
+    }
+
+    PostJobManager(int maxQueuedJobs) {
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(maxQueuedJobs),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "Sling POST Jobs");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * Sets the number of nodes after which jobs save their session.
+     */
+    public void setSaveBatchSize(int saveBatchSize) {
+        this.saveBatchSize = Math.max(1, saveBatchSize);
+    }
+
+    /**
+     * Returns <code>true</code> if the request asks for the operation to be
+     * run in the background.
+     */
+    static boolean isAsync(SlingHttpServletRequest request) {
+        return "true".equalsIgnoreCase(request.getParameter(SlingPostConstants.RP_ASYNC));
+    }
+
+    /**
+     * Queues a job running the task with the session of a clone of the
+     * resource resolver of the request, which outlives the request.
+     *
+     * @return the job or <code>null</code> if too many jobs are queued
+     * @throws RepositoryException if the resource resolver cannot be cloned
+     *             or the manager has been shut down
+     */
+    PostJob submit(String operation, String path,
+            ResourceResolver requestResolver,
+            VersioningConfiguration versioningConfiguration, Task task)
+            throws RepositoryException {
+        purge();
+        if (executor.getQueue().remainingCapacity() == 0) {
+            log.warn("Rejecting {} job of {}, {} jobs are queued",
+                new Object[] { operation, path, executor.getQueue().size() });
+            return null;
+        }
+
+        final ResourceResolver resolver;
+        try {
+            resolver = requestResolver.clone(null);
+        } catch (LoginException le) {
+            throw new RepositoryException("Cannot get a session for the "
+                + operation + " job", le);
+        }
+        if (resolver.adaptTo(Session.class) == null) {
+            resolver.close();
+            throw new RepositoryException("Cannot get a session for the "
+                + operation + " job");
+        }
+
+        final PostJob job = new PostJob(UUID.randomUUID().toString(),
+            operation, path, requestResolver.getUserID(), saveBatchSize);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(new JobRunner(job, resolver,
+                versioningConfiguration, task));
+        } catch (RejectedExecutionException ree) {
+            jobs.remove(job.getId());
+            resolver.close();
+            if (!executor.isShutdown()) {
+                // the queue filled up since checking it
+                log.warn("Rejecting {} job of {}, the queue is full",
+                    operation, path);
+                return null;
+            }
+            throw new RepositoryException("Cannot start " + operation
+                + " job, the POST servlet is shut down");
+        }
+        log.debug("Queued {} job {} of {}", new Object[] { operation,
+            job.getId(), path });
+        return job;
+    }
+
+    /**
+     * Returns the job with the given id or <code>null</code> if it is unknown
+     * or has expired.
+     */
+    public PostJob getJob(String id) {
+        return (id == null) ? null : jobs.get(id);
+    }
+
+    /**
+     * Returns the number of nodes per second processed by the finished jobs
+     * of the operation.
+     */
+    public synchronized long getThroughput(String operation) {
+        final long[] total = statistics.get(operation);
+        return (total == null) ? 0 : total[0] * 1000 / Math.max(1, total[1]);
+    }
+
+    /**
+     * Stops the running job and drops the queued jobs, closing their
+     * resource resolvers.
+     */
+    public void shutdown() {
+        for (Runnable runner : executor.shutdownNow()) {
+            ((JobRunner) runner).drop();
+        }
+        jobs.clear();
+    }
+
+    private void execute(PostJob job, ResourceResolver resolver,
+            VersioningConfiguration versioningConfiguration, Task task) {
+        final Session session = resolver.adaptTo(Session.class);
+        job.start();
+        try {
+            task.execute(session, job);
+            if (session.hasPendingChanges()) {
+                session.save();
+            }
+
+            if (versioningConfiguration.isAutoCheckin()) {
+                for (Modification change : job.getChanges()) {
+                    if (change.getType() == ModificationType.CHECKOUT) {
+                        final Item item = session.getItem(change.getSource());
+                        if (item.isNode() && ((Node) item).isCheckedOut()) {
+                            ((Node) item).checkin();
+                        }
+                    }
+                }
+            }
+            job.finish(null);
+        } catch (Throwable t) {
+            log.error("Failure running " + job.getOperation() + " job "
+                + job.getId() + " of " + job.getPath(), t);
+            try {
+                session.refresh(false);
+            } catch (RepositoryException re) {
+                log.warn("RepositoryException refreshing job session: {}",
+                    re.getMessage());
+            }
+            job.finish(t);
+        } finally {
+            resolver.close();
+        }
+
+        synchronized (this) {
+            long[] total = statistics.get(job.getOperation());
+            if (total == null) {
+                total = new long[2];
+                statistics.put(job.getOperation(), total);
+            }
+            total[0] += job.getProcessed();
+            total[1] += job.getElapsed();
+        }
+        log.info("{} job {} of {} {}: {} nodes in {}ms ({} nodes/s)",
+            new Object[] { job.getOperation(), job.getId(), job.getPath(),
+                job.getState(), job.getProcessed(), job.getElapsed(),
+                job.getThroughput() });
+    }
+
+    /**
+     * Runs a queued job with its resource resolver.
+     */
+    private class JobRunner implements Runnable {
+
+        private final PostJob job;
+
+        private final ResourceResolver resolver;
+
+        private final VersioningConfiguration versioningConfiguration;
+
+        private final Task task;
+
+        JobRunner(PostJob job, ResourceResolver resolver,
+                VersioningConfiguration versioningConfiguration, Task task) {
+            this.job = job;
+            this.resolver = resolver;
+            this.versioningConfiguration = versioningConfiguration;
+            this.task = task;
+        }
+
+        public void run() {
+            execute(job, resolver, versioningConfiguration, task);
+        }
+
+        /**
+         * Closes the resource resolver of the job dropped from the queue.
+         */
+        void drop() {
+            log.info("Dropping queued {} job {} of {}", new Object[] {
+                job.getOperation(), job.getId(), job.getPath() });
+            resolver.close();
+        }
+    }
+
+    /**
+     * Removes the jobs finished longer than the expiry time ago.
+     */
+    private void purge() {
+        final long expired = System.currentTimeMillis() - JOB_EXPIRY;
+        for (Iterator<PostJob> i = jobs.values().iterator(); i.hasNext();) {
+            if (i.next().isFinishedBefore(expired)) {
+                i.remove();
+            }
+        }
+    }
+}
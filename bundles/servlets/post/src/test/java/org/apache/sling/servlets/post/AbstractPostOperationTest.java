@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+
+public class AbstractPostOperationTest extends TestCase {
+
+    private final AbstractPostOperation op = new AbstractPostOperation() {
+        @Override
+        protected void doRun(SlingHttpServletRequest request,
+                PostResponse response, List<Modification> changes) {
+            // none here
+        }
+    };
+
+    /** the names of the child nodes in their order */
+    private final List<String> children = new ArrayList<String>();
+
+    /** the number of child nodes read from the iterators */
+    private int read;
+
+    /** the orderBefore calls as "name next" */
+    private final List<String> ordered = new ArrayList<String>();
+
+    private Node parent;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        children.addAll(Arrays.asList("a", "b", "c", "d", "e"));
+        parent = proxy(Node.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getNodes")) {
+                    return iterator();
+                } else if (method.getName().equals("orderBefore")) {
+                    ordered.add(args[0] + " " + args[1]);
+                    children.remove(args[0]);
+                    final int pos = (args[1] == null)
+                            ? children.size()
+                            : children.indexOf(args[1]);
+                    children.add(pos, (String) args[0]);
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    public void testAfter() throws RepositoryException {
+        assertEquals(Arrays.asList("/a"), order("a", "after c"));
+        assertEquals(Arrays.asList("b", "c", "a", "d", "e"), children);
+        assertEquals(Arrays.asList("a d"), ordered);
+        assertEquals(4, read);
+
+        // after the last node
+        order("a", "after e");
+        assertEquals(Arrays.asList("b", "c", "d", "e", "a"), children);
+
+        // already after the node
+        order("d", "after c");
+        assertEquals(Arrays.asList("b", "c", "d", "e", "a"), children);
+
+        try {
+            order("a", "after x");
+            fail("Expected ordering after a missing node to fail");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    public void testPosition() throws RepositoryException {
+        assertEquals(Arrays.asList("/a"), order("a", "2"));
+        assertEquals(Arrays.asList("b", "c", "a", "d", "e"), children);
+        assertEquals(Arrays.asList("a d"), ordered);
+        assertEquals(4, read);
+
+        order("e", "0");
+        assertEquals(Arrays.asList("e", "b", "c", "a", "d"), children);
+
+        order("b", "4");
+        assertEquals(Arrays.asList("e", "c", "a", "d", "b"), children);
+
+        order("e", "10");
+        assertEquals(Arrays.asList("c", "a", "d", "b", "e"), children);
+    }
+
+    public void testFirstAndLast() throws RepositoryException {
+        order("c", "first");
+        assertEquals(Arrays.asList("c", "a", "b", "d", "e"), children);
+        order("c", "last");
+        assertEquals(Arrays.asList("a", "b", "d", "e", "c"), children);
+        order("a", "before e");
+        assertEquals(Arrays.asList("b", "d", "a", "e", "c"), children);
+    }
+
+    /**
+     * Orders the child node and returns the paths of the reported changes.
+     */
+    private List<String> order(final String name, final String command)
+            throws RepositoryException {
+        read = 0;
+        ordered.clear();
+        final Node node = proxy(Node.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("isNode")) {
+                    return true;
+                } else if (method.getName().equals("getParent")) {
+                    return parent;
+                } else if (method.getName().equals("getName")) {
+                    return name;
+                } else if (method.getName().equals("getPath")) {
+                    return "/" + name;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        final SlingHttpServletRequest request = new MockSlingHttpServletRequest(
+            "/" + name, null, null, null, null) {
+            @Override
+            public String getParameter(String param) {
+                return SlingPostConstants.RP_ORDER.equals(param) ? command : null;
+            }
+        };
+
+        final List<Modification> changes = new ArrayList<Modification>();
+        op.orderNode(request, node, changes);
+        final List<String> paths = new ArrayList<String>();
+        for (Modification change : changes) {
+            assertEquals(ModificationType.ORDER, change.getType());
+            paths.add(change.getSource());
+        }
+        return paths;
+    }
+
+    private NodeIterator iterator() {
+        final Iterator<String> names = new ArrayList<String>(children).iterator();
+        return proxy(NodeIterator.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("hasNext")) {
+                    return names.hasNext();
+                } else if (method.getName().equals("nextNode")) {
+                    read++;
+                    final String name = names.next();
+                    return proxy(Node.class, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getName().equals("getName")) {
+                                return name;
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { type }, handler));
+    }
+}
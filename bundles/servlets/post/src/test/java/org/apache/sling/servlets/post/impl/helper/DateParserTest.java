@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.helper;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class DateParserTest extends TestCase {
+
+    private DateParser parser;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        parser = new DateParser();
+        parser.register("EEE MMM dd yyyy HH:mm:ss 'GMT'Z");
+        parser.register("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        parser.register("yyyy-MM-dd'T'HH:mm:ss");
+        parser.register("yyyy-MM-dd");
+        parser.register("dd.MM.yyyy HH:mm:ss");
+        parser.register("dd.MM.yyyy");
+    }
+
+    public void testFormats() {
+        assertDate(2010, 0, 5, 11, parser.parse("Tue Jan 05 2010 12:00:00 GMT+0100 (CET)"));
+        assertDate(2010, 0, 5, 11, parser.parse("2010-01-05T12:00:00.000+0100"));
+        assertDate(2010, 0, 5, 0, parser.parse("2010-01-05"));
+        assertDate(2010, 0, 5, 0, parser.parse("05.01.2010"));
+        assertNull(parser.parse("not a date"));
+        assertNull(parser.parse(new String[] { "2010-01-05", "none" }));
+    }
+
+    public void testSameShapeDifferentFormats() {
+        final DateParser p = new DateParser();
+        p.register("MMM dd yyyy");
+        p.register("EEE dd yyyy");
+
+        // both strings have the same shape, the second only parses with the
+        // second format
+        assertDate(2010, 0, 5, 0, p.parse("Jan 05 2010"));
+        final Calendar c = p.parse("Tue 05 2010");
+        assertNotNull(c);
+        assertEquals(2010, c.get(Calendar.YEAR));
+        assertNull(p.parse("Foo 05 2010"));
+        assertDate(2011, 1, 6, 0, p.parse("Feb 06 2011"));
+    }
+
+    public void testRegistrationOrderWins() {
+        final DateParser p = new DateParser();
+        p.register("yyyy-MM-dd Z");
+        p.register("yyyy-MM-dd");
+
+        // the invalid zone only parses with the second format
+        assertDate(2010, 0, 5, 0, p.parse("2010-01-05 +9999"));
+
+        // the string of the same shape is parsed with the zone by the
+        // first format, not by the format which parsed the last one
+        assertDate(2010, 0, 4, 23, p.parse("2010-01-05 +0100"));
+    }
+
+    public void testCachedResultIsCopied() {
+        final Calendar first = parser.parse("2010-01-05");
+        first.add(Calendar.YEAR, 1);
+        assertDate(2010, 0, 5, 0, parser.parse("2010-01-05"));
+    }
+
+    public void testConcurrentParsing() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            final int day = 1 + i % 28;
+                            final String date = "2010-03-" + (day < 10 ? "0" : "") + day;
+                            assertDate(2010, 2, day, 0, parser.parse(date));
+                        }
+                    } catch (Throwable th) {
+                        failure.set(th);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new Exception(failure.get());
+        }
+    }
+
+    private static void assertDate(int year, int month, int day, int hour,
+            Calendar c) {
+        assertNotNull(c);
+        final Calendar expected = Calendar.getInstance();
+        if (hour != 0) {
+            expected.setTimeZone(TimeZone.getTimeZone("GMT"));
+        }
+        expected.clear();
+        expected.set(year, month, day, hour, 0, 0);
+        assertEquals(expected.getTimeInMillis(), c.getTimeInMillis());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.helper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+
+import junit.framework.TestCase;
+
+public class NameSuffixCacheTest extends TestCase {
+
+    /** the existing item paths */
+    private final Set<String> items = new HashSet<String>();
+
+    private int lookups;
+
+    private Session session;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Workspace workspace = (Workspace) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Workspace.class },
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return "default";
+                }
+            });
+        session = (Session) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Session.class },
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("itemExists")) {
+                        lookups++;
+                        return items.contains(args[0]);
+                    } else if (method.getName().equals("getWorkspace")) {
+                        return workspace;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    public void testFreePath() throws RepositoryException {
+        assertEquals("/a/b", new NameSuffixCache().getUniquePath(session, "/a/b"));
+    }
+
+    public void testSmallestIndexWithoutGaps() throws RepositoryException {
+        items.add("/a/b");
+        for (int i = 0; i < 37; i++) {
+            items.add("/a/b_" + i);
+        }
+        assertEquals("/a/b_37", new NameSuffixCache().getUniquePath(session, "/a/b"));
+    }
+
+    public void testSequence() throws RepositoryException {
+        final NameSuffixCache cache = new NameSuffixCache();
+        items.add("/a/b");
+        for (int i = 0; i < 10; i++) {
+            final String path = cache.getUniquePath(session, "/a/b");
+            assertEquals("/a/b_" + i, path);
+            items.add(path);
+        }
+
+        // a node created by someone else is skipped
+        items.add("/a/b_10");
+        assertEquals("/a/b_11", cache.getUniquePath(session, "/a/b"));
+    }
+
+    /**
+     * Creates 50000 nodes with the same generated name and counts the
+     * lookups, which are two per node instead of the index plus two for
+     * probing the indexes one by one.
+     */
+    public void testLookups() throws RepositoryException {
+        final NameSuffixCache cache = new NameSuffixCache();
+        items.add("/a/b");
+        for (int i = 0; i < 50000; i++) {
+            items.add(cache.getUniquePath(session, "/a/b"));
+        }
+        assertTrue(String.valueOf(lookups), lookups <= 2 * 50000);
+
+        // without hint
+        lookups = 0;
+        assertEquals("/a/b_50000", new NameSuffixCache().getUniquePath(session, "/a/b"));
+        assertTrue(String.valueOf(lookups), lookups < 40);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.servlets.post.HtmlResponse;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+public class SlingFileUploadHandlerTest extends TestCase {
+
+    private final Mockery context = new Mockery();
+
+    private File directory;
+
+    private UploadChunkStore store;
+
+    private SlingFileUploadHandler handler;
+
+    private final List<String> uploads = new ArrayList<String>();
+
+    private final HtmlResponse response = new HtmlResponse() {
+        @Override
+        public void onChange(String type, String... arguments) {
+            if ("upload".equals(type)) {
+                uploads.add(arguments[0] + " " + arguments[1]);
+            }
+            super.onChange(type, arguments);
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("uploads", "");
+        directory.delete();
+        handler = new SlingFileUploadHandler();
+        store = new UploadChunkStore(directory, 60000);
+        handler.setChunkStore(store);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new UploadChunkStore(directory, -1).purge();
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testChunksBeforeLastAreRemoved() throws Exception {
+        final Map<String, RequestProperty> props = new LinkedHashMap<String, RequestProperty>();
+        props.put("/content/file", chunk("file", "", 0, "abc"));
+        props.put("/content/title", new RequestProperty("/content/title"));
+
+        assertTrue(handler.storeChunks("user", props, response));
+        assertFalse(props.containsKey("/content/file"));
+        assertTrue(props.containsKey("/content/title"));
+
+        // the generated id is reported
+        assertEquals(1, uploads.size());
+        final String uploadId = uploads.get(0).substring("/content/file ".length());
+        assertEquals(32, uploadId.length());
+
+        props.clear();
+        final RequestProperty last = chunk("file", uploadId, 3, "def");
+        props.put("/content/file", last);
+        assertTrue(handler.storeChunks("user", props, response));
+        assertSame(last, props.get("/content/file"));
+        assertNotNull(last.getUploadData());
+        assertEquals(1, uploads.size());
+
+        handler.closeUploads(props.values());
+        assertNull(last.getUploadData());
+    }
+
+    public void testUploadKeptUntilSaved() throws Exception {
+        final Map<String, RequestProperty> props = new LinkedHashMap<String, RequestProperty>();
+        props.put("/content/file", chunk("file", "", 0, "abcdef"));
+        handler.storeChunks("user", props, response);
+        final String uploadId = uploads.get(0).substring("/content/file ".length());
+
+        // the save failed, the upload may be completed again
+        handler.finishUploads(handler.closeUploads(props.values()), false);
+        final InputStream data = store.assemble("user", uploadId, 6);
+        assertNotNull(data);
+        store.release(data);
+
+        props.put("/content/file", chunk("file", uploadId, 0, "abcdef"));
+        handler.storeChunks("user", props, response);
+        handler.finishUploads(handler.closeUploads(props.values()), true);
+        assertNull(store.assemble("user", uploadId, 6));
+    }
+
+    public void testCompleteFileInFirstChunk() throws Exception {
+        final Map<String, RequestProperty> props = new LinkedHashMap<String, RequestProperty>();
+        final RequestProperty prop = chunk("file", "", 0, "abcdef");
+        props.put("/content/file", prop);
+        assertTrue(handler.storeChunks("user", props, response));
+        assertNotNull(prop.getUploadData());
+        handler.closeUploads(props.values());
+    }
+
+    public void testNoChunks() throws Exception {
+        final Map<String, RequestProperty> props = new LinkedHashMap<String, RequestProperty>();
+        props.put("/content/title", new RequestProperty("/content/title"));
+        assertFalse(handler.storeChunks("user", props, response));
+        assertEquals(1, props.size());
+    }
+
+    public void testUploadOfOtherUser() throws Exception {
+        final Map<String, RequestProperty> props = new LinkedHashMap<String, RequestProperty>();
+        props.put("/content/file", chunk("file", "", 0, "abc"));
+        handler.storeChunks("user", props, response);
+        final String uploadId = uploads.get(0).substring("/content/file ".length());
+
+        props.put("/content/file", chunk("file", uploadId, 3, "def"));
+        try {
+            handler.storeChunks("other", props, response);
+            fail("Expected chunk of another user's upload to fail");
+        } catch (RepositoryException expected) {
+            // expected
+        }
+    }
+
+    private RequestProperty chunk(String name, String uploadId, long offset,
+            final String data) throws IOException {
+        final RequestParameter value = context.mock(RequestParameter.class,
+            name + offset + uploadId);
+        context.checking(new Expectations() {{
+            allowing(value).isFormField(); will(returnValue(false));
+            allowing(value).getSize(); will(returnValue((long) data.length()));
+            allowing(value).getInputStream();
+            will(returnValue(new ByteArrayInputStream(data.getBytes())));
+        }});
+
+        final RequestProperty prop = new RequestProperty("/content/" + name);
+        prop.setValues(new RequestParameter[] { value });
+        prop.setUploadId(uploadId);
+        prop.setChunkOffset(offset);
+        prop.setFileLength(6);
+        return prop;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+public class UploadChunkStoreTest extends TestCase {
+
+    private File directory;
+
+    private UploadChunkStore store;
+
+    private String upload;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("uploads", "");
+        directory.delete();
+        store = new UploadChunkStore(directory, 60000);
+        upload = store.create("user");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new UploadChunkStore(directory, -1).purge();
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testChunksInAnyOrder() throws IOException {
+        store(2, "cd");
+        assertNull(store.assemble("user", upload, 6));
+        store(4, "ef");
+        assertNull(store.assemble("user", upload, 6));
+        store(0, "ab");
+        assertEquals("abcdef", commit(store.assemble("user", upload, 6)));
+        assertEquals(0, directory.listFiles()[0].list().length);
+    }
+
+    public void testResendAndOverlap() throws IOException {
+        store(0, "xxx");
+        store(0, "abc");
+        store(2, "cdef");
+        assertEquals("abcdef", commit(store.assemble("user", upload, 6)));
+    }
+
+    public void testAssembleOnce() throws IOException {
+        store.store("user", upload, 0, 3, stream("abc"));
+        final InputStream data = store.assemble("user", upload, 3);
+        assertNotNull(data);
+        assertNull(store.assemble("user", upload, 3));
+        assertEquals("abc", read(data));
+    }
+
+    public void testReleasedUploadIsKept() throws IOException {
+        store(0, "abcdef");
+        final InputStream data = store.assemble("user", upload, 6);
+        assertEquals("abcdef", read(data));
+        store.release(data);
+
+        // the upload may be completed again after a failed save
+        assertEquals("abcdef", commit(store.assemble("user", upload, 6)));
+        assertNull(store.assemble("user", upload, 6));
+    }
+
+    public void testGeneratedIds() throws IOException {
+        final String other = store.create("user");
+        assertFalse(upload.equals(other));
+        assertEquals(32, other.length());
+    }
+
+    public void testInvalidUpload() throws IOException {
+        try {
+            store.store("user", "../" + upload, 0, 6, stream("a"));
+            fail("Expected invalid upload id to fail");
+        } catch (IOException expected) {
+            // expected
+        }
+        try {
+            // ids are generated by the store
+            store.store("user", "0123456789abcdef0123456789abcdef", 0, 6, stream("a"));
+            fail("Expected unknown upload to fail");
+        } catch (IOException expected) {
+            // expected
+        }
+        try {
+            store(-1, "a");
+            fail("Expected negative offset to fail");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    public void testUploadsOfOtherUsers() throws IOException {
+        try {
+            store.store("other", upload, 0, 6, stream("abcdef"));
+            fail("Expected upload of another user to fail");
+        } catch (IOException expected) {
+            // expected
+        }
+        store(0, "abcdef");
+        assertNull(store.assemble("other", upload, 6));
+        assertEquals("abcdef", commit(store.assemble("user", upload, 6)));
+    }
+
+    public void testChunkSizeLimit() throws IOException {
+        store.setLimits(2, 100, 10);
+        store(0, "ab");
+        try {
+            store(2, "cde");
+            fail("Expected chunk exceeding the chunk size to fail");
+        } catch (IOException expected) {
+            // expected
+        }
+        try {
+            store(5, "fg");
+            fail("Expected chunk exceeding the file to fail");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertNull(store.assemble("user", upload, 6));
+    }
+
+    public void testTotalSizeLimit() throws IOException {
+        store.setLimits(100, 8, 10);
+        store(0, "abcd");
+        final String other = store.create("other");
+        try {
+            store.store("other", other, 0, 6, stream("abcdef"));
+            fail("Expected chunks exceeding the total size to fail");
+        } catch (IOException expected) {
+            // expected
+        }
+
+        // replacing a chunk only counts the difference
+        store(0, "abc");
+        store(3, "def");
+        assertEquals("abcdef", commit(store.assemble("user", upload, 6)));
+
+        // the size of assembled uploads is released
+        store.store("other", other, 0, 6, stream("abcdef"));
+    }
+
+    public void testUploadCountLimit() throws IOException {
+        store.setLimits(100, 100, 2);
+        store.create("other");
+        try {
+            store.create("user");
+            fail("Expected too many uploads to fail");
+        } catch (IOException expected) {
+            // expected
+        }
+        store(0, "abcdef");
+        commit(store.assemble("user", upload, 6));
+        store.create("user");
+    }
+
+    public void testPurge() throws IOException {
+        store(0, "ab");
+        final File user = directory.listFiles()[0];
+        new File(new File(user, upload), "0").setLastModified(0);
+        new File(user, upload).setLastModified(0);
+        final String other = store.create("user");
+        assertFalse(new File(user, upload).exists());
+        assertTrue(new File(user, other).exists());
+    }
+
+    private void store(long offset, String data) throws IOException {
+        store.store("user", upload, offset, 6, stream(data));
+    }
+
+    /**
+     * Reads the complete file of an upload and removes its chunks.
+     */
+    private String commit(InputStream data) throws IOException {
+        final String file = read(data);
+        store.commit(data);
+        return file;
+    }
+
+    private static InputStream stream(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+
+    private static String read(InputStream data) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            int b;
+            while ((b = data.read()) >= 0) {
+                out.write(b);
+            }
+        } finally {
+            data.close();
+        }
+        return out.toString();
+    }
+}
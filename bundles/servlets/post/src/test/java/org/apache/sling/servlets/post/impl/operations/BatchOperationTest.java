@@ -0,0 +1,406 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.operations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Item;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockResourceResolver;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.apache.sling.servlets.post.AbstractPostOperation;
+import org.apache.sling.servlets.post.HtmlResponse;
+import org.apache.sling.servlets.post.Modification;
+import org.apache.sling.servlets.post.PostOperation;
+import org.apache.sling.servlets.post.PostResponse;
+import org.apache.sling.servlets.post.SlingPostConstants;
+import org.apache.sling.servlets.post.SlingPostProcessor;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+
+public class BatchOperationTest extends TestCase {
+
+    private final Mockery context = new Mockery();
+
+    private Session session;
+
+    private MockResourceResolver resolver;
+
+    private RecordingOperation modify;
+
+    private RecordingOperation delete;
+
+    private BatchOperation batch;
+
+    /** The entries executed by the operations as "operation path" */
+    private final List<String> executed = new ArrayList<String>();
+
+    /** Whether the session has changes of entries not saved yet */
+    private boolean pending;
+
+    /** The number of batch requests to name their content mocks */
+    private int requests;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        session = context.mock(Session.class);
+        context.checking(new Expectations() {{
+            allowing(session).hasPendingChanges();
+            will(new CustomAction("pending changes") {
+                public Object invoke(Invocation invocation) {
+                    return pending;
+                }
+            });
+        }});
+
+        resolver = new MockResourceResolver() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+                if (type == Session.class) {
+                    return (AdapterType) session;
+                }
+                return super.adaptTo(type);
+            }
+        };
+        resolver.addResource(new MockResource(resolver, "/content", "folder"));
+        resolver.addResource(new MockResource(resolver, "/content/a", "page"));
+
+        modify = new RecordingOperation("modify");
+        delete = new RecordingOperation("delete");
+        final Map<String, PostOperation> operations = new HashMap<String, PostOperation>();
+        operations.put(SlingPostConstants.OPERATION_DELETE, delete);
+        batch = new BatchOperation(operations, modify);
+    }
+
+    public void testDefaultAndExplicitOperations() throws Exception {
+        context.checking(new Expectations() {{
+            one(session).save(); will(saved());
+        }});
+
+        final RecordingResponse response = runBatch("["
+            + "{ \"path\": \"/content/a\", \"properties\": { \"title\": \"A\", \"tags\": [ \"x\", \"y\" ] } },"
+            + "{ \"path\": \"/content/b\", \"operation\": \"delete\" } ]");
+
+        assertTrue(response.isSuccessful());
+        assertEquals(Arrays.asList("modify /content/a", "delete /content/b"),
+            executed);
+        assertEquals("A", modify.parameters.get(0).get("title")[0]);
+        assertEquals(Arrays.asList("x", "y"),
+            Arrays.asList(modify.parameters.get(0).get("tags")));
+        assertTrue(delete.parameters.get(0).isEmpty());
+        assertEquals(Arrays.asList("0 /content/a 200", "1 /content/b 200"),
+            response.entries);
+        context.assertIsSatisfied();
+    }
+
+    public void testRelativePaths() throws Exception {
+        context.checking(new Expectations() {{
+            one(session).save(); will(saved());
+        }});
+
+        final RecordingResponse response = runBatch("["
+            + "{ \"path\": \"a\" }, { \"path\": \"b/c\" }, { \"path\": \"/other\" } ]");
+
+        assertTrue(response.isSuccessful());
+        assertEquals(Arrays.asList("modify /content/a", "modify /content/b/c",
+            "modify /other"), executed);
+        context.assertIsSatisfied();
+    }
+
+    public void testIntermediateSaves() throws Exception {
+        batch.setSaveBatchSize(2);
+
+        // after the second and the fourth entry and the remaining changes
+        context.checking(new Expectations() {{
+            exactly(3).of(session).save(); will(saved());
+        }});
+
+        final RecordingResponse response = runBatch("["
+            + "{ \"path\": \"a\" }, { \"path\": \"b\" }, { \"path\": \"c\" },"
+            + "{ \"path\": \"d\" }, { \"path\": \"e\" } ]");
+
+        assertTrue(response.isSuccessful());
+        assertEquals(5, executed.size());
+
+        // only the entries are reported, not their changes
+        assertEquals(5, response.entries.size());
+        assertTrue(response.modified.isEmpty());
+        context.assertIsSatisfied();
+    }
+
+    public void testIntermediateSavesKeepCheckouts() throws Exception {
+        batch.setSaveBatchSize(2);
+        final Item item = context.mock(Item.class);
+        context.checking(new Expectations() {{
+            exactly(2).of(session).save(); will(saved());
+            // the checked out nodes are looked up to check them in
+            exactly(3).of(session).getItem(with(any(String.class))); will(returnValue(item));
+        }});
+
+        final SlingPostProcessor processor = new SlingPostProcessor() {
+            public void process(SlingHttpServletRequest request,
+                    List<Modification> changes) {
+                changes.add(Modification.onCheckout(request.getResource().getPath()));
+            }
+        };
+        final RecordingResponse response = runBatch("["
+            + "{ \"path\": \"a\" }, { \"path\": \"b\" }, { \"path\": \"c\" } ]",
+            processor);
+
+        // the checkouts are kept to check the nodes in after saving
+        assertTrue(response.isSuccessful());
+        assertTrue(response.modified.isEmpty());
+        assertEquals(Arrays.asList("/content/a", "/content/b", "/content/c"),
+            response.checkouts);
+        context.assertIsSatisfied();
+    }
+
+    public void testFailingEntryRollsBack() throws Exception {
+        context.checking(new Expectations() {{
+            never(session).save();
+            one(session).refresh(false);
+        }});
+
+        final RecordingResponse response = runBatch("["
+            + "{ \"path\": \"a\" },"
+            + "{ \"path\": \"b\", \"properties\": { \"fail\": \"true\" } },"
+            + "{ \"path\": \"c\" } ]");
+
+        assertFalse(response.isSuccessful());
+        assertEquals(Arrays.asList("modify /content/a", "modify /content/b"),
+            executed);
+        assertEquals(Arrays.asList("0 /content/a 200", "1 /content/b 500"),
+            response.entries);
+        context.assertIsSatisfied();
+    }
+
+    public void testUnknownOperationFails() throws Exception {
+        context.checking(new Expectations() {{
+            never(session).save();
+        }});
+
+        final RecordingResponse response = runBatch("["
+            + "{ \"path\": \"a\", \"operation\": \"unknown\" } ]");
+
+        assertFalse(response.isSuccessful());
+        assertTrue(executed.isEmpty());
+        context.assertIsSatisfied();
+    }
+
+    public void testPostProcessorsPerEntry() throws Exception {
+        context.checking(new Expectations() {{
+            one(session).save(); will(saved());
+        }});
+
+        final List<String> processed = new ArrayList<String>();
+        final SlingPostProcessor processor = new SlingPostProcessor() {
+            public void process(SlingHttpServletRequest request,
+                    List<Modification> changes) {
+                processed.add(request.getResource().getPath() + " "
+                    + changes.size());
+                changes.add(Modification.onCreated(request.getResource().getPath() + "/created"));
+            }
+        };
+
+        final RecordingResponse response = runBatch("["
+            + "{ \"path\": \"a\" }, { \"path\": \"b\" } ]", processor);
+
+        assertTrue(response.isSuccessful());
+        assertEquals(Arrays.asList("/content/a 1", "/content/b 1"), processed);
+
+        // the changes of the entries and the processors are reported
+        assertEquals(Arrays.asList("/content/a", "/content/b"),
+            response.modified);
+        assertEquals(Arrays.asList("/content/a/created", "/content/b/created"),
+            response.created);
+        context.assertIsSatisfied();
+    }
+
+    public void testNullPropertyIsDeleted() throws Exception {
+        context.checking(new Expectations() {{
+            one(session).save(); will(saved());
+        }});
+
+        final RecordingResponse response = runBatch("["
+            + "{ \"path\": \"a\", \"properties\": { \"title\": null, \"text\": \"null\" } } ]");
+
+        assertTrue(response.isSuccessful());
+        final Map<String, String[]> parameters = modify.parameters.get(0);
+        assertFalse(parameters.containsKey("title"));
+        assertTrue(parameters.containsKey("title" + SlingPostConstants.SUFFIX_DELETE));
+        assertEquals("null", parameters.get("text")[0]);
+        context.assertIsSatisfied();
+    }
+
+    public void testNullValuesRejected() throws Exception {
+        context.checking(new Expectations() {{
+            never(session).save();
+            allowing(session).refresh(false);
+        }});
+
+        assertFalse(runBatch("[ { \"path\": null } ]").isSuccessful());
+        assertFalse(runBatch("[ { \"path\": \"a\", \"operation\": null } ]").isSuccessful());
+        assertFalse(runBatch("[ { \"path\": \"a\", \"properties\": { \"tags\": [ \"x\", null ] } } ]").isSuccessful());
+        assertTrue(executed.isEmpty());
+        context.assertIsSatisfied();
+    }
+
+    public void testMissingContent() throws Exception {
+        final RecordingResponse response = runBatch(null);
+        assertEquals(412, response.getStatusCode());
+        assertTrue(executed.isEmpty());
+    }
+
+    private Action saved() {
+        return new CustomAction("save") {
+            public Object invoke(Invocation invocation) {
+                pending = false;
+                return null;
+            }
+        };
+    }
+
+    private RecordingResponse runBatch(String content,
+            SlingPostProcessor... processors) {
+        final RecordingResponse response = new RecordingResponse();
+        batch.run(new BatchRequest(content), response, processors);
+        return response;
+    }
+
+    /**
+     * Operation recording the path and the parameters of the entries and
+     * failing entries with a "fail" parameter.
+     */
+    private class RecordingOperation extends AbstractPostOperation {
+
+        private final String name;
+
+        final List<Map<String, String[]>> parameters = new ArrayList<Map<String, String[]>>();
+
+        RecordingOperation(String name) {
+            this.name = name;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void doRun(SlingHttpServletRequest request,
+                PostResponse response, List<Modification> changes)
+                throws RepositoryException {
+            final String path = request.getResource().getPath();
+            executed.add(name + " " + path);
+            pending = true;
+            parameters.add(new HashMap<String, String[]>(
+                request.getParameterMap()));
+            if (request.getParameter("fail") != null) {
+                throw new RepositoryException("Failing " + path);
+            }
+            changes.add(Modification.onModified(path));
+        }
+    }
+
+    /**
+     * Batch request for /content with the content parameter.
+     */
+    private class BatchRequest extends MockSlingHttpServletRequest {
+
+        private final String content;
+
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        BatchRequest(String content) {
+            super("/content", null, null, null, null);
+            this.content = content;
+            requests++;
+            setResourceResolver(resolver);
+            setResource(resolver.getResource("/content"));
+        }
+
+        @Override
+        public RequestParameter getRequestParameter(String name) {
+            if (content != null && SlingPostConstants.RP_CONTENT.equals(name)) {
+                final RequestParameter parameter = context.mock(
+                    RequestParameter.class, "content" + requests);
+                context.checking(new Expectations() {{
+                    allowing(parameter).getString(); will(returnValue(content));
+                }});
+                return parameter;
+            }
+            return null;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            attributes.remove(name);
+        }
+    }
+
+    /**
+     * Response recording the entries and the changes of the batch.
+     */
+    private static class RecordingResponse extends HtmlResponse {
+
+        final List<String> entries = new ArrayList<String>();
+
+        final List<String> modified = new ArrayList<String>();
+
+        final List<String> created = new ArrayList<String>();
+
+        final List<String> checkouts = new ArrayList<String>();
+
+        @Override
+        public void onChange(String type, String... arguments) {
+            if ("entry".equals(type)) {
+                // index, path and status code
+                entries.add(arguments[0] + " " + arguments[1] + " "
+                    + arguments[2]);
+            } else if ("modified".equals(type)) {
+                modified.add(arguments[0]);
+            } else if ("created".equals(type)) {
+                created.add(arguments[0]);
+            } else if ("checkout".equals(type)) {
+                checkouts.add(arguments[0]);
+            }
+            super.onChange(type, arguments);
+        }
+    }
+}
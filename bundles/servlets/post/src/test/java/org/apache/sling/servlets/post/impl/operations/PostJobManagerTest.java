@@ -0,0 +1,426 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.post.impl.operations;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import javax.jcr.Item;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.testing.jcr.RepositoryTestBase;
+import org.apache.sling.commons.testing.jcr.RepositoryUtil;
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockResourceResolver;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+import org.apache.sling.servlets.post.HtmlResponse;
+import org.apache.sling.servlets.post.PostOperation;
+import org.apache.sling.servlets.post.SlingPostConstants;
+import org.apache.sling.servlets.post.VersioningConfiguration;
+
+public class PostJobManagerTest extends RepositoryTestBase {
+
+    private static final String NODE_TYPES = "<posttest='http://sling.apache.org/jcr/post/test'>\n"
+        + "[posttest:pair]\n"
+        + "  + a (nt:unstructured)\n"
+        + "  + b (nt:unstructured) mandatory\n";
+
+    private PostJobManager jobManager;
+
+    /** The resolvers of the jobs */
+    private final List<JobResolver> jobResolvers = new ArrayList<JobResolver>();
+
+    private String root;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        jobManager = new PostJobManager();
+        jobManager.setSaveBatchSize(7);
+
+        // 40 nodes
+        createTree(getTestRootNode(), "src", 3);
+        getSession().save();
+        root = getTestRootNode().getPath();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        jobManager.shutdown();
+        getTestRootNode().remove();
+        getSession().save();
+        super.tearDown();
+    }
+
+    public void testDeleteJob() throws Exception {
+        final DeleteOperation delete = new DeleteOperation();
+        delete.setJobManager(jobManager);
+
+        final PostJob job = awaitJob(run(delete, root + "/src", null));
+
+        assertEquals(PostJob.State.SUCCEEDED, job.getState());
+        assertEquals(40, job.getProcessed());
+        assertFalse(getSession().itemExists(root + "/src"));
+        assertJobResolversClosed();
+    }
+
+    public void testCopyJob() throws Exception {
+        final CopyOperation copy = new CopyOperation();
+        copy.setJobManager(jobManager);
+
+        final PostJob job = awaitJob(run(copy, root + "/src", root + "/dst"));
+
+        assertEquals(PostJob.State.SUCCEEDED, job.getState());
+        assertEquals(40, job.getProcessed());
+        assertEquals(40, count((Node) getSession().getItem(root + "/dst")));
+        assertEquals(40, count((Node) getSession().getItem(root + "/src")));
+        assertJobResolversClosed();
+    }
+
+    public void testCopyJobWithMandatoryChildNodes() throws Exception {
+        RepositoryUtil.registerNodeType(getSession(),
+            new ByteArrayInputStream(NODE_TYPES.getBytes("UTF-8")));
+        final Node pair = getTestRootNode().addNode("pair", "posttest:pair");
+        createTree(pair, "a", 2);
+        pair.addNode("b", "nt:unstructured");
+        getSession().save();
+
+        // saving after each node would save the copy of "a" without "b"
+        jobManager.setSaveBatchSize(1);
+        final CopyOperation copy = new CopyOperation();
+        copy.setJobManager(jobManager);
+
+        final PostJob job = awaitJob(run(copy, root + "/pair", root + "/pair2"));
+
+        assertEquals(job.getError(), PostJob.State.SUCCEEDED, job.getState());
+        assertEquals(15, count((Node) getSession().getItem(root + "/pair2")));
+    }
+
+    public void testMoveJob() throws Exception {
+        final MoveOperation move = new MoveOperation();
+        move.setJobManager(jobManager);
+
+        final PostJob job = awaitJob(run(move, root + "/src", root + "/moved"));
+
+        assertEquals(PostJob.State.SUCCEEDED, job.getState());
+        assertFalse(getSession().itemExists(root + "/src"));
+        assertEquals(40, count((Node) getSession().getItem(root + "/moved")));
+        assertJobResolversClosed();
+    }
+
+    public void testJobStatus() throws Exception {
+        final DeleteOperation delete = new DeleteOperation();
+        delete.setJobManager(jobManager);
+        final PostJob job = awaitJob(run(delete, root + "/src", null));
+
+        final JobStatusOperation status = new JobStatusOperation(jobManager);
+        HtmlResponse response = status(status, job.getId());
+        assertEquals(200, response.getStatusCode());
+        assertEquals(root + "/src", response.getPath());
+
+        response = status(status, "unknown");
+        assertEquals(404, response.getStatusCode());
+
+        // only the user submitting the job may poll it
+        response = status(status, job.getId(), "other");
+        assertEquals(404, response.getStatusCode());
+        assertNull(response.getPath());
+    }
+
+    public void testQueueIsBounded() throws Exception {
+        jobManager.shutdown();
+        jobManager = new PostJobManager(1);
+
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final PostJobManager.Task blocking = new PostJobManager.Task() {
+            public void execute(Session session, PostJob job)
+                    throws RepositoryException {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    throw new RepositoryException("Interrupted");
+                }
+            }
+        };
+        final PostJob first = jobManager.submit("test", root,
+            new JobResolver(getSession()), new VersioningConfiguration(),
+            blocking);
+        running.await();
+        final PostJob queued = jobManager.submit("test", root,
+            new JobResolver(getSession()), new VersioningConfiguration(),
+            blocking);
+        final int cloned = jobResolvers.size();
+
+        // the rejected job does not hold a session
+        assertNull(jobManager.submit("test", root,
+            new JobResolver(getSession()), new VersioningConfiguration(),
+            blocking));
+        assertEquals(cloned, jobResolvers.size());
+
+        final HtmlResponse response = new HtmlResponse();
+        final DeleteOperation delete = new DeleteOperation();
+        delete.setJobManager(jobManager);
+        final Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put(SlingPostConstants.RP_ASYNC, "true");
+        delete.run(new JobRequest(root + "/src", parameters), response, null);
+        assertEquals(503, response.getStatusCode());
+
+        release.countDown();
+        assertEquals(PostJob.State.SUCCEEDED, awaitJob(first).getState());
+        assertEquals(PostJob.State.SUCCEEDED, awaitJob(queued).getState());
+        assertTrue(getSession().itemExists(root + "/src"));
+    }
+
+    public void testFailedJob() throws Exception {
+        final PostJob job = awaitJob(jobManager.submit("test", root,
+            new JobResolver(getSession()), new VersioningConfiguration(),
+            new PostJobManager.Task() {
+                public void execute(Session session, PostJob job)
+                        throws RepositoryException {
+                    session.getRootNode().addNode("failed");
+                    throw new RepositoryException("Failing job");
+                }
+            }));
+
+        assertEquals(PostJob.State.FAILED, job.getState());
+        assertTrue(job.getError(), job.getError().contains("Failing job"));
+        assertFalse(getSession().itemExists("/failed"));
+        assertJobResolversClosed();
+
+        final HtmlResponse response = status(new JobStatusOperation(
+            jobManager), job.getId());
+        assertEquals(500, response.getStatusCode());
+    }
+
+    public void testShutdownClosesQueuedJobs() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final PostJobManager.Task blocking = new PostJobManager.Task() {
+            public void execute(Session session, PostJob job)
+                    throws RepositoryException {
+                running.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException ie) {
+                    throw new RepositoryException("Interrupted");
+                }
+            }
+        };
+        final PostJob first = jobManager.submit("test", root,
+            new JobResolver(getSession()), new VersioningConfiguration(),
+            blocking);
+        jobManager.submit("test", root, new JobResolver(getSession()),
+            new VersioningConfiguration(), blocking);
+        running.await();
+
+        jobManager.shutdown();
+
+        awaitJob(first);
+        assertJobResolversClosed();
+    }
+
+    private String run(PostOperation operation, String path, String dest)
+            throws Exception {
+        final Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put(SlingPostConstants.RP_ASYNC, "true");
+        if (dest != null) {
+            parameters.put(SlingPostConstants.RP_DEST, dest);
+        }
+        final List<String> jobIds = new ArrayList<String>();
+        final HtmlResponse response = new HtmlResponse() {
+            @Override
+            public void onChange(String type, String... arguments) {
+                if ("job".equals(type)) {
+                    jobIds.add(arguments[0]);
+                }
+                super.onChange(type, arguments);
+            }
+        };
+        operation.run(new JobRequest(path, parameters), response, null);
+
+        assertEquals(response.getStatusMessage(), 202,
+            response.getStatusCode());
+        assertEquals(1, jobIds.size());
+        return jobIds.get(0);
+    }
+
+    private HtmlResponse status(JobStatusOperation status, String id)
+            throws Exception {
+        return status(status, id, getSession().getUserID());
+    }
+
+    private HtmlResponse status(JobStatusOperation status, String id,
+            String userId) throws Exception {
+        final Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put(SlingPostConstants.RP_JOB, id);
+        final HtmlResponse response = new HtmlResponse();
+        final JobRequest request = new JobRequest(root, parameters);
+        ((JobResolver) request.getResourceResolver()).userId = userId;
+        status.run(request, response, null);
+        return response;
+    }
+
+    private PostJob awaitJob(String id) throws Exception {
+        return awaitJob(jobManager.getJob(id));
+    }
+
+    private PostJob awaitJob(PostJob job) throws Exception {
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (job.getState() == PostJob.State.QUEUED
+            || job.getState() == PostJob.State.RUNNING) {
+            assertTrue("Timeout waiting for job " + job.getId(),
+                System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+        getSession().refresh(false);
+        return job;
+    }
+
+    private void assertJobResolversClosed() throws InterruptedException {
+        // the job thread closes the resolver after finishing the job
+        final long timeout = System.currentTimeMillis() + 10000;
+        for (JobResolver resolver : jobResolvers) {
+            while (!resolver.closed) {
+                assertTrue("Timeout waiting for the job resolver to close",
+                    System.currentTimeMillis() < timeout);
+                Thread.sleep(10);
+            }
+        }
+        assertFalse(jobResolvers.isEmpty());
+    }
+
+    private static void createTree(Node parent, String name, int depth)
+            throws RepositoryException {
+        final Node node = parent.addNode(name, "nt:unstructured");
+        if (depth > 0) {
+            for (int i = 0; i < 3; i++) {
+                createTree(node, "n" + i, depth - 1);
+            }
+        }
+    }
+
+    private static int count(Node node) throws RepositoryException {
+        int count = 1;
+        for (NodeIterator i = node.getNodes(); i.hasNext();) {
+            count += count(i.nextNode());
+        }
+        return count;
+    }
+
+    /**
+     * Resolver of a session, whose clones log in a new session like the
+     * resolvers of requests.
+     */
+    private class JobResolver extends MockResourceResolver {
+
+        private final Session session;
+
+        String userId;
+
+        volatile boolean closed;
+
+        JobResolver(Session session) {
+            this.session = session;
+            this.userId = session.getUserID();
+        }
+
+        @Override
+        public String getUserID() {
+            return userId;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+            if (type == Session.class) {
+                return (AdapterType) session;
+            }
+            return super.adaptTo(type);
+        }
+
+        @Override
+        public ResourceResolver clone(Map<String, Object> authenticationInfo)
+                throws LoginException {
+            try {
+                final JobResolver clone = new JobResolver(
+                    getRepository().loginAdministrative(null));
+                jobResolvers.add(clone);
+                return clone;
+            } catch (Exception e) {
+                throw new LoginException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            session.logout();
+            closed = true;
+        }
+    }
+
+    /**
+     * Request for an item with the parameters.
+     */
+    private class JobRequest extends MockSlingHttpServletRequest {
+
+        private final Map<String, String> parameters;
+
+        JobRequest(final String path, Map<String, String> parameters)
+                throws Exception {
+            super(path, null, null, null, null);
+            this.parameters = parameters;
+            final Session session = PostJobManagerTest.this.getSession();
+            final JobResolver resolver = new JobResolver(session);
+            setResourceResolver(resolver);
+            setResource(new MockResource(resolver, path, "item") {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+                    if (type == Item.class) {
+                        try {
+                            return (AdapterType) session.getItem(path);
+                        } catch (Exception e) {
+                            return null;
+                        }
+                    }
+                    return super.adaptTo(type);
+                }
+            });
+        }
+
+        @Override
+        public String getParameter(String name) {
+            return parameters.get(name);
+        }
+
+        @Override
+        public String[] getParameterValues(String name) {
+            final String value = parameters.get(name);
+            return (value == null) ? null : new String[] { value };
+        }
+    }
+}